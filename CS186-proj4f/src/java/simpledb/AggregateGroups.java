@@ -0,0 +1,100 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The groups of an aggregation, each with its SQLAggregates. Looking up the
+ * group of a tuple reads the group-by value with the tuple's typed getters,
+ * and int groups are kept in an IntHashMap keyed by the int itself, so
+ * neither an IntField nor an Integer is built per tuple. String values from
+ * a dictionary encoded column (DictFields) are grouped by their codes the
+ * same way.
+ */
+class AggregateGroups {
+
+    private final int gbfield;
+    private final Type gbfieldtype;
+
+    private SQLAggregates only; //the single group when there is no grouping
+
+    private IntHashMap<SQLAggregates> intGroups = new IntHashMap<SQLAggregates>();
+
+    //string groups: by code in codeDict, for DictFields of it; by value for everything else
+    private StringDictionary codeDict;
+    private IntHashMap<SQLAggregates> codeGroups = new IntHashMap<SQLAggregates>();
+    private HashMap<String, SQLAggregates> stringGroups = new HashMap<String, SQLAggregates>();
+
+    private ArrayList<SQLAggregates> all = new ArrayList<SQLAggregates>(); //in the order first seen
+
+    /**
+     * @param gbfield the group-by field, or Aggregator.NO_GROUPING
+     * @param gbfieldtype its type, or null if there is no grouping
+     */
+    AggregateGroups(int gbfield, Type gbfieldtype) {
+        this.gbfield = gbfield;
+        this.gbfieldtype = gbfieldtype;
+    }
+
+    /** @return the aggregates of tup's group, created if it is the first of it */
+    SQLAggregates lookup(Tuple tup) {
+        if (gbfield == Aggregator.NO_GROUPING) {
+            if (only == null) only = add(null);
+            return only;
+        }
+        if (gbfieldtype == Type.INT_TYPE) {
+            int key = tup.getInt(gbfield);
+            SQLAggregates sag = intGroups.get(key);
+            if (sag == null) {
+                sag = add(new IntField(key));
+                intGroups.put(key, sag);
+            }
+            return sag;
+        }
+        Field f = tup.getDecodedField(gbfield);
+        if (f instanceof DictField && ((DictField) f).getDictionary() != null
+                && (codeDict == null || ((DictField) f).getDictionary() == codeDict)) {
+            codeDict = ((DictField) f).getDictionary();
+            return lookupCode((DictField) f);
+        }
+        return lookupString(tup.getString(gbfield));
+    }
+
+    /**
+     * Each value has one group, whichever way it arrives: a new code takes
+     * over the group of its value if it was seen as a plain string first,
+     * and a new string that codeDict has a code for goes to that code's
+     * group.
+     */
+    private SQLAggregates lookupCode(DictField f) {
+        SQLAggregates sag = codeGroups.get(f.getCode());
+        if (sag == null) {
+            sag = stringGroups.remove(f.getValue());
+            if (sag == null) sag = add(f);
+            codeGroups.put(f.getCode(), sag);
+        }
+        return sag;
+    }
+
+    private SQLAggregates lookupString(String s) {
+        SQLAggregates sag = stringGroups.get(s);
+        if (sag != null) return sag;
+        if (codeDict != null) {
+            int code = codeDict.lookup(s);
+            if (code >= 0) return lookupCode(codeDict.get(code));
+        }
+        sag = add(new StringField(s, Type.STRING_LEN));
+        stringGroups.put(s, sag);
+        return sag;
+    }
+
+    private SQLAggregates add(Field groupVal) {
+        SQLAggregates sag = new SQLAggregates(groupVal);
+        all.add(sag);
+        return sag;
+    }
+
+    /** @return every group, in the order they were first seen */
+    List<SQLAggregates> all() {
+        return all;
+    }
+}
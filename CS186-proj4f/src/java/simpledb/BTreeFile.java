@@ -0,0 +1,602 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * BTreeFile is a B+ tree index on one field of a table, stored in a file of
+ * its own. Page 0 is a BTreeRootPage naming the root; the tree is made of
+ * BTreeInternalPages above a chain of BTreeLeafPages, which hold the
+ * entries in (key, RecordId) order.
+ * <p>
+ * Searches take READ_ONLY locks on the pages on their way down. An insert
+ * takes the leaf it lands on READ_WRITE; when the leaf is full it is split,
+ * and the pages above it are locked READ_WRITE only as the split reaches
+ * them (a split of the root also locks page 0). New pages are appended to
+ * the file. Deletes just remove the entry; leaves left empty stay in the
+ * chain and are filled again by later inserts.
+ * <p>
+ * A leaf that splits because a key was added at the end of the last leaf
+ * (an insert in key order) keeps all its entries and starts the new leaf
+ * with just the new one, so an index loaded in key order fills its pages.
+ * <p>
+ * An index built over a table that already has tuples is bulk loaded
+ * instead (see IndexBuilder and bulkLoad): its entries are sorted first and
+ * the tree is written bottom-up, with pages filled to a fill factor.
+ * <p>
+ * Entries may carry copies of other fields of the table after the key
+ * (included fields), so that queries using only those fields can be
+ * answered from the index alone (see IndexOnlyScan).
+ *
+ * @see IndexScan
+ */
+public class BTreeFile implements IndexFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /** How full bulkLoad makes pages by default, in percent: room for some inserts before pages split. */
+    public static final int DEFAULT_FILL_FACTOR = 90;
+
+    private final File file;
+    private final int tableId;
+    private final int keyField;
+    private final int[] included;
+    private final TupleDesc td;
+    private final int pageSize;
+
+    private transient RandomAccessFile raf; //opened lazily and kept open until close()
+
+    /**
+     * Opens the index on field keyField of the table with the given id,
+     * stored in f, or creates an empty one if f is empty or missing. The
+     * table must be in the catalog.
+     */
+    public BTreeFile(File f, int tableId, int keyField) {
+        this(f, tableId, keyField, new int[0], BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Opens or creates the index, with pageSize byte pages.
+     */
+    public BTreeFile(File f, int tableId, int keyField, int pageSize) {
+        this(f, tableId, keyField, new int[0], pageSize);
+    }
+
+    /**
+     * Opens or creates the index, with the given fields of the table
+     * included in its entries after the key. An existing index must be
+     * opened with the fields it was created with.
+     */
+    public BTreeFile(File f, int tableId, int keyField, int[] included) {
+        this(f, tableId, keyField, included, BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Opens or creates the index, with included fields and pageSize byte
+     * pages.
+     */
+    public BTreeFile(File f, int tableId, int keyField, int[] included, int pageSize) {
+        this.file = f;
+        this.tableId = tableId;
+        this.keyField = keyField;
+        this.included = included.clone();
+        this.pageSize = pageSize;
+        this.td = entryDesc(Database.getCatalog().getTupleDesc(tableId), keyField, included);
+        if (f.length() == 0) {
+            try {
+                writeData(0, BTreeRootPage.createPageData(1, 1, pageSize));
+                writeData(1, BTreeLeafPage.createEmptyPageData(-1, pageSize));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /** @return the file backing this index */
+    public File getFile() {
+        return file;
+    }
+
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    /**
+     * @return the TupleDesc of the entries of an index on field keyField of
+     *         a table with TupleDesc tableTd: the key, then the included
+     *         fields, named as in the table
+     */
+    static TupleDesc entryDesc(TupleDesc tableTd, int keyField, int[] included) {
+        Type[] types = new Type[1 + included.length];
+        String[] names = new String[1 + included.length];
+        types[0] = tableTd.getFieldType(keyField);
+        names[0] = tableTd.getFieldName(keyField);
+        for (int i = 0; i < included.length; i++) {
+            types[1 + i] = tableTd.getFieldType(included[i]);
+            names[1 + i] = tableTd.getFieldName(included[i]);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    /**
+     * @return the index entry for t, a tuple of the indexed table: its key
+     *         and included fields, with t's RecordId
+     */
+    static Tuple entryFor(Tuple t, TupleDesc td, int keyField, int[] included) throws DbException {
+        if (t == null || t.getRecordId() == null)
+            throw new DbException("Only tuples stored in the table can be indexed");
+        Tuple entry = new Tuple(td);
+        entry.setField(0, t.getField(keyField));
+        for (int i = 0; i < included.length; i++) entry.setField(1 + i, t.getField(included[i]));
+        entry.setRecordId(t.getRecordId());
+        return entry;
+    }
+
+    /** @return the TupleDesc of the index's entries: the key and included fields */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public int getTableId() {
+        return tableId;
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    public int[] getIncludedFields() {
+        return included.clone();
+    }
+
+    // see DbFile.java for javadocs
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /** @return true: every tuple of the table has its entry */
+    public boolean isUsable() {
+        return true;
+    }
+
+    public boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.LIKE && op != Predicate.Op.NOT_EQUALS;
+    }
+
+    /** @return page 0 and one page per level of the tree */
+    public int lookupPages() {
+        return 1 + getHeight();
+    }
+
+    /** @return the number of pages in the file */
+    public int numPages() {
+        return (int) ((file.length() + pageSize - 1) / pageSize);
+    }
+
+    /**
+     * @return the number of levels of the tree, as of the last commit
+     */
+    public int getHeight() {
+        BTreeRootPage root = (BTreeRootPage) readPage(new BTreePageId(getId(), 0));
+        return (root == null) ? 1 : root.getHeight();
+    }
+
+    private synchronized FileChannel getChannel() throws IOException {
+        if (raf == null || !raf.getChannel().isOpen()) raf = new RandomAccessFile(file, "rw");
+        return raf.getChannel();
+    }
+
+    /**
+     * Closes the index file; a later page access reopens it.
+     */
+    public synchronized void close() {
+        if (raf == null) return;
+        try {
+            raf.close();
+        } catch (IOException bad) {
+            bad.printStackTrace();
+        }
+        raf = null;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        BTreePageId bpid = (BTreePageId) pid;
+        byte[] data = new byte[pageSize];
+        try {
+            FileChannel fc = getChannel();
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            long offset = (long) bpid.pageNumber() * pageSize;
+            while (buf.hasRemaining()) {
+                if (fc.read(buf, offset + buf.position()) < 0) break;
+            }
+            switch (BTreePage.pageType(data)) {
+            case BTreePage.ROOT: return new BTreeRootPage(bpid, data);
+            case BTreePage.INTERNAL: return new BTreeInternalPage(bpid, data);
+            case BTreePage.LEAF: return new BTreeLeafPage(bpid, data);
+            default:
+                System.out.println("Bad index page " + bpid.pageNumber() + " in " + file);
+                return null;
+            }
+        }
+        catch (IOException bad) {
+            System.out.println("Index read failure");
+            return null;
+        }
+    }
+
+    private void writeData(int pgNo, byte[] data) throws IOException {
+        FileChannel fc = getChannel();
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        long offset = (long) pgNo * pageSize;
+        while (buf.hasRemaining()) {
+            fc.write(buf, offset + buf.position());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writeData(page.getId().pageNumber(), page.getPageData());
+    }
+
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+        for (Page page : pages) writePage(page);
+    }
+
+    /** @return the RecordId of slot slot of page pgNo of the indexed table */
+    RecordId baseRecordId(int pgNo, int slot) {
+        return new RecordId(new HeapPageId(tableId, pgNo), slot);
+    }
+
+    /**
+     * Orders index entries: by key, then by the RecordId of the tuple. A
+     * null RecordId sorts before every other.
+     */
+    static int compare(Field key1, RecordId rid1, Field key2, RecordId rid2) {
+        if (key1.compare(Predicate.Op.LESS_THAN, key2)) return -1;
+        if (key1.compare(Predicate.Op.GREATER_THAN, key2)) return 1;
+        if (rid1 == null || rid2 == null) return (rid1 == null ? 0 : 1) - (rid2 == null ? 0 : 1);
+        int c = rid1.getPageId().pageNumber() - rid2.getPageId().pageNumber();
+        return (c != 0) ? c : rid1.tupleno() - rid2.tupleno();
+    }
+
+    /** @return the index entry for t, a tuple of the indexed table */
+    Tuple entryFor(Tuple t) throws DbException {
+        return entryFor(t, td, keyField, included);
+    }
+
+    private BTreePage page(TransactionId tid, int pgNo, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (BTreePage) Database.getBufferPool().getPage(tid, new BTreePageId(getId(), pgNo), perm);
+    }
+
+    /** Appends a page with the given contents and locks it READ_WRITE. */
+    private BTreePage newPage(TransactionId tid, byte[] data)
+            throws DbException, IOException, TransactionAbortedException {
+        int pgNo;
+        synchronized (this) {
+            pgNo = numPages();
+            writeData(pgNo, data);
+        }
+        return page(tid, pgNo, Permissions.READ_WRITE);
+    }
+
+    /**
+     * Walks down to the leaf (key, rid) belongs in, locking the pages on
+     * the way READ_ONLY, and the leaf with perm. A null key leads to the
+     * first leaf.
+     *
+     * @param path if not null, gets the internal pages passed, root first
+     */
+    private BTreeLeafPage findLeaf(TransactionId tid, Field key, RecordId rid, Permissions perm,
+            ArrayList<BTreeInternalPage> path) throws DbException, TransactionAbortedException {
+        BTreeRootPage rootPage = (BTreeRootPage) page(tid, 0, Permissions.READ_ONLY);
+        int pgNo = rootPage.getRoot();
+        for (int level = rootPage.getHeight(); level > 1; level--) {
+            BTreeInternalPage node = (BTreeInternalPage) page(tid, pgNo, Permissions.READ_ONLY);
+            if (path != null) path.add(node);
+            pgNo = node.getChild((key == null) ? 0 : node.findChild(key, rid));
+        }
+        return (BTreeLeafPage) page(tid, pgNo, perm);
+    }
+
+    /**
+     * Adds the entry for t, a tuple of the indexed table that has been
+     * given its RecordId.
+     *
+     * @return the pages changed: the leaf, and any pages a split made or
+     *         changed
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Tuple entry = entryFor(t);
+        Field key = entry.getField(0);
+        RecordId rid = entry.getRecordId();
+        ArrayList<Page> dirtyPages = new ArrayList<Page>();
+
+        ArrayList<BTreeInternalPage> path = new ArrayList<BTreeInternalPage>();
+        BTreeLeafPage leaf = findLeaf(tid, key, rid, Permissions.READ_WRITE, path);
+        boolean split = leaf.isFull();
+        int pos = leaf.findPosition(key, rid);
+        leaf.insertEntry(pos, entry);
+        dirtyPages.add(leaf);
+        if (!split) return dirtyPages;
+
+        BTreeLeafPage right = (BTreeLeafPage) newPage(tid, BTreeLeafPage.createEmptyPageData(-1, pageSize));
+        boolean appending = (pos == leaf.getNumEntries() - 1 && leaf.getNext() == -1);
+        leaf.splitInto(right, appending ? pos : leaf.getNumEntries() / 2);
+        dirtyPages.add(right);
+        Tuple first = right.getEntry(0);
+        insertSeparator(tid, path, first.getField(0), first.getRecordId(),
+                leaf.getId().pageNumber(), right.getId().pageNumber(), dirtyPages);
+        return dirtyPages;
+    }
+
+    /**
+     * Adds a separator between pages left and right, which a split just
+     * made out of one, to the parent at the end of path, splitting it in
+     * turn if it is full; a split of the root makes a new root.
+     */
+    private void insertSeparator(TransactionId tid, ArrayList<BTreeInternalPage> path, Field key, RecordId rid,
+            int left, int right, ArrayList<Page> dirtyPages)
+            throws DbException, IOException, TransactionAbortedException {
+        while (!path.isEmpty()) {
+            int pgNo = path.remove(path.size() - 1).getId().pageNumber();
+            BTreeInternalPage parent = (BTreeInternalPage) page(tid, pgNo, Permissions.READ_WRITE);
+            boolean split = parent.isFull();
+            parent.insertKey(parent.findChild(key, rid), key, rid, right);
+            dirtyPages.add(parent);
+            if (!split) return;
+
+            BTreeInternalPage sibling = (BTreeInternalPage) newPage(tid,
+                    BTreeInternalPage.createEmptyPageData(-1, pageSize));
+            parent.splitInto(sibling);
+            key = parent.getKey(parent.getNumKeys() - 1);
+            rid = parent.getRecordId(parent.getNumKeys() - 1);
+            parent.removeLastKey();
+            dirtyPages.add(sibling);
+            left = pgNo;
+            right = sibling.getId().pageNumber();
+        }
+
+        BTreeRootPage rootPage = (BTreeRootPage) page(tid, 0, Permissions.READ_WRITE);
+        BTreeInternalPage root = (BTreeInternalPage) newPage(tid,
+                BTreeInternalPage.createEmptyPageData(left, pageSize));
+        root.insertKey(0, key, rid, right);
+        rootPage.setRoot(root.getId().pageNumber(), rootPage.getHeight() + 1);
+        dirtyPages.add(root);
+        dirtyPages.add(rootPage);
+    }
+
+    /**
+     * Removes the entry for t, a tuple of the indexed table.
+     *
+     * @return the leaf the entry was removed from
+     * @throws DbException if the index has no entry for t
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        Tuple entry = entryFor(t);
+        Field key = entry.getField(0);
+        RecordId rid = entry.getRecordId();
+        BTreeLeafPage leaf = findLeaf(tid, key, rid, Permissions.READ_WRITE, null);
+        int pos = leaf.findPosition(key, rid);
+        if (pos == leaf.getNumEntries()
+                || compare(leaf.getEntry(pos).getField(0), leaf.getEntry(pos).getRecordId(), key, rid) != 0)
+            throw new DbException("Tuple not in index!");
+        leaf.deleteEntry(pos);
+        return leaf;
+    }
+
+    /** @return true if the index has no entries and has never split: its root is still the first leaf */
+    boolean isEmpty() {
+        if (numPages() != 2) return false;
+        BTreeRootPage root = (BTreeRootPage) readPage(new BTreePageId(getId(), 0));
+        BTreeLeafPage leaf = (BTreeLeafPage) readPage(new BTreePageId(getId(), 1));
+        return root != null && root.getHeight() == 1 && leaf != null && leaf.getNumEntries() == 0;
+    }
+
+    /**
+     * Builds the tree bottom-up from entries given in (key, RecordId)
+     * order, writing its pages straight to the file: each leaf and
+     * internal page is filled to fillFactor percent of what it holds, then
+     * a new one is started. A page is numbered when it is started and
+     * written when it is done, so only one page per level is in memory at
+     * once. Page 0 is written last and the file forced.
+     * <p>
+     * The index must be empty (see isEmpty), and the caller must keep
+     * anyone else from reading or changing it meanwhile -- holding page 0
+     * READ_WRITE is enough, since every search and insert starts there --
+     * and discard from the BufferPool the copies of pages 0 and 1 it may
+     * hold.
+     *
+     * @param entries the entries, with the index's TupleDesc and the
+     *        RecordIds of the tuples they are for, sorted as compare orders
+     *        them
+     * @param fillFactor how full to make the pages, in percent (10 to 100)
+     * @return the number of entries loaded
+     * @throws DbException if the entries are out of order; the index is
+     *         left empty, as it is after any failure
+     */
+    long bulkLoad(Iterator<Tuple> entries, int fillFactor) throws DbException, IOException {
+        if (fillFactor < 10 || fillFactor > 100)
+            throw new IllegalArgumentException("The fill factor must be between 10 and 100 percent");
+        boolean done = false;
+        try {
+            long loaded = fill(entries, fillFactor);
+            done = true;
+            return loaded;
+        } finally {
+            if (!done) {
+                //back to an empty tree
+                getChannel().truncate(2L * pageSize);
+                writeData(0, BTreeRootPage.createPageData(1, 1, pageSize));
+                writeData(1, BTreeLeafPage.createEmptyPageData(-1, pageSize));
+            }
+        }
+    }
+
+    private long fill(Iterator<Tuple> entries, int fillFactor) throws DbException, IOException {
+        int leafFill = Math.max(1, BTreeLeafPage.getMaxEntries(td, pageSize) * fillFactor / 100);
+        int keyFill = Math.max(1, BTreeInternalPage.getMaxKeys(td.getFieldType(0), pageSize) * fillFactor / 100);
+
+        int nextPgNo = 1;
+        BTreeLeafPage leaf = new BTreeLeafPage(new BTreePageId(getId(), nextPgNo++),
+                BTreeLeafPage.createEmptyPageData(-1, pageSize));
+        ArrayList<BTreeInternalPage> levels = new ArrayList<BTreeInternalPage>(); //the page being filled on each level above the leaves
+        long loaded = 0;
+        Tuple last = null;
+        while (entries.hasNext()) {
+            Tuple e = entries.next();
+            if (last != null && compare(last.getField(0), last.getRecordId(), e.getField(0), e.getRecordId()) >= 0)
+                throw new DbException("Bulk load entries are not in order");
+            if (leaf.getNumEntries() == leafFill) {
+                BTreeLeafPage next = new BTreeLeafPage(new BTreePageId(getId(), nextPgNo++),
+                        BTreeLeafPage.createEmptyPageData(-1, pageSize));
+                leaf.setNext(next.getId().pageNumber());
+                writePage(leaf);
+                //the new leaf's first entry separates it from the one before
+                int pgNo = next.getId().pageNumber();
+                int left = leaf.getId().pageNumber(); //the page just finished on the level below
+                Field key = e.getField(0);
+                RecordId rid = e.getRecordId();
+                for (int level = 0; pgNo >= 0; level++) {
+                    if (level == levels.size()) {
+                        levels.add(new BTreeInternalPage(new BTreePageId(getId(), nextPgNo++),
+                                BTreeInternalPage.createEmptyPageData(left, pageSize)));
+                    }
+                    BTreeInternalPage node = levels.get(level);
+                    if (node.getNumKeys() < keyFill) {
+                        node.insertKey(node.getNumKeys(), key, rid, pgNo);
+                        pgNo = -1;
+                    } else {
+                        //start a new page with pgNo as its first child; the separator goes up with it
+                        writePage(node);
+                        left = node.getId().pageNumber();
+                        node = new BTreeInternalPage(new BTreePageId(getId(), nextPgNo++),
+                                BTreeInternalPage.createEmptyPageData(pgNo, pageSize));
+                        levels.set(level, node);
+                        pgNo = node.getId().pageNumber();
+                    }
+                }
+                leaf = next;
+            }
+            leaf.insertEntry(leaf.getNumEntries(), e);
+            last = e;
+            loaded++;
+        }
+        writePage(leaf);
+        for (BTreeInternalPage node : levels) writePage(node);
+        int root = levels.isEmpty() ? leaf.getId().pageNumber() : levels.get(levels.size() - 1).getId().pageNumber();
+        writeData(0, BTreeRootPage.createPageData(root, levels.size() + 1, pageSize));
+        getChannel().force(true);
+        return loaded;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return lookup(tid, new ArrayList<Predicate>());
+    }
+
+    // see IndexFile.java for javadocs
+    public DbFileIterator lookup(TransactionId tid, List<Predicate> preds) {
+        return new BTreeFileIterator(tid, preds);
+    }
+
+    /**
+     * Finds the first leaf that can hold the smallest key the predicates
+     * allow, and walks the leaf chain from there until a predicate that
+     * bounds the key from above fails.
+     */
+    private class BTreeFileIterator implements DbFileIterator {
+        final TransactionId tid;
+        final List<Predicate> preds;
+        final ArrayList<Predicate> upper = new ArrayList<Predicate>(); //stop at the first entry one fails
+        Field low; //smallest key allowed, or null
+
+        ArrayList<Tuple> entries; //of the current leaf, copied so the leaf may change under us
+        int pos;
+        int nextLeaf;
+        Tuple next;
+
+        BTreeFileIterator(TransactionId tid, List<Predicate> preds) {
+            this.tid = tid;
+            this.preds = new ArrayList<Predicate>(preds);
+            for (Predicate p : preds) {
+                if (p.getField() != 0) continue;
+                switch (p.getOp()) {
+                case EQUALS: //bounds the key from both sides
+                    upper.add(p);
+                    if (low == null || p.getOperand().compare(Predicate.Op.GREATER_THAN, low)) low = p.getOperand();
+                    break;
+                case GREATER_THAN:
+                case GREATER_THAN_OR_EQ:
+                    if (low == null || p.getOperand().compare(Predicate.Op.GREATER_THAN, low)) low = p.getOperand();
+                    break;
+                case LESS_THAN:
+                case LESS_THAN_OR_EQ:
+                    upper.add(p);
+                    break;
+                default:
+                    break;
+                }
+            }
+        }
+
+        private void load(BTreeLeafPage leaf, int from) {
+            entries = new ArrayList<Tuple>(leaf.getNumEntries() - from);
+            for (int i = from; i < leaf.getNumEntries(); i++) entries.add(leaf.getEntry(i));
+            pos = 0;
+            nextLeaf = leaf.getNext();
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            BTreeLeafPage leaf = findLeaf(tid, low, null, Permissions.READ_ONLY, null);
+            load(leaf, (low == null) ? 0 : leaf.findPosition(low, null));
+            next = null;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (entries == null) return false;
+            while (next == null) {
+                if (pos == entries.size()) {
+                    if (nextLeaf == -1) break;
+                    load((BTreeLeafPage) page(tid, nextLeaf, Permissions.READ_ONLY), 0);
+                    continue;
+                }
+                Tuple e = entries.get(pos++);
+                boolean past = false;
+                for (Predicate p : upper) past |= !p.filter(e);
+                if (past) {
+                    nextLeaf = -1;
+                    pos = entries.size();
+                    break;
+                }
+                boolean pass = true;
+                for (Predicate p : preds) pass &= p.filter(e);
+                if (pass) next = e;
+            }
+            return next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext()) throw new NoSuchElementException();
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            entries = null;
+            next = null;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * An internal node of a BTreeFile: n separators and n + 1 child pointers.
+ * A separator is a key with the RecordId of the entry it was copied from,
+ * so separators order exactly like leaf entries. Every entry under child i
+ * is less than separator i, and every entry under child i + 1 is at least
+ * separator i.
+ * <p>
+ * Layout: the type byte, the number of separators, the page number of
+ * child 0, then for each separator its key, the page number and slot of
+ * its RecordId, and the page number of the child to its right.
+ */
+public class BTreeInternalPage extends BTreePage {
+
+    private static final int ENTRIES_OFFSET = HEADER_SIZE + 4;
+
+    private final Type keyType;
+    private final ArrayList<Field> keys;
+    private final ArrayList<RecordId> rids;
+    private final ArrayList<Integer> children;
+
+    /**
+     * Create a BTreeInternalPage from bytes read from disk.
+     */
+    public BTreeInternalPage(BTreePageId id, byte[] data) throws IOException {
+        super(id, data);
+        this.keyType = file.getTupleDesc().getFieldType(0);
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int n = count(buf);
+        keys = new ArrayList<Field>(n + 1);
+        rids = new ArrayList<RecordId>(n + 1);
+        children = new ArrayList<Integer>(n + 2);
+        children.add(buf.getInt(HEADER_SIZE));
+        int offset = ENTRIES_OFFSET;
+        for (int i = 0; i < n; i++) {
+            keys.add(keyType.parse(buf, offset));
+            offset += keyType.getLen();
+            rids.add(file.baseRecordId(buf.getInt(offset), buf.getInt(offset + 4)));
+            children.add(buf.getInt(offset + 8));
+            offset += 12;
+        }
+    }
+
+    /** @return the number of separators on keyType keys a page holds */
+    static int getMaxKeys(Type keyType, int pageSize) {
+        return (pageSize - ENTRIES_OFFSET) / (keyType.getLen() + 12);
+    }
+
+    /** @return the bytes of a page with a single child and no separators */
+    static byte[] createEmptyPageData(int child, int pageSize) {
+        ByteBuffer buf = startPage(INTERNAL, 0, pageSize);
+        buf.putInt(child);
+        return buf.array();
+    }
+
+    public BTreeInternalPage getBeforeImage() {
+        try {
+            return new BTreeInternalPage(pid, beforeImageData());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public byte[] getPageData() {
+        ByteBuffer buf = startPage(INTERNAL, keys.size(), pageSize);
+        buf.putInt(children.get(0));
+        for (int i = 0; i < keys.size(); i++) {
+            putField(buf, keys.get(i));
+            buf.putInt(rids.get(i).getPageId().pageNumber());
+            buf.putInt(rids.get(i).tupleno());
+            buf.putInt(children.get(i + 1));
+        }
+        return buf.array();
+    }
+
+    /** @return the number of separators on this page */
+    public int getNumKeys() {
+        return keys.size();
+    }
+
+    /** @return true if the page cannot take another separator without splitting */
+    public boolean isFull() {
+        return keys.size() >= getMaxKeys(keyType, pageSize);
+    }
+
+    /** @return the page number of child i, 0 <= i <= getNumKeys() */
+    public int getChild(int i) {
+        return children.get(i);
+    }
+
+    /**
+     * @return the child whose subtree (key, rid) belongs in: the number of
+     *         separators not greater than it. A null rid sorts before every
+     *         RecordId, which leads to the leftmost leaf that may hold key.
+     */
+    public int findChild(Field key, RecordId rid) {
+        int lo = 0, hi = keys.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (BTreeFile.compare(keys.get(mid), rids.get(mid), key, rid) <= 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Adds a separator after child i, with the given page to its right.
+     * Like a leaf, the page may hold one separator too many until it is
+     * split.
+     */
+    void insertKey(int i, Field key, RecordId rid, int rightChild) {
+        captureBeforeImage();
+        keys.add(i, key);
+        rids.add(i, rid);
+        children.add(i + 1, rightChild);
+    }
+
+    /** @return separator i's key */
+    public Field getKey(int i) {
+        return keys.get(i);
+    }
+
+    /** @return separator i's RecordId */
+    public RecordId getRecordId(int i) {
+        return rids.get(i);
+    }
+
+    /**
+     * Moves the separators after the middle one, and the children to their
+     * right, to the (empty) page right. The middle separator is left as
+     * this page's last one, with no child to its right: the caller takes it
+     * off (removeLastKey) and pushes it up to the parent, with right to its
+     * right.
+     */
+    void splitInto(BTreeInternalPage right) {
+        captureBeforeImage();
+        right.captureBeforeImage();
+        int mid = keys.size() / 2;
+        right.children.clear();
+        right.keys.addAll(keys.subList(mid + 1, keys.size()));
+        right.rids.addAll(rids.subList(mid + 1, rids.size()));
+        right.children.addAll(children.subList(mid + 1, children.size()));
+        keys.subList(mid + 1, keys.size()).clear();
+        rids.subList(mid + 1, rids.size()).clear();
+        children.subList(mid + 1, children.size()).clear();
+    }
+
+    /** Drops the last separator, which splitInto left for the caller. */
+    void removeLastKey() {
+        keys.remove(keys.size() - 1);
+        rids.remove(rids.size() - 1);
+    }
+}
@@ -0,0 +1,152 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * A leaf of a BTreeFile. It holds index entries -- tuples with the index's
+ * TupleDesc (the key first) whose RecordId is the RecordId of the indexed
+ * tuple in its table -- sorted by key and then by RecordId, so that every
+ * entry is distinct even when keys repeat. Leaves are chained left to
+ * right, for range scans.
+ * <p>
+ * Layout: the type byte, the number of entries, the page number of the
+ * next leaf (-1 for the last one), then the entries, each stored as its
+ * fields followed by the page number and slot of its RecordId.
+ */
+public class BTreeLeafPage extends BTreePage {
+
+    private static final int NEXT_OFFSET = HEADER_SIZE;
+    private static final int ENTRIES_OFFSET = NEXT_OFFSET + 4;
+
+    private final TupleDesc td;
+    private final ArrayList<Tuple> entries;
+    private int next;
+
+    /**
+     * Create a BTreeLeafPage from bytes read from disk.
+     */
+    public BTreeLeafPage(BTreePageId id, byte[] data) throws IOException {
+        super(id, data);
+        this.td = file.getTupleDesc();
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int n = count(buf);
+        next = buf.getInt(NEXT_OFFSET);
+        entries = new ArrayList<Tuple>(n + 1);
+        int offset = ENTRIES_OFFSET;
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(td);
+            for (int f = 0; f < td.numFields(); f++) {
+                t.setField(f, td.getFieldType(f).parse(buf, offset));
+                offset += td.getFieldType(f).getLen();
+            }
+            t.setRecordId(file.baseRecordId(buf.getInt(offset), buf.getInt(offset + 4)));
+            offset += 8;
+            entries.add(t);
+        }
+    }
+
+    /** @return the number of entries of the given TupleDesc a leaf holds */
+    static int getMaxEntries(TupleDesc td, int pageSize) {
+        return (pageSize - ENTRIES_OFFSET) / (td.getSize() + 8);
+    }
+
+    /** @return the bytes of a leaf with no entries */
+    static byte[] createEmptyPageData(int next, int pageSize) {
+        ByteBuffer buf = startPage(LEAF, 0, pageSize);
+        buf.putInt(next);
+        return buf.array();
+    }
+
+    public BTreeLeafPage getBeforeImage() {
+        try {
+            return new BTreeLeafPage(pid, beforeImageData());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public byte[] getPageData() {
+        ByteBuffer buf = startPage(LEAF, entries.size(), pageSize);
+        buf.putInt(next);
+        for (Tuple t : entries) {
+            for (int f = 0; f < td.numFields(); f++) putField(buf, t.getField(f));
+            buf.putInt(t.getRecordId().getPageId().pageNumber());
+            buf.putInt(t.getRecordId().tupleno());
+        }
+        return buf.array();
+    }
+
+    /** @return the number of entries on this page */
+    public int getNumEntries() {
+        return entries.size();
+    }
+
+    /** @return the entry at position i, in sorted order */
+    public Tuple getEntry(int i) {
+        return entries.get(i);
+    }
+
+    /** @return true if the page cannot take another entry without splitting */
+    public boolean isFull() {
+        return entries.size() >= getMaxEntries(td, pageSize);
+    }
+
+    /** @return the page number of the next leaf, or -1 for the last leaf */
+    public int getNext() {
+        return next;
+    }
+
+    void setNext(int next) {
+        captureBeforeImage();
+        this.next = next;
+    }
+
+    /**
+     * @return the position of the first entry not less than (key, rid); a
+     *         null rid sorts before every RecordId
+     */
+    public int findPosition(Field key, RecordId rid) {
+        int lo = 0, hi = entries.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            Tuple e = entries.get(mid);
+            if (BTreeFile.compare(e.getField(0), e.getRecordId(), key, rid) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Inserts an entry at position pos. The page may hold one entry more
+     * than fits while it is being split; it must be split before it is
+     * written.
+     */
+    void insertEntry(int pos, Tuple entry) {
+        captureBeforeImage();
+        entries.add(pos, entry);
+    }
+
+    void deleteEntry(int pos) {
+        captureBeforeImage();
+        entries.remove(pos);
+    }
+
+    /**
+     * Moves the entries from position from on to the (empty) leaf right,
+     * which becomes this leaf's successor in the chain.
+     */
+    void splitInto(BTreeLeafPage right, int from) {
+        captureBeforeImage();
+        right.captureBeforeImage();
+        List<Tuple> upper = entries.subList(from, entries.size());
+        right.entries.addAll(upper);
+        upper.clear();
+        right.next = next;
+        next = right.pid.pageNumber();
+    }
+}
@@ -0,0 +1,103 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * What the pages of a BTreeFile have in common: every page starts with a
+ * one byte page type and a four byte count, and keeps its before image and
+ * dirty state like a HeapPage does. The pages are decoded into objects when
+ * they are read and serialized again by getPageData.
+ *
+ * @see BTreeRootPage
+ * @see BTreeInternalPage
+ * @see BTreeLeafPage
+ */
+public abstract class BTreePage implements Page {
+
+    /** Page types, stored in the first byte of every page. */
+    public static final byte ROOT = 1;
+    public static final byte INTERNAL = 2;
+    public static final byte LEAF = 3;
+
+    /** Bytes taken by the page type and the count. */
+    static final int HEADER_SIZE = 5;
+
+    final BTreePageId pid;
+    final BTreeFile file;
+    final int pageSize;
+
+    byte[] oldData; //before image; null means "same as the current contents", see setBeforeImage
+
+    TransactionId dirtyTID = null; //null means not dirty
+
+    BTreePage(BTreePageId id, byte[] data) {
+        this.pid = id;
+        this.file = (BTreeFile) Database.getCatalog().getDbFile(id.getTableId());
+        this.pageSize = data.length;
+        oldData = data;
+    }
+
+    /** @return the type byte of the page with the given bytes */
+    static byte pageType(byte[] data) {
+        return data[0];
+    }
+
+    /** @return the count stored in the page's header */
+    static int count(ByteBuffer buf) {
+        return buf.getInt(1);
+    }
+
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    /**
+     * Makes the current contents of this page its before image; the copy is
+     * taken by the first modification after this call.
+     */
+    public void setBeforeImage() {
+        oldData = null;
+    }
+
+    /** Called before every modification of the page. */
+    void captureBeforeImage() {
+        if (oldData == null) oldData = getPageData();
+    }
+
+    /** @return the bytes this page's before image is built from */
+    byte[] beforeImageData() {
+        return (oldData != null) ? oldData : getPageData();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtyTID = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtyTID;
+    }
+
+    /**
+     * Writes a field, in its fixed-width serialized form, at the buffer's
+     * position.
+     */
+    static void putField(ByteBuffer buf, Field f) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(f.getType().getLen());
+        try {
+            f.serialize(new DataOutputStream(baos));
+        } catch (IOException e) {
+            //cannot happen writing to memory
+            throw new RuntimeException(e);
+        }
+        buf.put(baos.toByteArray());
+    }
+
+    /** @return a new buffer of pageSize bytes, with the header filled in */
+    static ByteBuffer startPage(byte type, int count, int pageSize) {
+        ByteBuffer buf = ByteBuffer.allocate(pageSize);
+        buf.put(type);
+        buf.putInt(count);
+        return buf;
+    }
+}
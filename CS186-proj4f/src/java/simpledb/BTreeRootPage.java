@@ -0,0 +1,67 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Page 0 of every BTreeFile: it records which page is the root of the tree
+ * and how many levels the tree has. The root moves when it splits, so
+ * every search starts here; a root split is the only change made to it.
+ * <p>
+ * Layout: the type byte, the height (in the count of the header; a tree of
+ * height 1 is a single leaf), then the root's page number.
+ */
+public class BTreeRootPage extends BTreePage {
+
+    private int root;
+    private int height;
+
+    /**
+     * Create a BTreeRootPage from the bytes of page 0 of an index.
+     */
+    public BTreeRootPage(BTreePageId id, byte[] data) throws IOException {
+        super(id, data);
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        height = count(buf);
+        root = buf.getInt(HEADER_SIZE);
+    }
+
+    /** @return the bytes of a root page for a tree of the given height */
+    static byte[] createPageData(int root, int height, int pageSize) {
+        ByteBuffer buf = startPage(ROOT, height, pageSize);
+        buf.putInt(root);
+        return buf.array();
+    }
+
+    public BTreeRootPage getBeforeImage() {
+        try {
+            return new BTreeRootPage(pid, beforeImageData());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public byte[] getPageData() {
+        return createPageData(root, height, pageSize);
+    }
+
+    /** @return the page number of the root of the tree */
+    public int getRoot() {
+        return root;
+    }
+
+    /** @return the number of levels of the tree, counting the leaves */
+    public int getHeight() {
+        return height;
+    }
+
+    /** Makes the given page the root, one level above the old one. */
+    void setRoot(int root, int height) {
+        captureBeforeImage();
+        this.root = root;
+        this.height = height;
+    }
+}
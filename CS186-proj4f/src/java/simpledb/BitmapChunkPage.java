@@ -0,0 +1,190 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * A chunk page of a BitmapFile: for a run of consecutive pages of the
+ * indexed table, one bitmap per key number, whose bit (page - first page)
+ * * slots per page + slot is set if the tuple in that slot has that key.
+ * <p>
+ * Each bitmap is stored the smallest of three ways, as Roaring bitmaps are:
+ * as the sorted positions of its set bits (for sparse keys), as the runs
+ * of set bits (for keys clustered in the table) or as the plain bits (for
+ * dense ones); keys with no tuples in the chunk take no space. Since each
+ * tuple has one key, the bitmaps of a chunk together have at most one bit
+ * set per position, which bounds the stored size of a chunk (see
+ * maxDataSize), and so the number of table pages a chunk may cover.
+ * <p>
+ * Layout: the type byte, the number of bitmaps stored, then for each its
+ * key number, its kind and its contents; positions are unsigned shorts. A
+ * page of zeros, as chunk pages are until first written, has no bitmaps.
+ */
+public class BitmapChunkPage implements Page {
+
+    /** Kinds of stored bitmap. */
+    static final byte ARRAY = 0;
+    static final byte RUNS = 1;
+    static final byte BITS = 2;
+
+    private static final int HEADER_SIZE = 3;
+    private static final int BITMAP_HEADER_SIZE = 3;
+
+    private final BitmapPageId pid;
+    private final int pageSize;
+    private final int bits; //positions per chunk
+    private final BitSet[] bitmaps; //by key number; null if empty
+
+    private byte[] oldData; //before image; null means "same as the current contents", see setBeforeImage
+    private TransactionId dirtyTID = null; //null means not dirty
+
+    /**
+     * Create a BitmapChunkPage from bytes read from disk.
+     */
+    public BitmapChunkPage(BitmapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.pageSize = data.length;
+        BitmapFile file = (BitmapFile) Database.getCatalog().getDbFile(id.getTableId());
+        this.bits = file.getPagesPerChunk() * file.getSlotsPerPage();
+        this.bitmaps = new BitSet[file.getMaxValues()];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        buf.get();
+        int n = buf.getShort() & 0xffff;
+        for (int i = 0; i < n; i++) {
+            int v = buf.getShort() & 0xffff;
+            byte kind = buf.get();
+            if (v >= bitmaps.length) throw new IOException("Corrupt bitmap chunk " + id.pageNumber());
+            BitSet b = new BitSet(bits);
+            if (kind == ARRAY) {
+                int count = buf.getShort() & 0xffff;
+                for (int j = 0; j < count; j++) b.set(buf.getShort() & 0xffff);
+            } else if (kind == RUNS) {
+                int runs = buf.getShort() & 0xffff;
+                for (int j = 0; j < runs; j++) {
+                    int start = buf.getShort() & 0xffff;
+                    b.set(start, start + (buf.getShort() & 0xffff) + 1);
+                }
+            } else {
+                byte[] raw = new byte[(bits + 7) / 8];
+                buf.get(raw);
+                for (int pos = 0; pos < bits; pos++) {
+                    if ((raw[pos / 8] >> (pos % 8) & 1) == 1) b.set(pos);
+                }
+            }
+            bitmaps[v] = b;
+        }
+        oldData = data;
+    }
+
+    /**
+     * @return the most bytes a chunk of the given number of positions
+     *         takes, with maxValues keys: each key's bitmap takes no more
+     *         than its set bits as an array or all its bits as a bitmap,
+     *         and there are at most positions set bits in all
+     */
+    static int maxDataSize(int maxValues, int positions) {
+        return HEADER_SIZE + maxValues * (BITMAP_HEADER_SIZE + 2)
+                + Math.min(2 * positions, maxValues * ((positions + 7) / 8));
+    }
+
+    public BitmapPageId getId() {
+        return pid;
+    }
+
+    public BitmapChunkPage getBeforeImage() {
+        try {
+            return new BitmapChunkPage(pid, (oldData != null) ? oldData : getPageData());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        oldData = null;
+    }
+
+    private void captureBeforeImage() {
+        if (oldData == null) oldData = getPageData();
+    }
+
+    /** @return the number of runs of set bits in b */
+    private static int runs(BitSet b) {
+        int runs = 0;
+        for (int pos = b.nextSetBit(0); pos >= 0; pos = b.nextSetBit(b.nextClearBit(pos))) runs++;
+        return runs;
+    }
+
+    public byte[] getPageData() {
+        ByteBuffer buf = ByteBuffer.allocate(pageSize);
+        buf.put(BitmapDictPage.CHUNK);
+        int stored = 0;
+        for (BitSet b : bitmaps) {
+            if (b != null && !b.isEmpty()) stored++;
+        }
+        buf.putShort((short) stored);
+        for (int v = 0; v < bitmaps.length; v++) {
+            BitSet b = bitmaps[v];
+            if (b == null || b.isEmpty()) continue;
+            buf.putShort((short) v);
+            int arraySize = 2 + 2 * b.cardinality();
+            int runs = runs(b);
+            int runsSize = 2 + 4 * runs;
+            int bitsSize = (bits + 7) / 8;
+            if (arraySize <= runsSize && arraySize <= bitsSize) {
+                buf.put(ARRAY);
+                buf.putShort((short) b.cardinality());
+                for (int pos = b.nextSetBit(0); pos >= 0; pos = b.nextSetBit(pos + 1)) buf.putShort((short) pos);
+            } else if (runsSize <= bitsSize) {
+                buf.put(RUNS);
+                buf.putShort((short) runs);
+                for (int pos = b.nextSetBit(0); pos >= 0; pos = b.nextSetBit(b.nextClearBit(pos))) {
+                    buf.putShort((short) pos);
+                    buf.putShort((short) (b.nextClearBit(pos) - pos - 1));
+                }
+            } else {
+                buf.put(BITS);
+                byte[] raw = new byte[bitsSize];
+                for (int pos = b.nextSetBit(0); pos >= 0; pos = b.nextSetBit(pos + 1)) raw[pos / 8] |= 1 << (pos % 8);
+                buf.put(raw);
+            }
+        }
+        return buf.array();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtyTID = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtyTID;
+    }
+
+    /** @return the bitmap of key number v; do not change it */
+    public BitSet getBitmap(int v) {
+        BitSet b = bitmaps[v];
+        return (b == null) ? new BitSet() : b;
+    }
+
+    /** Sets position pos of the bitmap of key number v. */
+    void set(int v, int pos) {
+        captureBeforeImage();
+        if (bitmaps[v] == null) bitmaps[v] = new BitSet(bits);
+        bitmaps[v].set(pos);
+    }
+
+    /**
+     * Clears position pos of the bitmap of key number v.
+     *
+     * @return false if it was not set
+     */
+    boolean clear(int v, int pos) {
+        if (bitmaps[v] == null || !bitmaps[v].get(pos)) return false;
+        captureBeforeImage();
+        bitmaps[v].clear(pos);
+        return true;
+    }
+}
@@ -0,0 +1,183 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Page 0 of every BitmapFile: the shape of its chunks, and the distinct
+ * keys of the index, numbered in the order they were first inserted. The
+ * chunk pages keep one bitmap per key number, so a key's number never
+ * changes; a key whose tuples are all deleted keeps its number (and an
+ * empty bitmap).
+ * <p>
+ * Layout: the type byte, the most keys the index may have, the number of
+ * table pages per chunk, the number of slots per table page, the number
+ * of keys, the overflow byte (1 once a tuple with a key past the limit was
+ * inserted, see BitmapFile.isUsable), then the keys.
+ */
+public class BitmapDictPage implements Page {
+
+    /** Page types, stored in the first byte of every page of a BitmapFile. */
+    public static final byte DICT = 1;
+    public static final byte CHUNK = 2;
+
+    static final int HEADER_SIZE = 18;
+
+    private final BitmapPageId pid;
+    private final int pageSize;
+    private final int maxValues;
+    private final int pagesPerChunk;
+    private final int slotsPerPage;
+    private final Type keyType;
+    private final ArrayList<Field> values;
+    private boolean overflowed;
+
+    private byte[] oldData; //before image; null means "same as the current contents", see setBeforeImage
+    private TransactionId dirtyTID = null; //null means not dirty
+
+    /**
+     * Create a BitmapDictPage from the bytes of page 0 of an index.
+     */
+    public BitmapDictPage(BitmapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.pageSize = data.length;
+        this.keyType = ((BitmapFile) Database.getCatalog().getDbFile(id.getTableId())).getTupleDesc().getFieldType(0);
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        buf.get();
+        maxValues = buf.getInt();
+        pagesPerChunk = buf.getInt();
+        slotsPerPage = buf.getInt();
+        int n = buf.getInt();
+        overflowed = buf.get() != 0;
+        values = new ArrayList<Field>(n + 1);
+        for (int i = 0; i < n; i++) values.add(keyType.parse(buf, HEADER_SIZE + i * keyType.getLen()));
+        oldData = data;
+    }
+
+    /** @return the bytes of the dictionary page of a new index, with no keys */
+    static byte[] createPageData(int pageSize, int maxValues, int pagesPerChunk, int slotsPerPage) {
+        ByteBuffer buf = ByteBuffer.allocate(pageSize);
+        buf.put(DICT);
+        buf.putInt(maxValues);
+        buf.putInt(pagesPerChunk);
+        buf.putInt(slotsPerPage);
+        buf.putInt(0);
+        buf.put((byte) 0);
+        return buf.array();
+    }
+
+    /** @return the most keys of the given type a dictionary page holds */
+    static int getMaxValues(Type keyType, int pageSize) {
+        return (pageSize - HEADER_SIZE) / keyType.getLen();
+    }
+
+    public BitmapPageId getId() {
+        return pid;
+    }
+
+    public BitmapDictPage getBeforeImage() {
+        try {
+            return new BitmapDictPage(pid, (oldData != null) ? oldData : getPageData());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        oldData = null;
+    }
+
+    private void captureBeforeImage() {
+        if (oldData == null) oldData = getPageData();
+    }
+
+    public byte[] getPageData() {
+        ByteBuffer buf = ByteBuffer.allocate(pageSize);
+        buf.put(DICT);
+        buf.putInt(maxValues);
+        buf.putInt(pagesPerChunk);
+        buf.putInt(slotsPerPage);
+        buf.putInt(values.size());
+        buf.put((byte) (overflowed ? 1 : 0));
+        for (Field f : values) BTreePage.putField(buf, f);
+        return buf.array();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtyTID = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtyTID;
+    }
+
+    /** @return the number of distinct keys the index has seen */
+    public int getNumValues() {
+        return values.size();
+    }
+
+    /** @return key number v */
+    public Field getValue(int v) {
+        return values.get(v);
+    }
+
+    /** @return the number of key, or -1 if the index has never seen it */
+    public int indexOf(Field key) {
+        return values.indexOf(key);
+    }
+
+    /**
+     * @return the numbers of the keys that satisfy all of preds, which are
+     *         on the index's entries (so on field 0, the key)
+     */
+    public BitSet matching(List<Predicate> preds) {
+        BitSet match = new BitSet(values.size());
+        Tuple entry = new Tuple(new TupleDesc(new Type[] { keyType }));
+        for (int v = 0; v < values.size(); v++) {
+            entry.setField(0, values.get(v));
+            boolean pass = true;
+            for (Predicate p : preds) pass &= p.filter(entry);
+            if (pass) match.set(v);
+        }
+        return match;
+    }
+
+    /** @return true if a key was refused for being past the limit, see setOverflowed */
+    public boolean isOverflowed() {
+        return overflowed;
+    }
+
+    /**
+     * Records that a tuple whose key the dictionary has no room for was
+     * inserted into the table, so the bitmaps no longer cover the whole
+     * table. Like a new key, this commits or rolls back with the
+     * transaction.
+     */
+    void setOverflowed() {
+        captureBeforeImage();
+        overflowed = true;
+    }
+
+    /** @return true if the dictionary holds as many keys as it may */
+    boolean isFull() {
+        return values.size() >= maxValues;
+    }
+
+    /**
+     * Numbers a new key.
+     *
+     * @return its number
+     * @throws DbException if the index already has as many keys as it may
+     */
+    int addValue(Field key) throws DbException {
+        if (values.size() >= maxValues)
+            throw new DbException("A bitmap index holds at most " + maxValues + " distinct keys");
+        captureBeforeImage();
+        values.add(key);
+        return values.size() - 1;
+    }
+}
@@ -0,0 +1,448 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * BitmapFile is a bitmap index on one field of a table, for fields with
+ * few distinct values: for each value, the set of tuples that have it, as
+ * a compressed bitmap over the table's (page, slot) positions. Page 0 is a
+ * BitmapDictPage numbering the distinct values; each later page is a
+ * BitmapChunkPage holding the bitmaps of every value for one run of
+ * pages of the table, chunk c (page c + 1) covering table pages from
+ * c * getPagesPerChunk() on.
+ * <p>
+ * A lookup tests each distinct value against the predicates once, on the
+ * dictionary, and then only ORs bitmaps together, so any predicate narrows
+ * it; the bitmaps of several indexes on one table can also be combined
+ * before any table page is read, which is what BitmapScan does. The number
+ * of distinct values is limited when the index is created (see the
+ * constructor), since it bounds how many table pages a chunk can cover.
+ * A tuple with a value past the limit is still inserted into the table:
+ * the index stops being kept up to date instead, and stops being usable
+ * (see isUsable), until it is dropped and created again with a higher
+ * limit.
+ * <p>
+ * Inserts and deletes lock page 0 READ_ONLY, and the one chunk page they
+ * change READ_WRITE; only the first insert of a new value locks page 0
+ * READ_WRITE.
+ *
+ * @see BitmapScan
+ */
+public class BitmapFile implements IndexFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of distinct values an index may have, by default. */
+    public static final int DEFAULT_MAX_VALUES = 16;
+
+    private final File file;
+    private final int tableId;
+    private final int keyField;
+    private final TupleDesc td;
+    private final int pageSize;
+    private int maxValues;
+    private int pagesPerChunk;
+    private int slotsPerPage;
+    private volatile boolean overflowed; //see isUsable
+
+    private transient RandomAccessFile raf; //opened lazily and kept open until close()
+
+    /**
+     * Opens the index on field keyField of the table with the given id,
+     * stored in f, or creates an empty one for at most DEFAULT_MAX_VALUES
+     * distinct values if f is empty or missing. The table must be a
+     * HeapFile in the catalog.
+     */
+    public BitmapFile(File f, int tableId, int keyField) {
+        this(f, tableId, keyField, DEFAULT_MAX_VALUES, BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Opens the index, or creates an empty one for at most maxValues
+     * distinct values, with pageSize byte pages. An existing index keeps
+     * the limit it was created with.
+     *
+     * @throws IllegalArgumentException if a chunk page cannot cover even
+     *         one table page with maxValues values
+     */
+    public BitmapFile(File f, int tableId, int keyField, int maxValues, int pageSize) {
+        this.file = f;
+        this.tableId = tableId;
+        this.keyField = keyField;
+        this.pageSize = pageSize;
+        TupleDesc tableTd = Database.getCatalog().getTupleDesc(tableId);
+        this.td = new TupleDesc(new Type[] { tableTd.getFieldType(keyField) },
+                new String[] { tableTd.getFieldName(keyField) });
+        try {
+            if (f.length() == 0) {
+                slotsPerPage = ((HeapFile) Database.getCatalog().getDbFile(tableId)).getSlotsPerPage();
+                pagesPerChunk = pagesPerChunk(maxValues, slotsPerPage, pageSize);
+                if (maxValues > BitmapDictPage.getMaxValues(td.getFieldType(0), pageSize) || pagesPerChunk == 0)
+                    throw new IllegalArgumentException("A bitmap index with " + pageSize
+                            + " byte pages cannot hold " + maxValues + " distinct values");
+                this.maxValues = maxValues;
+                writeData(0, BitmapDictPage.createPageData(pageSize, maxValues, pagesPerChunk, slotsPerPage));
+            } else {
+                ByteBuffer header = ByteBuffer.allocate(BitmapDictPage.HEADER_SIZE);
+                getChannel().read(header, 0);
+                this.maxValues = header.getInt(1);
+                this.pagesPerChunk = header.getInt(5);
+                this.slotsPerPage = header.getInt(9);
+                this.overflowed = header.get(17) != 0;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return the most table pages of slotsPerPage slots whose bitmaps
+     *         surely fit on one pageSize byte chunk page with maxValues
+     *         values; 0 if not even one page's do
+     */
+    static int pagesPerChunk(int maxValues, int slotsPerPage, int pageSize) {
+        int pages = 0;
+        while ((pages + 1) * slotsPerPage <= 0x10000
+                && BitmapChunkPage.maxDataSize(maxValues, (pages + 1) * slotsPerPage) <= pageSize)
+            pages++;
+        return pages;
+    }
+
+    /** @return the file backing this index */
+    public File getFile() {
+        return file;
+    }
+
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    /** @return the TupleDesc of the index's entries: the key field */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public int getTableId() {
+        return tableId;
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /** @return no fields: entries are made up from the bitmaps, and hold just the key */
+    public int[] getIncludedFields() {
+        return new int[0];
+    }
+
+    // see DbFile.java for javadocs
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /** @return the most distinct values the index may have */
+    public int getMaxValues() {
+        return maxValues;
+    }
+
+    /** @return the number of table pages each chunk page covers */
+    public int getPagesPerChunk() {
+        return pagesPerChunk;
+    }
+
+    /** @return the number of positions per table page in the bitmaps */
+    public int getSlotsPerPage() {
+        return slotsPerPage;
+    }
+
+    /**
+     * @return false once a tuple with a value past getMaxValues() has been
+     *         inserted into the table: the bitmaps no longer cover the
+     *         table, so queries must not use them. An index stays unusable
+     *         even if that insert is rolled back, until it is reopened.
+     */
+    public boolean isUsable() {
+        return !overflowed;
+    }
+
+    /** Any predicate on the key is tested on the distinct values only. */
+    public boolean supports(Predicate.Op op) {
+        return true;
+    }
+
+    /** @return page 0 and every chunk page: a lookup reads all the bitmaps */
+    public int lookupPages() {
+        return numPages();
+    }
+
+    /** @return the number of pages in the file */
+    public int numPages() {
+        return (int) ((file.length() + pageSize - 1) / pageSize);
+    }
+
+    /**
+     * @return the number of distinct values, as of the last commit
+     */
+    public int getNumValues() {
+        BitmapDictPage dict = (BitmapDictPage) readPage(new BitmapPageId(getId(), 0));
+        return (dict == null) ? 0 : dict.getNumValues();
+    }
+
+    private synchronized FileChannel getChannel() throws IOException {
+        if (raf == null || !raf.getChannel().isOpen()) raf = new RandomAccessFile(file, "rw");
+        return raf.getChannel();
+    }
+
+    /**
+     * Closes the index file; a later page access reopens it.
+     */
+    public synchronized void close() {
+        if (raf == null) return;
+        try {
+            raf.close();
+        } catch (IOException bad) {
+            bad.printStackTrace();
+        }
+        raf = null;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        BitmapPageId bpid = (BitmapPageId) pid;
+        byte[] data = new byte[pageSize];
+        try {
+            FileChannel fc = getChannel();
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            long offset = (long) bpid.pageNumber() * pageSize;
+            while (buf.hasRemaining()) {
+                if (fc.read(buf, offset + buf.position()) < 0) break;
+            }
+            if (bpid.pageNumber() == 0) return new BitmapDictPage(bpid, data);
+            return new BitmapChunkPage(bpid, data);
+        }
+        catch (IOException bad) {
+            System.out.println("Index read failure");
+            return null;
+        }
+    }
+
+    private void writeData(int pgNo, byte[] data) throws IOException {
+        FileChannel fc = getChannel();
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        long offset = (long) pgNo * pageSize;
+        while (buf.hasRemaining()) {
+            fc.write(buf, offset + buf.position());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writeData(page.getId().pageNumber(), page.getPageData());
+    }
+
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+        for (Page page : pages) writePage(page);
+    }
+
+    /** @return the RecordId of slot slot of page pgNo of the indexed table */
+    RecordId baseRecordId(int pgNo, int slot) {
+        return new RecordId(new HeapPageId(tableId, pgNo), slot);
+    }
+
+    /** @return the key of t, a tuple stored in the indexed table */
+    private Field keyOf(Tuple t) throws DbException {
+        if (t == null || t.getRecordId() == null)
+            throw new DbException("Only tuples stored in the table can be indexed");
+        return t.getField(keyField);
+    }
+
+    private Page page(TransactionId tid, int pgNo, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return Database.getBufferPool().getPage(tid, new BitmapPageId(getId(), pgNo), perm);
+    }
+
+    /**
+     * Extends the file with pages of zeros, which read as empty chunks,
+     * up to and including page pgNo, without writing them.
+     */
+    private synchronized void extendTo(int pgNo) throws IOException {
+        if (pgNo < numPages()) return;
+        getChannel();
+        raf.setLength((long) (pgNo + 1) * pageSize);
+    }
+
+    /**
+     * Sets the bit of t, a tuple of the indexed table that has been given
+     * its RecordId, in the bitmap of its value, numbering the value first
+     * if it is new. If the value is new and the index already has
+     * getMaxValues() values, marks the index unusable instead, and from
+     * then on leaves it alone.
+     *
+     * @return the pages changed
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Field key = keyOf(t);
+        ArrayList<Page> dirtyPages = new ArrayList<Page>();
+        BitmapDictPage dict = (BitmapDictPage) page(tid, 0, Permissions.READ_ONLY);
+        if (dict.isOverflowed()) return dirtyPages;
+        int v = dict.indexOf(key);
+        if (v < 0) {
+            dict = (BitmapDictPage) page(tid, 0, Permissions.READ_WRITE);
+            if (dict.isOverflowed()) return dirtyPages;
+            v = dict.indexOf(key); //another insert may have numbered it meanwhile
+            if (v < 0 && dict.isFull()) {
+                dict.setOverflowed();
+                overflowed = true;
+                System.out.println("Bitmap index " + file.getName() + " holds at most " + maxValues
+                        + " distinct values; it is no longer kept up to date or used by queries."
+                        + " Drop it and create it again WITH (MAXVALUES = n).");
+                dirtyPages.add(dict);
+                return dirtyPages;
+            }
+            if (v < 0) {
+                v = dict.addValue(key);
+                dirtyPages.add(dict);
+            }
+        }
+        RecordId rid = t.getRecordId();
+        int pgNo = rid.getPageId().pageNumber();
+        extendTo(1 + pgNo / pagesPerChunk);
+        BitmapChunkPage chunk = (BitmapChunkPage) page(tid, 1 + pgNo / pagesPerChunk, Permissions.READ_WRITE);
+        chunk.set(v, (pgNo % pagesPerChunk) * slotsPerPage + rid.tupleno());
+        dirtyPages.add(chunk);
+        return dirtyPages;
+    }
+
+    /**
+     * Clears the bit of t, a tuple of the indexed table.
+     *
+     * @return the page changed, or null if the index is no longer kept up
+     *         to date (see insertTuple)
+     * @throws DbException if the index has no entry for t
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        Field key = keyOf(t);
+        BitmapDictPage dict = (BitmapDictPage) page(tid, 0, Permissions.READ_ONLY);
+        if (dict.isOverflowed()) return null;
+        int v = dict.indexOf(key);
+        RecordId rid = t.getRecordId();
+        int pgNo = rid.getPageId().pageNumber();
+        if (v >= 0 && 1 + pgNo / pagesPerChunk < numPages()) {
+            BitmapChunkPage chunk = (BitmapChunkPage) page(tid, 1 + pgNo / pagesPerChunk, Permissions.READ_WRITE);
+            if (chunk.clear(v, (pgNo % pagesPerChunk) * slotsPerPage + rid.tupleno())) return chunk;
+        }
+        throw new DbException("Tuple not in index!");
+    }
+
+    /**
+     * Returns the tuples whose keys satisfy all of preds among those on
+     * count table pages from page first on, as a bitmap: bit
+     * (page - first) * getSlotsPerPage() + slot is set for each.
+     *
+     * @param preds predicates on the index's entries (so on field 0)
+     */
+    public BitSet bitmap(TransactionId tid, int first, int count, List<Predicate> preds)
+            throws DbException, TransactionAbortedException {
+        BitmapDictPage dict = (BitmapDictPage) page(tid, 0, Permissions.READ_ONLY);
+        BitSet values = dict.matching(preds);
+        BitSet result = new BitSet(count * slotsPerPage);
+        if (values.isEmpty()) return result;
+        for (int pgNo = first; pgNo < first + count; ) {
+            int c = pgNo / pagesPerChunk;
+            int end = Math.min(first + count, (c + 1) * pagesPerChunk); //of this chunk's part of the range
+            if (1 + c >= numPages()) break;
+            BitmapChunkPage chunk = (BitmapChunkPage) page(tid, 1 + c, Permissions.READ_ONLY);
+            int from = (pgNo - c * pagesPerChunk) * slotsPerPage;
+            int to = (end - c * pagesPerChunk) * slotsPerPage;
+            int shift = (pgNo - first) * slotsPerPage - from;
+            for (int v = values.nextSetBit(0); v >= 0; v = values.nextSetBit(v + 1)) {
+                BitSet b = chunk.getBitmap(v);
+                for (int pos = b.nextSetBit(from); pos >= 0 && pos < to; pos = b.nextSetBit(pos + 1))
+                    result.set(pos + shift);
+            }
+            pgNo = end;
+        }
+        return result;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return lookup(tid, new ArrayList<Predicate>());
+    }
+
+    /**
+     * Looks the entries up: ORs the bitmaps of the values that satisfy
+     * preds, chunk by chunk, and returns the entries in RecordId order.
+     */
+    public DbFileIterator lookup(TransactionId tid, List<Predicate> preds) {
+        return new BitmapFileIterator(tid, preds);
+    }
+
+    /**
+     * Reads the bitmaps of one chunk at a time, and returns an entry for
+     * each bit set in the bitmaps of the matching values.
+     */
+    private class BitmapFileIterator implements DbFileIterator {
+        final TransactionId tid;
+        final List<Predicate> preds;
+
+        BitSet values; //the numbers of the matching values
+        BitmapDictPage dict;
+        int chunk; //the chunk being read
+        Field[] keys; //of the positions of the current chunk; null if no match
+        int pos;
+
+        BitmapFileIterator(TransactionId tid, List<Predicate> preds) {
+            this.tid = tid;
+            this.preds = new ArrayList<Predicate>(preds);
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            dict = (BitmapDictPage) page(tid, 0, Permissions.READ_ONLY);
+            values = dict.matching(preds);
+            keys = new Field[pagesPerChunk * slotsPerPage];
+            chunk = -1;
+            pos = keys.length;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (keys == null) return false;
+            while (true) {
+                while (pos < keys.length && keys[pos] == null) pos++;
+                if (pos < keys.length) return true;
+                if (1 + ++chunk >= numPages() || values.isEmpty()) return false;
+                BitmapChunkPage p = (BitmapChunkPage) page(tid, 1 + chunk, Permissions.READ_ONLY);
+                Arrays.fill(keys, null);
+                for (int v = values.nextSetBit(0); v >= 0; v = values.nextSetBit(v + 1)) {
+                    BitSet b = p.getBitmap(v);
+                    for (int i = b.nextSetBit(0); i >= 0; i = b.nextSetBit(i + 1)) keys[i] = dict.getValue(v);
+                }
+                pos = 0;
+            }
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext()) throw new NoSuchElementException();
+            Tuple entry = new Tuple(td);
+            entry.setField(0, keys[pos]);
+            entry.setRecordId(baseRecordId(chunk * pagesPerChunk + pos / slotsPerPage, pos % slotsPerPage));
+            pos++;
+            return entry;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            keys = null;
+        }
+    }
+}
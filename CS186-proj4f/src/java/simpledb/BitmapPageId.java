@@ -0,0 +1,64 @@
+package simpledb;
+
+/** Unique identifier for the pages of a BitmapFile. */
+public class BitmapPageId implements PageId {
+
+    private int tableId;
+    private int pgNo;
+
+    /**
+     * Constructor. Create a page id for page pgNo of the index with the
+     * given id. Page 0 is the index's BitmapDictPage; every other page is a
+     * BitmapChunkPage.
+     *
+     * @param tableId The index that is being referenced (BitmapFile.getId())
+     * @param pgNo The page number in that index.
+     */
+    public BitmapPageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+    }
+
+    /** @return the index associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the page number in the index getTableId() associated with
+     *   this PageId
+     */
+    public int pageNumber() {
+        return pgNo;
+    }
+
+    /**
+     * @return a hash code for this page, as for a HeapPageId
+     * @see BufferPool
+     */
+    public int hashCode() {
+        return (tableId << 16) + pgNo;
+    }
+
+    public boolean equals(Object o) {
+        if (o instanceof BitmapPageId) {
+            BitmapPageId other = (BitmapPageId) o;
+            return tableId == other.tableId && pgNo == other.pgNo;
+        }
+        return false;
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk (see the constructor).
+     */
+    public int[] serialize() {
+        int data[] = new int[2];
+
+        data[0] = tableId;
+        data[1] = pgNo;
+
+        return data;
+    }
+
+}
@@ -0,0 +1,167 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BitmapScan reads the tuples of a table that satisfy predicates on several
+ * of its fields, each with a bitmap index: it ANDs (or ORs) together the
+ * bitmaps the indexes give for their predicates, a run of table pages at a
+ * time, and only then fetches the tuples whose bits are left set. A table
+ * page none of whose tuples qualify is never read. Tuples come out in
+ * RecordId order; their TupleDesc is the one a SeqScan of the table with
+ * the same alias has, so one can stand in for the other.
+ *
+ * @see BitmapFile#bitmap
+ */
+public class BitmapScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final String tableAlias;
+    private final List<BitmapFile> indexes;
+    private final List<Predicate> preds;
+    private final boolean conjunction;
+
+    private transient HeapFile table;
+    private transient int step; //table pages per bitmap
+    private transient int nextPage; //the first table page not combined yet
+    private transient int first; //the first table page of bits
+    private transient BitSet bits; //of the tuples left to return
+    private transient int pos;
+
+    /**
+     * Creates a scan of the tuples of a table that satisfy all of preds,
+     * or, if conjunction is false, any of them.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableAlias
+     *            the alias of the table, as for SeqScan
+     * @param indexes
+     *            bitmap indexes on the table, one per predicate
+     * @param preds
+     *            the predicates, each on the entries of the index at the
+     *            same position of indexes (so on field 0, the key); an
+     *            index may appear more than once
+     * @param conjunction
+     *            true to AND the predicates together, false to OR them
+     */
+    public BitmapScan(TransactionId tid, String tableAlias, List<BitmapFile> indexes,
+            List<Predicate> preds, boolean conjunction) {
+        if (indexes.isEmpty() || indexes.size() != preds.size())
+            throw new IllegalArgumentException("A bitmap scan needs one index per predicate");
+        this.tid = tid;
+        this.tableAlias = tableAlias;
+        this.indexes = new ArrayList<BitmapFile>(indexes);
+        this.preds = new ArrayList<Predicate>(preds);
+        this.conjunction = conjunction;
+    }
+
+    /** @return the indexes whose bitmaps are combined */
+    public List<BitmapFile> getIndexes() {
+        return indexes;
+    }
+
+    /** @return the predicates, one per index */
+    public List<Predicate> getPredicates() {
+        return preds;
+    }
+
+    /** @return true if the bitmaps are ANDed, false if ORed */
+    public boolean isConjunction() {
+        return conjunction;
+    }
+
+    /** @return the id of the table this scan reads */
+    public int getTableId() {
+        return indexes.get(0).getTableId();
+    }
+
+    /** @return the name of the table this scan reads, in the catalog */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(getTableId());
+    }
+
+    /** @return the alias of the table this scan reads */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /** @return the transaction this scan runs as a part of */
+    public TransactionId getTransactionId() {
+        return tid;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        table = (HeapFile) Database.getCatalog().getDbFile(getTableId());
+        step = 1;
+        for (BitmapFile index : indexes) step = Math.max(step, index.getPagesPerChunk());
+        nextPage = 0;
+        bits = new BitSet();
+        pos = 0;
+    }
+
+    /**
+     * @return the table's TupleDesc, with field names prefixed with the
+     *         table alias
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc td = Database.getCatalog().getTupleDesc(getTableId());
+        Type[] typeAr = new Type[td.numFields()];
+        String[] fieldAr = new String[td.numFields()];
+        String alias = (tableAlias == null) ? "null" : tableAlias;
+        for (int i = 0; i < td.numFields(); i++) {
+            typeAr[i] = td.getFieldType(i);
+            String fieldName = td.getFieldName(i);
+            fieldAr[i] = alias + "." + ((fieldName == null) ? "null" : fieldName);
+        }
+        return new TupleDesc(typeAr, fieldAr);
+    }
+
+    /**
+     * Combines the bitmaps of the next run of table pages, until some bit
+     * is set or the table ends.
+     */
+    private void combine() throws DbException, TransactionAbortedException {
+        int pages = table.numPages();
+        while (pos < 0 && nextPage < pages) {
+            first = nextPage;
+            int count = Math.min(step, pages - first);
+            nextPage += count;
+            bits = null;
+            for (int i = 0; i < indexes.size(); i++) {
+                BitSet b = indexes.get(i).bitmap(tid, first, count, Arrays.asList(preds.get(i)));
+                if (bits == null) bits = b;
+                else if (conjunction) bits.and(b);
+                else bits.or(b);
+                if (conjunction && bits.isEmpty()) break;
+            }
+            pos = bits.nextSetBit(0);
+        }
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (bits == null) return false;
+        if (pos >= 0) pos = bits.nextSetBit(pos);
+        combine();
+        return pos >= 0;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (!hasNext()) throw new NoSuchElementException();
+        int slots = indexes.get(0).getSlotsPerPage();
+        RecordId rid = new RecordId(new HeapPageId(getTableId(), first + pos / slots), pos % slots);
+        pos++;
+        return table.getTuple(tid, rid);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        bits = null;
+    }
+}
@@ -3,6 +3,7 @@ package simpledb;
 import java.io.*;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 import java.lang.*;
 /**
@@ -13,18 +14,54 @@ import java.lang.*;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * The page table maps each PageId to the frame holding its page. Looking a
+ * page up takes no lock, so cache hits on different pages run in parallel;
+ * frames are added and removed (on a miss, by eviction, by discardPage)
+ * under the pool's monitor. Each frame has a latch of its own, see Frame.
+ * Page locks are kept by a LockManager, which latches the pages it locks
+ * rather than the whole lock table.
  */
 public class BufferPool {
-    /** Bytes per page, including header. */
+    /** Bytes per page, including header, of tables that do not declare a
+    page size of their own (see DbFile.getPageSize). */
     public static final int PAGE_SIZE = 4096; //4096
 
+    /** Smallest and largest page sizes a table may declare. Page sizes are
+    powers of two; 64KB keeps every in-page offset within an unsigned short
+    (see SlottedPage and FreeSpaceMap). */
+    public static final int MIN_PAGE_SIZE = 512;
+    public static final int MAX_PAGE_SIZE = 65536;
+
     /** Default number of pages passed to the constructor. This is used by
     other classes. BufferPool should use the numPages argument to the
     constructor instead. */
     public static final int DEFAULT_PAGES = 50; //50
 
-    private HashMap<Integer,Page> pool; //worst design decision ever, should be PID --> Page.. 
-    private int numPages;
+    /**
+     * A frame of the pool, holding one page. The frame's monitor is its
+     * latch: it is held to put a different copy of the page in the frame
+     * (an abort puts back the page's on-disk state) and by eviction while it
+     * checks that the page is clean and drops the frame, so a page is never
+     * evicted halfway through being replaced. Reading page needs no latch.
+     */
+    private static class Frame {
+        volatile Page page;
+        final int bytes; //the frame's share of the memory budget
+
+        Frame(Page page, int bytes) {
+            this.page = page;
+            this.bytes = bytes;
+        }
+    }
+
+    private final ConcurrentHashMap<PageId,Frame> pool;
+    //reads in progress: one read per page, which every thread wanting the page waits for
+    private HashMap<PageId,Future<Page>> reading;
+
+    //the memory budget: pages of different tables may differ in size, so it is counted in bytes
+    private long capacityBytes;
+    private long usedBytes = 0;
 
     //queue to implemet LRU eviction, stores pid hashes
     //front(old)-----back(new)
@@ -32,6 +69,10 @@ public class BufferPool {
 
 
     private LockManager lockManager;
+
+    //number of page writes so far; lets read-ahead detect that pages it read may be stale
+    private volatile long flushCount = 0;
+
     /**
      * Creates a BufferPool that caches up to numPages pages.
      *
@@ -39,12 +80,62 @@ public class BufferPool {
      */
     public BufferPool(int numPages) {
         // some code goes here
-        pool = new HashMap<Integer, Page>(); //hm maybe shouldve done pid -> to page
-        this.numPages = numPages;
+        pool = new ConcurrentHashMap<PageId, Frame>();
+        reading = new HashMap<PageId, Future<Page>>();
+        this.capacityBytes = (long) numPages * PAGE_SIZE;
         // recentQueue = new LinkedList<Integer>();
         lockManager = new LockManager();
     }
 
+    /**
+     * Creates a BufferPool that caches pages of any size up to a total of
+     * capacityBytes bytes. (BufferPool(n) is withCapacity(n * PAGE_SIZE).)
+     *
+     * @param capacityBytes the memory budget of the pool, in bytes
+     */
+    public static BufferPool withCapacity(long capacityBytes) {
+        BufferPool bp = new BufferPool(0);
+        bp.capacityBytes = capacityBytes;
+        return bp;
+    }
+
+    /** @return the size of the frame a page of pid's table takes */
+    private int frameSize(PageId pid) {
+        return Database.getCatalog().getDbFile(pid.getTableId()).getPageSize();
+    }
+
+    /**
+     * Caches page, in a new frame if it is not in the pool yet. Callers
+     * hold the pool's monitor.
+     */
+    private void putFrame(Page page) {
+        Frame frame = pool.get(page.getId());
+        if (frame != null) {
+            synchronized (frame) {
+                frame.page = page;
+            }
+            return;
+        }
+        frame = new Frame(page, frameSize(page.getId()));
+        pool.put(page.getId(), frame);
+        usedBytes += frame.bytes;
+    }
+
+    /** Drops pid's frame. Callers hold the pool's monitor. */
+    private void removeFrame(PageId pid) {
+        Frame frame = pool.remove(pid);
+        if (frame != null) usedBytes -= frame.bytes;
+    }
+
+    /**
+     * @return true if a frame of the given size would fit without evicting
+     *         anything. An empty pool always takes a page, even one bigger
+     *         than the whole budget.
+     */
+    private boolean hasRoom(int size) {
+        return pool.isEmpty() || usedBytes + size <= capacityBytes;
+    }
+
     /**
      * Retrieve the specified page with the associated permissions.
      * Will acquire a lock and may block if that lock is held by another
@@ -55,76 +146,218 @@ public class BufferPool {
      * be added to the buffer pool and returned.  If there is insufficient
      * space in the buffer pool, an page should be evicted and the new page
      * should be added in its place.
+     * <p>
+     * The lock is taken first. A page in the pool is returned without
+     * taking any lock of the pool's; one that has to come from disk is read
+     * without holding the pool's monitor (see fetchPage), so a transaction
+     * waiting on the disk does not hold up the others. If the page cannot
+     * be read, the lock is given back (unless tid held it already) and the
+     * failure is thrown.
      *
      * @param tid the ID of the transaction requesting the page
      * @param pid the ID of the requested page
      * @param perm the requested permissions on the page
      */
-    public synchronized Page getPage(TransactionId tid, PageId pid, Permissions perm)
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
-        // some code goes here
-        //Look in buffer pool >  present? return : try add to pool (if no space, be sad), return
-        // System.out.println(pid == null);
-        Page page = pool.get(pid.hashCode());
-
-        //Pool doesn't have page, try fetch it
-        if (page == null){//couldn't be found in bufferpool
-            page = Database.getCatalog().getDbFile(pid.getTableId()).readPage(pid);
-            if (pool.size() >= numPages) evictPage();
-            pool.put(pid.hashCode(), page);
+        boolean held = holdsLock(tid, pid);
+        lockPage(tid, pid, perm);
+        boolean fetched = false;
+        try {
+            Page page = fetchPage(pid);
+            fetched = true;
+            return page;
+        } finally {
+            //a lock taken just for a page that could not be read is given back
+            if (!fetched && !held) releasePage(tid, pid);
+        }
+    }
+
+    /**
+     * Returns the page from the pool, reading it in (and evicting to make
+     * room) if it is not there. A hit takes no lock. On a miss the monitor
+     * is held only to look the page up again and to install it: the read
+     * itself is issued to PageIO, or done by this thread, in between.
+     * Threads asking for a page that is already being read wait for that
+     * read instead of starting another. A read that fails throws here, as
+     * DbFile.readPage would have (see readFailure).
+     */
+    private Page fetchPage(final PageId pid) throws DbException {
+        Frame hit = pool.get(pid);
+        if (hit != null) return hit.page;
+        Future<Page> read;
+        FutureTask<Page> mine = null;
+        synchronized (this) {
+            Frame frame = pool.get(pid);
+            if (frame != null) return frame.page;
+            read = reading.get(pid);
+            if (read == null) {
+                final DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
+                if (file instanceof HeapFile) read = ((HeapFile) file).readPageAsync((HeapPageId) pid);
+                if (read == null) { //no asynchronous read for this file: read it ourselves, below
+                    read = mine = new FutureTask<Page>(new Callable<Page>() {
+                        public Page call() {
+                            return file.readPage(pid);
+                        }
+                    });
+                }
+                reading.put(pid, read);
+            }
+        }
+
+        if (mine != null) mine.run();
+        Page page;
+        try {
+            page = read.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            doneReading(pid, read);
+            throw new DbException("Interrupted while reading page " + pid.pageNumber() + " of table " + pid.getTableId());
+        } catch (ExecutionException e) {
+            doneReading(pid, read);
+            throw readFailure(pid, e.getCause());
+        }
+
+        synchronized (this) {
+            if (reading.get(pid) == read) reading.remove(pid);
+            Frame cached = pool.get(pid);
+            if (cached != null) return cached.page; //another thread waiting on the same read got here first
+            if (page == null) return null;
+            int size = frameSize(pid);
+            while (!hasRoom(size)) evictPage();
+            putFrame(page);
             // recentQueue.addLast(pid.hashCode()); 
+            return page;
         }
-        //Pool has page, page to be returned must be moved to back of queue (new)
-        // else{
-        //     int index = recentQueue.indexOf(pid.hashCode()); //get first occurence of page
-        //     if (index == -1) throw new NoSuchElementException("Queue not updating correctly!");
-        //     recentQueue.addLast(recentQueue.get(index));
-        //     recentQueue.remove(index);       
-        // }
-        //Handle locks 
-        boolean gotLock = false;
-        long startTime = System.currentTimeMillis(); 
-        if (perm.toString().equals("READ_ONLY")){
-            while(lockManager.exclusiveLocks.containsKey(pid) ){
-                if (System.currentTimeMillis() - startTime > 700){
-                    throw new TransactionAbortedException();
+    }
+
+    /** Forgets read as the read of pid in progress, if it still is. */
+    private synchronized void doneReading(PageId pid, Future<Page> read) {
+        if (reading.get(pid) == read) reading.remove(pid);
+    }
+
+    /**
+     * @return the exception a failed read of pid is reported with: cause
+     *         itself if it is a DbException, wrapped in one if it is another
+     *         checked exception (an IOException from PageIO)
+     * @throws RuntimeException cause, if it is one
+     * @throws Error cause, if it is one
+     */
+    private static DbException readFailure(PageId pid, Throwable cause) {
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        if (cause instanceof Error) throw (Error) cause;
+        if (cause instanceof DbException) return (DbException) cause;
+        DbException failure = new DbException("Could not read page " + pid.pageNumber()
+                + " of table " + pid.getTableId() + ": " + cause);
+        failure.initCause(cause);
+        return failure;
+    }
+
+    /**
+     * Starts reading a page into the pool in the background, for a scan that
+     * knows which pages it will want next. Does nothing if the page is
+     * already cached or being read, if its file cannot be read through
+     * PageIO, or if PageIO is busy. No lock is taken; getPage still locks
+     * the page when it is asked for, and waits for this read if it has not
+     * finished yet.
+     */
+    public void prefetch(final PageId pid) {
+        final long flushes;
+        final PageIO.PageRead read;
+        synchronized (this) {
+            if (pool.containsKey(pid) || reading.containsKey(pid)) return;
+            DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
+            if (!(file instanceof HeapFile)) return;
+            flushes = flushCount;
+            read = ((HeapFile) file).prefetchPage((HeapPageId) pid);
+            if (read == null) return;
+            reading.put(pid, read);
+        }
+        read.whenDone(new Runnable() {
+            public void run() {
+                synchronized (BufferPool.this) {
+                    if (reading.get(pid) == read) reading.remove(pid);
                 }
-                // try {
-                if(lockManager.exclusiveLocks.containsKey(pid) && lockManager.exclusiveLocks.get(pid).equals(tid)){
-                    break;
+                try {
+                    cachePages(Collections.singletonList(read.get()), flushes);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    Debug.log("prefetch of page %d of table %d failed: %s", pid.pageNumber(), pid.getTableId(), e.getCause());
                 }
-                // catch (NullPointerException poop){
-                //     System.out.println(lockManager.exclusiveLocks.containsKey(pid));
-                //     System.out.println("hey");
-                //     System.out.println(lockManager.exclusiveLocks.get(pid).equals(tid));    
-                // }       
             }
-            ArrayList<TransactionId> tids = new ArrayList<TransactionId>();
-            if(lockManager.sharedLocks.contains(pid)) tids = lockManager.sharedLocks.get(pid);
-            tids.add(tid);
-            lockManager.sharedLocks.put(pid, tids);
+        });
+    }
+
+    /**
+     * Takes tid's lock on pid, spinning (and giving up with
+     * TransactionAbortedException) while another transaction holds a
+     * conflicting one. No lock of the pool's is held while spinning; the
+     * lock manager latches just pid for each try.
+     */
+    private void lockPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException {
+        long startTime = System.currentTimeMillis();
+        while (!lockManager.tryLock(pid, tid, perm == Permissions.READ_WRITE)){
+            if (System.currentTimeMillis() - startTime > 700){
+                throw new TransactionAbortedException();
+            }
+            Thread.yield();
         }
-        if (perm.toString().equals("READ_WRITE")){
-            gotLock = false; //just paranoia
-            while(!gotLock){
-                if (System.currentTimeMillis() - startTime > 700) {
-                    throw new TransactionAbortedException();
-                }                
-                else if(lockManager.hasExclusiveLock(pid,tid)){
-                    gotLock = true;
-                }           
-                else if(lockManager.isUpgradable(pid, tid)){
-                    lockManager.sharedLocks.remove(pid);
-                    gotLock = true;                
+    }
+
+    /**
+     * Caches pages read ahead of a scan, without taking any locks: a
+     * transaction still locks a page when it asks for it with getPage.
+     * Pages already in the pool are left alone, since the pool's copy may
+     * be newer than the one on disk. The whole batch is dropped if any page
+     * was flushed since the caller started reading (flushCountAtRead), and
+     * prefetching stops rather than fail if no page can be evicted.
+     *
+     * @param pages the pages just read from disk
+     * @param flushCountAtRead getFlushCount() from before the pages were read
+     * @see ReadAhead
+     */
+    public synchronized void cachePages(List<Page> pages, long flushCountAtRead) {
+        if (flushCount != flushCountAtRead) return;
+        for (Page page : pages){
+            if (pool.containsKey(page.getId())) continue;
+            int size = frameSize(page.getId());
+            while (!hasRoom(size)){
+                try {
+                    evictPage();
                 }
-                else if (!lockManager.sharedLocks.containsKey(pid) && !lockManager.exclusiveLocks.containsKey(pid)){
-                    gotLock = true;                      
+                catch (DbException allDirty){
+                    return;
                 }
             }
-            lockManager.exclusiveLocks.put(pid,tid);
+            putFrame(page);
         }
-        return page;     
+    }
+
+    /** @return the number of page writes this pool has made */
+    public long getFlushCount() {
+        return flushCount;
+    }
+
+    /** @return the maximum number of PAGE_SIZE pages this pool caches */
+    public int getNumPages() {
+        return getNumPages(PAGE_SIZE);
+    }
+
+    /** @return the maximum number of pageSize byte pages this pool caches */
+    public int getNumPages(int pageSize) {
+        return (int) Math.min(Integer.MAX_VALUE, capacityBytes / pageSize);
+    }
+
+    /** @return the memory budget of this pool, in bytes */
+    public long getCapacityBytes() {
+        return capacityBytes;
+    }
 
+    /** @return the bytes taken by the pages cached right now */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
     }
 
     // public int size(){
@@ -146,14 +379,7 @@ public class BufferPool {
     public  void releasePage(TransactionId tid, PageId pid) {
         // some code goes here
         // not necessary for proj1
-        if (lockManager.hasExclusiveLock(pid, tid)) lockManager.exclusiveLocks.remove(pid);
-
-        if(lockManager.sharedLocks.containsKey(pid)){
-            if (lockManager.sharedLocks.get(pid).size() == 1) lockManager.sharedLocks.remove(pid);
-            else{
-                lockManager.sharedLocks.get(pid).removeAll(Collections.singleton(tid));
-            }
-        }
+        lockManager.release(pid, tid);
     }
 
 
@@ -191,7 +417,6 @@ public class BufferPool {
         //if abort -> revert any changes made by the transaction by restoring the page to its on-disk state
         //Either way -> release any state the BufferPool keeps regarding the transaction
         // aka releasing any locks that the transaction held
-        Page p;
         Catalog  catalog;
 
 
@@ -203,22 +428,23 @@ public class BufferPool {
             flushPages(tid);
         }
         else { //abort
-            for(Integer key : pool.keySet()){
-                p = pool.get(key);
-                if (p.isDirty() != null && (p.isDirty()).equals(tid)){
-                    catalog = Database.getCatalog();
-                    p  = catalog.getDbFile(p.getId().getTableId()).readPage(p.getId());
-                    pool.put(p.getId().hashCode(), p);
+            for(Frame frame : pool.values()){
+                synchronized (frame) {
+                    Page p = frame.page;
+                    if (p.isDirty() != null && (p.isDirty()).equals(tid)){
+                        catalog = Database.getCatalog();
+                        frame.page = catalog.getDbFile(p.getId().getTableId()).readPage(p.getId());
+                    }
                 }
             }
         }
 
         //Release all locks held by tid
         for (PageId pid : lockManager.sharedLocks.keySet()) {
-            if (lockManager.sharedLocks.get(pid).contains(tid)) releasePage(tid, pid);
+            if (lockManager.hasSharedLock(pid, tid)) releasePage(tid, pid);
         }
         for (PageId pid : lockManager.exclusiveLocks.keySet()) {
-            if (lockManager.exclusiveLocks.get(pid).equals(tid)) releasePage(tid, pid);
+            if (lockManager.hasExclusiveLock(pid, tid)) releasePage(tid, pid);
         }
 
         // System.out.println("After " + tid);
@@ -236,6 +462,14 @@ public class BufferPool {
      * Marks any pages that were dirtied by the operation as dirty by calling
      * their markDirty bit, and updates cached versions of any pages that have 
      * been dirtied so that future requests see up-to-date pages. 
+     * <p>
+     * The tuple's entries are added to the table's indexes (see
+     * Catalog#addIndex) in the same transaction.
+     * <p>
+     * The pages are locked and changed without holding the pool's monitor,
+     * so waiting for a lock does not keep the transaction holding it from
+     * committing; the monitor is taken only to mark them dirty (see
+     * dirtied).
      *
      * @param tid the transaction adding the tuple
      * @param tableId the table to add the tuple to
@@ -246,15 +480,56 @@ public class BufferPool {
         // some code goes here
         // not necessary for proj1
         DbFile file = Database.getCatalog().getDbFile(tableId);
-        synchronized(this){
-        ArrayList<Page> filthyPages = file.insertTuple(tid, t);      
-            for (Page p : filthyPages){
-                p.markDirty(true, tid);
-                pool.put(p.getId().hashCode(), p);
-            }
+        ArrayList<Page> filthyPages = file.insertTuple(tid, t);
+        dirtied(tid, filthyPages);
+        updateIndexes(tid, tableId, t, true);
+    }
+
+    /**
+     * Marks pages tid has changed dirty and makes them the cached copies.
+     * Until then they are safe from eviction because tid holds them
+     * READ_WRITE (see evictPage).
+     */
+    private synchronized void dirtied(TransactionId tid, List<Page> pages) {
+        for (Page p : pages){
+            p.markDirty(true, tid);
+            putFrame(p);
         }
     }
 
+    /**
+     * Adds the entries for t, just inserted into the table with the given
+     * id, to the table's indexes, or removes them before t is deleted.
+     * The pages changed are marked dirty as insertTuple does.
+     *
+     * @return the index pages changed
+     */
+    ArrayList<Page> updateIndexes(TransactionId tid, int tableId, Tuple t, boolean insert)
+        throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Page> changed = new ArrayList<Page>();
+        for (IndexFile index : Database.getCatalog().getIndexes(tableId)){
+            changed.addAll(updateIndex(tid, index, t, insert));
+        }
+        return changed;
+    }
+
+    /**
+     * Adds t's entry to one index, or removes it.
+     *
+     * @return the index pages changed
+     */
+    ArrayList<Page> updateIndex(TransactionId tid, IndexFile index, Tuple t, boolean insert)
+        throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Page> changed = new ArrayList<Page>();
+        if (insert) changed = index.insertTuple(tid, t);
+        else {
+            Page page = index.deleteTuple(tid, t);
+            if (page != null) changed.add(page); //null: an index no longer kept up to date
+        }
+        dirtied(tid, changed);
+        return changed;
+    }
+
     /**
      * Remove the specified tuple from the buffer pool.
      * Will acquire a write lock on the page the tuple is removed from. May block if
@@ -264,6 +539,11 @@ public class BufferPool {
      * their markDirty bit.  Does not need to update cached versions of any pages that have 
      * been dirtied, as it is not possible that a new page was created during the deletion
      * (note difference from addTuple).
+     * <p>
+     * The tuple's entries are removed from the table's indexes; they are
+     * built from the tuple as stored, so t may be a projection of it.
+     * As in insertTuple, the pool's monitor is only held to mark the pages
+     * dirty.
      *
      * @param tid the transaction adding the tuple.
      * @param t the tuple to add
@@ -272,11 +552,19 @@ public class BufferPool {
         throws DbException, TransactionAbortedException {
         // some code goes here
         // not necessary for proj1
-        DbFile file = Database.getCatalog().getDbFile(t.getRecordId().getPageId().getTableId());
-        synchronized(this){
-            Page page = file.deleteTuple(tid, t);
-            page.markDirty(true,tid);
+        int tableId = t.getRecordId().getPageId().getTableId();
+        DbFile file = Database.getCatalog().getDbFile(tableId);
+        if (!Database.getCatalog().getIndexes(tableId).isEmpty()){
+            //the indexes need the tuple as stored, not whatever projection of it the caller has
+            try {
+                updateIndexes(tid, tableId, ((HeapFile) file).getTuple(tid, t.getRecordId()), false);
+            }
+            catch (IOException bad){
+                throw new DbException("Index update failed: " + bad.getMessage());
+            }
         }
+        Page page = file.deleteTuple(tid, t);
+        dirtied(tid, Collections.singletonList(page));
 
         // System.out.println("DELETE FILTHY PAGE: " + page.getId().hashCode());        
         // System.out.println("Before: " + recentQueue); 
@@ -296,11 +584,48 @@ public class BufferPool {
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for proj1
-        for (Integer key : pool.keySet()){
-            Page page = pool.get(key);
-            flushPage(page.getId());
+        ArrayList<Page> dirtyPages = new ArrayList<Page>();
+        for (Frame frame : pool.values()){
+            if (frame.page.isDirty() != null) dirtyPages.add(frame.page);
+        }
+        writeBack(dirtyPages);
+
+    }
+
+    /**
+     * Writes dirty pages back to disk grouped by table and sorted by page
+     * number, so each DbFile can coalesce neighbouring pages into one write
+     * instead of seeing them in hash order one at a time. Pages are marked
+     * clean only once they are written, so pages a failed write leaves
+     * behind stay dirty and are not evicted.
+     */
+    private synchronized void writeBack(List<Page> dirtyPages) throws IOException {
+        for (Map.Entry<Integer, ArrayList<Page>> table : byTable(dirtyPages).entrySet()){
+            ArrayList<Page> pages = table.getValue();
+            Database.getCatalog().getDbFile(table.getKey()).writePages(pages);
+            for (Page page : pages) page.markDirty(false, null);
+            flushCount++;
         }
+    }
 
+    /**
+     * @return pages grouped by table id, each group sorted by page number
+     */
+    private static TreeMap<Integer, ArrayList<Page>> byTable(List<Page> pages) {
+        TreeMap<Integer, ArrayList<Page>> byTable = new TreeMap<Integer, ArrayList<Page>>();
+        for (Page page : pages){
+            int tableId = page.getId().getTableId();
+            if (!byTable.containsKey(tableId)) byTable.put(tableId, new ArrayList<Page>());
+            byTable.get(tableId).add(page);
+        }
+        for (ArrayList<Page> group : byTable.values()){
+            Collections.sort(group, new Comparator<Page>() {
+                public int compare(Page a, Page b) {
+                    return a.getId().pageNumber() - b.getId().pageNumber();
+                }
+            });
+        }
+        return byTable;
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -311,6 +636,7 @@ public class BufferPool {
     public synchronized void discardPage(PageId pid) {
         // some code goes here
     // not necessary for proj1
+        removeFrame(pid);
     }
 
     /**
@@ -320,31 +646,55 @@ public class BufferPool {
     private synchronized  void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for proj1
-        if (!pool.containsKey(pid.hashCode())) return;
-        DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
-        Page page = pool.get(pid.hashCode());
+        Frame frame = pool.get(pid);
+        if (frame == null) return;
+        Page page = frame.page;
         if (page.isDirty() != null) { //null = clean page
-            page.markDirty(false, null); 
-            file.writePage(page);      
+            //looked up only now: clean pages of a file dropped from the catalog can still be evicted
+            DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
+            file.writePage(page);
+            page.markDirty(false, null); //only once written, as in writeBack
+            flushCount++; //after the write, so a read that overlapped it sees a different count
         }
     }
 
     /** Write all pages of the specified transaction to disk.
+     * <p>
+     * The writes are made without holding the pool's monitor. That is safe
+     * because tid holds exclusive locks on all of its dirty pages, so no
+     * one else can change or read them, and the pages stay dirty (so cannot
+     * be evicted and read back stale) until the writes are done.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for proj1
-        for (Integer key : pool.keySet()){
-            Page page = pool.get(key);
-            if (page.isDirty() != null && (page.isDirty()).equals(tid)){
-                flushPage(page.getId());
+        ArrayList<Page> dirtyPages = new ArrayList<Page>();
+        synchronized (this) {
+            for (Frame frame : pool.values()){
+                Page page = frame.page;
+                if (page.isDirty() != null && (page.isDirty()).equals(tid)){
+                    dirtyPages.add(page);
+                }
             }
         }
+        for (Map.Entry<Integer, ArrayList<Page>> table : byTable(dirtyPages).entrySet()){
+            Database.getCatalog().getDbFile(table.getKey()).writePages(table.getValue());
+        }
+        synchronized (this) {
+            for (Page page : dirtyPages){
+                page.markDirty(false, null);
+                //what tid wrote is now the committed state to roll back to
+                page.setBeforeImage();
+            }
+            flushCount++; //after the writes, so a read that overlapped them sees a different count
+        }
     }
 
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Pages locked READ_WRITE are kept even if clean, since insertTuple and
+     * deleteTuple change them before marking them dirty.
      */
     private synchronized  void evictPage() throws DbException {
         // some code goes here
@@ -366,23 +716,20 @@ public class BufferPool {
         //     bad.printStackTrace();
         // }
 
-        boolean allDirty = true;
-        Page firstCleanPage = null;
         try {
-            for (Integer key : pool.keySet()){
-                //if page is clean
-                if (pool.get(key).isDirty() == null){
-                    firstCleanPage = pool.get(key);
-                    allDirty = false;
-                    break;
+            for (Map.Entry<PageId, Frame> entry : pool.entrySet()){
+                Frame frame = entry.getValue();
+                synchronized (frame) {
+                    //if page is clean, and not locked READ_WRITE: a page
+                    //being changed is only marked dirty once the change is made
+                    if (frame.page.isDirty() == null && !lockManager.exclusiveLocks.containsKey(entry.getKey())){
+                        flushPage(entry.getKey());
+                        removeFrame(entry.getKey());
+                        return;
+                    }
                 }
             }
-            if (allDirty){
-                throw new DbException("All pages are dirty! Commit pages!");
-            }
-            flushPage(firstCleanPage.getId());
-            // System.out.println(pool.containsKey(firstCleanPage.getId()));
-            pool.remove(firstCleanPage.getId().hashCode());
+            throw new DbException("All pages are dirty! Commit pages!");
         }
         catch (IOException bad) {
             bad.printStackTrace();
@@ -0,0 +1,296 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BulkLoader appends the rows of a delimited text file to a HeapFile much
+ * faster than inserting them one by one through the BufferPool.
+ * <p>
+ * The calling thread reads the input and cuts it into chunks of lines, one
+ * extent (EXTENT_PAGES pages) worth of rows each. A pool of worker threads
+ * parses the chunks in parallel and encodes each straight into full
+ * HeapPage images. The calling thread takes the finished extents back in
+ * input order and appends each with a single gathering write, outside the
+ * BufferPool. Only a bounded number of chunks is in flight at once, so
+ * memory use does not grow with the size of the input.
+ * <p>
+ * When run as part of a transaction, each extent gets one BULK_LOAD log
+ * record (see LogFile) instead of an UPDATE record per page. The table file
+ * is forced before load() returns, so the transaction can commit
+ * afterwards. If the load fails, the extents it wrote are undone (see
+ * undo), leaving alone any pages concurrent inserts appended. The loaded
+ * pages can be seen by concurrent scans before the loading transaction
+ * commits. Loads should therefore run as their own transaction; Parser's
+ * LOAD statement does this.
+ * <p>
+ * Input lines have the format HeapFileEncoder reads: fields separated by a
+ * single character, with INT and STRING fields. Strings are trimmed and
+ * truncated to Type.STRING_LEN. Empty lines are skipped. Lines that do not
+ * parse are reported and skipped.
+ */
+public class BulkLoader {
+
+    /** Pages per extent: the unit of parsing, writing and logging. */
+    public static final int EXTENT_PAGES = 64;
+
+    private final HeapFile file;
+    private final TupleDesc td;
+    private final int tuplesPerPage;
+    private final int headerBytes;
+    private char separator = ',';
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Creates a loader that appends to f, which must be a plain HeapFile
+     * (other page formats are loaded through insertTuple) with no indexes
+     * (the pages are written outside the BufferPool, which keeps indexes
+     * up to date).
+     *
+     * @throws DbException if f is not a plain HeapFile, or is indexed
+     */
+    public BulkLoader(DbFile f) throws DbException {
+        if (f == null || f.getClass() != HeapFile.class)
+            throw new DbException("Bulk load only supports plain heap files");
+        if (!Database.getCatalog().getIndexes(f.getId()).isEmpty())
+            throw new DbException("Bulk load does not update indexes; insert into indexed tables instead");
+        this.file = (HeapFile) f;
+        this.td = f.getTupleDesc();
+        this.tuplesPerPage = HeapPage.getNumTuples(td, f.getPageSize());
+        this.headerBytes = (tuplesPerPage + 7) / 8;
+    }
+
+    /** Sets the field separator (',' by default). */
+    public BulkLoader setSeparator(char separator) {
+        this.separator = separator;
+        return this;
+    }
+
+    /** Sets the number of parsing threads (the number of processors by default). */
+    public BulkLoader setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+        return this;
+    }
+
+    /** @return the number of input lines skipped because they did not parse */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Appends every row of in to the table.
+     *
+     * @param tid the transaction to log the load as part of, or null to load
+     *        without logging (e.g. a fresh file that is not in the catalog)
+     * @return the number of rows loaded
+     */
+    public long load(File in, TransactionId tid) throws IOException {
+        BufferedReader br = new BufferedReader(new FileReader(in), 1 << 16);
+        try {
+            return load(br, tid);
+        } finally {
+            br.close();
+        }
+    }
+
+    /**
+     * Appends every row read from in to the table; see load(File, TransactionId).
+     */
+    public long load(BufferedReader in, TransactionId tid) throws IOException {
+        ExecutorService workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "simpledb-bulkload");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        LinkedList<Future<Extent>> inFlight = new LinkedList<Future<Extent>>();
+        ArrayList<int[]> written = new ArrayList<int[]>(); //first page and page count of each extent appended
+        int maxInFlight = threads * 2;
+        long rows = 0;
+        boolean ok = false;
+        try {
+            int chunkLines = tuplesPerPage * EXTENT_PAGES;
+            ArrayList<String> chunk = new ArrayList<String>(chunkLines);
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.trim().length() == 0) continue;
+                chunk.add(line);
+                if (chunk.size() == chunkLines) {
+                    inFlight.add(workers.submit(new Encoder(chunk)));
+                    chunk = new ArrayList<String>(chunkLines);
+                    if (inFlight.size() >= maxInFlight) rows += write(inFlight.removeFirst(), tid, written);
+                }
+            }
+            if (!chunk.isEmpty()) inFlight.add(workers.submit(new Encoder(chunk)));
+            while (!inFlight.isEmpty()) rows += write(inFlight.removeFirst(), tid, written);
+            file.force();
+            ok = true;
+        } finally {
+            workers.shutdownNow();
+            if (!ok) undo(written);
+        }
+        return rows;
+    }
+
+    /**
+     * Undoes the extents a failed load appended. Scans may have cached
+     * their pages, so those copies are discarded from the BufferPool first.
+     * The extents at the end of the file are truncated away, unless pages
+     * were appended after them meanwhile; any others have pages appended by
+     * concurrent inserts behind them, which may already be committed, so
+     * they are overwritten with empty pages instead.
+     */
+    private void undo(List<int[]> written) throws IOException {
+        BufferPool pool = Database.getBufferPool();
+        for (int[] extent : written) {
+            for (int pgNo = extent[0]; pgNo < extent[0] + extent[1]; pgNo++)
+                pool.discardPage(new HeapPageId(file.getId(), pgNo));
+        }
+        int tail = written.size(); //written[tail..] run contiguously to the end of the load
+        int end = tail == 0 ? 0 : written.get(tail - 1)[0] + written.get(tail - 1)[1];
+        while (tail > 0 && written.get(tail - 1)[0] + written.get(tail - 1)[1]
+                == (tail == written.size() ? end : written.get(tail)[0]))
+            tail--;
+        if (tail < written.size() && file.truncate(end, written.get(tail)[0]) != written.get(tail)[0])
+            tail = written.size(); //something was appended after the load: clear its tail too
+        for (int i = 0; i < tail; i++) file.clearPages(written.get(i)[0], written.get(i)[1]);
+    }
+
+    /**
+     * Waits for an encoded extent and appends it to the file, recording
+     * where in written.
+     *
+     * @return the number of rows in it
+     */
+    private long write(Future<Extent> pending, TransactionId tid, List<int[]> written) throws IOException {
+        Extent extent;
+        try {
+            extent = pending.get();
+        } catch (InterruptedException e) {
+            throw new IOException("Bulk load interrupted");
+        } catch (ExecutionException e) {
+            IOException io = new IOException("Bulk load failed: " + e.getCause());
+            io.initCause(e.getCause());
+            throw io;
+        }
+        if (extent.pages.isEmpty()) return 0;
+        int first = file.appendPages(extent.pages);
+        written.add(new int[] { first, extent.pages.size() });
+        if (tid != null) Database.getLogFile().logBulkLoad(tid, file.getId(), first, extent.pages.size());
+        return extent.rows;
+    }
+
+    /** The pages encoded from one chunk of input. */
+    private static class Extent {
+        ArrayList<byte[]> pages = new ArrayList<byte[]>();
+        long rows;
+    }
+
+    /**
+     * Parses one chunk of lines into HeapPage images, filling each page
+     * before starting the next.
+     */
+    private class Encoder implements Callable<Extent> {
+        private final List<String> lines;
+
+        Encoder(List<String> lines) {
+            this.lines = lines;
+        }
+
+        public Extent call() {
+            Extent extent = new Extent();
+            ByteBuffer page = null;
+            int slot = 0;
+            byte[] record = new byte[td.getSize()];
+            ByteBuffer rec = ByteBuffer.wrap(record);
+            for (String line : lines) {
+                if (!encode(line, rec)) continue;
+                if (page == null || slot == tuplesPerPage) {
+                    page = ByteBuffer.wrap(new byte[file.getPageSize()]);
+                    extent.pages.add(page.array());
+                    slot = 0;
+                }
+                page.array()[slot / 8] |= (byte) (1 << (slot % 8));
+                System.arraycopy(record, 0, page.array(), headerBytes + slot * record.length, record.length);
+                slot++;
+                extent.rows++;
+            }
+            return extent;
+        }
+
+        /**
+         * Encodes one line into rec in the HeapPage tuple format.
+         *
+         * @return false if the line does not parse
+         */
+        private boolean encode(String line, ByteBuffer rec) {
+            rec.clear();
+            int start = 0;
+            for (int i = 0; i < td.numFields(); i++) {
+                int end = line.indexOf(separator, start);
+                if (end < 0) {
+                    if (i != td.numFields() - 1) return reject(line);
+                    end = line.length();
+                }
+                String s = line.substring(start, end).trim();
+                start = end + 1;
+                if (td.getFieldType(i) == Type.INT_TYPE) {
+                    try {
+                        rec.putInt(Integer.parseInt(s));
+                    } catch (NumberFormatException e) {
+                        return reject(line);
+                    }
+                } else {
+                    if (s.length() > Type.STRING_LEN) s = s.substring(0, Type.STRING_LEN);
+                    rec.putInt(s.length());
+                    for (int k = 0; k < s.length(); k++) rec.put((byte) s.charAt(k));
+                    for (int k = s.length(); k < Type.STRING_LEN; k++) rec.put((byte) 0);
+                }
+            }
+            return true;
+        }
+
+        private boolean reject(String line) {
+            rejected.incrementAndGet();
+            System.out.println("BAD LINE : " + line);
+            return false;
+        }
+    }
+
+    /**
+     * Converts a delimited text file into a new heap file, replacing
+     * HeapFileEncoder.convert for SimpleDb's convert command. Like the
+     * encoder, an empty input still produces one (empty) page.
+     *
+     * @return the number of rows converted
+     */
+    public static long convert(File inFile, File outFile, Type[] typeAr, char fieldSeparator)
+            throws IOException, DbException {
+        return convert(inFile, outFile, typeAr, fieldSeparator, BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Converts a delimited text file into a new heap file with pageSize byte
+     * pages, for a table declared with that page size.
+     *
+     * @return the number of rows converted
+     */
+    public static long convert(File inFile, File outFile, Type[] typeAr, char fieldSeparator, int pageSize)
+            throws IOException, DbException {
+        new FileOutputStream(outFile).close(); //start from an empty file
+        HeapFile hf = new HeapFile(outFile, new TupleDesc(typeAr), false, pageSize);
+        try {
+            long rows = new BulkLoader(hf).setSeparator(fieldSeparator).load(inFile, null);
+            if (hf.numPages() == 0) hf.appendPages(Collections.singletonList(HeapPage.createEmptyPageData(pageSize)));
+            return rows;
+        } finally {
+            hf.close();
+        }
+    }
+}
@@ -18,6 +18,8 @@ public class Catalog {
 
     HashMap<String, Table> nameTable; //maps a table name to a table
     HashMap<Integer, String> idTable; //maps dbfile id to dbfile name, which can be mapped to table using nameTable
+    HashMap<String, IndexFile> indexNames; //maps an index name to the index
+    HashMap<Integer, String> indexIds; //maps an index's dbfile id to its name
 
     private class Table {
     	private DbFile dbfile;
@@ -47,6 +49,8 @@ public class Catalog {
         // some code goes here
     	nameTable = new HashMap<String,Table>();
     	idTable = new HashMap<Integer,String>();
+    	indexNames = new HashMap<String,IndexFile>();
+    	indexIds = new HashMap<Integer,String>();
     }
 
     /**
@@ -117,10 +121,70 @@ public class Catalog {
      */
     public DbFile getDbFile(int tableid) throws NoSuchElementException {
         // some code goes here
+    	if (indexIds.containsKey(tableid)) return indexNames.get(indexIds.get(tableid));
     	if (!idTable.containsKey(tableid)) throw new NoSuchElementException("Bad id");
         return nameTable.get(idTable.get(tableid)).getDbFile();
     }
 
+    /**
+     * Adds an index to the catalog. Its pages are found through getDbFile
+     * like a table's, but it is not a table: it is not returned by
+     * tableIdIterator, and cannot be queried by name. The BufferPool keeps
+     * it up to date with its table from now on; the caller fills it with
+     * the table's existing tuples (see IndexBuilder).
+     *
+     * @param index the index; index.getTableId() must be in the catalog
+     * @param name the name of the index; an index already of that name is
+     *        replaced
+     */
+    public void addIndex(IndexFile index, String name) {
+        if (indexNames.containsKey(name)) {
+            indexIds.remove(indexNames.get(name).getId());
+        }
+        indexNames.put(name, index);
+        indexIds.put(index.getId(), name);
+    }
+
+    /**
+     * Drops an index from the catalog (its file is left alone), so the
+     * BufferPool stops maintaining it.
+     */
+    public void removeIndex(String name) {
+        IndexFile index = indexNames.remove(name);
+        if (index == null) return;
+        indexIds.remove(index.getId());
+        index.close();
+    }
+
+    /**
+     * @return the index with the given name
+     * @throws NoSuchElementException if there is no such index
+     */
+    public IndexFile getIndex(String name) throws NoSuchElementException {
+        if (name == null || !indexNames.containsKey(name)) throw new NoSuchElementException("Bad index name");
+        return indexNames.get(name);
+    }
+
+    /**
+     * @return the name of the index with the given id
+     * @throws NoSuchElementException if there is no such index
+     */
+    public String getIndexName(int indexid) throws NoSuchElementException {
+        if (!indexIds.containsKey(indexid)) throw new NoSuchElementException("Bad index id");
+        return indexIds.get(indexid);
+    }
+
+    /**
+     * @return the indexes on the table with the given id; empty if it has none
+     */
+    public List<IndexFile> getIndexes(int tableid) {
+        ArrayList<IndexFile> indexes = new ArrayList<IndexFile>();
+        for (IndexFile index : indexNames.values()) {
+            if (index.getTableId() == tableid) indexes.add(index);
+        }
+        return indexes;
+    }
+
     public String getPrimaryKey(int tableid) {
  	// some code goes here
     	if (!idTable.containsKey(tableid)) throw new NoSuchElementException("No primary key with inputted tableid");
@@ -138,15 +202,68 @@ public class Catalog {
         return idTable.get(id);
     }
     
-    /** Delete all tables from the catalog */
+    /** Delete all tables and indexes from the catalog, closing their files */
     public void clear() {
         // some code goes here
+        for (Table table : nameTable.values()){
+            table.getDbFile().close();
+        }
+        for (IndexFile index : indexNames.values()){
+            index.close();
+        }
     	nameTable = new HashMap<String, Table>(); //assuming do NOT want to reuse old tables (to avoid resizing)
     	idTable = new HashMap<Integer, String>();
+    	indexNames = new HashMap<String, IndexFile>();
+    	indexIds = new HashMap<Integer, String>();
     }
     
+    /**
+     * Parses the value of a pagesize table option: a number of bytes,
+     * optionally with a k (kilobytes) suffix.
+     *
+     * @return the page size, or -1 if s is not a valid one
+     */
+    static int parsePageSize(String s) {
+        int scale = 1;
+        if (s.toLowerCase().endsWith("k")) {
+            scale = 1024;
+            s = s.substring(0, s.length() - 1);
+        }
+        int size;
+        try {
+            size = Integer.parseInt(s) * scale;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+        if (size < BufferPool.MIN_PAGE_SIZE || size > BufferPool.MAX_PAGE_SIZE || Integer.bitCount(size) != 1)
+            return -1;
+        return size;
+    }
+
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line has the form
+     * <pre>
+     *     name (field type [pk] [dict] [index|hash|bitmap], field type, ...) [option ...]
+     * </pre>
+     * where pk marks the primary key, dict marks a string field of a columnar
+     * table to be dictionary encoded (see ColumnFile), index gives a field a
+     * B+ tree index (a BTreeFile in name.field.idx, registered as
+     * name_field; it is built from the table if the file does not exist
+     * yet, and is kept up to date from then on), hash gives it a hash index
+     * (a HashFile, likewise) instead, bitmap a bitmap index (a BitmapFile,
+     * for fields with few distinct values). These indexes are there every
+     * time the schema is loaded, unlike those made by CREATE INDEX, which
+     * last as long as the catalog does. The optional table options are:
+     * <ul>
+     * <li> mmap -- serve page reads from a memory mapping of the table file
+     * <li> slotted -- store variable-length records on slotted pages (see SlottedHeapFile)
+     * <li> compressed -- store pages deflated on disk (see CompressedHeapFile); not with slotted or mmap
+     * <li> columnar -- store each column in its own files (see ColumnFile); not with other options
+     * <li> pagesize=N -- use N byte pages instead of BufferPool.PAGE_SIZE; N is a power of two
+     *      between BufferPool.MIN_PAGE_SIZE and MAX_PAGE_SIZE, and may be written with a k suffix
+     *      (pagesize=32k). Combines with any of the other options.
+     * </ul>
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -164,6 +281,10 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                ArrayList<Boolean> dictionary = new ArrayList<Boolean>();
+                ArrayList<String> indexed = new ArrayList<String>();
+                ArrayList<String> hashed = new ArrayList<String>();
+                ArrayList<String> bitmapped = new ArrayList<String>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -175,21 +296,108 @@ public class Catalog {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    boolean dict = false;
+                    for (int a = 2; a < els2.length; a++) {
+                        if (els2[a].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[a].trim().equals("dict") && types.get(types.size() - 1) == Type.STRING_TYPE)
+                            dict = true;
+                        else if (els2[a].trim().equals("index"))
+                            indexed.add(els2[0].trim());
+                        else if (els2[a].trim().equals("hash"))
+                            hashed.add(els2[0].trim());
+                        else if (els2[a].trim().equals("bitmap"))
+                            bitmapped.add(els2[0].trim());
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[a]);
                             System.exit(0);
                         }
                     }
+                    dictionary.add(dict);
+                }
+                //anything after the closing paren is a list of table options
+                boolean memoryMapped = false;
+                boolean slotted = false;
+                boolean compressed = false;
+                boolean columnar = false;
+                int pageSize = BufferPool.PAGE_SIZE;
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                for (String opt : options.split("\\s+")) {
+                    if (opt.length() == 0)
+                        continue;
+                    if (opt.toLowerCase().equals("mmap"))
+                        memoryMapped = true;
+                    else if (opt.toLowerCase().equals("slotted"))
+                        slotted = true;
+                    else if (opt.toLowerCase().equals("compressed"))
+                        compressed = true;
+                    else if (opt.toLowerCase().equals("columnar"))
+                        columnar = true;
+                    else if (opt.toLowerCase().startsWith("pagesize=")) {
+                        pageSize = parsePageSize(opt.substring("pagesize=".length()));
+                        if (pageSize < 0) {
+                            System.out.println("Invalid page size " + opt);
+                            System.exit(0);
+                        }
+                    }
+                    else {
+                        System.out.println("Unknown table option " + opt);
+                        System.exit(0);
+                    }
                 }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                File tabFile = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabHf;
+                boolean[] dictAr = new boolean[dictionary.size()];
+                for (int i = 0; i < dictAr.length; i++) dictAr[i] = dictionary.get(i);
+                if (dictionary.contains(true) && !columnar) {
+                    System.out.println("Field annotation dict needs the columnar table option");
+                    System.exit(0);
+                }
+                if (columnar) {
+                    if (slotted || memoryMapped || compressed) {
+                        System.out.println("Table option columnar cannot be combined with other options");
+                        System.exit(0);
+                    }
+                    tabHf = new ColumnFile(tabFile, t, pageSize, dictAr);
+                }
+                else if (compressed) {
+                    if (slotted || memoryMapped) {
+                        System.out.println("Table option compressed cannot be combined with slotted or mmap");
+                        System.exit(0);
+                    }
+                    tabHf = new CompressedHeapFile(tabFile, t, pageSize);
+                }
+                else if (slotted)
+                    tabHf = new SlottedHeapFile(tabFile, t, memoryMapped, pageSize);
+                else
+                    tabHf = new HeapFile(tabFile, t, memoryMapped, pageSize);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+                if ((!indexed.isEmpty() || !hashed.isEmpty() || !bitmapped.isEmpty()) && !(tabHf instanceof HeapFile)) {
+                    System.out.println("Field annotations index, hash and bitmap need a heap file table");
+                    System.exit(0);
+                }
+                for (String field : hashed) {
+                    if (!indexed.contains(field)) indexed.add(field);
+                }
+                for (String field : bitmapped) {
+                    if (!indexed.contains(field)) indexed.add(field);
+                }
+                for (String field : indexed) {
+                    File idxFile = new File(baseFolder + "/" + name + "." + field + ".idx");
+                    boolean exists = idxFile.length() > 0;
+                    int keyField = t.fieldNameToIndex(field);
+                    IndexFile index;
+                    if (hashed.contains(field)) index = new HashFile(idxFile, tabHf.getId(), keyField);
+                    else if (bitmapped.contains(field)) index = new BitmapFile(idxFile, tabHf.getId(), keyField);
+                    else index = new BTreeFile(idxFile, tabHf.getId(), keyField);
+                    addIndex(index, name + "_" + field);
+                    if (!exists) IndexBuilder.build(index);
+                    System.out.println("Added index : " + name + "_" + field);
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -197,6 +405,12 @@ public class Catalog {
         } catch (IndexOutOfBoundsException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
+        } catch (DbException e) {
+            System.out.println ("Index build failed : " + e.getMessage());
+            System.exit(0);
+        } catch (TransactionAbortedException e) {
+            System.out.println ("Index build failed : " + line);
+            System.exit(0);
         }
     }
 }
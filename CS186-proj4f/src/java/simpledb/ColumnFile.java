@@ -0,0 +1,402 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * ColumnFile is a column-oriented DbFile: each field of the TupleDesc is
+ * stored in its own chain of ColumnPages, in its own file next to the table
+ * file (table.dat.0, table.dat.1, ...). A query that references only some of
+ * the columns reads only those columns' pages, through iterator(tid, columns)
+ * (SeqScan does this when given a column list, see LogicalPlan.physicalPlan).
+ * <p>
+ * Row r of the table is slot r % n of page r / n of every column, where n is
+ * the number of values of that column's type that fit on a page. All
+ * columns agree on which rows are in use. New rows go into the first free
+ * slot of the last page of column 0, or start a new page; rows freed by
+ * deletes in earlier pages are not reused.
+ * <p>
+ * A tuple's RecordId names the page of whichever column it was read
+ * through, and its slot there; the row number follows from that.
+ * <p>
+ * STRING_TYPE columns can be dictionary encoded (the dict annotation in the
+ * catalog): their pages hold 4 byte codes instead of STRING_LEN + 4 byte
+ * strings, and the distinct values are kept in a StringDictionary in
+ * table.dat.N.dict. Values read from such a column are DictFields, which
+ * equality predicates, HashEquiJoin and the aggregators compare by code.
+ *
+ * @see ColumnPage
+ */
+public class ColumnFile implements DbFile {
+
+    private static final long serialVersionUID = 1L;
+
+    private File file;
+    private TupleDesc td;
+    private int pageSize;
+    private StringDictionary[] dicts; //per column; null for columns that are not dictionary encoded
+
+    //one channel per column, opened lazily and kept open until close()
+    private transient RandomAccessFile[] rafs;
+
+    /**
+     * Constructs a column file. The columns are stored in files named after
+     * f with the column index appended; f itself is only used as that name
+     * and for the table id.
+     */
+    public ColumnFile(File f, TupleDesc td) {
+        this(f, td, BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Constructs a column file whose columns are stored on pageSize byte
+     * pages.
+     */
+    public ColumnFile(File f, TupleDesc td, int pageSize) {
+        this(f, td, pageSize, new boolean[td.numFields()]);
+    }
+
+    /**
+     * Constructs a column file whose columns are stored on pageSize byte
+     * pages, with the STRING_TYPE columns c for which dictionary[c] is set
+     * dictionary encoded.
+     *
+     * @throws IllegalArgumentException if a column to encode is not a
+     *         STRING_TYPE column
+     */
+    public ColumnFile(File f, TupleDesc td, int pageSize, boolean[] dictionary) {
+        this.file = f;
+        this.td = td;
+        this.pageSize = pageSize;
+        this.dicts = new StringDictionary[td.numFields()];
+        for (int c = 0; c < dictionary.length; c++) {
+            if (!dictionary[c]) continue;
+            if (td.getFieldType(c) != Type.STRING_TYPE)
+                throw new IllegalArgumentException("Only string columns can be dictionary encoded");
+            dicts[c] = new StringDictionary(new File(getColumnFile(c).getPath() + ".dict"));
+        }
+    }
+
+    /**
+     * Returns the base name of this table's files.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the file holding the pages of the given column
+     */
+    public File getColumnFile(int column) {
+        return new File(file.getPath() + "." + column);
+    }
+
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    // see DbFile.java for javadocs
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @return the dictionary of the given column, or null if it is not
+     *         dictionary encoded
+     */
+    public StringDictionary getDictionary(int column) {
+        return dicts[column];
+    }
+
+    /**
+     * @return the type of the values in the given column's page slots: the
+     *         column's type, or INT_TYPE codes for a dictionary encoded column
+     */
+    Type storedType(int column) {
+        return (dicts[column] != null) ? Type.INT_TYPE : td.getFieldType(column);
+    }
+
+    /**
+     * @return the TupleDesc of a scan of just the given columns
+     */
+    public TupleDesc getTupleDesc(int[] columns) {
+        Type[] types = new Type[columns.length];
+        String[] names = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            types[i] = td.getFieldType(columns[i]);
+            names[i] = td.getFieldName(columns[i]);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    private synchronized FileChannel getChannel(int column) throws IOException {
+        if (rafs == null) rafs = new RandomAccessFile[td.numFields()];
+        if (rafs[column] == null || !rafs[column].getChannel().isOpen())
+            rafs[column] = new RandomAccessFile(getColumnFile(column), "rw");
+        return rafs[column].getChannel();
+    }
+
+    /**
+     * Closes the column files; a later page access reopens them.
+     */
+    public synchronized void close() {
+        for (StringDictionary dict : dicts) {
+            if (dict != null) dict.close();
+        }
+        if (rafs == null) return;
+        for (int i = 0; i < rafs.length; i++) {
+            try {
+                if (rafs[i] != null) rafs[i].close();
+            } catch (IOException bad) {
+                bad.printStackTrace();
+            }
+        }
+        rafs = null;
+    }
+
+    /**
+     * @return the number of values per page of the given column
+     */
+    int valuesPerPage(int column) {
+        return ColumnPage.getNumValues(storedType(column), pageSize);
+    }
+
+    /**
+     * @return the number of pages of the given column
+     */
+    public int numPages(int column) {
+        return (int) ((getColumnFile(column).length() + pageSize - 1) / pageSize);
+    }
+
+    /**
+     * @return the number of pages of all columns together
+     */
+    public int numPages() {
+        int pages = 0;
+        for (int c = 0; c < td.numFields(); c++) pages += numPages(c);
+        return pages;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        ColumnPageId cpid = (ColumnPageId) pid;
+        byte[] data = new byte[pageSize];
+        try {
+            FileChannel fc = getChannel(cpid.column());
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            long offset = (long) cpid.pageNumber() * pageSize;
+            while (buf.hasRemaining()) {
+                if (fc.read(buf, offset + buf.position()) < 0) break; //EOF: rest stays empty
+            }
+            return new ColumnPage(cpid, data);
+        }
+        catch (IOException bad) {
+            System.out.println("Column read failure");
+            return null;
+        }
+    }
+
+    private void writeData(int column, int pgNo, byte[] data) throws IOException {
+        FileChannel fc = getChannel(column);
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        long offset = (long) pgNo * pageSize;
+        while (buf.hasRemaining()) {
+            fc.write(buf, offset + buf.position());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        ColumnPageId pid = (ColumnPageId) page.getId();
+        writeData(pid.column(), pid.pageNumber(), page.getPageData());
+    }
+
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+        for (Page page : pages) writePage(page);
+    }
+
+    /**
+     * @return the page of the given column holding row, appending empty
+     *         pages to the column first if it does not reach that far yet
+     */
+    private ColumnPage getRowPage(TransactionId tid, int column, int row, Permissions perm)
+            throws DbException, TransactionAbortedException, IOException {
+        int pgNo = row / valuesPerPage(column);
+        synchronized (this) {
+            for (int p = numPages(column); p <= pgNo; p++) {
+                writeData(column, p, new byte[pageSize]);
+            }
+        }
+        return (ColumnPage) Database.getBufferPool().getPage(tid, new ColumnPageId(getId(), column, pgNo), perm);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (t == null) throw new DbException("Tuple is null!");
+        if (!t.getTupleDesc().equals(td)) throw new DbException("TupleDesc don't match!");
+
+        //column 0 decides the row; holding its last page serializes concurrent
+        //inserts, but only once the page is still the last one after the lock
+        //is granted: meanwhile another insert may have filled it and appended
+        //the next. A full last page is appended to and the loop locks that.
+        int row;
+        int last = Math.max(numPages(0) - 1, 0);
+        while (true) {
+            ColumnPage first = getRowPage(tid, 0, last * valuesPerPage(0), Permissions.READ_WRITE);
+            int now = numPages(0) - 1;
+            if (now != last) {
+                last = now;
+                continue;
+            }
+            int slot = first.getFirstEmptySlot();
+            if (slot >= 0) {
+                row = last * valuesPerPage(0) + slot;
+                break;
+            }
+            last++;
+        }
+
+        //each page is marked dirty as soon as it changes, so that if a later
+        //column fails an abort still rolls back the columns already written
+        ArrayList<Page> dirtyPages = new ArrayList<Page>();
+        for (int c = 0; c < td.numFields(); c++) {
+            ColumnPage page = getRowPage(tid, c, row, Permissions.READ_WRITE);
+            page.setValue(row % valuesPerPage(c), t.getField(c));
+            page.markDirty(true, tid);
+            dirtyPages.add(page);
+        }
+        t.setRecordId(new RecordId(dirtyPages.get(0).getId(), row % valuesPerPage(0)));
+        return dirtyPages;
+    }
+
+    /**
+     * @return the row number of the tuple with the given RecordId
+     */
+    int rowOf(RecordId rid) {
+        ColumnPageId pid = (ColumnPageId) rid.getPageId();
+        return pid.pageNumber() * valuesPerPage(pid.column()) + rid.tupleno();
+    }
+
+    /**
+     * Deletes the row of t from every column. Each page is marked dirty as
+     * soon as it changes, as in insertTuple; the page of t's RecordId is
+     * returned.
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !(rid.getPageId() instanceof ColumnPageId) || rid.getPageId().getTableId() != getId())
+            throw new DbException("Tuple not in this table!");
+        int row = rowOf(rid);
+        int ridColumn = ((ColumnPageId) rid.getPageId()).column();
+
+        Page result = null;
+        for (int c = 0; c < td.numFields(); c++) {
+            int pgNo = row / valuesPerPage(c);
+            if (pgNo >= numPages(c)) throw new DbException("Tuple not in this table!");
+            ColumnPage page = (ColumnPage) Database.getBufferPool().getPage(tid,
+                    new ColumnPageId(getId(), c, pgNo), Permissions.READ_WRITE);
+            page.clearValue(row % valuesPerPage(c));
+            page.markDirty(true, tid);
+            if (c == ridColumn) result = page;
+        }
+        return result;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        int[] all = new int[td.numFields()];
+        for (int i = 0; i < all.length; i++) all[i] = i;
+        return iterator(tid, all);
+    }
+
+    /**
+     * @return an iterator over the given columns of every row; it returns
+     *         tuples with getTupleDesc(columns) and reads no other column's
+     *         pages
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+        return new ColumnFileIterator(tid, columns);
+    }
+
+    /**
+     * Walks the rows in the pages of the first requested column (the
+     * "driving" column), fetching the matching page of each other requested
+     * column as the rows move onto it.
+     */
+    private class ColumnFileIterator implements DbFileIterator {
+        TransactionId tid;
+        int[] columns;
+        TupleDesc scanTd;
+
+        ColumnPage[] pages; //current page of each requested column
+        int row; //next row to look at
+        int end; //rows in the driving column
+        Tuple next;
+
+        ColumnFileIterator(TransactionId tid, int[] columns) {
+            this.tid = tid;
+            this.columns = columns;
+            this.scanTd = getTupleDesc(columns);
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            pages = new ColumnPage[columns.length];
+            row = 0;
+            end = numPages(columns[0]) * valuesPerPage(columns[0]);
+            next = null;
+        }
+
+        private ColumnPage page(int i, int row) throws DbException, TransactionAbortedException {
+            int c = columns[i];
+            int pgNo = row / valuesPerPage(c);
+            if (pages[i] == null || pages[i].getId().pageNumber() != pgNo) {
+                pages[i] = (ColumnPage) Database.getBufferPool().getPage(tid,
+                        new ColumnPageId(getId(), c, pgNo), Permissions.READ_ONLY);
+            }
+            return pages[i];
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (pages == null) return false;
+            int perPage = valuesPerPage(columns[0]);
+            while (next == null && row < end) {
+                int r = row++;
+                ColumnPage driver = page(0, r);
+                if (!driver.isSlotUsed(r % perPage)) continue;
+                Tuple t = new Tuple(scanTd);
+                t.setRecordId(new RecordId(driver.getId(), r % perPage));
+                for (int i = 0; i < columns.length; i++) {
+                    t.setField(i, page(i, r).getValue(r % valuesPerPage(columns[i])));
+                }
+                next = t;
+            }
+            return next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext()) throw new NoSuchElementException();
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            pages = null;
+            next = null;
+        }
+    }
+}
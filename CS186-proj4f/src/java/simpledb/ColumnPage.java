@@ -0,0 +1,217 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * ColumnPage holds the values of one column for a run of consecutive rows
+ * of a ColumnFile. The layout is HeapPage's, for a single field: a bitmap of
+ * the rows in use, then one fixed-width value slot per row. Slot i of page p
+ * of column c holds row p * getNumValues(stored type of c, page size) + i.
+ * <p>
+ * The stored type is the column's type, except for dictionary encoded
+ * columns (see ColumnFile#getDictionary), whose slots hold the INT_TYPE
+ * codes of their values; those values are returned as the dictionary's
+ * DictFields.
+ * <p>
+ * Values are parsed out of the page bytes only when asked for.
+ *
+ * @see ColumnFile
+ */
+public class ColumnPage implements Page {
+
+    ColumnPageId pid;
+    Type type;
+    Type stored; //type of the slots: INT_TYPE codes when dict is set, else type
+    StringDictionary dict; //the column's dictionary, or null if it is not encoded
+    int numSlots;
+    int pageSize; //bytes per page of this page's table
+    byte header[];
+
+    ByteBuffer data; //the page as read from disk; never written
+    Field values[]; //values set since the page was read; null means "read from data"
+
+    byte[] oldData; //before image; null means "same as the current contents"
+
+    TransactionId dirtyTID = null; //null means not dirty
+
+    /**
+     * Create a ColumnPage from a set of bytes of data read from disk. The
+     * page keeps data (and never writes to it), so callers must not reuse it.
+     */
+    public ColumnPage(ColumnPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.type = Database.getCatalog().getTupleDesc(id.getTableId()).getFieldType(id.column());
+        DbFile f = Database.getCatalog().getDbFile(id.getTableId());
+        this.dict = (f instanceof ColumnFile) ? ((ColumnFile) f).getDictionary(id.column()) : null;
+        this.stored = (dict != null) ? Type.INT_TYPE : type;
+        this.pageSize = data.length;
+        this.numSlots = getNumValues(stored, pageSize);
+        this.data = ByteBuffer.wrap(data);
+
+        header = new byte[getHeaderSize(numSlots)];
+        System.arraycopy(data, 0, header, 0, header.length);
+        values = new Field[numSlots];
+
+        oldData = data;
+    }
+
+    /** @return the number of values of the given type a pageSize byte page holds */
+    static int getNumValues(Type type, int pageSize) {
+        return pageSize * 8 / (type.getLen() * 8 + 1);
+    }
+
+    private static int getHeaderSize(int numSlots) {
+        return (numSlots + 7) / 8;
+    }
+
+    public ColumnPageId getId() {
+        return pid;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public ColumnPage getBeforeImage() {
+        try {
+            return new ColumnPage(pid, (oldData != null) ? oldData : getPageData());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        oldData = null;
+    }
+
+    private void captureBeforeImage() {
+        if (oldData == null) oldData = getPageData();
+    }
+
+    /**
+     * @return the number of value slots on this page
+     */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return ((header[i/8] >> (i%8)) & 1) == 1;
+    }
+
+    private void markSlotUsed(int i, boolean value) {
+        if (value)
+            header[i/8] |= (byte) (1 << (i%8));
+        else
+            header[i/8] &= (byte) ~(1 << (i%8));
+    }
+
+    /**
+     * @return the first empty slot, or -1 if the page is full
+     */
+    public int getFirstEmptySlot() {
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the value in a slot, or null if the slot is empty
+     */
+    public Field getValue(int slot) {
+        if (!isSlotUsed(slot)) return null;
+        Field f = values[slot];
+        if (f == null) {
+            f = (dict != null) ? dict.get(data.getInt(slotOffset(slot))) : type.parse(data, slotOffset(slot));
+            values[slot] = f;
+        }
+        return f;
+    }
+
+    private int slotOffset(int slot) {
+        return header.length + slot * stored.getLen();
+    }
+
+    /**
+     * Stores a value in an empty slot.
+     * @throws DbException if the slot is in use or the value has the wrong type
+     */
+    public void setValue(int slot, Field f) throws DbException {
+        if (isSlotUsed(slot)) throw new DbException("Slot " + slot + " is in use");
+        if (f == null || f.getType() != type) throw new DbException("Value doesn't match column type");
+        if (dict != null) f = encode(f);
+        captureBeforeImage();
+        values[slot] = f;
+        markSlotUsed(slot, true);
+    }
+
+    /**
+     * @return f as a DictField of this column's dictionary, adding its
+     *         value to the dictionary if it is new
+     */
+    private DictField encode(Field f) throws DbException {
+        if (f instanceof DictField && ((DictField) f).getDictionary() == dict) return (DictField) f;
+        try {
+            return dict.encode(((StringField) f).getValue());
+        } catch (IOException e) {
+            throw new DbException("Couldn't add value to dictionary " + dict.getFile() + ": " + e);
+        }
+    }
+
+    /**
+     * Empties a slot.
+     * @throws DbException if the slot is already empty
+     */
+    public void clearValue(int slot) throws DbException {
+        if (!isSlotUsed(slot)) throw new DbException("Tried to delete null value");
+        captureBeforeImage();
+        markSlotUsed(slot, false);
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page; passing
+     * it to the ColumnPage constructor produces an identical page.
+     */
+    public byte[] getPageData() {
+        byte[] out = new byte[pageSize];
+        System.arraycopy(header, 0, out, 0, header.length);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(stored.getLen());
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) continue; //empty slots stay zero
+            int offset = slotOffset(i);
+            if (values[i] == null) { //never parsed: its bytes are unchanged
+                System.arraycopy(data.array(), data.arrayOffset() + offset, out, offset, stored.getLen());
+                continue;
+            }
+            if (dict != null) {
+                ByteBuffer.wrap(out).putInt(offset, ((DictField) values[i]).getCode());
+                continue;
+            }
+            try {
+                baos.reset();
+                values[i].serialize(dos);
+                dos.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            System.arraycopy(baos.toByteArray(), 0, out, offset, type.getLen());
+        }
+        return out;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        if (dirty) captureBeforeImage();
+        this.dirtyTID = (dirty) ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return this.dirtyTID;
+    }
+}
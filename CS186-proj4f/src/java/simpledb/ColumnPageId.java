@@ -0,0 +1,72 @@
+package simpledb;
+
+/** Unique identifier for ColumnPage objects: one page of one column of a ColumnFile. */
+public class ColumnPageId implements PageId {
+
+    private int tableId;
+    private int column;
+    private int pgNo;
+
+    /**
+     * Constructor. Create a page id for page pgNo of the given column of a
+     * table.
+     *
+     * @param tableId The table that is being referenced
+     * @param column The column (field index in the table's TupleDesc)
+     * @param pgNo The page number within that column.
+     */
+    public ColumnPageId(int tableId, int column, int pgNo) {
+        this.tableId = tableId;
+        this.column = column;
+        this.pgNo = pgNo;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the column this page holds values of */
+    public int column() {
+        return column;
+    }
+
+    /**
+     * @return the page number within column() of the table
+     */
+    public int pageNumber() {
+        return pgNo;
+    }
+
+    /**
+     * @return a hash code for this page; the column goes into the high bits
+     *   so pages of different columns of one table never collide
+     * @see BufferPool
+     */
+    public int hashCode() {
+        return ((tableId * 31 + column) << 16) + pgNo;
+    }
+
+    public boolean equals(Object o) {
+        if (o instanceof ColumnPageId) {
+            ColumnPageId other = (ColumnPageId) o;
+            return tableId == other.tableId && column == other.column && pgNo == other.pgNo;
+        }
+        return false;
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk (see the constructor).
+     */
+    public int[] serialize() {
+        int data[] = new int[3];
+
+        data[0] = tableId;
+        data[1] = column;
+        data[2] = pgNo;
+
+        return data;
+    }
+
+}
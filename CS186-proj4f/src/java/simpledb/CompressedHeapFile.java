@@ -0,0 +1,348 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import com.jcraft.jzlib.JZlib;
+import com.jcraft.jzlib.ZStream;
+
+/**
+ * CompressedHeapFile is a HeapFile whose pages are stored deflated (with
+ * jzlib) on disk and inflated on readPage, so the BufferPool, the operators
+ * and recovery see ordinary HeapPages. It trades CPU for read volume, which
+ * suits large, read-mostly (archival) tables.
+ * <p>
+ * The file is a short header followed by extents, one per page:
+ * <pre>
+ *   int magic, int page size                       file header
+ *   int pageNo, int length, int capacity, bytes    one extent
+ * </pre>
+ * length is the size of the deflated page; a page that does not compress is
+ * stored as is, with length == the page size. capacity is the space
+ * reserved for the payload (length rounded up), so a page whose contents grow
+ * a little can be rewritten in place. A page that outgrows its extent is
+ * written to a new extent at the end of the file and the old extent is marked
+ * free (pageNo -1); free extents are only reclaimed by rewriting the table.
+ * <p>
+ * The extent map (page number to extent) is kept in memory and rebuilt on
+ * first use by walking the extent headers; if a crash leaves two extents for
+ * one page, the later one in the file wins.
+ * <p>
+ * Declare a table with the "compressed" option in the catalog schema file,
+ * and build its file from an ordinary heap file with fromHeapFile.
+ *
+ * @see HeapFile
+ */
+public class CompressedHeapFile extends HeapFile {
+
+    private static final int MAGIC = 0x43484631; //"CHF1"
+    static final int FILE_HEADER_SIZE = 8;
+    static final int EXTENT_HEADER_SIZE = 12;
+    private static final int ALIGN = 256; //extent payloads are rounded up to this
+
+    //the extent map, loaded lazily: page number -> extent offset/length/capacity
+    private transient long[] offsets;
+    private transient int[] lengths;
+    private transient int[] capacities;
+    private transient int pages;
+    private transient long end; //where the next extent goes
+
+    public CompressedHeapFile(File f, TupleDesc td) {
+        this(f, td, BufferPool.PAGE_SIZE);
+    }
+
+    public CompressedHeapFile(File f, TupleDesc td, int pageSize) {
+        super(f, td, false, pageSize);
+    }
+
+    /**
+     * Loads the extent map if it has not been yet.
+     */
+    private synchronized void loadExtentMap() throws IOException {
+        if (offsets != null) return;
+        offsets = new long[16];
+        lengths = new int[16];
+        capacities = new int[16];
+        pages = 0;
+
+        long size = getChannel().size();
+        if (size < FILE_HEADER_SIZE) {
+            //new (empty) table: start the file
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+            header.putInt(MAGIC).putInt(getPageSize());
+            writeFully(header.array(), 0);
+            end = FILE_HEADER_SIZE;
+            return;
+        }
+        byte[] header = new byte[FILE_HEADER_SIZE];
+        readFully(header, 0);
+        ByteBuffer buf = ByteBuffer.wrap(header);
+        if (buf.getInt(0) != MAGIC || buf.getInt(4) != getPageSize())
+            throw new IOException(getFile() + " is not a compressed heap file with " + getPageSize() + " byte pages");
+
+        long pos = FILE_HEADER_SIZE;
+        byte[] extent = new byte[EXTENT_HEADER_SIZE];
+        while (pos + EXTENT_HEADER_SIZE <= size) {
+            readFully(extent, pos);
+            buf = ByteBuffer.wrap(extent);
+            int pgNo = buf.getInt(0), capacity = buf.getInt(8);
+            if (pgNo >= 0) setExtent(pgNo, pos, buf.getInt(4), capacity);
+            pos += EXTENT_HEADER_SIZE + capacity;
+        }
+        end = pos;
+    }
+
+    private void setExtent(int pgNo, long offset, int length, int capacity) {
+        if (pgNo >= offsets.length) {
+            int n = Math.max(pgNo + 1, offsets.length * 2);
+            offsets = Arrays.copyOf(offsets, n);
+            lengths = Arrays.copyOf(lengths, n);
+            capacities = Arrays.copyOf(capacities, n);
+        }
+        offsets[pgNo] = offset;
+        lengths[pgNo] = length;
+        capacities[pgNo] = capacity;
+        pages = Math.max(pages, pgNo + 1);
+    }
+
+    /**
+     * @return the deflated form of a page, or the page itself if deflating
+     *         does not make it smaller
+     */
+    static byte[] compress(byte[] data) {
+        byte[] out = new byte[data.length + data.length / 100 + 64];
+        ZStream z = new ZStream();
+        z.deflateInit(JZlib.Z_DEFAULT_COMPRESSION);
+        z.next_in = data;
+        z.next_in_index = 0;
+        z.avail_in = data.length;
+        z.next_out = out;
+        z.next_out_index = 0;
+        z.avail_out = out.length;
+        int err = z.deflate(JZlib.Z_FINISH);
+        int n = (int) z.total_out;
+        z.deflateEnd();
+        if (err != JZlib.Z_STREAM_END || n >= data.length) return data;
+        return Arrays.copyOf(out, n);
+    }
+
+    /**
+     * Inflates length bytes of in starting at offset into a pageSize byte
+     * page.
+     */
+    static byte[] decompress(byte[] in, int offset, int length, int pageSize) throws IOException {
+        byte[] data = new byte[pageSize];
+        if (length == pageSize) { //stored as is
+            System.arraycopy(in, offset, data, 0, length);
+            return data;
+        }
+        ZStream z = new ZStream();
+        z.inflateInit();
+        z.next_in = in;
+        z.next_in_index = offset;
+        z.avail_in = length;
+        z.next_out = data;
+        z.next_out_index = 0;
+        z.avail_out = data.length;
+        int err = z.inflate(JZlib.Z_FINISH);
+        long n = z.total_out;
+        z.inflateEnd();
+        if (err != JZlib.Z_STREAM_END || n != data.length)
+            throw new IOException("Corrupt compressed page: " + z.msg);
+        return data;
+    }
+
+    /**
+     * Reads and inflates page pgNo.
+     *
+     * @return the page bytes; an all-zero (empty) page if pgNo has no extent
+     */
+    private byte[] readPageData(int pgNo) throws IOException {
+        long offset;
+        int length;
+        synchronized (this) {
+            loadExtentMap();
+            if (pgNo >= pages || offsets[pgNo] == 0) return emptyPageData();
+            offset = offsets[pgNo];
+            length = lengths[pgNo];
+        }
+        byte[] extent = new byte[EXTENT_HEADER_SIZE + length];
+        readFully(extent, offset);
+        return decodeExtent(extent, 0, pgNo);
+    }
+
+    /** Pages are stored deflated, so PageIO cannot read them directly. */
+    protected boolean readsPagesAsIs() {
+        return false;
+    }
+
+    /**
+     * Inflates the extent of page pgNo found at start in buf.
+     */
+    private byte[] decodeExtent(byte[] buf, int start, int pgNo) throws IOException {
+        ByteBuffer header = ByteBuffer.wrap(buf, start, EXTENT_HEADER_SIZE);
+        //a read-ahead racing a relocation can find the old, freed extent
+        if (header.getInt(start) != pgNo)
+            throw new IOException("Extent at " + start + " no longer holds page " + pgNo);
+        return decompress(buf, start + EXTENT_HEADER_SIZE, header.getInt(start + 4), getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        try {
+            return decodePage((HeapPageId) pid, readPageData(pid.pageNumber()));
+        }
+        catch (IOException bad) {
+            System.out.println("Compressed page read failure");
+            bad.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Reads count consecutive pages starting at page first. Extents written
+     * in page order sit next to each other in the file, so when they do the
+     * whole range comes in with one read; otherwise page by page.
+     */
+    public ArrayList<Page> readPages(int first, int count) throws IOException {
+        ArrayList<Page> result = new ArrayList<Page>();
+        long[] offs;
+        int[] lens;
+        synchronized (this) {
+            loadExtentMap();
+            count = Math.min(count, pages - first);
+            if (count <= 0) return result;
+            offs = Arrays.copyOfRange(offsets, first, first + count);
+            lens = new int[count];
+            for (int i = 0; i < count; i++) lens[i] = capacities[first + i];
+        }
+
+        boolean contiguous = offs[0] != 0;
+        for (int i = 1; i < count && contiguous; i++) {
+            contiguous = offs[i] == offs[i - 1] + EXTENT_HEADER_SIZE + lens[i - 1];
+        }
+        byte[] run = null;
+        if (contiguous) {
+            run = new byte[(int) (offs[count - 1] + EXTENT_HEADER_SIZE + lens[count - 1] - offs[0])];
+            readFully(run, offs[0]);
+        }
+        for (int i = 0; i < count; i++) {
+            byte[] data = contiguous ? decodeExtent(run, (int) (offs[i] - offs[0]), first + i) : readPageData(first + i);
+            //no free space map update: the buffer pool may hold a newer copy of these pages
+            result.add(newPage(new HeapPageId(getId(), first + i), data));
+        }
+        return result;
+    }
+
+    /**
+     * Writes page pgNo, in place if it still fits its extent and to a new
+     * extent at the end of the file otherwise.
+     */
+    private synchronized void writePageData(int pgNo, byte[] data) throws IOException {
+        loadExtentMap();
+        byte[] payload = compress(data);
+        boolean inPlace = pgNo < pages && offsets[pgNo] != 0 && payload.length <= capacities[pgNo];
+        long offset = inPlace ? offsets[pgNo] : end;
+        int capacity = inPlace ? capacities[pgNo] : (payload.length + ALIGN - 1) / ALIGN * ALIGN;
+
+        ByteBuffer extent = ByteBuffer.allocate(EXTENT_HEADER_SIZE + (inPlace ? payload.length : capacity));
+        extent.putInt(pgNo).putInt(payload.length).putInt(capacity).put(payload);
+        writeFully(extent.array(), offset);
+        if (!inPlace) {
+            end = offset + extent.capacity();
+            if (pgNo < pages && offsets[pgNo] != 0) {
+                //free the old extent; until this lands, recovery of the map prefers the new one anyway
+                writeFully(ByteBuffer.allocate(4).putInt(-1).array(), offsets[pgNo]);
+            }
+        }
+        setExtent(pgNo, offset, payload.length, capacity);
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writePageData(page.getId().pageNumber(), page.getPageData());
+        pageWritten(page);
+    }
+
+    /**
+     * Writes pages one extent at a time; each one is compressed separately,
+     * so there is nothing to coalesce.
+     */
+    public void writePages(List<Page> pages) throws IOException {
+        for (Page page : pages) writePage(page);
+    }
+
+    protected void appendPage(int pgNo, byte[] data) throws IOException {
+        writePageData(pgNo, data);
+    }
+
+    protected void readPageHeader(int pgNo, ByteBuffer header) throws IOException {
+        header.put(readPageData(pgNo), 0, header.remaining());
+    }
+
+    /**
+     * Returns the number of pages in this file.
+     */
+    public int numPages() {
+        try {
+            synchronized (this) {
+                loadExtentMap();
+                return pages;
+            }
+        }
+        catch (IOException bad) {
+            bad.printStackTrace();
+            return 0;
+        }
+    }
+
+    /**
+     * Closes the file; the extent map is rebuilt on next use.
+     */
+    public synchronized void close() {
+        super.close();
+        offsets = null;
+    }
+
+    /**
+     * Writes a compressed copy of an ordinary heap file, page by page in
+     * page order.
+     *
+     * @param heapFile a file in the HeapFile format
+     * @param out where to write the compressed file; overwritten
+     */
+    public static void fromHeapFile(File heapFile, File out) throws IOException {
+        fromHeapFile(heapFile, out, BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Writes a compressed copy of an ordinary heap file with pageSize byte
+     * pages, for a table declared with that page size.
+     */
+    public static void fromHeapFile(File heapFile, File out, int pageSize) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(heapFile)));
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(out)));
+        try {
+            dos.writeInt(MAGIC);
+            dos.writeInt(pageSize);
+            int numPages = (int) ((heapFile.length() + pageSize - 1) / pageSize);
+            byte[] data = new byte[pageSize];
+            for (int pgNo = 0; pgNo < numPages; pgNo++) {
+                Arrays.fill(data, (byte) 0);
+                int n = 0, r;
+                while (n < data.length && (r = in.read(data, n, data.length - n)) > 0) n += r;
+                byte[] payload = compress(data);
+                int capacity = (payload.length + ALIGN - 1) / ALIGN * ALIGN;
+                dos.writeInt(pgNo);
+                dos.writeInt(payload.length);
+                dos.writeInt(capacity);
+                dos.write(payload);
+                dos.write(new byte[capacity - payload.length]);
+            }
+        } finally {
+            in.close();
+            dos.close();
+        }
+    }
+}
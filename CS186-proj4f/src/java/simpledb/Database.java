@@ -54,8 +54,17 @@ public class Database {
         return _instance._bufferpool;
     }
 
+    /** Method used for testing -- create a new instance of the
+        buffer pool with a memory budget of capacityBytes bytes and return it
+    */
+    public static BufferPool resetBufferPoolCapacity(long capacityBytes) {
+        _instance._bufferpool = BufferPool.withCapacity(capacityBytes);
+        return _instance._bufferpool;
+    }
+
     //reset the database, used for unit tests only.
     public static void reset() {
+    	_instance._catalog.clear(); //release the old tables' file handles
     	_instance = new Database();
     }
 
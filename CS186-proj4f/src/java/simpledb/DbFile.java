@@ -28,6 +28,16 @@ public interface DbFile extends Serializable {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Push several pages of this file to disk, e.g. all the pages a
+     * committing transaction dirtied. Implementations may coalesce pages
+     * with adjacent page numbers into larger writes.
+     *
+     * @param pages The pages to write, sorted by page number.
+     * @throws IOException if a write fails
+     */
+    public void writePages(List<Page> pages) throws IOException;
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -84,4 +94,21 @@ public interface DbFile extends Serializable {
      * @return TupleDesc of this DbFile.
      */
     public TupleDesc getTupleDesc();
+
+    /**
+     * Returns the size in bytes of this file's pages. Every page of a file
+     * has the same size, but different tables may use different sizes (see
+     * the pagesize option of {@link Catalog#loadSchema}); the BufferPool
+     * counts its memory budget in bytes so that it can hold a mix.
+     *
+     * @return bytes per page of this DbFile.
+     */
+    public int getPageSize();
+
+    /**
+     * Releases any open file handles held by this DbFile. The Catalog calls
+     * this when it drops its tables; implementations must reopen lazily if
+     * the file is used again afterwards.
+     */
+    public void close();
 }
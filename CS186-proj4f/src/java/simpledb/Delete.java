@@ -74,6 +74,9 @@ public class Delete extends Operator {
                     Database.getBufferPool().deleteTuple(tid, child.next());
                     count++;
                 }
+                catch (TransactionAbortedException aborted){
+                    throw aborted; //the caller has to abort the transaction
+                }
                 catch(Exception bad){
                     bad.printStackTrace();
                     //do nothing- let fail
@@ -0,0 +1,57 @@
+package simpledb;
+
+/**
+ * A StringField read from a dictionary encoded column (see
+ * StringDictionary): it also carries the value's code in the column's
+ * dictionary. Two DictFields of the same dictionary are equal exactly when
+ * their codes are, so equality tests between them compare ints instead of
+ * strings. Everywhere else a DictField is an ordinary StringField, and it
+ * serializes as one.
+ * <p>
+ * A dictionary hands out one DictField per code, so reading an encoded
+ * column allocates nothing per value.
+ */
+public class DictField extends StringField {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int code;
+    private final transient StringDictionary dict; //not sent along: a deserialized copy is a plain StringField
+
+    DictField(String s, int code, StringDictionary dict) {
+        super(s, Type.STRING_LEN);
+        this.code = code;
+        this.dict = dict;
+    }
+
+    /** @return the value's code in its dictionary */
+    public int getCode() {
+        return code;
+    }
+
+    /** @return the dictionary the code belongs to */
+    public StringDictionary getDictionary() {
+        return dict;
+    }
+
+    /**
+     * @return true if f is a DictField of the same dictionary as this one,
+     *         so their codes can be compared
+     */
+    public boolean sameDictionary(Field f) {
+        return dict != null && f instanceof DictField && ((DictField) f).dict == dict;
+    }
+
+    public boolean equals(Object field) {
+        if (sameDictionary((Field) field)) return ((DictField) field).code == code;
+        return super.equals(field);
+    }
+
+    public boolean compare(Predicate.Op op, Field val) {
+        if (sameDictionary(val)) {
+            if (op == Predicate.Op.EQUALS) return code == ((DictField) val).code;
+            if (op == Predicate.Op.NOT_EQUALS) return code != ((DictField) val).code;
+        }
+        return super.compare(op, val);
+    }
+}
@@ -0,0 +1,213 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * ExternalSort sorts more tuples than fit in memory. Tuples are added one
+ * at a time and kept in memory until there are maxInMemory of them; those
+ * are then sorted and written to a temporary file as a sorted run. Once
+ * every tuple has been added, the runs are merged, MAX_FAN_IN at a time
+ * (merging in more passes if there are more runs than that), and read back
+ * in order. If no run was written the tuples are sorted in memory.
+ * <p>
+ * Runs store each tuple's fields in their serialized form followed by the
+ * page number and slot of its RecordId, so the tuples come back with the
+ * same fields and RecordIds (which must point into one table, given to the
+ * constructor). The temporary files are deleted by close().
+ */
+public class ExternalSort {
+
+    /** The most runs merged at once; each is read through its own buffer. */
+    public static final int MAX_FAN_IN = 64;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final TupleDesc td;
+    private final int tableId;
+    private final Comparator<Tuple> order;
+    private final int maxInMemory;
+
+    private ArrayList<Tuple> buffer;
+    private final ArrayList<File> runs = new ArrayList<File>();
+    private final ArrayList<DataInputStream> open = new ArrayList<DataInputStream>();
+    private long size;
+
+    /**
+     * Creates a sort of tuples with TupleDesc td, with RecordIds in the
+     * table with the given id, by order.
+     *
+     * @param maxInMemory
+     *            the most tuples held in memory at once; more are spilled
+     *            to a sorted run on disk
+     */
+    public ExternalSort(TupleDesc td, int tableId, Comparator<Tuple> order, int maxInMemory) {
+        if (maxInMemory < 1) throw new IllegalArgumentException("Must hold at least one tuple in memory");
+        this.td = td;
+        this.tableId = tableId;
+        this.order = order;
+        this.maxInMemory = maxInMemory;
+        this.buffer = new ArrayList<Tuple>();
+    }
+
+    /** Adds a tuple to the sort, spilling the tuples in memory if they are too many. */
+    public void add(Tuple t) throws IOException {
+        buffer.add(t);
+        size++;
+        if (buffer.size() >= maxInMemory) spill();
+    }
+
+    /** @return the number of tuples added */
+    public long size() {
+        return size;
+    }
+
+    /** @return the number of sorted runs written to disk so far */
+    public int getRuns() {
+        return runs.size();
+    }
+
+    /** Sorts the tuples in memory and writes them to a new run. */
+    private void spill() throws IOException {
+        if (buffer.isEmpty()) return;
+        Collections.sort(buffer, order);
+        File run = File.createTempFile("sortrun", ".dat");
+        run.deleteOnExit();
+        runs.add(run);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), BUFFER_SIZE));
+        try {
+            for (Tuple t : buffer) write(out, t);
+        } finally {
+            out.close();
+        }
+        buffer = new ArrayList<Tuple>();
+    }
+
+    private void write(DataOutputStream out, Tuple t) throws IOException {
+        for (int i = 0; i < td.numFields(); i++) t.getField(i).serialize(out);
+        out.writeInt(t.getRecordId().getPageId().pageNumber());
+        out.writeInt(t.getRecordId().tupleno());
+    }
+
+    /** @return the next tuple of a run, or null at its end */
+    private Tuple read(DataInputStream in) throws IOException {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++) {
+            try {
+                t.setField(i, td.getFieldType(i).parse(in));
+            } catch (ParseException e) {
+                if (i == 0) return null; //the end of the run
+                throw new IOException("Truncated sort run");
+            }
+        }
+        t.setRecordId(new RecordId(new HeapPageId(tableId, in.readInt()), in.readInt()));
+        return t;
+    }
+
+    private DataInputStream openRun(File run) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), BUFFER_SIZE));
+        open.add(in);
+        return in;
+    }
+
+    /** A run being merged and the tuple it is at. */
+    private static class Head {
+        final DataInputStream in;
+        Tuple t;
+
+        Head(DataInputStream in) {
+            this.in = in;
+        }
+    }
+
+    /** @return the merge of the given runs, in order */
+    private Iterator<Tuple> merge(List<File> sources) throws IOException {
+        final PriorityQueue<Head> heads = new PriorityQueue<Head>(sources.size(), new Comparator<Head>() {
+            public int compare(Head a, Head b) {
+                return order.compare(a.t, b.t);
+            }
+        });
+        for (File run : sources) {
+            Head h = new Head(openRun(run));
+            h.t = read(h.in);
+            if (h.t != null) heads.add(h);
+        }
+        return new Iterator<Tuple>() {
+            public boolean hasNext() {
+                return !heads.isEmpty();
+            }
+
+            public Tuple next() {
+                Head h = heads.poll();
+                if (h == null) throw new NoSuchElementException();
+                Tuple t = h.t;
+                try {
+                    h.t = read(h.in);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                if (h.t != null) heads.add(h);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /** Closes the runs being read. */
+    private void closeRuns() {
+        for (DataInputStream in : open) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        open.clear();
+    }
+
+    /**
+     * Ends the input and returns the tuples added, in order. While there
+     * are more than MAX_FAN_IN runs, groups of them are merged into longer
+     * runs first. A read error in the returned iterator is thrown as a
+     * RuntimeException wrapping the IOException.
+     */
+    public Iterator<Tuple> sorted() throws IOException {
+        if (runs.isEmpty()) {
+            Collections.sort(buffer, order);
+            return buffer.iterator();
+        }
+        spill();
+        while (runs.size() > MAX_FAN_IN) {
+            List<File> group = new ArrayList<File>(runs.subList(0, MAX_FAN_IN));
+            runs.subList(0, MAX_FAN_IN).clear();
+            File merged = File.createTempFile("sortrun", ".dat");
+            merged.deleteOnExit();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(merged), BUFFER_SIZE));
+            try {
+                Iterator<Tuple> it = merge(group);
+                while (it.hasNext()) write(out, it.next());
+            } catch (RuntimeException e) {
+                if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                throw e;
+            } finally {
+                out.close();
+                closeRuns();
+                for (File run : group) run.delete();
+            }
+            runs.add(merged);
+        }
+        return merge(runs);
+    }
+
+    /** Deletes the runs and drops the tuples in memory. */
+    public void close() {
+        closeRuns();
+        for (File run : runs) run.delete();
+        runs.clear();
+        buffer = new ArrayList<Tuple>();
+    }
+}
@@ -0,0 +1,170 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * FreeSpaceMap remembers how much free space each page of a HeapFile has,
+ * so that HeapFile.insertTuple can go straight to a page with room instead
+ * of probing every page of the table. Space is counted in whatever unit the
+ * file's page format uses: empty tuple slots for HeapFile, free bytes for
+ * SlottedHeapFile.
+ * <p>
+ * The map is only a hint. HeapPage.insertTuple/deleteTuple and
+ * HeapFile.readPage keep it current, and the insert path re-checks the page
+ * it picks once it holds the lock; a stale entry costs one extra page fetch,
+ * never a wrong insert.
+ * <p>
+ * It is persisted in a sidecar file next to the heap file (table.dat.fsm)
+ * when the HeapFile is closed, and deleted by the HeapFile's first write
+ * after that (see HeapFile.writing), so a sidecar on disk was saved after
+ * the last write through SimpleDB. On load the sidecar is used only if it
+ * is also at least as new as the heap file (which may have been rewritten
+ * by other tools) and describes the same number of pages; otherwise the
+ * map is rebuilt by reading the header of every page once.
+ *
+ * @see HeapFile#insertTuple
+ */
+public class FreeSpaceMap {
+
+    private static final int MAGIC = 0x46534d31; //"FSM1"
+
+    private File sidecar;
+    private int spacePerPage; //free space of an empty page
+
+    private int[] freeSpace; //free space, indexed by page number
+    private int numPages;
+    private BitSet hasSpace; //pages with any free space at all
+    private boolean dirty; //changed since loaded/saved
+
+    private FreeSpaceMap(File sidecar, int spacePerPage, int numPages) {
+        this.sidecar = sidecar;
+        this.spacePerPage = spacePerPage;
+        this.freeSpace = new int[Math.max(numPages, 16)];
+        this.numPages = numPages;
+        this.hasSpace = new BitSet();
+    }
+
+    /**
+     * @return the sidecar file the map for the given heap file is kept in
+     */
+    public static File sidecarFor(File heapFile) {
+        return new File(heapFile.getPath() + ".fsm");
+    }
+
+    /**
+     * Loads the free space map for a heap file, from its sidecar if that is
+     * still valid or else by reading the header of every page.
+     *
+     * @param f the heap file
+     */
+    static FreeSpaceMap load(HeapFile f) throws IOException {
+        int space = f.getFreeSpaceOnEmptyPage();
+        int pages = f.numPages();
+        File sidecar = sidecarFor(f.getFile());
+
+        if (sidecar.exists() && sidecar.lastModified() >= f.getFile().lastModified()) {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)));
+            try {
+                if (dis.readInt() == MAGIC && dis.readInt() == space && dis.readInt() == pages) {
+                    FreeSpaceMap fsm = new FreeSpaceMap(sidecar, space, pages);
+                    for (int i = 0; i < pages; i++) {
+                        fsm.set(i, dis.readUnsignedShort());
+                    }
+                    return fsm;
+                }
+            } catch (EOFException truncated) {
+                //fall through and rebuild
+            } finally {
+                dis.close();
+            }
+        }
+
+        //rebuild: only the header of each page matters
+        FreeSpaceMap fsm = new FreeSpaceMap(sidecar, space, pages);
+        ByteBuffer header = ByteBuffer.allocate(f.headerSize());
+        for (int i = 0; i < pages; i++) {
+            header.clear();
+            f.readPageHeader(i, header);
+            fsm.set(i, f.freeSpaceFromHeader(header));
+        }
+        fsm.dirty = true;
+        return fsm;
+    }
+
+    /**
+     * @return a map that knows nothing yet; used when the heap file cannot be
+     *         read, so that inserts just append until pages are seen again
+     */
+    static FreeSpaceMap empty(HeapFile f) {
+        return new FreeSpaceMap(sidecarFor(f.getFile()), f.getFreeSpaceOnEmptyPage(), 0);
+    }
+
+    private void set(int pgNo, int free) {
+        if (pgNo >= freeSpace.length) {
+            freeSpace = Arrays.copyOf(freeSpace, Math.max(pgNo + 1, freeSpace.length * 2));
+        }
+        freeSpace[pgNo] = free;
+        numPages = Math.max(numPages, pgNo + 1);
+        hasSpace.set(pgNo, free > 0);
+    }
+
+    /**
+     * Records the free space on a page; called whenever a page is read from
+     * disk or has a tuple inserted or deleted.
+     */
+    public synchronized void update(int pgNo, int free) {
+        if (pgNo < numPages && freeSpace[pgNo] == free) return;
+        set(pgNo, free);
+        dirty = true;
+    }
+
+    /**
+     * @return the lowest numbered page believed to have at least needed free
+     *         space, or -1 if there is none. With needed == 1 (one slot of a
+     *         HeapPage) this is the first page with any room at all.
+     */
+    public synchronized int findPageWithSpace(int needed) {
+        for (int pg = hasSpace.nextSetBit(0); pg >= 0; pg = hasSpace.nextSetBit(pg + 1)) {
+            if (freeSpace[pg] >= needed) return pg;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the free space recorded for a page (0 for pages the map has
+     *         not seen)
+     */
+    public synchronized int getFreeSpace(int pgNo) {
+        return (pgNo < numPages) ? freeSpace[pgNo] : 0;
+    }
+
+    /**
+     * Deletes the sidecar file, which the table is about to be written
+     * past; the map is saved again on the next save.
+     */
+    public synchronized void deleteSidecar() {
+        sidecar.delete();
+        dirty = true;
+    }
+
+    /**
+     * Writes the map to its sidecar file if it has changed.
+     */
+    public synchronized void save() throws IOException {
+        if (!dirty) return;
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(sidecar)));
+        try {
+            dos.writeInt(MAGIC);
+            dos.writeInt(spacePerPage);
+            dos.writeInt(numPages);
+            for (int i = 0; i < numPages; i++) {
+                dos.writeShort(freeSpace[i]);
+            }
+        } finally {
+            dos.close();
+        }
+        dirty = false;
+    }
+}
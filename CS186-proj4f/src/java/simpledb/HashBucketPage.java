@@ -0,0 +1,167 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * A page of a bucket of a HashFile: its primary page or one of the overflow
+ * pages chained after it. It holds index entries -- tuples with the index's
+ * TupleDesc whose RecordId is that of the indexed tuple -- in no particular
+ * order.
+ * <p>
+ * Layout: the type byte, the number of entries, the page number of the next
+ * page of the bucket (0 for none), then the entries, each stored as its
+ * fields followed by the page number and slot of its RecordId. A page of
+ * zeros, as the pages of a new segment are until first written, is an
+ * empty bucket page.
+ */
+public class HashBucketPage implements Page {
+
+    private static final int OVERFLOW_OFFSET = 5;
+    private static final int ENTRIES_OFFSET = OVERFLOW_OFFSET + 4;
+
+    private final HashPageId pid;
+    private final HashFile file;
+    private final TupleDesc td;
+    private final int pageSize;
+    private final ArrayList<Tuple> entries;
+    private int overflow;
+
+    private byte[] oldData; //before image; null means "same as the current contents", see setBeforeImage
+    private TransactionId dirtyTID = null; //null means not dirty
+
+    /**
+     * Create a HashBucketPage from bytes read from disk.
+     */
+    public HashBucketPage(HashPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.file = (HashFile) Database.getCatalog().getDbFile(id.getTableId());
+        this.td = file.getTupleDesc();
+        this.pageSize = data.length;
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int n = buf.getInt(1);
+        overflow = buf.getInt(OVERFLOW_OFFSET);
+        entries = new ArrayList<Tuple>(n + 1);
+        int offset = ENTRIES_OFFSET;
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(td);
+            for (int f = 0; f < td.numFields(); f++) {
+                t.setField(f, td.getFieldType(f).parse(buf, offset));
+                offset += td.getFieldType(f).getLen();
+            }
+            t.setRecordId(file.baseRecordId(buf.getInt(offset), buf.getInt(offset + 4)));
+            offset += 8;
+            entries.add(t);
+        }
+        oldData = data;
+    }
+
+    /** @return the number of entries of the given TupleDesc a page holds */
+    static int getMaxEntries(TupleDesc td, int pageSize) {
+        return (pageSize - ENTRIES_OFFSET) / (td.getSize() + 8);
+    }
+
+    /** @return the bytes of a bucket page with no entries */
+    static byte[] createEmptyPageData(int pageSize) {
+        ByteBuffer buf = ByteBuffer.allocate(pageSize);
+        buf.put(HashMetaPage.BUCKET);
+        return buf.array();
+    }
+
+    public HashPageId getId() {
+        return pid;
+    }
+
+    public HashBucketPage getBeforeImage() {
+        try {
+            return new HashBucketPage(pid, (oldData != null) ? oldData : getPageData());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        oldData = null;
+    }
+
+    private void captureBeforeImage() {
+        if (oldData == null) oldData = getPageData();
+    }
+
+    public byte[] getPageData() {
+        ByteBuffer buf = ByteBuffer.allocate(pageSize);
+        buf.put(HashMetaPage.BUCKET);
+        buf.putInt(entries.size());
+        buf.putInt(overflow);
+        for (Tuple t : entries) {
+            for (int f = 0; f < td.numFields(); f++) BTreePage.putField(buf, t.getField(f));
+            buf.putInt(t.getRecordId().getPageId().pageNumber());
+            buf.putInt(t.getRecordId().tupleno());
+        }
+        return buf.array();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtyTID = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtyTID;
+    }
+
+    /** @return the number of entries on this page */
+    public int getNumEntries() {
+        return entries.size();
+    }
+
+    /** @return the entry at position i */
+    public Tuple getEntry(int i) {
+        return entries.get(i);
+    }
+
+    /** @return true if the page cannot take another entry */
+    public boolean isFull() {
+        return entries.size() >= getMaxEntries(td, pageSize);
+    }
+
+    /** @return the page number of the next page of the bucket, or 0 */
+    public int getOverflow() {
+        return overflow;
+    }
+
+    void setOverflow(int overflow) {
+        captureBeforeImage();
+        this.overflow = overflow;
+    }
+
+    void addEntry(Tuple entry) {
+        captureBeforeImage();
+        entries.add(entry);
+    }
+
+    void deleteEntry(int pos) {
+        captureBeforeImage();
+        entries.remove(pos);
+    }
+
+    /** @return the position of the entry for (key, rid), or -1 */
+    public int find(Field key, RecordId rid) {
+        for (int i = 0; i < entries.size(); i++) {
+            Tuple e = entries.get(i);
+            if (e.getField(0).equals(key) && e.getRecordId().equals(rid)) return i;
+        }
+        return -1;
+    }
+
+    /** Removes and returns all the entries on the page. */
+    List<Tuple> takeEntries() {
+        captureBeforeImage();
+        ArrayList<Tuple> taken = new ArrayList<Tuple>(entries);
+        entries.clear();
+        return taken;
+    }
+}
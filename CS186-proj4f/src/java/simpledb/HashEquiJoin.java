@@ -53,17 +53,57 @@ public class HashEquiJoin extends Operator {
     HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
     public final static int MAP_SIZE = 20000;
 
+    //while every build key is a DictField of codeDict, the build side is keyed by code instead (see loadMap)
+    transient private StringDictionary codeDict = null;
+    transient private IntHashMap<ArrayList<Tuple>> codeMap = null;
+    transient private ArrayList<ArrayList<Tuple>> codeLists = null; //codeMap's values, to rehash them by Field
+    //probe keys from another dictionary, translated to codeDict codes (-1: not in codeDict)
+    transient private StringDictionary probeDict = null;
+    transient private IntHashMap<Integer> probeCodes = null;
+
+    /**
+     * Loads the next MAP_SIZE tuples of child1 into the hash table. Keys
+     * that are DictFields of one dictionary (a dictionary encoded column)
+     * are hashed by code; if any other key shows up, the batch falls back
+     * to hashing Fields.
+     */
     private boolean loadMap() throws DbException, TransactionAbortedException {
         int cnt = 0;
         map.clear();
+        codeDict = null;
+        codeMap = new IntHashMap<ArrayList<Tuple>>();
+        codeLists = new ArrayList<ArrayList<Tuple>>();
+        probeDict = null;
+        probeCodes = null;
+        boolean codes = true;
         while (child1.hasNext()) {
             t1 = child1.next();
-            ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
-            if (list == null) {
-                list = new ArrayList<Tuple>();
-                map.put(t1.getField(pred.getField1()), list);
+            Field key = t1.getField(pred.getField1());
+            if (codes && key instanceof DictField && ((DictField) key).getDictionary() != null
+                    && (codeDict == null || ((DictField) key).getDictionary() == codeDict)) {
+                codeDict = ((DictField) key).getDictionary();
+                ArrayList<Tuple> list = codeMap.get(((DictField) key).getCode());
+                if (list == null) {
+                    list = new ArrayList<Tuple>();
+                    codeMap.put(((DictField) key).getCode(), list);
+                    codeLists.add(list);
+                }
+                list.add(t1);
+            }
+            else {
+                if (codes) { //not all keys have codes: rehash what there is by Field
+                    codes = false;
+                    for (ArrayList<Tuple> list : codeLists)
+                        map.put(list.get(0).getField(pred.getField1()), list);
+                    codeDict = null;
+                }
+                ArrayList<Tuple> list = map.get(key);
+                if (list == null) {
+                    list = new ArrayList<Tuple>();
+                    map.put(key, list);
+                }
+                list.add(t1);
             }
-            list.add(t1);
             if (cnt++ == MAP_SIZE)
                 return true;
         }
@@ -71,12 +111,43 @@ public class HashEquiJoin extends Operator {
 
     }
 
+    /**
+     * @return the build side tuples whose key matches t's, or null
+     */
+    private ArrayList<Tuple> matches(Tuple t) {
+        if (codeDict == null) return map.get(t.getField(pred.getField2()));
+        int code;
+        Field key = t.getDecodedField(pred.getField2());
+        if (key instanceof DictField && ((DictField) key).getDictionary() == codeDict) {
+            code = ((DictField) key).getCode();
+        }
+        else if (key instanceof DictField && ((DictField) key).getDictionary() != null) {
+            //each distinct value of the other dictionary is looked up once
+            DictField d = (DictField) key;
+            if (probeDict != d.getDictionary()) {
+                probeDict = d.getDictionary();
+                probeCodes = new IntHashMap<Integer>();
+            }
+            Integer c = probeCodes.get(d.getCode());
+            if (c == null) {
+                c = codeDict.lookup(d.getValue());
+                probeCodes.put(d.getCode(), c);
+            }
+            code = c;
+        }
+        else {
+            code = codeDict.lookup(t.getString(pred.getField2()));
+        }
+        return (code < 0) ? null : codeMap.get(code);
+    }
+
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
         loadMap();
+        super.open();
     }
 
     public void close() {
@@ -87,6 +158,9 @@ public class HashEquiJoin extends Operator {
         this.t2=null;
         this.listIt=null;
         this.map.clear();
+        this.codeDict=null;
+        this.codeMap=null;
+        this.codeLists=null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
@@ -142,7 +216,7 @@ public class HashEquiJoin extends Operator {
 
             // if match, create a combined tuple and fill it with the values
             // from both tuples
-            ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
+            ArrayList<Tuple> l = matches(t2);
             if (l == null)
                 continue;
             listIt = l.iterator();
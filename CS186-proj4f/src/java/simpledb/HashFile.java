@@ -0,0 +1,473 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * HashFile is a hash index on one field of a table, stored in a file of its
+ * own, for equality lookups. It uses linear hashing: page 0 is a
+ * HashMetaPage with the number of buckets and the bucket to split next,
+ * and each bucket is a primary HashBucketPage followed by a chain of
+ * overflow pages.
+ * <p>
+ * Whenever an insert has to put an entry on an overflow page, the bucket
+ * the split pointer names (not necessarily the one that overflowed) is
+ * split: its entries are divided between it and one new bucket at the
+ * end, and the pointer moves on. The index so grows one bucket at a time, and no insert
+ * ever rehashes more than one bucket -- there is no directory to double.
+ * Buckets are addressed through the segments kept on the meta page (see
+ * HashMetaPage), which also keeps the overflow pages splits empty for
+ * reuse.
+ * <p>
+ * Lookups and inserts lock page 0 READ_ONLY, and the pages of the one
+ * bucket they touch; only a split locks page 0 READ_WRITE.
+ * <p>
+ * Like a BTreeFile's, entries may carry included fields after the key.
+ *
+ * @see IndexScan
+ */
+public class HashFile implements IndexFile {
+
+    private static final long serialVersionUID = 1L;
+
+    private final File file;
+    private final int tableId;
+    private final int keyField;
+    private final int[] included;
+    private final TupleDesc td;
+    private final int pageSize;
+
+    private transient RandomAccessFile raf; //opened lazily and kept open until close()
+
+    /**
+     * Opens the index on field keyField of the table with the given id,
+     * stored in f, or creates an empty one (of one bucket) if f is empty or
+     * missing. The table must be in the catalog.
+     */
+    public HashFile(File f, int tableId, int keyField) {
+        this(f, tableId, keyField, new int[0], BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Opens or creates the index, with pageSize byte pages.
+     */
+    public HashFile(File f, int tableId, int keyField, int pageSize) {
+        this(f, tableId, keyField, new int[0], pageSize);
+    }
+
+    /**
+     * Opens or creates the index, with the given fields of the table
+     * included in its entries after the key. An existing index must be
+     * opened with the fields it was created with.
+     */
+    public HashFile(File f, int tableId, int keyField, int[] included) {
+        this(f, tableId, keyField, included, BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Opens or creates the index, with included fields and pageSize byte
+     * pages.
+     */
+    public HashFile(File f, int tableId, int keyField, int[] included, int pageSize) {
+        this.file = f;
+        this.tableId = tableId;
+        this.keyField = keyField;
+        this.included = included.clone();
+        this.pageSize = pageSize;
+        this.td = BTreeFile.entryDesc(Database.getCatalog().getTupleDesc(tableId), keyField, included);
+        if (f.length() == 0) {
+            try {
+                writeData(0, HashMetaPage.createPageData(pageSize));
+                writeData(1, HashBucketPage.createEmptyPageData(pageSize));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /** @return the file backing this index */
+    public File getFile() {
+        return file;
+    }
+
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    /** @return the TupleDesc of the index's entries: the key and included fields */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public int getTableId() {
+        return tableId;
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    public int[] getIncludedFields() {
+        return included.clone();
+    }
+
+    // see DbFile.java for javadocs
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /** @return true: every tuple of the table has its entry */
+    public boolean isUsable() {
+        return true;
+    }
+
+    public boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS;
+    }
+
+    /** @return page 0 and the bucket's primary page */
+    public int lookupPages() {
+        return 2;
+    }
+
+    /** @return the number of pages in the file */
+    public int numPages() {
+        return (int) ((file.length() + pageSize - 1) / pageSize);
+    }
+
+    /**
+     * @return the number of buckets, as of the last commit
+     */
+    public int getNumBuckets() {
+        HashMetaPage meta = (HashMetaPage) readPage(new HashPageId(getId(), 0));
+        return (meta == null) ? 1 : meta.getNumBuckets();
+    }
+
+    /**
+     * @return the hash value of key: its hashCode, mixed so that keys that
+     *         differ only in their high bits still spread over the buckets
+     */
+    static int hash(Field key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h & Integer.MAX_VALUE;
+    }
+
+    private synchronized FileChannel getChannel() throws IOException {
+        if (raf == null || !raf.getChannel().isOpen()) raf = new RandomAccessFile(file, "rw");
+        return raf.getChannel();
+    }
+
+    /**
+     * Closes the index file; a later page access reopens it.
+     */
+    public synchronized void close() {
+        if (raf == null) return;
+        try {
+            raf.close();
+        } catch (IOException bad) {
+            bad.printStackTrace();
+        }
+        raf = null;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        HashPageId hpid = (HashPageId) pid;
+        byte[] data = new byte[pageSize];
+        try {
+            FileChannel fc = getChannel();
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            long offset = (long) hpid.pageNumber() * pageSize;
+            while (buf.hasRemaining()) {
+                if (fc.read(buf, offset + buf.position()) < 0) break;
+            }
+            if (hpid.pageNumber() == 0) return new HashMetaPage(hpid, data);
+            return new HashBucketPage(hpid, data);
+        }
+        catch (IOException bad) {
+            System.out.println("Index read failure");
+            return null;
+        }
+    }
+
+    private void writeData(int pgNo, byte[] data) throws IOException {
+        FileChannel fc = getChannel();
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        long offset = (long) pgNo * pageSize;
+        while (buf.hasRemaining()) {
+            fc.write(buf, offset + buf.position());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writeData(page.getId().pageNumber(), page.getPageData());
+    }
+
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+        for (Page page : pages) writePage(page);
+    }
+
+    /** @return the RecordId of slot slot of page pgNo of the indexed table */
+    RecordId baseRecordId(int pgNo, int slot) {
+        return new RecordId(new HeapPageId(tableId, pgNo), slot);
+    }
+
+    /** @return the index entry for t, a tuple of the indexed table */
+    Tuple entryFor(Tuple t) throws DbException {
+        return BTreeFile.entryFor(t, td, keyField, included);
+    }
+
+    private Page page(TransactionId tid, int pgNo, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return Database.getBufferPool().getPage(tid, new HashPageId(getId(), pgNo), perm);
+    }
+
+    /**
+     * Takes an empty overflow page off the free list of meta (which must be
+     * locked READ_WRITE), or appends one if the list is empty, and locks it
+     * READ_WRITE.
+     */
+    private HashBucketPage allocate(TransactionId tid, HashMetaPage meta, ArrayList<Page> dirtyPages)
+            throws DbException, IOException, TransactionAbortedException {
+        HashBucketPage p;
+        if (meta.getFree() != 0) {
+            p = (HashBucketPage) page(tid, meta.getFree(), Permissions.READ_WRITE);
+            meta.setFree(p.getOverflow());
+            p.setOverflow(0);
+        } else {
+            int pgNo;
+            synchronized (this) {
+                pgNo = numPages();
+                writeData(pgNo, HashBucketPage.createEmptyPageData(pageSize));
+            }
+            p = (HashBucketPage) page(tid, pgNo, Permissions.READ_WRITE);
+        }
+        dirtyPages.add(meta);
+        dirtyPages.add(p);
+        return p;
+    }
+
+    /**
+     * Extends the file by count pages of zeros, which read as empty
+     * buckets, without writing them.
+     *
+     * @return the number of the first new page
+     */
+    private synchronized int extend(int count) throws IOException {
+        int start = numPages();
+        getChannel();
+        raf.setLength((long) (start + count) * pageSize);
+        return start;
+    }
+
+    /**
+     * Adds the entry for t, a tuple of the indexed table that has been
+     * given its RecordId, to the first page of its bucket with room. If
+     * that is an overflow page, the bucket at the split pointer is split.
+     *
+     * @return the pages changed
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Tuple entry = entryFor(t);
+        ArrayList<Page> dirtyPages = new ArrayList<Page>();
+        HashMetaPage meta = (HashMetaPage) page(tid, 0, Permissions.READ_ONLY);
+        HashBucketPage p = (HashBucketPage) page(tid,
+                meta.pageOf(meta.bucketFor(hash(entry.getField(0)))), Permissions.READ_WRITE);
+        boolean overflowed = false;
+        while (p.isFull()) {
+            overflowed = true;
+            if (p.getOverflow() == 0) {
+                meta = (HashMetaPage) page(tid, 0, Permissions.READ_WRITE);
+                p.setOverflow(allocate(tid, meta, dirtyPages).getId().pageNumber());
+                dirtyPages.add(p);
+            }
+            p = (HashBucketPage) page(tid, p.getOverflow(), Permissions.READ_WRITE);
+        }
+        p.addEntry(entry);
+        dirtyPages.add(p);
+        if (overflowed) split(tid, dirtyPages);
+        return dirtyPages;
+    }
+
+    /**
+     * Splits the bucket at the split pointer: moves the entries that hash
+     * to the new bucket there, packs the rest into the start of the
+     * bucket's chain, and puts the overflow pages left empty on the free
+     * list.
+     */
+    private void split(TransactionId tid, ArrayList<Page> dirtyPages)
+            throws DbException, IOException, TransactionAbortedException {
+        HashMetaPage meta = (HashMetaPage) page(tid, 0, Permissions.READ_WRITE);
+        dirtyPages.add(meta);
+        int old = meta.getNext();
+        if (meta.needsSegment()) meta.addSegment(extend(meta.getNewBucket()));
+        int added = meta.getNewBucket();
+        meta.advance();
+
+        ArrayList<HashBucketPage> chain = new ArrayList<HashBucketPage>();
+        ArrayList<Tuple> stay = new ArrayList<Tuple>();
+        ArrayList<Tuple> move = new ArrayList<Tuple>();
+        int pgNo = meta.pageOf(old);
+        while (pgNo != 0) {
+            HashBucketPage p = (HashBucketPage) page(tid, pgNo, Permissions.READ_WRITE);
+            chain.add(p);
+            for (Tuple e : p.takeEntries()) {
+                (meta.bucketFor(hash(e.getField(0))) == old ? stay : move).add(e);
+            }
+            pgNo = p.getOverflow();
+        }
+        Iterator<Tuple> it = stay.iterator();
+        int kept = 0; //pages at the start of the chain that still hold entries; the primary page always stays
+        for (int i = 0; i < chain.size(); i++) {
+            HashBucketPage p = chain.get(i);
+            dirtyPages.add(p);
+            if (i > 0 && !it.hasNext()) {
+                p.setOverflow(meta.getFree());
+                meta.setFree(p.getId().pageNumber());
+                continue;
+            }
+            while (it.hasNext() && !p.isFull()) p.addEntry(it.next());
+            kept = i + 1;
+        }
+        chain.get(kept - 1).setOverflow(0);
+
+        HashBucketPage p = (HashBucketPage) page(tid, meta.pageOf(added), Permissions.READ_WRITE);
+        dirtyPages.add(p);
+        for (Tuple e : move) {
+            if (p.isFull()) {
+                HashBucketPage next = allocate(tid, meta, dirtyPages);
+                p.setOverflow(next.getId().pageNumber());
+                p = next;
+            }
+            p.addEntry(e);
+        }
+    }
+
+    /**
+     * Removes the entry for t, a tuple of the indexed table.
+     *
+     * @return the page the entry was removed from
+     * @throws DbException if the index has no entry for t
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        Tuple entry = entryFor(t);
+        Field key = entry.getField(0);
+        HashMetaPage meta = (HashMetaPage) page(tid, 0, Permissions.READ_ONLY);
+        int pgNo = meta.pageOf(meta.bucketFor(hash(key)));
+        while (pgNo != 0) {
+            HashBucketPage p = (HashBucketPage) page(tid, pgNo, Permissions.READ_WRITE);
+            int pos = p.find(key, entry.getRecordId());
+            if (pos >= 0) {
+                p.deleteEntry(pos);
+                return p;
+            }
+            pgNo = p.getOverflow();
+        }
+        throw new DbException("Tuple not in index!");
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return lookup(tid, new ArrayList<Predicate>());
+    }
+
+    /**
+     * Looks the entries up. With an EQUALS predicate on the key only that
+     * key's bucket is read; otherwise every bucket is.
+     */
+    public DbFileIterator lookup(TransactionId tid, List<Predicate> preds) {
+        return new HashFileIterator(tid, preds);
+    }
+
+    /**
+     * Walks the chains of the buckets to read, copying each page's entries
+     * so the page may change under us, and returns the entries that pass
+     * all the predicates.
+     */
+    private class HashFileIterator implements DbFileIterator {
+        final TransactionId tid;
+        final List<Predicate> preds;
+        Field key; //the key an EQUALS predicate asks for, or null
+
+        int bucket; //the bucket being read
+        int lastBucket; //the last bucket to read
+        ArrayList<Tuple> entries; //of the current page
+        int pos;
+        int nextPage; //of the current bucket, or 0
+        HashMetaPage meta;
+        Tuple next;
+
+        HashFileIterator(TransactionId tid, List<Predicate> preds) {
+            this.tid = tid;
+            this.preds = new ArrayList<Predicate>(preds);
+            for (Predicate p : preds) {
+                if (p.getField() == 0 && p.getOp() == Predicate.Op.EQUALS) key = p.getOperand();
+            }
+        }
+
+        private void load(int pgNo) throws DbException, TransactionAbortedException {
+            HashBucketPage p = (HashBucketPage) page(tid, pgNo, Permissions.READ_ONLY);
+            entries = new ArrayList<Tuple>(p.getNumEntries());
+            for (int i = 0; i < p.getNumEntries(); i++) entries.add(p.getEntry(i));
+            pos = 0;
+            nextPage = p.getOverflow();
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            meta = (HashMetaPage) page(tid, 0, Permissions.READ_ONLY);
+            if (key != null) {
+                bucket = lastBucket = meta.bucketFor(hash(key));
+            } else {
+                bucket = 0;
+                lastBucket = meta.getNumBuckets() - 1;
+            }
+            load(meta.pageOf(bucket));
+            next = null;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (entries == null) return false;
+            while (next == null) {
+                if (pos == entries.size()) {
+                    if (nextPage != 0) load(nextPage);
+                    else if (bucket < lastBucket) load(meta.pageOf(++bucket));
+                    else break;
+                    continue;
+                }
+                Tuple e = entries.get(pos++);
+                boolean pass = true;
+                for (Predicate p : preds) pass &= p.filter(e);
+                if (pass) next = e;
+            }
+            return next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext()) throw new NoSuchElementException();
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            entries = null;
+            next = null;
+        }
+    }
+}
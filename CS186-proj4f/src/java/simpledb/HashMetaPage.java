@@ -0,0 +1,171 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Page 0 of every HashFile: the state of its linear hashing. The file has
+ * 2^level + next buckets; bucket next is the one the next split divides.
+ * Buckets are kept in segments of contiguous pages, so a bucket's page
+ * follows from its number without a directory: segment 0 holds bucket 0,
+ * and segment s > 0 holds the 2^(s-1) buckets from 2^(s-1) on. Growing the
+ * file by a bucket therefore never moves more than the one bucket split.
+ * <p>
+ * Overflow pages a split empties are kept on a list of free pages, linked
+ * through their overflow pointers, for later overflows to reuse.
+ * <p>
+ * Layout: the type byte, level, next, the first free page (0 for none),
+ * the number of segments, then the first page of each segment.
+ */
+public class HashMetaPage implements Page {
+
+    /** Page types, stored in the first byte of every page of a HashFile. */
+    public static final byte META = 1;
+    public static final byte BUCKET = 2;
+
+    private final HashPageId pid;
+    private final int pageSize;
+    private int level;
+    private int next;
+    private int free; //first page of the list of unused overflow pages, or 0
+    private int[] segments; //first page of each segment so far
+
+    private byte[] oldData; //before image; null means "same as the current contents", see setBeforeImage
+    private TransactionId dirtyTID = null; //null means not dirty
+
+    /**
+     * Create a HashMetaPage from the bytes of page 0 of an index.
+     */
+    public HashMetaPage(HashPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.pageSize = data.length;
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        buf.get();
+        level = buf.getInt();
+        next = buf.getInt();
+        free = buf.getInt();
+        segments = new int[buf.getInt()];
+        for (int s = 0; s < segments.length; s++) segments[s] = buf.getInt();
+        oldData = data;
+    }
+
+    /** @return the bytes of the meta page of a new index, whose bucket 0 is page 1 */
+    static byte[] createPageData(int pageSize) {
+        return serialize(0, 0, 0, new int[] { 1 }, pageSize);
+    }
+
+    private static byte[] serialize(int level, int next, int free, int[] segments, int pageSize) {
+        ByteBuffer buf = ByteBuffer.allocate(pageSize);
+        buf.put(META);
+        buf.putInt(level);
+        buf.putInt(next);
+        buf.putInt(free);
+        buf.putInt(segments.length);
+        for (int start : segments) buf.putInt(start);
+        return buf.array();
+    }
+
+    public HashPageId getId() {
+        return pid;
+    }
+
+    public HashMetaPage getBeforeImage() {
+        try {
+            return new HashMetaPage(pid, (oldData != null) ? oldData : getPageData());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        oldData = null;
+    }
+
+    private void captureBeforeImage() {
+        if (oldData == null) oldData = getPageData();
+    }
+
+    public byte[] getPageData() {
+        return serialize(level, next, free, segments, pageSize);
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtyTID = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtyTID;
+    }
+
+    /** @return the number of buckets */
+    public int getNumBuckets() {
+        return (1 << level) + next;
+    }
+
+    /** @return the bucket a key with the given hash value is in */
+    public int bucketFor(int hash) {
+        int b = hash & ((1 << level) - 1);
+        if (b < next) b = hash & ((1 << (level + 1)) - 1);
+        return b;
+    }
+
+    /** @return the segment bucket b is in */
+    static int segmentOf(int b) {
+        return 32 - Integer.numberOfLeadingZeros(b);
+    }
+
+    /** @return the page number of bucket b's primary page */
+    public int pageOf(int b) {
+        int s = segmentOf(b);
+        return segments[s] + ((s == 0) ? 0 : b - (1 << (s - 1)));
+    }
+
+    /** @return the bucket the next split divides */
+    public int getNext() {
+        return next;
+    }
+
+    /** @return the bucket the next split moves entries to */
+    public int getNewBucket() {
+        return getNumBuckets();
+    }
+
+    /** @return true if the next split starts a new segment */
+    public boolean needsSegment() {
+        return segmentOf(getNewBucket()) == segments.length;
+    }
+
+    /**
+     * Records a new segment, of 2^(s-1) pages from page start, for the
+     * next split to use.
+     */
+    void addSegment(int start) {
+        captureBeforeImage();
+        int[] grown = new int[segments.length + 1];
+        System.arraycopy(segments, 0, grown, 0, segments.length);
+        grown[segments.length] = start;
+        segments = grown;
+    }
+
+    /** @return the first page of the free list, or 0 if it is empty */
+    public int getFree() {
+        return free;
+    }
+
+    void setFree(int free) {
+        captureBeforeImage();
+        this.free = free;
+    }
+
+    /** Moves the split pointer past the bucket just split. */
+    void advance() {
+        captureBeforeImage();
+        if (++next == (1 << level)) {
+            level++;
+            next = 0;
+        }
+    }
+}
@@ -1,7 +1,14 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -17,6 +24,28 @@ public class HeapFile implements DbFile {
 
     private File file;
     private TupleDesc td;
+    private int pageSize;
+
+    //opened lazily on first page access and kept open until close()
+    private transient RandomAccessFile raf;
+    private transient FileChannel channel;
+    private transient boolean writable;
+    private transient AsynchronousFileChannel asyncChannel; //for PageIO, opened on first use
+    private transient Boolean pagesAsIs; //see readsPagesAsIs
+
+    //memory-mapped read mode: pages are served out of a mapping of the whole file
+    private boolean memoryMapped;
+    private transient MappedByteBuffer mapping;
+    //held shared while bytes are copied to or from the mapping, and exclusively
+    //by truncate, so the file never shrinks under a copy; taken before the monitor
+    private final ReentrantReadWriteLock mappingLock = new ReentrantReadWriteLock();
+
+    //which pages have room, so inserts don't have to look at every page
+    private transient FreeSpaceMap freeSpace;
+    //true until the first write after the sidecars were last saved, see writing()
+    private transient volatile boolean sidecarsSaved = true;
+    //value ranges of each page, so scans with predicates can skip pages
+    private transient ZoneMap zoneMap;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -27,8 +56,51 @@ public class HeapFile implements DbFile {
      */
     public HeapFile(File f, TupleDesc td) {
         // some code goes here
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally serving
+     * page reads from a memory mapping of the file (the "mmap" table option
+     * in the catalog schema file). Mapped mode suits read-mostly tables: the
+     * pages come straight out of the OS page cache without a read call.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param memoryMapped
+     *            true to read pages through a MappedByteBuffer
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped) {
+        this(f, td, memoryMapped, BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Constructs a heap file with pageSize byte pages (the "pagesize" table
+     * option in the catalog schema file). Big pages suit tables that are
+     * mostly scanned; small ones suit tables where transactions touch a few
+     * rows at a time and contend for page locks.
+     *
+     * @param pageSize
+     *            bytes per page; every page of the file has this size
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped, int pageSize) {
         this.file = f;
         this.td = td;
+        this.memoryMapped = memoryMapped;
+        this.pageSize = pageSize;
+    }
+
+    // see DbFile.java for javadocs
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @return true if this file serves its pages from a memory mapping
+     */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
     }
 
     /**
@@ -67,57 +139,595 @@ public class HeapFile implements DbFile {
         // throw new UnsupportedOperationException("implement this");
     }
 
+    /**
+     * Returns the channel backing this HeapFile, opening it on first use.
+     * The channel is shared by all transactions; only the positional
+     * read(ByteBuffer, long)/write(ByteBuffer, long) calls are used on it,
+     * which are safe to issue concurrently.
+     */
+    synchronized FileChannel getChannel() throws IOException {
+        if (channel == null || !channel.isOpen()){
+            try {
+                raf = new RandomAccessFile(getFile(), "rw");
+                writable = true;
+            }
+            catch (FileNotFoundException readOnly){
+                raf = new RandomAccessFile(getFile(), "r"); //still lets us scan read-only tables
+                writable = false;
+            }
+            channel = raf.getChannel();
+            mapping = null;
+        }
+        return channel;
+    }
+
+    /**
+     * Returns the asynchronous channel PageIO reads and writes this file's
+     * pages through, opening it on first use.
+     */
+    synchronized AsynchronousFileChannel getAsyncChannel() throws IOException {
+        if (asyncChannel == null || !asyncChannel.isOpen()){
+            try {
+                asyncChannel = AsynchronousFileChannel.open(getFile().toPath(),
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            catch (AccessDeniedException readOnly){
+                asyncChannel = AsynchronousFileChannel.open(getFile().toPath(), StandardOpenOption.READ);
+            }
+        }
+        return asyncChannel;
+    }
+
+    /**
+     * Returns a private view of the mapping of this file that covers at least
+     * the first end bytes, remapping if the file has grown (e.g. through
+     * insertTuple appending a page) since the last mapping was made.
+     * 
+     * @return a view positioned at 0, or null if the file is shorter than end
+     *         (or too big to map), in which case the caller falls back to the
+     *         channel.
+     */
+    private synchronized ByteBuffer getMapping(long end) throws IOException {
+        if (mapping == null || mapping.capacity() < end){
+            FileChannel fc = getChannel();
+            long size = fc.size();
+            if (size < end || size > Integer.MAX_VALUE) return null;
+            //map exactly the current length; mapping past EOF read-write would grow the file
+            mapping = fc.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        return mapping.duplicate(); //independent position, so readers don't interfere
+    }
+
+    /**
+     * Closes the channel backing this HeapFile, if it is open. Called by
+     * Catalog.clear(); a later page access simply reopens it.
+     */
+    public synchronized void close() {
+        try {
+            if (asyncChannel != null) asyncChannel.close();
+        }
+        catch (IOException bad){
+            bad.printStackTrace();
+        }
+        asyncChannel = null;
+        try {
+            //a file only ever read through PageIO or the mapping has no channel, but may have maps to save
+            if (freeSpace != null) freeSpace.save();
+            if (zoneMap != null) zoneMap.save();
+            sidecarsSaved = true;
+        }
+        catch (IOException bad){
+            bad.printStackTrace();
+        }
+        if (channel == null) return;
+        try {
+            raf.close(); //closes the channel too
+        }
+        catch (IOException bad){
+            bad.printStackTrace();
+        }
+        channel = null;
+        raf = null;
+        mapping = null;
+    }
+
+    /**
+     * Returns the free space map of this file, loading it (from its sidecar
+     * file, or by reading the page headers) on first use.
+     */
+    public synchronized FreeSpaceMap getFreeSpaceMap() {
+        if (freeSpace == null){
+            try {
+                freeSpace = FreeSpaceMap.load(this);
+            }
+            catch (IOException bad){
+                //the map is only a hint; starting empty just means new inserts append pages
+                bad.printStackTrace();
+                freeSpace = FreeSpaceMap.empty(this);
+            }
+        }
+        return freeSpace;
+    }
+
+    /**
+     * Returns the zone map of this file, loading it from its sidecar file on
+     * first use.
+     */
+    public synchronized ZoneMap getZoneMap() {
+        if (zoneMap == null){
+            try {
+                zoneMap = ZoneMap.load(this);
+            }
+            catch (IOException bad){
+                //a map that knows nothing never skips a page, so this only costs the skipping
+                bad.printStackTrace();
+                zoneMap = ZoneMap.empty(this);
+            }
+        }
+        return zoneMap;
+    }
+
+    /**
+     * Tells the zone map that page has been written, so its contents are
+     * now the committed ones.
+     */
+    void pageWritten(Page page) {
+        if (zoneMap != null) zoneMap.pageWritten(page.getId().pageNumber(), pageIterator(page));
+    }
+
+    /**
+     * Called before every write to the file. A sidecar is only accepted if
+     * the table has not been written since it was saved, and file times are
+     * too coarse to tell (a write in the same second looks older), so the
+     * first write after a save deletes the free space and zone map
+     * sidecars; close saves them again.
+     */
+    void writing() {
+        if (!sidecarsSaved) return;
+        synchronized (this) {
+            if (!sidecarsSaved) return;
+            if (freeSpace != null) freeSpace.deleteSidecar();
+            else FreeSpaceMap.sidecarFor(file).delete();
+            if (zoneMap != null) zoneMap.deleteSidecar();
+            else ZoneMap.sidecarFor(file).delete();
+            sidecarsSaved = false;
+        }
+    }
+
+    /**
+     * Reads exactly data.length bytes starting at offset, leaving the
+     * remainder zeroed if the file ends first.
+     */
+    void readFully(byte[] data, long offset) throws IOException {
+        FileChannel fc = getChannel();
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (buf.hasRemaining()){
+            if (fc.read(buf, offset + buf.position()) < 0) break; //EOF
+        }
+    }
+
+    /**
+     * Writes all of data starting at offset.
+     */
+    void writeFully(byte[] data, long offset) throws IOException {
+        writing();
+        FileChannel fc = getChannel();
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (buf.hasRemaining()){
+            fc.write(buf, offset + buf.position());
+        }
+    }
+
+    /**
+     * Fills data with the bytes of this file starting at offset, from the
+     * mapping in mapped mode and through the channel otherwise.
+     */
+    private void readBytes(byte[] data, long offset) throws IOException {
+        if (memoryMapped){
+            mappingLock.readLock().lock();
+            try {
+                ByteBuffer view = getMapping(offset + data.length);
+                if (view != null){
+                    view.position((int) offset);
+                    view.get(data);
+                    return;
+                }
+            }
+            finally {
+                mappingLock.readLock().unlock();
+            }
+        }
+        readFully(data, offset);
+    }
+
+    /*
+     * Page format hooks. HeapFile stores HeapPages; a subclass with another
+     * page layout (see SlottedHeapFile) overrides these and inherits the
+     * file handling, free space map, read-ahead and write-back.
+     */
+
+    /** @return the page for bytes read from disk */
+    protected Page newPage(HeapPageId pid, byte[] data) throws IOException {
+        HeapPage page = new HeapPage(pid, data);
+        page.file = this;
+        return page;
+    }
+
+    /** @return the bytes of an empty page, used to grow the file */
+    protected byte[] emptyPageData() {
+        return HeapPage.createEmptyPageData(pageSize);
+    }
+
+    /** @return the free space on a page, in the units the free space map counts (slots, here) */
+    protected int getFreeSpace(Page p) {
+        return ((HeapPage) p).getNumEmptySlots();
+    }
+
+    /**
+     * @return one more than the highest slot number a tuple of this file
+     *         can have; lets indexes number tuples by (page, slot)
+     */
+    public int getSlotsPerPage() {
+        return HeapPage.getNumTuples(td, pageSize);
+    }
+
+    /** @return the free space on an empty page */
+    protected int getFreeSpaceOnEmptyPage() {
+        return HeapPage.getNumTuples(td, pageSize);
+    }
+
+    /** @return the free space a page needs to take t */
+    protected int spaceNeeded(Tuple t) {
+        return 1;
+    }
+
+    /** @return how many leading bytes of a page freeSpaceFromHeader needs */
+    protected int headerSize() {
+        return (HeapPage.getNumTuples(td, pageSize) + 7) / 8;
+    }
+
+    /**
+     * @return the free space on a page given just its first headerSize()
+     *         bytes; lets the free space map be rebuilt without decoding pages
+     */
+    protected int freeSpaceFromHeader(ByteBuffer header) {
+        int slots = HeapPage.getNumTuples(td, pageSize);
+        int used = 0;
+        for (int slot = 0; slot < slots; slot++) {
+            if ((header.get(slot / 8) >> (slot % 8) & 1) == 1) used++;
+        }
+        return slots - used;
+    }
+
+    /**
+     * Fills header with the first bytes of page pgNo, for rebuilding the
+     * free space map.
+     */
+    protected void readPageHeader(int pgNo, ByteBuffer header) throws IOException {
+        FileChannel fc = getChannel();
+        long offset = (long) pgNo * pageSize;
+        while (header.hasRemaining() && fc.read(header, offset + header.position()) >= 0);
+    }
+
+    /**
+     * Adds page pgNo (== numPages()) with the given contents to the end of
+     * the file; used by insertTuple when no page has room.
+     */
+    protected void appendPage(int pgNo, byte[] data) throws IOException {
+        writeFully(data, (long) pgNo * pageSize);
+    }
+
+    protected void insertIntoPage(Page p, Tuple t) throws DbException {
+        ((HeapPage) p).insertTuple(t);
+    }
+
+    protected void deleteFromPage(Page p, Tuple t) throws DbException {
+        ((HeapPage) p).deleteTuple(t);
+    }
+
+    protected Iterator<Tuple> pageIterator(Page p) {
+        return ((HeapPage) p).iterator();
+    }
+
+    /** @return the tuple in a slot of a page, or null if the slot is empty */
+    protected Tuple tupleAt(Page p, int slot) {
+        if (slot < 0 || slot >= HeapPage.getNumTuples(td, pageSize)) return null;
+        return ((HeapPage) p).getTuple(slot);
+    }
+
+    /**
+     * Builds the page for bytes just read from disk, and lets the free
+     * space map and zone map see it.
+     */
+    Page decodePage(HeapPageId pid, byte[] data) throws IOException {
+        Page page = newPage(pid, data);
+        //a page coming off disk (first use, or rolled back on abort) is the truth about its free space
+        if (freeSpace != null) freeSpace.update(pid.pageNumber(), getFreeSpace(page));
+        pageRead(page);
+        return page;
+    }
+
+    /**
+     * Lets the zone map summarize a page read from disk. Unlike the free
+     * space map, this is safe for pages read ahead too: the zone map only
+     * replaces summaries that are unknown or loose, and the commit that
+     * writes a newer copy summarizes that copy (see pageWritten).
+     */
+    private void pageRead(Page page) {
+        getZoneMap().pageRead(page.getId().pageNumber(), pageIterator(page));
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
-        //put file into RAF format -> find data in RAF --> put into heap page constructor 
-        HeapPage page;
-        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        //read the page straight out of the shared channel --> put into heap page constructor 
+        Page page;
+        byte[] data = new byte[pageSize];
         try {
-            RandomAccessFile raf = new RandomAccessFile(getFile(), "r");
-            raf.seek(pid.pageNumber()*BufferPool.PAGE_SIZE); //set pointer to page
-            raf.read(data); //read file into data byte array
-            page = new HeapPage((HeapPageId)pid, data);
-            raf.close();
+            readBytes(data, (long) pid.pageNumber()*pageSize);
+            page = decodePage((HeapPageId)pid, data);
         }
         catch (FileNotFoundException bad){
             System.out.println("File not found");
             return null;
         }
         catch (IOException bad){
-            System.out.println("RAF seek or read failure");
+            System.out.println("Channel read failure");
             return null;
         }
         return page;
     }
 
+    /**
+     * Starts reading a page through PageIO, for the BufferPool to wait on
+     * outside its monitor.
+     *
+     * @return the read in progress, or null if the caller should just call
+     *         readPage: in mapped mode (there is nothing to wait for), for
+     *         page formats that are not stored as is, or when PageIO is busy
+     */
+    PageIO.PageRead readPageAsync(final HeapPageId pid) {
+        return startRead(pid, true);
+    }
+
+    /**
+     * Like readPageAsync, for a page nobody is waiting for yet. The page is
+     * not allowed to update the free space map, since the buffer pool may
+     * hold a newer copy of it by the time the read completes.
+     */
+    PageIO.PageRead prefetchPage(final HeapPageId pid) {
+        return startRead(pid, false);
+    }
+
+    private PageIO.PageRead startRead(final HeapPageId pid, final boolean demand) {
+        if (memoryMapped || !readsPagesAsIs()) return null;
+        PageIO.Request io;
+        try {
+            io = PageIO.tryRead(getAsyncChannel(), (long) pid.pageNumber()*pageSize, pageSize);
+        }
+        catch (IOException bad){
+            return null; //readPage will report it
+        }
+        if (io == null) return null;
+        return new PageIO.PageRead(io) {
+            protected Page decode(byte[] data) throws IOException {
+                if (demand) return decodePage(pid, data);
+                Page page = newPage(pid, data);
+                pageRead(page);
+                return page;
+            }
+        };
+    }
+
+    /**
+     * @return true if readPage returns the page stored at pgNo * page size
+     *         as is, so PageIO can read it; false for subclasses that
+     *         override readPage (e.g. to transform pages on the way to and
+     *         from disk), which must see every read
+     */
+    protected boolean readsPagesAsIs() {
+        if (pagesAsIs == null){
+            try {
+                pagesAsIs = getClass().getMethod("readPage", PageId.class).getDeclaringClass() == HeapFile.class;
+            }
+            catch (NoSuchMethodException e){
+                pagesAsIs = false;
+            }
+        }
+        return pagesAsIs;
+    }
+
+    /**
+     * Reads count consecutive pages starting at page first with a single
+     * large read. Used by read-ahead; pages past the end of the file are
+     * left out.
+     *
+     * @return the pages read, in page number order
+     */
+    public ArrayList<Page> readPages(int first, int count) throws IOException {
+        count = Math.min(count, numPages() - first);
+        ArrayList<Page> pages = new ArrayList<Page>();
+        if (count <= 0) return pages;
+
+        byte[] extent = new byte[count * pageSize];
+        readBytes(extent, (long) first * pageSize);
+        for (int i = 0; i < count; i++){
+            byte[] data = new byte[pageSize];
+            System.arraycopy(extent, i * pageSize, data, 0, data.length);
+            //no free space map update: the buffer pool may hold a newer copy of these pages
+            Page page = newPage(new HeapPageId(getId(), first + i), data);
+            pageRead(page);
+            pages.add(page);
+        }
+        return pages;
+    }
+
     // see DbFile.java for javadocs
+    // A failed write throws, so the BufferPool keeps the page dirty; the
+    // zone map only takes the page as committed once it is written.
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for proj1
         byte[] data = page.getPageData();
-        try{
-            RandomAccessFile raf = new RandomAccessFile(getFile(), "rw");
-            raf.seek(page.getId().pageNumber()*BufferPool.PAGE_SIZE);
-            raf.write(data);
-            raf.close();
+        long offset = (long) page.getId().pageNumber()*pageSize;
+        //write through the mapping when it covers the page so mapped readers never see stale data
+        if (memoryMapped && writable){
+            mappingLock.readLock().lock();
+            try {
+                ByteBuffer view = getMapping(offset + data.length);
+                if (view != null){
+                    writing();
+                    view.position((int) offset);
+                    view.put(data);
+                    pageWritten(page);
+                    return;
+                }
+            }
+            finally {
+                mappingLock.readLock().unlock();
+            }
         }
-        catch (FileNotFoundException bad){
-            System.out.println("File not found");
-            bad.printStackTrace();
+        writeFully(data, offset);
+        pageWritten(page);
+    }
+
+    /**
+     * Writes pages sorted by page number, turning each run of consecutive
+     * page numbers into a single write. The runs are all issued to PageIO
+     * at once and then waited for, so they can be on their way to disk
+     * together. In mapped mode the pages are just copied into the mapping.
+     */
+    public void writePages(List<Page> pages) throws IOException {
+        if (memoryMapped && writable){
+            for (Page page : pages) writePage(page);
+            return;
         }
-        catch (IOException bad){
-            System.out.println("RAF seek or read failure");
-            bad.printStackTrace();
+        ArrayList<PageIO.Request> writes = new ArrayList<PageIO.Request>();
+        int i = 0;
+        while (i < pages.size()){
+            //find the run of consecutive pages starting at i
+            int first = pages.get(i).getId().pageNumber();
+            int end = i + 1;
+            while (end < pages.size() && pages.get(end).getId().pageNumber() == first + (end - i)) end++;
+
+            byte[] run = new byte[(end - i) * pageSize];
+            for (int j = i; j < end; j++){
+                System.arraycopy(pages.get(j).getPageData(), 0, run, (j - i) * pageSize, pageSize);
+            }
+            writing();
+            writes.add(PageIO.write(getAsyncChannel(), (long) first*pageSize, run));
+            i = end;
+        }
+        PageIO.awaitAll(writes);
+        for (Page page : pages) pageWritten(page);
+    }
+
+    /**
+     * Gathering write of run at offset. This is the only user of the
+     * channel's position, so holding this file's monitor around the
+     * position/write pair is enough to keep concurrent runs apart.
+     */
+    private synchronized void writeRun(ByteBuffer[] run, long offset) throws IOException {
+        writing();
+        FileChannel fc = getChannel();
+        fc.position(offset);
+        ByteBuffer last = run[run.length - 1];
+        while (last.hasRemaining()){
+            fc.write(run);
         }
     }
 
+    /**
+     * Appends whole pages (already in this file's page format) to the end of
+     * the file with one gathering write, bypassing the BufferPool. Used by
+     * BulkLoader.
+     *
+     * @return the page number of the first page written
+     */
+    synchronized int appendPages(List<byte[]> pages) throws IOException {
+        int first = numPages();
+        ByteBuffer[] run = new ByteBuffer[pages.size()];
+        for (int i = 0; i < run.length; i++){
+            run[i] = ByteBuffer.wrap(pages.get(i));
+        }
+        if (run.length > 0) writeRun(run, (long) first*pageSize);
+        if (freeSpace != null){
+            for (int i = 0; i < run.length; i++){
+                ByteBuffer header = ByteBuffer.wrap(pages.get(i), 0, headerSize()).slice();
+                freeSpace.update(first + i, freeSpaceFromHeader(header));
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Overwrites count pages from page first with empty pages, bypassing the
+     * BufferPool, e.g. to undo the part of a failed bulk load that other
+     * pages were appended after, so it cannot be truncated away. The pages
+     * must not be in the BufferPool.
+     */
+    synchronized void clearPages(int first, int count) throws IOException {
+        ByteBuffer[] run = new ByteBuffer[count];
+        for (int i = 0; i < count; i++){
+            run[i] = ByteBuffer.wrap(new byte[pageSize]);
+        }
+        if (count > 0) writeRun(run, (long) first*pageSize);
+        if (freeSpace != null){
+            int free = freeSpaceFromHeader(ByteBuffer.wrap(new byte[headerSize()]));
+            for (int i = 0; i < count; i++) freeSpace.update(first + i, free);
+        }
+    }
+
+    /**
+     * Cuts the file back to its first numPages pages, e.g. to undo a failed
+     * bulk load. The pages removed must not be in the BufferPool. The memory
+     * mapping is dropped first, and no copy out of it (readahead and
+     * readPages take no page locks) may be running: touching a mapping
+     * beyond the end of a truncated file is a SIGBUS, not an exception.
+     */
+    void truncate(int numPages) throws IOException {
+        truncate(-1, numPages);
+    }
+
+    /**
+     * Truncates the file as truncate(numPages) does, but only if it still
+     * has pagesNow pages (any number if pagesNow is negative). Pages are
+     * appended under this file's monitor, which is held from the check to
+     * the truncation.
+     *
+     * @return the number of pages in the file afterwards
+     */
+    int truncate(int pagesNow, int numPages) throws IOException {
+        mappingLock.writeLock().lock();
+        try {
+            synchronized (this) {
+                if (pagesNow >= 0 && numPages() != pagesNow) return numPages();
+                mapping = null;
+                writing();
+                getChannel().truncate((long) numPages*pageSize);
+                freeSpace = null; //reloaded (rebuilt, since the page count changed) on next use
+                if (zoneMap != null) zoneMap.truncate(numPages);
+                return numPages;
+            }
+        }
+        finally {
+            mappingLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Forces everything written to this file so far to disk.
+     */
+    void force() throws IOException {
+        getChannel().force(false);
+    }
+
     /**
      * Returns the number of pages in this HeapFile.
      */
     public int numPages() {
         // some code goes here
-        return (int) Math.ceil(file.length() / (double) BufferPool.PAGE_SIZE);
+        return (int) Math.ceil(file.length() / (double) pageSize);
     }
 
     // see DbFile.java for javadocs
@@ -126,51 +736,48 @@ public class HeapFile implements DbFile {
         // some code goes here
         if (t == null) throw new DbException("Tuple is null!");
         BufferPool bufferpool = Database.getBufferPool();
-        ArrayList<Page> freePages = new ArrayList<Page>(); //should be called dirtyPages
-        //Get all pages that have free space
-        for (int i = 0; i < this.numPages(); i++){
-            HeapPage currPage = (HeapPage) bufferpool.getPage(tid, (PageId) new HeapPageId(getId(), i), Permissions.READ_WRITE);
-            if (currPage.getNumEmptySlots() > 0){
-                freePages.add(currPage);
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        ArrayList<Page> dirtyPages = new ArrayList<Page>();
+
+        //Ask the free space map for a page with room; only that page gets locked
+        int needed = spaceNeeded(t);
+        int pgNo;
+        while ((pgNo = fsm.findPageWithSpace(needed)) != -1 && pgNo < numPages()){
+            PageId pid = new HeapPageId(getId(), pgNo);
+            boolean alreadyLocked = bufferpool.holdsLock(tid, pid);
+            Page currPage = bufferpool.getPage(tid, pid, Permissions.READ_WRITE);
+            int free = getFreeSpace(currPage);
+            if (free >= needed){
+                insertIntoPage(currPage, t);
+                dirtyPages.add(currPage);
+                return dirtyPages;
             }
+            //stale hint (someone filled it since): fix it, and give back a lock we only took to look
+            fsm.update(pgNo, free);
+            if (!alreadyLocked) bufferpool.releasePage(tid, pid);
         }
 
-        for (Page p : freePages){
-            try{
-                ((HeapPage) p ).insertTuple(t);
-                break;
-            }
-            catch(Exception e){
-                //do nothing- continue trying
+        //No more space - create new page
+        try{
+            PageId pid;
+            synchronized (this) { //two inserts must not append the same page
+                pid = new HeapPageId(getId(), numPages());
+                appendPage(pid.pageNumber(), emptyPageData());
             }
+            Page newPage = bufferpool.getPage(tid, pid, Permissions.READ_WRITE);
+            insertIntoPage(newPage, t);
+            dirtyPages.add(newPage);
         }
-
-        //Nore more space - create new page
-        if (freePages.isEmpty()){
-            try{
-                PageId pid = new HeapPageId(getId(), numPages());
-                byte[] b = HeapPage.createEmptyPageData();
-                RandomAccessFile raf = new RandomAccessFile(getFile(), "rw");
-                raf.seek(pid.pageNumber()*BufferPool.PAGE_SIZE);
-                raf.write(b);
-                raf.close();
-                HeapPage newPage = (HeapPage) bufferpool.getPage(tid, pid, Permissions.READ_WRITE);
-                newPage.insertTuple(t);
-                freePages.add(newPage);
-            }
-            catch (FileNotFoundException bad){
-                System.out.println("File not found");
-                return null;
-            }
-            catch (IOException bad){
-                System.out.println("RAF seek or read failure");
-            }
-            //Let all other exceptions run
+        catch (FileNotFoundException bad){
+            System.out.println("File not found");
+            return null;
         }
+        catch (IOException bad){
+            System.out.println("Channel write failure");
+        }
+        //Let all other exceptions run
 
-
-
-        return freePages;
+        return dirtyPages;
         // not necessary for proj1
     }
 
@@ -179,23 +786,55 @@ public class HeapFile implements DbFile {
             TransactionAbortedException {
         // some code goes here
         BufferPool bufferpool = Database.getBufferPool();
-        HeapPage page = (HeapPage) bufferpool.getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
-        page.deleteTuple(t);        
+        Page page = bufferpool.getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
+        deleteFromPage(page, t);        
         return page; 
         // not necessary for proj1
     }
 
 
+    /**
+     * Fetches one tuple by its RecordId, locking its page READ_ONLY; used
+     * to follow index entries to the tuples they point at.
+     *
+     * @throws DbException if there is no tuple with that RecordId
+     */
+    public Tuple getTuple(TransactionId tid, RecordId rid) throws DbException,
+            TransactionAbortedException {
+        PageId pid = rid.getPageId();
+        if (pid.getTableId() != getId() || pid.pageNumber() >= numPages())
+            throw new DbException("Tuple not in this table!");
+        Page page = Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        Tuple t = tupleAt(page, rid.tupleno());
+        if (t == null) throw new DbException("Tuple not in this table!");
+        return t;
+    }
+
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
         return new HeapFileIterator(tid);
     }
 
+    /**
+     * Returns an iterator that skips the pages the zone map shows cannot
+     * hold a tuple satisfying all of preds. It may still return tuples that
+     * fail them: the caller filters as usual.
+     *
+     * @param preds predicates on fields of this file's TupleDesc
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> preds) {
+        HeapFileIterator it = new HeapFileIterator(tid);
+        if (!preds.isEmpty()) it.preds = new ArrayList<Predicate>(preds);
+        return it;
+    }
+
     public class HeapFileIterator implements DbFileIterator {
         TransactionId tid;
         int pageNum;
         boolean opened;
+        int readAheadTo; //pages below this have already been requested from ReadAhead
+        List<Predicate> preds; //pages the zone map rules out for these are skipped; null: read every page
 
         Iterator<Tuple> iterator;
 
@@ -205,17 +844,36 @@ public class HeapFile implements DbFile {
             this.opened = false;
         }
 
+        /** @return the first page from pgNo on that may hold tuples we want */
+        private int skip(int pgNo){
+            if (preds == null) return pgNo;
+            ZoneMap zm = getZoneMap();
+            while (pgNo < numPages() && !zm.mayMatch(pgNo, preds)) pgNo++;
+            return pgNo;
+        }
+
+        /** @return true if the scan will want page pgNo */
+        private boolean wanted(int pgNo){
+            return preds == null || getZoneMap().mayMatch(pgNo, preds);
+        }
+
         /**
          * Opens the iterator
          * @throws DbException when there are problems opening/accessing the database.
          */ 
         public void open() throws DbException, TransactionAbortedException{
+            prefetchStart();
             //Note: HeapPageId pgNo hardcoded to 0 in case .open() is called on already opened iterator - reset          
-            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(),0), Permissions.READ_ONLY);
+            pageNum = skip(0);
+            opened = true;
+            if (preds != null && pageNum >= numPages()){
+                iterator = Collections.<Tuple>emptyList().iterator();
+                return;
+            }
+            Page page = Database.getBufferPool().getPage(tid, new HeapPageId(getId(),pageNum), Permissions.READ_ONLY);
             if (page == null) throw new DbException("Database accessing error!");
-            iterator = page.iterator();
+            iterator = pageIterator(page);
             pageNum++;
-            opened = true;
         }
 
         /** @return true if there are more tuples available. */
@@ -224,9 +882,10 @@ public class HeapFile implements DbFile {
                 if (iterator == null) return false;
                 if (iterator.hasNext()) return true;
                 //end of page, fetch the next populated page
-                while (pageNum <= numPages()-1){
-                    HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(),pageNum++), Permissions.READ_ONLY);
-                    iterator = page.iterator();
+                while ((pageNum = skip(pageNum)) <= numPages()-1){
+                    readAhead(pageNum);
+                    Page page = Database.getBufferPool().getPage(tid, new HeapPageId(getId(),pageNum++), Permissions.READ_ONLY);
+                    iterator = pageIterator(page);
                     if (iterator.hasNext()) return true;
                 }
             }
@@ -234,6 +893,47 @@ public class HeapFile implements DbFile {
         }
 
 
+        /**
+         * Keeps the read-ahead window in front of a sequential scan. The scan
+         * counts as sequential once it moves on from page 0 to page 1; from
+         * then on, whenever fewer than half a window of requested pages is
+         * left ahead of pgNo, the next window is requested in one go.
+         * Tables that fit in the buffer pool are left alone: after the first
+         * scan they are served from the pool anyway.
+         */
+        private void readAhead(int pgNo){
+            BufferPool pool = Database.getBufferPool();
+            int window = ReadAhead.getWindow(pool, pageSize);
+            if (window == 0 || pgNo < 1 || numPages() <= pool.getNumPages(pageSize)) return;
+            if (readAheadTo <= pgNo) readAheadTo = pgNo + 1; //pgNo itself is read by the scan
+            if (readAheadTo - pgNo > window / 2) return;
+            int count = Math.min(window, numPages() - readAheadTo);
+            if (count <= 0) return;
+            if (preds != null){ //one run would read the skipped pages too
+                for (int i = readAheadTo; i < readAheadTo + count; i++){
+                    if (wanted(i)) pool.prefetch(new HeapPageId(getId(), i));
+                }
+            }
+            else ReadAhead.request(HeapFile.this, readAheadTo, count);
+            readAheadTo += count;
+        }
+
+        /**
+         * Asks the buffer pool to start reading the first window of pages
+         * while the scan waits for page 0, under the same conditions as
+         * readAhead. Every rewind does this too, so the inner table of a
+         * nested loops join is read back in ahead of each pass.
+         */
+        private void prefetchStart(){
+            BufferPool pool = Database.getBufferPool();
+            int window = ReadAhead.getWindow(pool, pageSize);
+            if (window == 0 || numPages() <= pool.getNumPages(pageSize)) return;
+            for (int pgNo = 1; pgNo <= window && pgNo < numPages(); pgNo++){
+                if (wanted(pgNo)) pool.prefetch(new HeapPageId(getId(), pgNo));
+            }
+            readAheadTo = window + 1;
+        }
+
         /**
          * Gets the next tuple from the operator (typically implementing by reading
          * from a child operator or an access method).
@@ -269,6 +969,7 @@ public class HeapFile implements DbFile {
             iterator = null;
             opened  = false;
             pageNum = 0;
+            readAheadTo = 0;
 
         }
 
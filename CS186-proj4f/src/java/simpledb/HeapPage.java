@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -16,51 +17,59 @@ public class HeapPage implements Page {
     HeapPageId pid;
     TupleDesc td;
     byte header[];
-    Tuple tuples[];
+    Tuple tuples[]; //decoded lazily: null for a used slot means "not decoded yet"
     int numSlots;
+    int pageSize; //bytes per page of this page's table, see DbFile.getPageSize
 
-    byte[] oldData;
+    ByteBuffer data; //the page as read from disk; undecoded tuples are read from here
+    int fieldOffsets[]; //byte offset of each field within a tuple
+
+    byte[] oldData; //before image; null means "same as the current contents", see setBeforeImage
 
     TransactionId dirtyTID = null; //null means not dirty
+    HeapFile file; //the file this page belongs to, set by HeapFile.newPage; see owner()
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      *  Specifically, the number of tuples is equal to: <p>
-     *          floor((BufferPool.PAGE_SIZE*8) / (tuple size * 8 + 1))
+     *          floor((page size*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
-     * database table, which can be determined via {@link Catalog#getTupleDesc}.
+     * database table, which can be determined via {@link Catalog#getTupleDesc},
+     * and page size is the length of data (the table's page size).
      * The number of 8-bit header words is equal to:
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * Tuples are not decoded here: the page keeps the bytes it was given and
+     * builds a Tuple (or a single Field, see getField) only when one is asked
+     * for, so a scan that filters most tuples out, or a page that is only
+     * fetched to be inserted into, never pays for the rest of them. The page
+     * keeps data (and never writes to it), so callers must not reuse it.
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
-     * @see BufferPool#PAGE_SIZE
+     * @see DbFile#getPageSize
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = data.length;
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.data = ByteBuffer.wrap(data);
 
-        // allocate and read the header slots of this page
+        // allocate and read the header slots of this page (copied, since inserts/deletes flip bits)
         header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-
-        try{
-            // allocate and read the actual records of this page
-            tuples = new Tuple[numSlots];
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
+        System.arraycopy(data, 0, header, 0, header.length);
 
-        setBeforeImage();
+        // tuples are decoded on demand out of data
+        tuples = new Tuple[numSlots];
+        fieldOffsets = new int[td.numFields()];
+        for (int j=1; j<fieldOffsets.length; j++)
+            fieldOffsets[j] = fieldOffsets[j-1] + td.getFieldType(j-1).getLen();
+
+        // the bytes we were built from are never written to, so they can double as the before image
+        oldData = data;
     }
 
     /** Retrieve the number of tuples on this page.
@@ -68,10 +77,20 @@ public class HeapPage implements Page {
     */
     private int getNumTuples() {        
         // some code goes here
-        return BufferPool.PAGE_SIZE * 8 / (td.getSize() * 8 + 1); //int division floors
+        return getNumTuples(td, pageSize);
 
     }
 
+    /** @return the number of tuple slots on a default sized page of a table with schema td */
+    static int getNumTuples(TupleDesc td) {
+        return getNumTuples(td, BufferPool.PAGE_SIZE);
+    }
+
+    /** @return the number of tuple slots on a pageSize byte page of a table with schema td */
+    static int getNumTuples(TupleDesc td, int pageSize) {
+        return pageSize * 8 / (td.getSize() * 8 + 1); //int division floors
+    }
+
     /**
      * Computes the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
      * @return the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
@@ -86,7 +105,7 @@ public class HeapPage implements Page {
         -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
-            return new HeapPage(pid,oldData);
+            return new HeapPage(pid, (oldData != null) ? oldData : getPageData());
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -95,8 +114,22 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * Makes the current contents of this page its before image. Nothing is
+     * copied yet: the snapshot is only taken by the first modification after
+     * this call (see captureBeforeImage), so pages that are never changed
+     * again never pay for it.
+     */
     public void setBeforeImage() {
-        oldData = getPageData().clone();
+        oldData = null;
+    }
+
+    /**
+     * Called before every modification: if the before image is still
+     * "whatever the page holds now", serialize it before that changes.
+     */
+    private void captureBeforeImage() {
+        if (oldData == null) oldData = getPageData();
     }
 
     /**
@@ -109,36 +142,51 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the byte offset at which the tuple in slot slotId starts
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+    private int slotOffset(int slotId) {
+        return header.length + slotId * td.getSize();
+    }
+
+    /**
+     * Returns the tuple in a slot, decoding it from the page bytes the first
+     * time it is asked for.
+     *
+     * @return the tuple, or null if the slot is empty
+     */
+    public Tuple getTuple(int slotId) {
+        if (!isSlotUsed(slotId)) return null;
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            t = decodeTuple(slotId);
+            tuples[slotId] = t;
         }
+        return t;
+    }
+
+    /**
+     * Returns one field of the tuple in a slot. If the tuple has not been
+     * decoded, only this field is read out of the page bytes; no Tuple is
+     * built.
+     *
+     * @return the field, or null if the slot is empty
+     */
+    public Field getField(int slotId, int fieldIndex) {
+        if (!isSlotUsed(slotId)) return null;
+        Tuple t = tuples[slotId];
+        if (t != null) return t.getField(fieldIndex);
+        return td.getFieldType(fieldIndex).parse(data, slotOffset(slotId) + fieldOffsets[fieldIndex]);
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
+    /**
+     * Wraps the tuple in slot slotId as a compact Tuple over the page bytes,
+     * which are never written to; its fields are only decoded if someone
+     * asks for them as Fields.
+     */
+    private Tuple decodeTuple(int slotId) {
+        Tuple t = new Tuple(td, data.array(), data.arrayOffset() + slotOffset(slotId));
         RecordId rid = new RecordId(pid, slotId);
         t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
-        }
-
         return t;
     }
 
@@ -154,7 +202,7 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.PAGE_SIZE;
+        int len = pageSize;
         ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
         DataOutputStream dos = new DataOutputStream(baos);
 
@@ -184,20 +232,26 @@ public class HeapPage implements Page {
                 continue;
             }
 
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
+            // non-empty slot that was never decoded: its bytes are unchanged
+            if (tuples[i] == null) {
                 try {
-                    f.serialize(dos);
-                
+                    dos.write(data.array(), data.arrayOffset() + slotOffset(i), td.getSize());
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
+                continue;
+            }
+
+            // non-empty slot
+            try {
+                tuples[i].serialize(dos);
+            } catch (IOException e) {
+                e.printStackTrace();
             }
         }
 
         // padding
-        int zerolen = BufferPool.PAGE_SIZE - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
+        int zerolen = pageSize - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
         byte[] zeroes = new byte[zerolen];
         try {
             dos.write(zeroes, 0, zerolen);
@@ -224,8 +278,15 @@ public class HeapPage implements Page {
      * @return The returned ByteArray.
      */
     public static byte[] createEmptyPageData() {
-        int len = BufferPool.PAGE_SIZE;
-        return new byte[len]; //all 0
+        return createEmptyPageData(BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * @return the bytes of an empty page of a table with pageSize byte pages
+     * @see #createEmptyPageData()
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
     }
 
     /**
@@ -245,7 +306,11 @@ public class HeapPage implements Page {
         }
         if (!isSlotUsed(rid.tupleno()))  throw new DbException("Tried to delete null tuple");
 
+        captureBeforeImage();
+        Tuple gone = getTuple(rid.tupleno());
         markSlotUsed(rid.tupleno(), false);
+        updateFreeSpaceMap();
+        updateZoneMap(gone, false);
     }
 
     /**
@@ -262,7 +327,7 @@ public class HeapPage implements Page {
         if (getNumEmptySlots() == 0) throw new DbException("Page is full!");
         if (!t.getTupleDesc().equals(this.td)) throw new DbException("TupleDesc don't match!");
 
-        RecordId rid = t.getRecordId();
+        captureBeforeImage();
         for (int i=0; i<getNumTuples(); i++){
             if (!isSlotUsed(i)){
                 tuples[i] = t;
@@ -271,6 +336,41 @@ public class HeapPage implements Page {
                 break;
             }
         }
+        updateFreeSpaceMap();
+        updateZoneMap(t, true);
+    }
+
+    /**
+     * @return the HeapFile this page belongs to, looked up in the catalog
+     *         (once) if the page was not read through one; null if the table
+     *         is not a HeapFile
+     */
+    private HeapFile owner() {
+        if (file == null) {
+            DbFile f = Database.getCatalog().getDbFile(pid.getTableId());
+            if (f instanceof HeapFile) file = (HeapFile) f;
+        }
+        return file;
+    }
+
+    /**
+     * Tells the owning HeapFile's free space map how many slots this page
+     * has left.
+     */
+    private void updateFreeSpaceMap() {
+        HeapFile f = owner();
+        if (f != null) f.getFreeSpaceMap().update(pid.pageNumber(), getNumEmptySlots());
+    }
+
+    /**
+     * Tells the owning HeapFile's zone map that t was inserted on (or
+     * deleted from) this page.
+     */
+    private void updateZoneMap(Tuple t, boolean inserted) {
+        HeapFile f = owner();
+        if (f == null) return;
+        if (inserted) f.getZoneMap().tupleInserted(pid.pageNumber(), t);
+        else f.getZoneMap().tupleDeleted(pid.pageNumber(), t);
     }
 
     /**
@@ -279,6 +379,7 @@ public class HeapPage implements Page {
      */
     public void markDirty(boolean dirty, TransactionId tid) {
         // some code goes here
+        if (dirty) captureBeforeImage();
         this.dirtyTID = (dirty)? tid : null;
 	// not necessary for lab1
     }
@@ -334,11 +435,32 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-        ArrayList<Tuple> arr = new ArrayList<Tuple>();
-        for (int i=0; i < numSlots; i++){
-            if (isSlotUsed(i)) arr.add(tuples[i]);
-        }
-        return arr.iterator();
+        //iterate over the slots in use right now, decoding each tuple only when it's reached
+        final byte[] used = header.clone();
+        return new Iterator<Tuple>() {
+            int slot = nextUsed(0);
+
+            private int nextUsed(int from) {
+                while (from < numSlots && ((used[from/8] >> (from%8)) & 1) == 0) from++;
+                return from;
+            }
+
+            public boolean hasNext() {
+                return slot < numSlots;
+            }
+
+            public Tuple next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                Tuple t = isSlotUsed(slot) ? getTuple(slot) : tuples[slot];
+                if (t == null) t = decodeTuple(slot); //deleted since iteration began, never decoded
+                slot = nextUsed(slot + 1);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
     }
 
 }
@@ -58,7 +58,7 @@ public class HeapPageId implements PageId {
      */
     public boolean equals(Object o) {
         // some code goes here
-        if (o instanceof PageId){ 
+        if (o instanceof HeapPageId){ 
 		return this.pageNumber() == ((HeapPageId) o).pageNumber() && this.getTableId() == ((HeapPageId) o).getTableId(); 
         }
 	return false;
@@ -0,0 +1,164 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.Iterator;
+
+/**
+ * IndexBuilder fills a new index with the tuples its table already holds,
+ * for CREATE INDEX and for indexes declared in the catalog whose files do
+ * not exist yet.
+ * <p>
+ * An empty B+ tree is bulk loaded: the table is scanned once, the entries
+ * are sorted with an ExternalSort, which spills runs of sortEntries() of
+ * them to disk, and the tree is written bottom-up from the sorted entries
+ * (see BTreeFile#bulkLoad), with no page splits and outside the BufferPool.
+ * Its pages are made as full, in percent, as the fill factor given to
+ * build: the n of CREATE INDEX ... WITH (FILLFACTOR = n), or
+ * BTreeFile.DEFAULT_FILL_FACTOR (90). The building transaction holds page
+ * 0 of the index READ_WRITE from before the scan until the tree is
+ * written, so tuples inserted meanwhile wait to be indexed until it is
+ * there.
+ * <p>
+ * Other indexes are filled entry by entry: the table is scanned once, in a
+ * transaction that only reads it, and the entries are added in
+ * transactions of their own, committed every batchSize() entries so that
+ * the dirty index pages of one batch stay well within the BufferPool under
+ * NO STEAL.
+ * <p>
+ * Either way the index must already be in the catalog (so its pages can
+ * be found), which also means tuples inserted into the table from then on
+ * are indexed by the BufferPool.
+ */
+public class IndexBuilder {
+
+    /** The default for sortEntries(). */
+    public static final int DEFAULT_SORT_ENTRIES = 1 << 19;
+
+    private static int sortEntries = DEFAULT_SORT_ENTRIES;
+
+    /**
+     * @return the number of entries added per transaction: a quarter of
+     *         the pool's pages, since an insert dirties a leaf and, when it
+     *         splits, up to two pages per level above it
+     */
+    static int batchSize() {
+        return Math.max(1, Database.getBufferPool().getNumPages() / 4);
+    }
+
+    /** @return the most entries a bulk load sorts in memory before spilling a run */
+    public static int sortEntries() {
+        return sortEntries;
+    }
+
+    /** Sets the most entries a bulk load sorts in memory before spilling a run. */
+    public static void setSortEntries(int entries) {
+        sortEntries = Math.max(1, entries);
+    }
+
+    /**
+     * Adds an entry for every tuple of index's table to index, with pages
+     * of a bulk loaded B+ tree BTreeFile.DEFAULT_FILL_FACTOR percent full.
+     *
+     * @return the number of entries added
+     * @throws TransactionAbortedException if a batch could not get its
+     *         locks; the batches before it stay committed
+     */
+    public static int build(IndexFile index) throws DbException, IOException, TransactionAbortedException {
+        return build(index, BTreeFile.DEFAULT_FILL_FACTOR);
+    }
+
+    /**
+     * Adds an entry for every tuple of index's table to index.
+     *
+     * @param fillFactor how full to make the pages of a bulk loaded B+
+     *        tree, in percent (10 to 100); other indexes ignore it
+     * @return the number of entries added
+     * @throws TransactionAbortedException if a batch could not get its
+     *         locks; the batches before it stay committed
+     */
+    public static int build(IndexFile index, int fillFactor)
+            throws DbException, IOException, TransactionAbortedException {
+        if (index instanceof BTreeFile && ((BTreeFile) index).isEmpty())
+            return bulkLoad((BTreeFile) index, fillFactor);
+        BufferPool bp = Database.getBufferPool();
+        DbFile table = Database.getCatalog().getDbFile(index.getTableId());
+        TransactionId reader = new TransactionId();
+        TransactionId writer = new TransactionId();
+        DbFileIterator it = table.iterator(reader);
+        int added = 0;
+        try {
+            it.open();
+            while (it.hasNext()) {
+                bp.updateIndex(writer, index, it.next(), true);
+                if (++added % batchSize() == 0) {
+                    bp.transactionComplete(writer);
+                    writer = new TransactionId();
+                }
+            }
+            it.close();
+        } catch (TransactionAbortedException e) {
+            bp.transactionComplete(writer, false);
+            bp.transactionComplete(reader);
+            throw e;
+        } catch (DbException e) {
+            bp.transactionComplete(writer, false);
+            bp.transactionComplete(reader);
+            throw e;
+        }
+        bp.transactionComplete(writer);
+        bp.transactionComplete(reader);
+        return added;
+    }
+
+    /**
+     * Bulk loads the empty B+ tree index from a sort of the entries of its
+     * table's tuples, in one transaction.
+     */
+    private static int bulkLoad(BTreeFile index, int fillFactor)
+            throws DbException, IOException, TransactionAbortedException {
+        if (fillFactor < 10 || fillFactor > 100)
+            throw new IllegalArgumentException("The fill factor must be between 10 and 100 percent");
+        BufferPool bp = Database.getBufferPool();
+        DbFile table = Database.getCatalog().getDbFile(index.getTableId());
+        TransactionId tid = new TransactionId();
+        ExternalSort sort = new ExternalSort(index.getTupleDesc(), index.getTableId(), new Comparator<Tuple>() {
+            public int compare(Tuple a, Tuple b) {
+                return BTreeFile.compare(a.getField(0), a.getRecordId(), b.getField(0), b.getRecordId());
+            }
+        }, sortEntries());
+        long added;
+        try {
+            bp.getPage(tid, new BTreePageId(index.getId(), 0), Permissions.READ_WRITE);
+            DbFileIterator it = table.iterator(tid);
+            it.open();
+            while (it.hasNext()) sort.add(index.entryFor(it.next()));
+            it.close();
+            Iterator<Tuple> entries = sort.sorted();
+            try {
+                added = index.bulkLoad(entries, fillFactor);
+            } catch (RuntimeException e) {
+                if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                throw e;
+            }
+        } catch (TransactionAbortedException e) {
+            sort.close();
+            bp.transactionComplete(tid, false);
+            throw e;
+        } catch (DbException e) {
+            sort.close();
+            bp.transactionComplete(tid, false);
+            throw e;
+        } catch (IOException e) {
+            sort.close();
+            bp.transactionComplete(tid, false);
+            throw e;
+        }
+        sort.close();
+        //the pool may hold the pages of the empty tree, which were written over
+        bp.discardPage(new BTreePageId(index.getId(), 0));
+        bp.discardPage(new BTreePageId(index.getId(), 1));
+        bp.transactionComplete(tid);
+        return (int) added;
+    }
+}
@@ -0,0 +1,68 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * An IndexFile is a secondary index on one field of a table (a HeapFile).
+ * It stores one entry per tuple of the table: a tuple with the index's
+ * TupleDesc, whose first field is the key, followed by copies of any
+ * included fields of the tuple, and whose RecordId is the RecordId of the
+ * indexed tuple in the table.
+ * <p>
+ * Indexes are registered with Catalog.addIndex, and kept in step with
+ * their table by BufferPool.insertTuple and deleteTuple: insertTuple and
+ * deleteTuple here take a tuple of the table (with its RecordId), not an
+ * entry. Their pages go through the BufferPool like any other, so changes
+ * to an index commit and roll back with the transaction that made them.
+ *
+ * @see BTreeFile
+ * @see HashFile
+ * @see IndexScan
+ */
+public interface IndexFile extends DbFile {
+
+    /** @return the id of the table this index is on */
+    public int getTableId();
+
+    /** @return the index of the key field in the table's TupleDesc */
+    public int getKeyField();
+
+    /**
+     * @return the indexes, in the table's TupleDesc, of the fields entries
+     *         hold after the key, in entry order; maybe none
+     */
+    public int[] getIncludedFields();
+
+    /**
+     * @return true if lookup can use a predicate on the key with the given
+     *         operator to narrow its search
+     */
+    public boolean supports(Predicate.Op op);
+
+    /**
+     * @return false if the index no longer holds an entry for every tuple
+     *         of its table, so queries must not use it; it is still kept
+     *         in the catalog, and updated as far as it can be
+     */
+    public boolean isUsable();
+
+    /** @return the number of pages in the index's file */
+    public int numPages();
+
+    /**
+     * @return the number of index pages a lookup of one key reads, before
+     *         it reaches the first entry; used to cost plans that probe the
+     *         index
+     */
+    public int lookupPages();
+
+    /**
+     * Returns the entries whose keys satisfy all of preds, in the index's
+     * order. The predicates are on the fields of the index's TupleDesc;
+     * those on the key whose operator the index supports narrow the search,
+     * the others are checked entry by entry.
+     *
+     * @param preds predicates on the index's entries; none returns every entry
+     */
+    public DbFileIterator lookup(TransactionId tid, List<Predicate> preds);
+}
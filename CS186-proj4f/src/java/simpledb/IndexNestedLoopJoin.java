@@ -0,0 +1,221 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin joins its outer child with a table that has an index
+ * on the join field: for each outer tuple it looks the tuple's join value up
+ * in the index, and fetches the matching inner tuples from the table,
+ * instead of rescanning the whole inner side as Join does.
+ * <p>
+ * The inner child must be a scan of the table (a SeqScan, IndexScan or
+ * BitmapScan), possibly under Filters; it is never opened itself, but its
+ * Filters' predicates are applied to the fetched tuples, so the join
+ * returns what a Join of the same children would, though in a different
+ * order.
+ *
+ * @see JoinOptimizer#instantiateJoin
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate jpred;
+    private final IndexFile index;
+    private DbIterator child1;
+    private DbIterator child2;
+    private TupleDesc td;
+
+    private transient TransactionId tid;
+    private transient HeapFile table;
+    private transient ArrayList<Predicate> innerPreds; //of the Filters of child2
+    private transient Tuple outer;
+    private transient DbFileIterator matches; //entries for outer's join value
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to join on; its second field is a field of
+     *            the inner table
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            The scan of the inner table, maybe under Filters
+     * @param index
+     *            an index on the inner table's join field that supports the
+     *            join's operator (see findIndex)
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2, IndexFile index) {
+        this.jpred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.index = index;
+        td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return jpred;
+    }
+
+    /** @return the index probed for the inner tuples */
+    public IndexFile getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the field name of join field1, quantified by alias or table
+     *         name
+     */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(jpred.getField1());
+    }
+
+    /**
+     * @return the field name of join field2, quantified by alias or table
+     *         name
+     */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(jpred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the operator op with its operands swapped: x op y iff y mirror(op) x */
+    static Predicate.Op mirror(Predicate.Op op) {
+        switch (op) {
+        case LESS_THAN: return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ: return Predicate.Op.GREATER_THAN_OR_EQ;
+        case GREATER_THAN: return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ: return Predicate.Op.LESS_THAN_OR_EQ;
+        default: return op;
+        }
+    }
+
+    /**
+     * @return the scan at the bottom of inner, under its Filters, or null if
+     *         inner is not a scan of a table under Filters
+     */
+    static DbIterator innerScan(DbIterator inner) {
+        while (inner instanceof Filter) inner = ((Filter) inner).getChildren()[0];
+        if (inner instanceof SeqScan && ((SeqScan) inner).getColumns() == null) return inner;
+        if (inner instanceof IndexScan || inner instanceof BitmapScan) return inner;
+        return null;
+    }
+
+    /**
+     * @return a usable index on field field of the table with the given id
+     *         that can find the tuples whose field stands in relation op to a
+     *         value (a hash index is preferred for equality, then the one
+     *         that reads the fewest pages per lookup), or null if the table
+     *         has none
+     */
+    static IndexFile findIndex(int tableId, int field, Predicate.Op op) {
+        IndexFile best = null;
+        for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+            if (index.getKeyField() != field || !index.supports(op) || !index.isUsable()) continue;
+            if (index instanceof HashFile) return index;
+            if (best == null || index.lookupPages() < best.lookupPages()) best = index;
+        }
+        return best;
+    }
+
+    /**
+     * @return an index IndexNestedLoopJoin can probe to join child1 with
+     *         inner by p, or null if inner is not a scan of an indexed table
+     */
+    static IndexFile findIndex(JoinPredicate p, DbIterator inner) {
+        DbIterator scan = innerScan(inner);
+        if (scan == null) return null;
+        int tableId;
+        if (scan instanceof SeqScan) tableId = ((SeqScan) scan).getTableId();
+        else if (scan instanceof IndexScan) tableId = ((IndexScan) scan).getIndex().getTableId();
+        else tableId = ((BitmapScan) scan).getTableId();
+        return findIndex(tableId, p.getField2(), mirror(p.getOperator()));
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        DbIterator scan = innerScan(child2);
+        if (scan == null) throw new DbException("The inner side of an index join must be a table scan");
+        if (scan instanceof SeqScan) tid = ((SeqScan) scan).getTransactionId();
+        else if (scan instanceof IndexScan) tid = ((IndexScan) scan).getTransactionId();
+        else tid = ((BitmapScan) scan).getTransactionId();
+        table = (HeapFile) Database.getCatalog().getDbFile(index.getTableId());
+        innerPreds = new ArrayList<Predicate>();
+        for (DbIterator f = child2; f instanceof Filter; f = ((Filter) f).getChildren()[0]) {
+            innerPreds.add(((Filter) f).getPredicate());
+        }
+        child1.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        if (matches != null) matches.close();
+        matches = null;
+        outer = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        if (matches != null) matches.close();
+        matches = null;
+        outer = null;
+    }
+
+    /**
+     * @return the join value of the outer tuple t, as the index stores keys
+     */
+    private Field probeKey(Tuple t) {
+        int f = jpred.getField1();
+        Type type = t.getTupleDesc().getFieldType(f);
+        if (type == Type.INT_TYPE) return new IntField(t.getInt(f));
+        if (type == Type.STRING_TYPE) return new StringField(t.getString(f), Type.STRING_LEN);
+        return t.getField(f);
+    }
+
+    /**
+     * Returns the next outer tuple joined with the next inner tuple the
+     * index finds for it that passes the inner side's Filters.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            while (matches != null && matches.hasNext()) {
+                Tuple inner = table.getTuple(tid, matches.next().getRecordId());
+                boolean pass = true;
+                for (Predicate p : innerPreds) pass &= p.filter(inner);
+                if (!pass) continue;
+                Tuple joined = new Tuple(td);
+                int n1 = outer.getTupleDesc().numFields();
+                for (int i = 0; i < n1; i++) joined.setField(i, outer.getField(i));
+                for (int i = 0; i < inner.getTupleDesc().numFields(); i++) joined.setField(n1 + i, inner.getField(i));
+                return joined;
+            }
+            if (matches != null) matches.close();
+            if (!child1.hasNext()) {
+                matches = null;
+                return null;
+            }
+            outer = child1.next();
+            Predicate probe = new Predicate(0, mirror(jpred.getOperator()), probeKey(outer));
+            matches = index.lookup(tid, Arrays.asList(probe));
+            matches.open();
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+        td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+}
@@ -0,0 +1,160 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexOnlyScan reads some fields of the tuples of a table from an index
+ * whose entries hold all of them -- as the key or as included fields --
+ * without fetching the tuples from the table: no table page is read. Its
+ * TupleDesc is the one a SeqScan of the same fields of the table with the
+ * same alias has, so one can stand in for the other. Tuples come out in
+ * the index's order.
+ * <p>
+ * A B+ tree or hash index holds fields besides its key when they are
+ * named in CREATE INDEX ... INCLUDE (field, ...); LogicalPlan then answers
+ * queries that use only the key and those fields with an IndexOnlyScan.
+ *
+ * @see IndexFile#getIncludedFields
+ */
+public class IndexOnlyScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final IndexFile index;
+    private final String tableAlias;
+    private final int[] columns;
+    private final int[] positions; //of each of columns in the index's entries
+    private final List<Predicate> preds;
+    private final TupleDesc td;
+    private DbFileIterator entries;
+
+    /**
+     * Creates a scan of the given fields of the tuples of index's table
+     * whose entries satisfy all of preds.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param index
+     *            the index to read the entries of
+     * @param tableAlias
+     *            the alias of the table, as for SeqScan
+     * @param columns
+     *            indexes of the fields to return (in the table's
+     *            TupleDesc), in the order they should appear; each must be
+     *            the index's key or one of its included fields
+     * @param preds
+     *            predicates on the fields of the index's entries, as for
+     *            IndexFile#lookup
+     * @throws IllegalArgumentException if the index does not hold one of
+     *         the fields
+     */
+    public IndexOnlyScan(TransactionId tid, IndexFile index, String tableAlias, int[] columns,
+            List<Predicate> preds) {
+        this.tid = tid;
+        this.index = index;
+        this.tableAlias = tableAlias;
+        this.columns = columns.clone();
+        this.positions = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            positions[i] = entryPosition(index, columns[i]);
+            if (positions[i] < 0)
+                throw new IllegalArgumentException("The index does not hold field " + columns[i]);
+        }
+        this.preds = new ArrayList<Predicate>(preds);
+        TupleDesc tableTd = Database.getCatalog().getTupleDesc(index.getTableId());
+        Type[] typeAr = new Type[columns.length];
+        String[] fieldAr = new String[columns.length];
+        String alias = (tableAlias == null) ? "null" : tableAlias;
+        for (int i = 0; i < columns.length; i++) {
+            typeAr[i] = tableTd.getFieldType(columns[i]);
+            String fieldName = tableTd.getFieldName(columns[i]);
+            fieldAr[i] = alias + "." + ((fieldName == null) ? "null" : fieldName);
+        }
+        this.td = new TupleDesc(typeAr, fieldAr);
+    }
+
+    /**
+     * @return the position of field field of the table in index's entries,
+     *         or -1 if they do not hold it
+     */
+    static int entryPosition(IndexFile index, int field) {
+        if (field == index.getKeyField()) return 0;
+        int[] included = index.getIncludedFields();
+        for (int i = 0; i < included.length; i++) {
+            if (included[i] == field) return 1 + i;
+        }
+        return -1;
+    }
+
+    /** @return true if index's entries hold every one of the given fields of its table */
+    static boolean covers(IndexFile index, int[] columns) {
+        for (int c : columns) {
+            if (entryPosition(index, c) < 0) return false;
+        }
+        return true;
+    }
+
+    /** @return the index this scan reads */
+    public IndexFile getIndex() {
+        return index;
+    }
+
+    /** @return the indexes of the fields this scan returns, in the table's TupleDesc */
+    public int[] getColumns() {
+        return columns.clone();
+    }
+
+    /** @return the predicates the index is searched with */
+    public List<Predicate> getPredicates() {
+        return preds;
+    }
+
+    /** @return the name of the table this scan reads, in the catalog */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(index.getTableId());
+    }
+
+    /** @return the alias of the table this scan reads */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /** @return the transaction this scan runs as a part of */
+    public TransactionId getTransactionId() {
+        return tid;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        entries = index.lookup(tid, preds);
+        entries.open();
+    }
+
+    /**
+     * @return the TupleDesc of the fields returned, with field names
+     *         prefixed with the table alias
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        return entries.hasNext();
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        Tuple entry = entries.next();
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < positions.length; i++) t.setField(i, entry.getField(positions[i]));
+        t.setRecordId(entry.getRecordId());
+        return t;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        entries.rewind();
+    }
+
+    public void close() {
+        entries.close();
+    }
+}
@@ -0,0 +1,107 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan reads the tuples of a table whose keys satisfy some predicates
+ * through an index on the table: it looks the keys up in the index, and
+ * fetches the tuple each entry points at from the table. Tuples come out
+ * in the index's order; their TupleDesc is the one a SeqScan of the table
+ * with the same alias has, so one can stand in for the other.
+ */
+public class IndexScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final IndexFile index;
+    private final String tableAlias;
+    private final List<Predicate> preds;
+    private DbFileIterator entries;
+
+    /**
+     * Creates a scan of the tuples of index's table whose keys satisfy all
+     * of preds.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param index
+     *            the index to look the keys up in
+     * @param tableAlias
+     *            the alias of the table, as for SeqScan
+     * @param preds
+     *            predicates on the fields of the index's entries (field 0
+     *            is the key), as for IndexFile#lookup
+     */
+    public IndexScan(TransactionId tid, IndexFile index, String tableAlias, List<Predicate> preds) {
+        this.tid = tid;
+        this.index = index;
+        this.tableAlias = tableAlias;
+        this.preds = new ArrayList<Predicate>(preds);
+    }
+
+    /** @return the index this scan reads */
+    public IndexFile getIndex() {
+        return index;
+    }
+
+    /** @return the predicates the index is searched with */
+    public List<Predicate> getPredicates() {
+        return preds;
+    }
+
+    /** @return the name of the table this scan reads, in the catalog */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(index.getTableId());
+    }
+
+    /** @return the alias of the table this scan reads */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /** @return the transaction this scan runs as a part of */
+    public TransactionId getTransactionId() {
+        return tid;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        entries = index.lookup(tid, preds);
+        entries.open();
+    }
+
+    /**
+     * @return the table's TupleDesc, with field names prefixed with the
+     *         table alias
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc td = Database.getCatalog().getTupleDesc(index.getTableId());
+        Type[] typeAr = new Type[td.numFields()];
+        String[] fieldAr = new String[td.numFields()];
+        String alias = (tableAlias == null) ? "null" : tableAlias;
+        for (int i = 0; i < td.numFields(); i++) {
+            typeAr[i] = td.getFieldType(i);
+            String fieldName = td.getFieldName(i);
+            fieldAr[i] = alias + "." + ((fieldName == null) ? "null" : fieldName);
+        }
+        return new TupleDesc(typeAr, fieldAr);
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        return entries.hasNext();
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        Tuple entry = entries.next();
+        HeapFile table = (HeapFile) Database.getCatalog().getDbFile(index.getTableId());
+        return table.getTuple(tid, entry.getRecordId());
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        entries.rewind();
+    }
+
+    public void close() {
+        entries.close();
+    }
+}
@@ -94,6 +94,9 @@ public class Insert extends Operator {
                     Database.getBufferPool().insertTuple(tid, tableid, child.next());
                     count++;
                 }
+                catch (TransactionAbortedException aborted){
+                    throw aborted; //the caller has to abort the transaction
+                }
                 catch (Exception bad){
                     // System.out.println(child.next());
                     // System.out.println("fetchNext cased IOException");
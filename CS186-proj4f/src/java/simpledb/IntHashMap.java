@@ -0,0 +1,72 @@
+package simpledb;
+
+/**
+ * A map from int keys to values, with open addressing and linear probing,
+ * so looking a key up or adding one boxes nothing. Used by operators that
+ * key on int values or dictionary codes once per tuple.
+ */
+class IntHashMap<V> {
+
+    private int[] keys = new int[16];
+    private Object[] values = new Object[16]; //null marks a free slot
+    private int size;
+
+    /** @return the value for key, or null if there is none */
+    @SuppressWarnings("unchecked")
+    V get(int key) {
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        while (values[i] != null) {
+            if (keys[i] == key) return (V) values[i];
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    /** Sets the value for key, which must not be null. */
+    void put(int key, V value) {
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        while (values[i] != null) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length) grow();
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        keys = new int[16];
+        values = new Object[16];
+        size = 0;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new Object[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldValues[j] == null) continue;
+            int i = mix(oldKeys[j]) & mask;
+            while (values[i] != null) i = (i + 1) & mask;
+            keys[i] = oldKeys[j];
+            values[i] = oldValues[j];
+        }
+    }
+
+    /** Spreads clustered keys (e.g. 0, 1, 2...) over the table. */
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -27,7 +27,7 @@ public class IntegerAggregator implements Aggregator {
     private Type gbfieldtype;
     private int afield;
     private Op operator;
-    private HashMap<String,SQLAggregates> groupMap; //groupVal (the groupby field) to 5 SQLAggregates struct
+    private AggregateGroups groups; //groupVal (the groupby field) to 5 SQLAggregates struct
 
 
     public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
@@ -36,7 +36,7 @@ public class IntegerAggregator implements Aggregator {
         this.gbfieldtype = gbfieldtype;
         this.afield = afield;
         this.operator = what;
-        this.groupMap = new HashMap<String,SQLAggregates>();
+        this.groups = new AggregateGroups(gbfield, gbfieldtype);
     }
 
     /**
@@ -48,19 +48,7 @@ public class IntegerAggregator implements Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
-        String groupVal = (this.gbfield == Aggregator.NO_GROUPING)? "" : tup.getField(gbfield).toString(); //good idea?
-        int tupVal = ((IntField) tup.getField(afield)).getValue();
-        SQLAggregates sag = (groupMap.containsKey(groupVal))? groupMap.get(groupVal) : new SQLAggregates(groupVal);
-        sag.count++;
-        sag.sum += tupVal;
-        sag.avg = sag.sum / sag.count; //careful division by zero??
-        sag.min = (sag.min < tupVal)? sag.min : tupVal;
-        sag.max = (sag.max > tupVal)? sag.max : tupVal;
-        // sag.avg = ((sag.avg * (sag.count-1)) + tupVal) / sag.count;
-
-        //replace (update) or add new value
-        if (groupMap.containsKey(groupVal)) groupMap.remove(groupVal);
-        groupMap.put(groupVal, sag);
+        groups.lookup(tup).merge(tup.getInt(afield));
 
     }
 
@@ -88,14 +76,10 @@ public class IntegerAggregator implements Aggregator {
             realafield = 1;
         }
 
-        for (String groupVal : groupMap.keySet()){
+        for (SQLAggregates sag : groups.all()){
             Tuple tup = new Tuple(td);
-            SQLAggregates sag = groupMap.get(groupVal);
 
-            if (this.gbfield != NO_GROUPING){ 
-                if (gbfieldtype == Type.INT_TYPE) tup.setField(0, new IntField(  new Integer(groupVal)));
-                else if (gbfieldtype == Type.STRING_TYPE) tup.setField(0, new StringField(groupVal, Type.STRING_TYPE.getLen()));
-            }
+            if (this.gbfield != NO_GROUPING) tup.setField(0, sag.groupVal);
 
             int aggregateVal = 0;
             switch(this.operator){
@@ -38,6 +38,10 @@ public class JoinOptimizer {
      * inner/outer here -- because DbIterator's don't provide any cardinality
      * estimates, and stats only has information about the base tables. For this
      * reason, the plan1
+     * <p>
+     * If orderJoins chose to probe an index for the join (see
+     * LogicalJoinNode.indexProbe) and plan2 is still a scan of an indexed
+     * table, the join is an IndexNestedLoopJoin; otherwise it is a Join.
      * 
      * @param lj
      *            The join being considered
@@ -72,7 +76,11 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        IndexFile index = lj.indexProbe ? IndexNestedLoopJoin.findIndex(p, plan2) : null;
+        if (index != null)
+            j = new IndexNestedLoopJoin(p, plan1, plan2, index);
+        else
+            j = new Join(p,plan1,plan2);
 
         return j;
 
@@ -102,10 +110,18 @@ public class JoinOptimizer {
      *            Estimated cost of one full scan of the table on the right-hand
      *            side of the query
      * @return An estimate of the cost of this query, in terms of cost1 and
-     *         cost2
+     *         cost2: the cheaper of a nested loops join and, if the right-hand
+     *         table has a usable index, an index nested loops join
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
+        return Math.min(nestedLoopCost(j, card1, card2, cost1, cost2),
+                indexJoinCost(j, card1, card2, cost1, cost2));
+    }
+
+    /** @return the cost of a nested loops join, see estimateJoinCost */
+    private double nestedLoopCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Project 3.
@@ -119,6 +135,43 @@ public class JoinOptimizer {
         }
     }
 
+    /**
+     * Estimate the cost of an IndexNestedLoopJoin of j, whose right-hand side
+     * must be a base table: one scan of the left-hand side, then for each of
+     * its card1 tuples an index lookup and one page read per match (the
+     * index is not clustered), but no more page reads than a scan of the
+     * right-hand table would take. A probe finds as many matches as the
+     * join's cardinality per left-hand tuple (see
+     * estimateTableJoinCardinality).
+     * 
+     * @return the cost, or Double.MAX_VALUE if the right-hand table has no
+     *         index j can probe
+     */
+    private double indexJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2) {
+        if (j instanceof LogicalSubplanJoinNode || j.t2Alias == null)
+            return Double.MAX_VALUE;
+        Integer tableId = p.getTableId(j.t2Alias);
+        if (tableId == null)
+            return Double.MAX_VALUE;
+        int field;
+        try {
+            field = Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(j.f2PureName);
+        } catch (NoSuchElementException e) {
+            return Double.MAX_VALUE;
+        }
+        IndexFile index = IndexNestedLoopJoin.findIndex(tableId, field,
+                IndexNestedLoopJoin.mirror(j.p));
+        if (index == null)
+            return Double.MAX_VALUE;
+        double matches = (j.p == Predicate.Op.EQUALS)
+                ? (double) Math.max(card1, card2) / Math.max(card1, 1)
+                : card2 * .30;
+        double fetches = Math.min(matches, cost2 / TableStats.IOCOSTPERPAGE);
+        double probe = (index.lookupPages() + fetches) * TableStats.IOCOSTPERPAGE + matches;
+        return cost1 + card1 * probe;
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -375,6 +428,8 @@ public class JoinOptimizer {
         double t1cost, t2cost;
         int t1card, t2card;
         boolean leftPkey, rightPkey;
+        //only a base table can be the inner side of an index join
+        boolean t1IsTable = true, t2IsTable = true;
 
         if (news.isEmpty()) { // base case -- both are base relations
             prevBest = new Vector<LogicalJoinNode>();
@@ -410,6 +465,7 @@ public class JoinOptimizer {
                 // subtree is
                 t1card = bestCard;
                 leftPkey = hasPkey(prevBest);
+                t1IsTable = false;
 
                 t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
                         .estimateScanCost();
@@ -426,6 +482,7 @@ public class JoinOptimizer {
                 // subtree is
                 t2card = bestCard;
                 rightPkey = hasPkey(prevBest);
+                t2IsTable = false;
 
                 t1cost = stats.get(table1Name).estimateScanCost();
                 t1card = stats.get(table1Name).estimateTableCardinality(
@@ -440,20 +497,27 @@ public class JoinOptimizer {
         }
 
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        double cost1 = nestedLoopCost(j, t1card, t2card, t1cost, t2cost);
+        double probe1 = t2IsTable ? indexJoinCost(j, t1card, t2card, t1cost, t2cost) : Double.MAX_VALUE;
+        boolean indexProbe = probe1 < cost1;
+        cost1 = Math.min(cost1, probe1);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
-        if (cost2 < cost1) {
+        double cost2 = nestedLoopCost(j2, t2card, t1card, t2cost, t1cost);
+        double probe2 = t1IsTable ? indexJoinCost(j2, t2card, t1card, t2cost, t1cost) : Double.MAX_VALUE;
+        if (Math.min(cost2, probe2) < cost1) {
             boolean tmp;
             j = j2;
-            cost1 = cost2;
+            indexProbe = probe2 < cost2;
+            cost1 = Math.min(cost2, probe2);
             tmp = rightPkey;
             rightPkey = leftPkey;
             leftPkey = tmp;
         }
         if (cost1 >= bestCostSoFar)
             return null;
+        if (indexProbe)
+            j = j.withIndexProbe();
 
         CostCard cc = new CostCard();
 
@@ -560,7 +624,7 @@ public class JoinOptimizer {
             // Double c = pc.getCost(pathSoFar);
             neither = true;
 
-            root = new DefaultMutableTreeNode("Join " + j + " (Cost ="
+            root = new DefaultMutableTreeNode((j.indexProbe ? "Index join " : "Join ") + j + " (Cost ="
                     + pc.getCost(pathSoFar) + ", card = "
                     + pc.getCard(pathSoFar) + ")");
             DefaultMutableTreeNode n = m.get(j.t1Alias);
@@ -42,6 +42,16 @@ public class JoinPredicate implements Serializable {
      */
     public boolean filter(Tuple t1, Tuple t2) {
         // some code goes here
+        //typed getters read compact tuples without building a Field per pair
+        Type type = t1.getTupleDesc().getFieldType(field1);
+        if (type == Type.INT_TYPE) return IntField.compare(op, t1.getInt(field1), t2.getInt(field2));
+        if (type == Type.STRING_TYPE) {
+            Field f1 = t1.getDecodedField(field1);
+            if (f1 instanceof DictField && ((DictField) f1).sameDictionary(t2.getDecodedField(field2))
+                    && (op == Predicate.Op.EQUALS || op == Predicate.Op.NOT_EQUALS))
+                return f1.compare(op, t2.getDecodedField(field2)); //by code
+            return StringField.compare(op, t1.getString(field1), t2.getString(field2));
+        }
         return t1.getField(getField1()).compare(getOperator(), t2.getField(getField2()));
     }
     
@@ -3,27 +3,87 @@ package simpledb;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * LockManager keeps the page locks of transactions. The lock state of a
+ * page is changed and checked under that page's latch, one of LATCHES
+ * objects pages are striped over, so locking different pages does not
+ * contend on one monitor.
+ */
 public class LockManager {
 
+	/** The number of latches the pages' lock state is striped over. */
+	public static final int LATCHES = 64;
+
 	public ConcurrentHashMap<PageId, ArrayList<TransactionId>> sharedLocks;
 	public ConcurrentHashMap<PageId, TransactionId> exclusiveLocks;
 
+	private final Object[] latches;
+
 	public LockManager(){
 		sharedLocks = new ConcurrentHashMap<PageId, ArrayList<TransactionId>>();
-		exclusiveLocks = new ConcurrentHashMap<PageId, TransactionId>(); 
+		exclusiveLocks = new ConcurrentHashMap<PageId, TransactionId>();
+		latches = new Object[LATCHES];
+		for (int i = 0; i < LATCHES; i++) latches[i] = new Object();
+	}
+
+	/** @return the latch guarding pid's lock state */
+	private Object latch(PageId pid){
+		return latches[(pid.hashCode() & Integer.MAX_VALUE) % LATCHES];
 	}
 
-	public synchronized boolean hasExclusiveLock(PageId pid, TransactionId tid){
-		return exclusiveLocks.containsKey(pid) && exclusiveLocks.get(pid).equals(tid); 
+	public boolean hasExclusiveLock(PageId pid, TransactionId tid){
+		synchronized (latch(pid)) {
+			return exclusiveLocks.containsKey(pid) && exclusiveLocks.get(pid).equals(tid);
+		}
 	}
 
-	public synchronized boolean hasSharedLock(PageId pid, TransactionId tid){
-		return sharedLocks.containsKey(pid) &&  sharedLocks.get(pid).contains(tid);
+	public boolean hasSharedLock(PageId pid, TransactionId tid){
+		synchronized (latch(pid)) {
+			return sharedLocks.containsKey(pid) &&  sharedLocks.get(pid).contains(tid);
+		}
 	}
 
 	//True when tid is the only one holding a shared lock on pid
-	public synchronized boolean isUpgradable(PageId pid, TransactionId tid){
-		return hasSharedLock(pid, tid) && (sharedLocks.get(pid).size() == 1);
+	public boolean isUpgradable(PageId pid, TransactionId tid){
+		synchronized (latch(pid)) {
+			return hasSharedLock(pid, tid) && (sharedLocks.get(pid).size() == 1);
+		}
+	}
+
+	/**
+	 * Gives tid a shared (or, if exclusive, an exclusive) lock on pid,
+	 * unless another transaction holds a conflicting one. A shared lock
+	 * held by tid alone is upgraded.
+	 *
+	 * @return true if tid now holds the lock
+	 */
+	public boolean tryLock(PageId pid, TransactionId tid, boolean exclusive){
+		synchronized (latch(pid)) {
+			TransactionId writer = exclusiveLocks.get(pid);
+			ArrayList<TransactionId> readers = sharedLocks.get(pid);
+			if (!exclusive){
+				if (writer != null && !writer.equals(tid)) return false;
+				if (readers == null) sharedLocks.put(pid, readers = new ArrayList<TransactionId>());
+				if (!readers.contains(tid)) readers.add(tid);
+				return true;
+			}
+			if (writer != null) return writer.equals(tid);
+			if (readers != null){
+				if (!isUpgradable(pid, tid)) return false;
+				sharedLocks.remove(pid);
+			}
+			exclusiveLocks.put(pid, tid);
+			return true;
+		}
+	}
+
+	/** Releases whatever locks tid holds on pid. */
+	public void release(PageId pid, TransactionId tid){
+		synchronized (latch(pid)) {
+			if (hasExclusiveLock(pid, tid)) exclusiveLocks.remove(pid);
+			ArrayList<TransactionId> readers = sharedLocks.get(pid);
+			if (readers != null && readers.remove(tid) && readers.isEmpty()) sharedLocks.remove(pid);
+		}
 	}
 
-}
\ No newline at end of file
+}
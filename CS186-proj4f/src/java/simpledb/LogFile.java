@@ -51,8 +51,8 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT and BULK_LOAD
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
@@ -67,6 +67,13 @@ of the record is an integer count of the number of transactions, as well
 as a long integer transaction id and a long integer first record offset
 for each active transaction.
 
+<li> BULK_LOAD records describe one extent of pages a BulkLoader
+appended to a table outside the BufferPool: an integer table id, the
+integer number of the extent's first page and the integer number of
+pages. The page contents are not logged; the loader forces the table
+file before its transaction commits, and undoing the record means
+truncating the table back to the extent's first page.
+
 </ul>
 
 */
@@ -82,6 +89,7 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int BULK_LOAD_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
     static int INT_SIZE = 4;
@@ -218,6 +226,29 @@ public class LogFile {
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
+    /** Write a BULK_LOAD record for an extent of pages appended to a table
+        by a bulk load.
+        @param tid The transaction doing the load
+        @param tableid The table loaded into
+        @param firstPage The page number of the first page of the extent
+        @param numPages The number of pages in the extent
+
+        @see simpledb.BulkLoader
+    */
+    public synchronized void logBulkLoad(TransactionId tid, int tableid,
+                                         int firstPage, int numPages)
+        throws IOException {
+        Debug.log("BULK LOAD, offset = " + raf.getFilePointer());
+        preAppend();
+        raf.writeInt(BULK_LOAD_RECORD);
+        raf.writeLong(tid.getId());
+        raf.writeInt(tableid);
+        raf.writeInt(firstPage);
+        raf.writeInt(numPages);
+        raf.writeLong(currentOffset);
+        currentOffset = raf.getFilePointer();
+    }
+
     void writePageData(RandomAccessFile raf, Page p) throws IOException{
         PageId pid = p.getId();
         int pageInfo[] = pid.serialize();
@@ -429,6 +460,11 @@ public class LogFile {
                 case BEGIN_RECORD:
                     tidToFirstLogRecord.put(record_tid,newStart);
                     break;
+                case BULK_LOAD_RECORD:
+                    logNew.writeInt(raf.readInt()); //table id
+                    logNew.writeInt(raf.readInt()); //first page
+                    logNew.writeInt(raf.readInt()); //page count
+                    break;
                 }
 
                 //all xactions finish with a pointer
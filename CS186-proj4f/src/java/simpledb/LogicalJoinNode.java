@@ -23,6 +23,9 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** True if the join should probe an index on t2.f2 for each t1 tuple (see IndexNestedLoopJoin). */
+    public boolean indexProbe = false;
+
     public LogicalJoinNode() {
     }
 
@@ -63,6 +66,13 @@ public class LogicalJoinNode {
         return j2;
     }
     
+    /** Return a copy of this LogicalJoinNode that probes an index on t2.f2. */
+    public LogicalJoinNode withIndexProbe() {
+        LogicalJoinNode j = new LogicalJoinNode(t1Alias,t2Alias,f1PureName,f2PureName,p);
+        j.indexProbe = true;
+        return j;
+    }
+    
     @Override public boolean equals(Object o) {
         LogicalJoinNode j2 =(LogicalJoinNode)o;
         return (j2.t1Alias.equals(t1Alias)  || j2.t1Alias.equals(t2Alias)) && (j2.t2Alias.equals(t1Alias)  || j2.t2Alias.equals(t2Alias));
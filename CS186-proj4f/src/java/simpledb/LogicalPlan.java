@@ -1,10 +1,14 @@
 package simpledb;
 import java.util.Map;
+import java.util.Set;
+import java.util.HashSet;
 import java.util.Vector;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.NoSuchElementException;
 
 /**
@@ -271,6 +275,210 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /**
+     * Collects, for each table alias, the (unqualified) names of the fields
+     * the query uses anywhere: select list, aggregate, group by, order by,
+     * filters and joins.
+     *
+     * @return alias to field names; an alias maps to null if the query uses
+     *   all of its fields (SELECT *)
+     */
+    private Map<String,Set<String>> referencedFields() {
+        HashMap<String,Set<String>> refs = new HashMap<String,Set<String>>();
+        for (LogicalScanNode table : tables) {
+            refs.put(table.alias, new HashSet<String>());
+        }
+        ArrayList<String> names = new ArrayList<String>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.equals("null.*")) {
+                for (String alias : refs.keySet()) refs.put(alias, null);
+                return refs;
+            }
+            names.add(si.fname);
+        }
+        if (aggField != null) names.add(aggField);
+        if (groupByField != null) names.add(groupByField);
+        if (oByField != null) names.add(oByField);
+        for (LogicalFilterNode lf : filters) {
+            names.add(lf.fieldQuantifiedName);
+        }
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            if (!(lj instanceof LogicalSubplanJoinNode)) names.add(lj.f2QuantifiedName);
+        }
+        for (String name : names) {
+            String[] parts = name.split("[.]");
+            if (parts.length != 2 || !refs.containsKey(parts[0])) continue;
+            if (parts[1].equals("*")) refs.put(parts[0], null); //alias.*
+            else if (refs.get(parts[0]) != null) refs.get(parts[0]).add(parts[1]);
+        }
+        return refs;
+    }
+
+    /**
+     * @return the indexes (in td order) of the fields of a table the query
+     *   uses, for pushing the projection down into its scan; null to scan
+     *   every field
+     */
+    private static int[] scanColumns(TupleDesc td, Set<String> used) {
+        if (used == null) return null;
+        ArrayList<Integer> cols = new ArrayList<Integer>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (used.contains(td.getFieldName(i))) cols.add(i);
+        }
+        if (cols.size() == td.numFields()) return null;
+        if (cols.isEmpty()) cols.add(0); //still need the rows, e.g. COUNT over a join
+        int[] result = new int[cols.size()];
+        for (int i = 0; i < result.length; i++) result[i] = cols.get(i);
+        return result;
+    }
+
+    /** @return true if some usable index of the table with the given id holds all of columns */
+    private static boolean covered(int tableId, int[] columns) {
+        for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+            if (index.isUsable() && IndexOnlyScan.covers(index, columns)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the estimated selectivity of the predicates pushed down to ss
+     *   that index can narrow its search with: those on its key with an
+     *   operator it supports
+     */
+    private static double keySelectivity(SeqScan ss, IndexFile index, TableStats stats) {
+        double sel = 1.0;
+        for (Predicate p : ss.getPushedPredicates()) {
+            if (p.getField() == index.getKeyField() && index.supports(p.getOp()))
+                sel *= stats.estimateSelectivity(p.getField(), p.getOp(), p.getOperand());
+        }
+        return sel;
+    }
+
+    /**
+     * @return scan, cut down to the fields ss returns if ss does not return
+     *   them all, so it can stand in for ss under its Filters
+     */
+    private static DbIterator asScan(SeqScan ss, DbIterator scan) {
+        if (ss.getColumns() == null) return scan;
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        Type[] types = new Type[ss.getColumns().length];
+        for (int i = 0; i < types.length; i++) {
+            fields.add(ss.getColumns()[i]);
+            types[i] = scan.getTupleDesc().getFieldType(ss.getColumns()[i]);
+        }
+        return new Project(fields, types, scan);
+    }
+
+    /**
+     * @return the cheapest of the ways of reading the tuples of ss's table
+     *   that may pass the predicates pushed down to ss, as costed by stats:
+     *   ss itself; an IndexScan through an index whose key those predicates
+     *   narrow down to a value or a range; a BitmapScan ANDing the bitmaps
+     *   of those on bitmap indexed fields, the most selective first, as
+     *   long as each more bitmap pays for its pages; or, if ss returns only
+     *   some fields, an IndexOnlyScan of an index holding them all. Ties go
+     *   to the way listed first.
+     */
+    private static DbIterator accessPath(TransactionId t, SeqScan ss, TableStats stats, boolean explain) {
+        ArrayList<DbIterator> paths = new ArrayList<DbIterator>();
+        ArrayList<String> names = new ArrayList<String>();
+        ArrayList<Double> costs = new ArrayList<Double>();
+        paths.add(ss);
+        names.add("sequential scan");
+        costs.add(stats.estimateScanCost());
+
+        final HashMap<Predicate,Double> bitmapSel = new HashMap<Predicate,Double>();
+        HashMap<Predicate,BitmapFile> bitmaps = new HashMap<Predicate,BitmapFile>();
+        for (IndexFile index : Database.getCatalog().getIndexes(ss.getTableId())) {
+            if (!index.isUsable()) continue;
+            String name = Database.getCatalog().getIndexName(index.getId());
+            if (index instanceof BitmapFile) {
+                for (Predicate p : ss.getPushedPredicates()) {
+                    if (p.getField() != index.getKeyField() || bitmaps.containsKey(p)) continue;
+                    bitmaps.put(p, (BitmapFile) index);
+                    bitmapSel.put(p, stats.estimateSelectivity(p.getField(), p.getOp(), p.getOperand()));
+                }
+                continue;
+            }
+            double sel = keySelectivity(ss, index, stats);
+            if (ss.getColumns() != null && IndexOnlyScan.covers(index, ss.getColumns())) {
+                ArrayList<Predicate> entryPreds = new ArrayList<Predicate>();
+                for (Predicate p : ss.getPushedPredicates()) {
+                    int pos = IndexOnlyScan.entryPosition(index, p.getField());
+                    if (pos >= 0) entryPreds.add(new Predicate(pos, p.getOp(), p.getOperand()));
+                }
+                paths.add(new IndexOnlyScan(t, index, ss.getAlias(), ss.getColumns(), entryPreds));
+                names.add("index only scan of " + name);
+                costs.add(stats.estimateIndexOnlyScanCost(index, sel));
+            }
+            if (sel == 1.0) continue; //nothing narrows the search
+            ArrayList<Predicate> keyPreds = new ArrayList<Predicate>();
+            for (Predicate p : ss.getPushedPredicates()) {
+                if (p.getField() == index.getKeyField()) keyPreds.add(new Predicate(0, p.getOp(), p.getOperand()));
+            }
+            paths.add(asScan(ss, new IndexScan(t, index, ss.getAlias(), keyPreds)));
+            names.add("index scan through " + name);
+            costs.add(stats.estimateIndexScanCost(index, sel));
+        }
+
+        if (!bitmaps.isEmpty()) {
+            ArrayList<Predicate> preds = new ArrayList<Predicate>(bitmaps.keySet());
+            Collections.sort(preds, new Comparator<Predicate>() {
+                public int compare(Predicate a, Predicate b) {
+                    return Double.compare(bitmapSel.get(a), bitmapSel.get(b));
+                }
+            });
+            ArrayList<BitmapFile> indexes = new ArrayList<BitmapFile>();
+            ArrayList<Predicate> keyPreds = new ArrayList<Predicate>();
+            double sel = 1.0, best = Double.MAX_VALUE;
+            int used = 0;
+            for (Predicate p : preds) {
+                indexes.add(bitmaps.get(p));
+                sel *= bitmapSel.get(p);
+                double cost = stats.estimateBitmapScanCost(indexes, sel);
+                if (cost < best) {
+                    best = cost;
+                    used = indexes.size();
+                }
+            }
+            for (Predicate p : preds.subList(0, used)) keyPreds.add(new Predicate(0, p.getOp(), p.getOperand()));
+            indexes = new ArrayList<BitmapFile>(indexes.subList(0, used));
+            ArrayList<String> bitmapNames = new ArrayList<String>();
+            for (BitmapFile index : indexes) bitmapNames.add(Database.getCatalog().getIndexName(index.getId()));
+            paths.add(asScan(ss, new BitmapScan(t, ss.getAlias(), indexes, keyPreds, true)));
+            names.add("bitmap scan of " + bitmapNames);
+            costs.add(best);
+        }
+
+        int chosen = 0;
+        for (int i = 1; i < paths.size(); i++) {
+            if (costs.get(i) < costs.get(chosen)) chosen = i;
+        }
+        if (explain) {
+            System.out.println("Access paths for " + ss.getAlias() + ":");
+            for (int i = 0; i < paths.size(); i++) {
+                System.out.println((i == chosen ? "  * " : "    ") + names.get(i) + ", cost " + costs.get(i));
+            }
+        }
+        return paths.get(chosen);
+    }
+
+    /**
+     * Puts scan in place of the scan at the bottom of the subplan of the
+     * given alias, under its Filters.
+     */
+    private void replaceScan(String alias, DbIterator scan) {
+        DbIterator node = subplanMap.get(alias);
+        if (!(node instanceof Operator)) {
+            subplanMap.put(alias, scan);
+            return;
+        }
+        Operator op = (Operator) node;
+        while (op.getChildren()[0] instanceof Operator) op = (Operator) op.getChildren()[0];
+        op.setChildren(new DbIterator[] { scan });
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
@@ -290,16 +498,23 @@ public class LogicalPlan {
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
 
+        Map<String,Set<String>> referenced = referencedFields();
+        HashMap<String,SeqScan> scans = new HashMap<String,SeqScan>();
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDbFile(table.t).getId(), table.alias);
+                 DbFile f = Database.getCatalog().getDbFile(table.t);
+                 int[] columns = scanColumns(f.getTupleDesc(), referenced.get(table.alias));
+                 //a heap file is only scanned for some fields if an index holds them all (see indexOnlyScan)
+                 if (!(f instanceof ColumnFile) && (columns == null || !covered(f.getId(), columns))) columns = null;
+                 ss = new SeqScan(t, f.getId(), table.alias, columns);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
             
             subplanMap.put(table.alias,ss);
+            scans.put(table.alias,ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
@@ -335,14 +550,30 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
             subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            //the filters sit right on the scan, so it can skip pages that cannot pass them
+            SeqScan ss = scans.get(lf.tableAlias);
+            ss.pushDown(p);
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
-            
-            double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+
+            //the scan may return only some fields; the stats are kept by the table's field index
+            int tableField = (ss.getColumns() == null) ? p.getField() : ss.getColumns()[p.getField()];
+            double sel= s.estimateSelectivity(tableField, lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        //each table is read the cheapest way its pushed down predicates allow; a column file is
+        //always read by a SeqScan of its columns. The Filters stay on top
+        for (Map.Entry<String,SeqScan> e : scans.entrySet()) {
+            SeqScan ss = e.getValue();
+            if (Database.getCatalog().getDbFile(ss.getTableId()) instanceof ColumnFile) continue;
+            TableStats s = statsMap.get(ss.getTableName());
+            if (s == null) continue;
+            DbIterator path = accessPath(t, ss, s, explain);
+            if (path != ss) replaceScan(e.getKey(), path);
+        }
         
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
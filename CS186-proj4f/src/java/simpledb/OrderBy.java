@@ -110,14 +110,23 @@ class TupleComparator implements Comparator<Tuple> {
     }
 
     public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
+        //typed getters read compact tuples without building Fields for every comparison
+        Type type = o1.getTupleDesc().getFieldType(field);
+        int cmp;
+        if (type == Type.INT_TYPE)
+            cmp = Integer.compare(o1.getInt(field), o2.getInt(field));
+        else if (type == Type.STRING_TYPE)
+            cmp = o1.getString(field).compareTo(o2.getString(field));
+        else {
+            Field t1 = (o1).getField(field);
+            Field t2 = (o2).getField(field);
+            if (t1.compare(Predicate.Op.EQUALS, t2))
+                return 0;
+            cmp = t1.compare(Predicate.Op.GREATER_THAN, t2) ? 1 : -1;
+        }
+        if (cmp == 0)
             return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
+        return (cmp > 0) == asc ? 1 : -1;
     }
     
 }
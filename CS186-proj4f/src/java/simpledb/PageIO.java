@@ -0,0 +1,256 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.ArrayList;
+import java.util.concurrent.*;
+
+/**
+ * PageIO issues page reads and writes on AsynchronousFileChannels, so the
+ * thread that wants a page does not have to be the one that waits on the
+ * disk, and many requests can be outstanding at once.
+ * <p>
+ * The number of outstanding requests is bounded (by default
+ * DEFAULT_MAX_OUTSTANDING, or the system property simpledb.PageIO): read()
+ * and write() wait for a free slot, tryRead() gives up instead. The
+ * BufferPool only ever uses tryRead() while it holds its monitor, and does
+ * the read itself, without the monitor, when the engine is busy.
+ * <p>
+ * Completion runs on the channel's thread pool; anything waiting in get()
+ * is woken, and callbacks registered with whenDone() are run.
+ *
+ * @see BufferPool#getPage
+ * @see BufferPool#prefetch
+ */
+public class PageIO {
+    public static final int DEFAULT_MAX_OUTSTANDING = 64;
+
+    private static final Semaphore slots;
+    static {
+        String prop = System.getProperty("simpledb.PageIO");
+        slots = new Semaphore((prop == null) ? DEFAULT_MAX_OUTSTANDING : Math.max(1, Integer.parseInt(prop)));
+    }
+
+    /**
+     * Reads length bytes at offset, waiting for a free slot first if the
+     * engine is busy. Bytes past the end of the file read as zeroes.
+     */
+    public static Request read(AsynchronousFileChannel ch, long offset, int length) throws IOException {
+        slots.acquireUninterruptibly();
+        return start(ch, offset, ByteBuffer.allocate(length), false);
+    }
+
+    /**
+     * Like read(), but returns null instead of waiting if every slot is in
+     * use.
+     */
+    public static Request tryRead(AsynchronousFileChannel ch, long offset, int length) throws IOException {
+        if (!slots.tryAcquire()) return null;
+        return start(ch, offset, ByteBuffer.allocate(length), false);
+    }
+
+    /**
+     * Writes all of data at offset, waiting for a free slot first if the
+     * engine is busy.
+     */
+    public static Request write(AsynchronousFileChannel ch, long offset, byte[] data) throws IOException {
+        slots.acquireUninterruptibly();
+        return start(ch, offset, ByteBuffer.wrap(data), true);
+    }
+
+    private static Request start(AsynchronousFileChannel ch, long offset, ByteBuffer buf, boolean write) {
+        Request r = new Request(ch, offset, buf, write);
+        try {
+            r.issue();
+        } catch (RuntimeException e) { //e.g. the channel was closed under us
+            r.finish(e);
+        }
+        return r;
+    }
+
+    /** Waits for every request in requests, failing if any of them did. */
+    public static void awaitAll(ArrayList<Request> requests) throws IOException {
+        IOException failure = null;
+        for (Request r : requests) {
+            try {
+                r.await();
+            } catch (IOException e) {
+                if (failure == null) failure = e;
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    /**
+     * One outstanding read or write. As a Future it yields the bytes read
+     * (or written) once the whole buffer has been transferred.
+     */
+    public static class Request implements Future<byte[]>, CompletionHandler<Integer, Void> {
+        private final AsynchronousFileChannel ch;
+        private final long offset;
+        private final ByteBuffer buf;
+        private final boolean write;
+
+        private final CountDownLatch done = new CountDownLatch(1);
+        private Throwable failure;
+        private ArrayList<Runnable> callbacks = new ArrayList<Runnable>();
+
+        Request(AsynchronousFileChannel ch, long offset, ByteBuffer buf, boolean write) {
+            this.ch = ch;
+            this.offset = offset;
+            this.buf = buf;
+            this.write = write;
+        }
+
+        private void issue() {
+            if (write) ch.write(buf, offset + buf.position(), null, this);
+            else ch.read(buf, offset + buf.position(), null, this);
+        }
+
+        /** Called by the channel when part of the transfer is done. */
+        public void completed(Integer n, Void unused) {
+            if (n < 0 || !buf.hasRemaining()) { //EOF leaves the rest of a read zeroed
+                finish(null);
+                return;
+            }
+            try {
+                issue();
+            } catch (RuntimeException e) {
+                finish(e);
+            }
+        }
+
+        public void failed(Throwable exc, Void unused) {
+            finish(exc);
+        }
+
+        private void finish(Throwable t) {
+            ArrayList<Runnable> run;
+            synchronized (this) {
+                failure = t;
+                run = callbacks;
+                callbacks = null;
+            }
+            slots.release();
+            done.countDown();
+            for (Runnable r : run) {
+                try {
+                    r.run();
+                } catch (RuntimeException e) {
+                    Debug.log("page I/O callback failed: %s", e);
+                }
+            }
+        }
+
+        /**
+         * Runs r once the request is done: on the I/O thread that completes
+         * it, or right away on this thread if it already is.
+         */
+        public void whenDone(Runnable r) {
+            synchronized (this) {
+                if (callbacks != null) {
+                    callbacks.add(r);
+                    return;
+                }
+            }
+            r.run();
+        }
+
+        /** Waits for the request, turning a failure into an IOException. */
+        public byte[] await() throws IOException {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            if (failure != null) {
+                IOException e = new IOException((write ? "write" : "read") + " at " + offset + " failed: " + failure);
+                e.initCause(failure);
+                throw e;
+            }
+            return buf.array();
+        }
+
+        public byte[] get() throws InterruptedException, ExecutionException {
+            done.await();
+            if (failure != null) throw new ExecutionException(failure);
+            return buf.array();
+        }
+
+        public byte[] get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            if (!done.await(timeout, unit)) throw new TimeoutException();
+            if (failure != null) throw new ExecutionException(failure);
+            return buf.array();
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false; //a transfer the channel has started cannot be taken back
+        }
+
+        public boolean isCancelled() {
+            return false;
+        }
+
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+    }
+
+    /**
+     * A page being read: the bytes come from a Request and are decoded into
+     * a Page once, by whichever thread first asks for it.
+     */
+    public static abstract class PageRead implements Future<Page> {
+        private final Request io;
+        private Page page;
+
+        protected PageRead(Request io) {
+            this.io = io;
+        }
+
+        /** @return the page for the bytes read */
+        protected abstract Page decode(byte[] data) throws IOException;
+
+        /** @see Request#whenDone */
+        public void whenDone(Runnable r) {
+            io.whenDone(r);
+        }
+
+        public synchronized Page get() throws InterruptedException, ExecutionException {
+            if (page == null) {
+                try {
+                    page = decode(io.get());
+                } catch (IOException e) {
+                    throw new ExecutionException(e);
+                }
+            }
+            return page;
+        }
+
+        public Page get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            io.get(timeout, unit);
+            return get();
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return false;
+        }
+
+        public boolean isDone() {
+            return io.isDone();
+        }
+    }
+}
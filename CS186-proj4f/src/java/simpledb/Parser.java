@@ -4,6 +4,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -493,7 +495,220 @@ public class Parser {
         return curtrans;
     }
 
+    private static final Pattern LOAD_STMT = Pattern.compile(
+            "\\s*LOAD\\s+'([^']*)'\\s+INTO\\s+(\\w+)(?:\\s+SEPARATOR\\s+'(.)')?\\s*;?\\s*",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern VACUUM_STMT = Pattern.compile(
+            "\\s*VACUUM\\s+(\\w+)\\s*;?\\s*", Pattern.CASE_INSENSITIVE);
+    private static final Pattern CREATE_INDEX_STMT = Pattern.compile(
+            "\\s*CREATE\\s+INDEX\\s+(\\w+)\\s+ON\\s+(\\w+)(?:\\s+USING\\s+(BTREE|HASH|BITMAP))?\\s*\\(\\s*(\\w+)\\s*\\)"
+            + "(?:\\s*INCLUDE\\s*\\(\\s*(\\w+(?:\\s*,\\s*\\w+)*)\\s*\\))?"
+            + "(?:\\s*WITH\\s*\\(\\s*(FILLFACTOR|MAXVALUES)\\s*=\\s*(\\d+)\\s*\\))?\\s*;?\\s*",
+            Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Handles the statements Zql does not know about:
+     * <ul>
+     * <li>LOAD 'file' INTO table [SEPARATOR 'c']; appends the rows of a
+     * delimited text file to a table with a BulkLoader. The load runs (and
+     * commits) as a transaction of its own, so it cannot be used inside a
+     * user transaction.
+     * <li>VACUUM table; compacts a heap file table with a Vacuum and
+     * recomputes its statistics, so plans are costed by its new size. The
+     * vacuum runs its own transactions, so it too cannot be used inside a
+     * user transaction.
+     * <li>CREATE INDEX name ON table [USING BTREE|HASH|BITMAP] (field)
+     * [INCLUDE (field, ...)] [WITH (FILLFACTOR = n | MAXVALUES = n)];
+     * adds an index on a field of a heap file table, in name.idx next to
+     * the table's file, to the catalog and fills it from the table. By
+     * default it is a B+ tree (a BTreeFile). USING HASH makes a hash index
+     * (a HashFile) for equality predicates. USING BITMAP makes a bitmap
+     * index (a BitmapFile) for a field with at most MAXVALUES (16) distinct
+     * values.
+     * </ul>
+     *
+     * @return false if s is not one of these statements
+     * @see IndexBuilder
+     * @see IndexOnlyScan
+     * @see Catalog#loadSchema
+     */
+    public boolean handleUtilityStatement(String s)
+            throws TransactionAbortedException, DbException, IOException,
+            simpledb.ParsingException {
+        Matcher v = VACUUM_STMT.matcher(s);
+        if (v.matches())
+            return handleVacuum(v.group(1));
+        Matcher c = CREATE_INDEX_STMT.matcher(s);
+        if (c.matches())
+            return handleCreateIndex(c.group(1), c.group(2), c.group(4),
+                    (c.group(3) == null) ? "BTREE" : c.group(3).toUpperCase(),
+                    (c.group(5) == null) ? new String[0] : c.group(5).split("\\s*,\\s*"),
+                    (c.group(6) == null) ? null : c.group(6).toUpperCase(),
+                    (c.group(7) == null) ? -1 : Integer.parseInt(c.group(7)));
+        Matcher m = LOAD_STMT.matcher(s);
+        if (!m.matches())
+            return false;
+        if (inUserTrans)
+            throw new simpledb.ParsingException(
+                    "LOAD can't run inside a transaction; commit or rollback first.");
+        int tableId = utilityTableId(m.group(2));
+        BulkLoader loader = new BulkLoader(Database.getCatalog().getDbFile(
+                tableId));
+        if (m.group(3) != null)
+            loader.setSeparator(m.group(3).charAt(0));
+
+        Transaction t = new Transaction();
+        t.start();
+        long rows;
+        try {
+            rows = loader.load(new File(m.group(1)), t.getId());
+        } catch (IOException e) {
+            t.abort();
+            throw e;
+        }
+        t.commit();
+        System.out.println(rows + " rows loaded into " + m.group(2)
+                + (loader.getRejected() > 0 ? ", " + loader.getRejected()
+                        + " bad lines skipped." : "."));
+        return true;
+    }
+
+    private static int utilityTableId(String name) throws simpledb.ParsingException {
+        try {
+            return Database.getCatalog().getTableId(name);
+        } catch (NoSuchElementException e) {
+            throw new simpledb.ParsingException("Unknown table " + name);
+        }
+    }
+
+    private boolean handleVacuum(String table)
+            throws TransactionAbortedException, DbException, IOException,
+            simpledb.ParsingException {
+        if (inUserTrans)
+            throw new simpledb.ParsingException(
+                    "VACUUM can't run inside a transaction; commit or rollback first.");
+        int tableId = utilityTableId(table);
+        Vacuum vacuum = new Vacuum(Database.getCatalog().getDbFile(tableId));
+        int freed = vacuum.run();
+        TableStats.setTableStats(table, new TableStats(tableId,
+                TableStats.IOCOSTPERPAGE));
+        System.out.println(table + ": " + vacuum.getMoves().size()
+                + " tuples moved, " + freed + " of " + vacuum.getPagesBefore()
+                + " pages freed.");
+        if (vacuum.getTruncateFailure() != null)
+            System.out.println("The empty pages could not be truncated: "
+                    + vacuum.getTruncateFailure().getMessage());
+        return true;
+    }
+
+    private boolean handleCreateIndex(String name, String table, String field, String method, String[] include,
+            String option, int value)
+            throws TransactionAbortedException, DbException, IOException,
+            simpledb.ParsingException {
+        if (inUserTrans)
+            throw new simpledb.ParsingException(
+                    "CREATE INDEX can't run inside a transaction; commit or rollback first.");
+        int tableId = utilityTableId(table);
+        DbFile f = Database.getCatalog().getDbFile(tableId);
+        if (!(f instanceof HeapFile))
+            throw new simpledb.ParsingException("Only heap file tables can be indexed");
+        try {
+            Database.getCatalog().getIndex(name);
+            throw new simpledb.ParsingException("Index " + name + " already exists");
+        } catch (NoSuchElementException e) {
+            //good: the name is free
+        }
+        int keyField;
+        try {
+            keyField = f.getTupleDesc().fieldNameToIndex(field);
+        } catch (NoSuchElementException e) {
+            throw new simpledb.ParsingException("Unknown field " + field + " in table " + table);
+        }
+
+        int[] included = new int[include.length];
+        for (int i = 0; i < include.length; i++) {
+            try {
+                included[i] = f.getTupleDesc().fieldNameToIndex(include[i]);
+            } catch (NoSuchElementException e) {
+                throw new simpledb.ParsingException("Unknown field " + include[i] + " in table " + table);
+            }
+        }
+        if (included.length > 0 && method.equals("BITMAP"))
+            throw new simpledb.ParsingException("A bitmap index cannot include fields");
+        int fillFactor = BTreeFile.DEFAULT_FILL_FACTOR;
+        int maxValues = BitmapFile.DEFAULT_MAX_VALUES;
+        if ("FILLFACTOR".equals(option)) {
+            if (!method.equals("BTREE"))
+                throw new simpledb.ParsingException("Only a B+ tree index has a fill factor");
+            if (value < 10 || value > 100)
+                throw new simpledb.ParsingException("The fill factor must be between 10 and 100");
+            fillFactor = value;
+        } else if ("MAXVALUES".equals(option)) {
+            if (!method.equals("BITMAP"))
+                throw new simpledb.ParsingException("Only a bitmap index has a limit on distinct values");
+            if (value < 1)
+                throw new simpledb.ParsingException("A bitmap index must allow at least one value");
+            maxValues = value;
+        }
+
+        File idxFile = new File(((HeapFile) f).getFile().getAbsoluteFile().getParentFile(), name + ".idx");
+        if (idxFile.exists() && !idxFile.delete())
+            throw new IOException("Cannot replace " + idxFile);
+        IndexFile index;
+        if (method.equals("HASH")) index = new HashFile(idxFile, tableId, keyField, included);
+        else if (method.equals("BITMAP")) {
+            try {
+                index = new BitmapFile(idxFile, tableId, keyField, maxValues, BufferPool.PAGE_SIZE);
+            } catch (IllegalArgumentException e) {
+                throw new simpledb.ParsingException(e.getMessage());
+            }
+        }
+        else index = new BTreeFile(idxFile, tableId, keyField, included);
+        Database.getCatalog().addIndex(index, name);
+        int entries;
+        boolean built = false;
+        try {
+            entries = IndexBuilder.build(index, fillFactor);
+            built = index.isUsable();
+        } finally {
+            if (!built) {
+                if (index instanceof BitmapFile) { //so an index created again in the same file does not find them
+                    for (int pgNo = 0; pgNo < index.numPages(); pgNo++)
+                        Database.getBufferPool().discardPage(new BitmapPageId(index.getId(), pgNo));
+                }
+                Database.getCatalog().removeIndex(name);
+            }
+        }
+        if (!built)
+            throw new simpledb.ParsingException(field + " has more than " + maxValues
+                    + " distinct values; create the index WITH (MAXVALUES = n) for a larger n");
+        String shape;
+        if (index instanceof HashFile) shape = ((HashFile) index).getNumBuckets() + " buckets.";
+        else if (index instanceof BitmapFile) shape = ((BitmapFile) index).getNumValues() + " distinct values.";
+        else shape = "height " + ((BTreeFile) index).getHeight() + ".";
+        System.out.println("Index " + name + " created on " + table + "("
+                + field + "): " + entries + " entries, " + shape);
+        return true;
+    }
+
     public void processNextStatement(String s) {
+        try {
+            if (handleUtilityStatement(s))
+                return;
+        } catch (TransactionAbortedException e) {
+            e.printStackTrace();
+            return;
+        } catch (DbException e) {
+            e.printStackTrace();
+            return;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        } catch (simpledb.ParsingException e) {
+            System.out
+                    .println("Invalid SQL expression: \n \t" + e.getMessage());
+            return;
+        }
         try {
             processNextStatement(new ByteArrayInputStream(s.getBytes("UTF-8")));
         } catch (UnsupportedEncodingException e) {
@@ -502,6 +717,33 @@ public class Parser {
         }
     }
 
+    /**
+     * Runs the statements read from in, e.g. a query file, one after
+     * another, split at ';' as the interactive prompt splits them, so that
+     * the statements handleUtilityStatement knows work in scripts too. A
+     * quit or exit statement ends the script early.
+     */
+    void processStatements(Reader in) throws IOException {
+        BufferedReader lines = new BufferedReader(in);
+        StringBuilder buffer = new StringBuilder();
+        String line;
+        while ((line = lines.readLine()) != null) {
+            while (line.indexOf(';') >= 0) {
+                int split = line.indexOf(';');
+                buffer.append(line.substring(0, split + 1));
+                String cmd = buffer.toString().trim();
+                cmd = cmd.substring(0, cmd.length() - 1).trim() + ";";
+                if (cmd.equalsIgnoreCase("quit;") || cmd.equalsIgnoreCase("exit;"))
+                    return;
+                processNextStatement(cmd);
+                line = line.substring(split + 1);
+                buffer = new StringBuilder();
+            }
+            buffer.append(line);
+            buffer.append("\n");
+        }
+    }
+
     public void processNextStatement(InputStream is) {
         try {
             ZqlParser p = new ZqlParser(is);
@@ -582,7 +824,9 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "load", "separator", "vacuum",
+            "create index", "on", "using", "btree", "hash", "bitmap", "include",
+            "with", "fillfactor", "maxvalues" };
 
     public static void main(String argv[]) throws IOException {
 
@@ -636,7 +880,12 @@ public class Parser {
                 // curtrans = new Transaction();
                 // curtrans.start();
                 long startTime = System.currentTimeMillis();
-                processNextStatement(new FileInputStream(new File(queryFile)));
+                Reader script = new FileReader(new File(queryFile));
+                try {
+                    processStatements(script);
+                } finally {
+                    script.close();
+                }
                 long time = System.currentTimeMillis() - startTime;
                 System.out.printf("----------------\n%.2f seconds\n\n",
                         ((double) time / 1000.0));
@@ -668,7 +917,6 @@ public class Parser {
                     buffer.append(line.substring(0, split + 1));
                     String cmd = buffer.toString().trim();
                     cmd = cmd.substring(0, cmd.length() - 1).trim() + ";";
-                    byte[] statementBytes = cmd.getBytes("UTF-8");
                     if (cmd.equalsIgnoreCase("quit;")
                             || cmd.equalsIgnoreCase("exit;")) {
                         shutdown();
@@ -677,8 +925,7 @@ public class Parser {
                     }
 
                     long startTime = System.currentTimeMillis();
-                    processNextStatement(new ByteArrayInputStream(
-                            statementBytes));
+                    processNextStatement(cmd);
                     long time = System.currentTimeMillis() - startTime;
                     System.out.printf("----------------\n%.2f seconds\n\n",
                             ((double) time / 1000.0));
@@ -68,12 +68,19 @@ public class Predicate implements Serializable {
     private int field;
     private Op op;
     private Field operand;
+    private int intOperand; //operand's value when it is an IntField, so filter need not unbox it
+
+    //the operand's code in the dictionary of the last DictField filtered (see matchesCode)
+    private transient StringDictionary codeDict;
+    private transient int operandCode;
+    private transient int codeDictSize;
 
     public Predicate(int field, Op op, Field operand) {
         // some code goes here
         this.field = field;
         this.op = op;
         this.operand = operand;
+        if (operand instanceof IntField) this.intOperand = ((IntField) operand).getValue();
     }
 
     /**
@@ -115,9 +122,35 @@ public class Predicate implements Serializable {
      */
     public boolean filter(Tuple t) {
         // some code goes here
+        //typed getters read compact tuples without building a Field per test
+        if (operand instanceof IntField) return IntField.compare(op, t.getInt(field), intOperand);
+        if (operand instanceof StringField) {
+            if (op == Op.EQUALS || op == Op.NOT_EQUALS) {
+                Field f = t.getDecodedField(field);
+                if (f instanceof DictField && ((DictField) f).getDictionary() != null)
+                    return matchesCode((DictField) f) == (op == Op.EQUALS);
+            }
+            return StringField.compare(op, t.getString(field), ((StringField) operand).getValue());
+        }
         return t.getField(getField()).compare(getOp(),getOperand());
     }
 
+    /**
+     * @return true if f holds the operand, comparing dictionary codes. The
+     *         operand is looked up once per dictionary; if it was missing,
+     *         it is looked up again only when a code the dictionary did not
+     *         have then shows up.
+     */
+    private boolean matchesCode(DictField f) {
+        StringDictionary dict = f.getDictionary();
+        if (dict != codeDict || (operandCode < 0 && f.getCode() >= codeDictSize)) {
+            codeDictSize = dict.size(); //before the lookup, so a value added in between is not missed
+            operandCode = dict.lookup(((StringField) operand).getValue());
+            codeDict = dict;
+        }
+        return f.getCode() == operandCode;
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string
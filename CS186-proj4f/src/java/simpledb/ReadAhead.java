@@ -0,0 +1,83 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.*;
+
+/**
+ * ReadAhead fetches pages of a HeapFile into the BufferPool in the
+ * background, ahead of a sequential scan, so that the scan finds them
+ * cached instead of waiting on one synchronous read per page.
+ * <p>
+ * Requests are served by a single daemon I/O thread, each one with a single
+ * contiguous read of the whole window (see HeapFile.readPages). Requests
+ * that find the queue full are dropped -- read-ahead is only an
+ * optimization, and the scan will simply read those pages itself.
+ * <p>
+ * The window size (in pages) defaults to 16 and can be changed with the
+ * system property simpledb.ReadAhead or with setWindow(); 0 turns
+ * read-ahead off. The effective window never exceeds a quarter of the
+ * buffer pool, so a scan cannot flush out the pages it is about to use,
+ * and only tables larger than the buffer pool are read ahead.
+ *
+ * @see HeapFile.HeapFileIterator
+ */
+public class ReadAhead {
+    public static final int DEFAULT_WINDOW = 16;
+    private static final int MAX_QUEUED = 8;
+
+    private static volatile int window;
+    static {
+        String prop = System.getProperty("simpledb.ReadAhead");
+        window = (prop == null) ? DEFAULT_WINDOW : Integer.parseInt(prop);
+    }
+
+    private static final ExecutorService ioThread = new ThreadPoolExecutor(1, 1,
+            0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(MAX_QUEUED),
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "simpledb-readahead");
+                    t.setDaemon(true);
+                    return t;
+                }
+            },
+            new ThreadPoolExecutor.DiscardPolicy());
+
+    /** Sets the read-ahead window in pages; 0 disables read-ahead. */
+    public static void setWindow(int pages) {
+        window = Math.max(0, pages);
+    }
+
+    /**
+     * @return the number of pageSize byte pages to read ahead into the given
+     *         pool, or 0 if read-ahead is off (or the pool is too small to
+     *         bother)
+     */
+    public static int getWindow(BufferPool pool, int pageSize) {
+        int w = Math.min(window, pool.getNumPages(pageSize) / 4);
+        return (w < 2) ? 0 : w;
+    }
+
+    /**
+     * Queues a background read of pages [first, first+count) of f into the
+     * current BufferPool.
+     */
+    public static void request(final HeapFile f, final int first, final int count) {
+        final BufferPool pool = Database.getBufferPool();
+        ioThread.execute(new Runnable() {
+            public void run() {
+                try {
+                    //anything flushed while we read may make our copies stale; cachePages checks
+                    long flushes = pool.getFlushCount();
+                    ArrayList<Page> pages = f.readPages(first, count);
+                    pool.cachePages(pages, flushes);
+                } catch (IOException e) {
+                    Debug.log("read-ahead of %d pages at %d failed: %s", count, first, e);
+                } catch (RuntimeException e) {
+                    //e.g. the table was dropped from the catalog mid-scan
+                    Debug.log("read-ahead of %d pages at %d failed: %s", count, first, e);
+                }
+            }
+        });
+    }
+}
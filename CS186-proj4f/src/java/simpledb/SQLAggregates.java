@@ -1,10 +1,10 @@
 package simpledb;
 
 class SQLAggregates {
-	public String groupVal;
+	public Field groupVal; //null when there is no grouping
 	public int count, sum, avg, min, max; //5 SQL aggregates
 
-	public SQLAggregates(String groupVal){
+	public SQLAggregates(Field groupVal){
 		this.groupVal = groupVal;
 		this.count = 0;
 		this.sum = 0;
@@ -13,4 +13,13 @@ class SQLAggregates {
 		this.max = Integer.MIN_VALUE;
 	}
 
-}
\ No newline at end of file
+	/** Folds one value into the aggregates. */
+	public void merge(int value){
+		count++;
+		sum += value;
+		avg = sum / count;
+		min = (min < value)? min : value;
+		max = (max > value)? max : value;
+	}
+
+}
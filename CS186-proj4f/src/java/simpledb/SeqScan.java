@@ -12,7 +12,11 @@ public class SeqScan implements DbIterator {
     private TransactionId tid;
     private int tableid;
     private String tableAlias;
+    private int[] columns; //fields to return, in this order; null means all
+    private TupleDesc projectTo; //set when the file returns whole tuples that next() must cut down
     private DbFileIterator iterator;
+    //predicates the tuples will be filtered by, on the table's fields (see pushDown)
+    private ArrayList<Predicate> pushed = new ArrayList<Predicate>();
 
     private static final long serialVersionUID = 1L;
 
@@ -40,6 +44,48 @@ public class SeqScan implements DbIterator {
         // this.iterator = null;
     }
 
+    /**
+     * Creates a sequential scan that returns only the given fields of each
+     * tuple. On a ColumnFile only those columns are read at all; on other
+     * files the tuples are read whole and cut down here.
+     * 
+     * @param columns
+     *            indexes of the fields to return (in the table's
+     *            TupleDesc), in the order they should appear
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns) {
+        this(tid, tableid, tableAlias);
+        this.columns = columns;
+    }
+
+    /**
+     * @return the indexes of the fields this scan returns, or null if it
+     *         returns whole tuples
+     */
+    public int[] getColumns() {
+        return columns;
+    }
+
+    /**
+     * Tells the scan about a predicate its tuples are going to be filtered
+     * by (the caller still filters them). A scan of a HeapFile uses it to
+     * skip the pages its zone map rules out; other files ignore it.
+     *
+     * @param p a predicate on a field of this scan's TupleDesc
+     */
+    public void pushDown(Predicate p) {
+        int field = (columns == null) ? p.getField() : columns[p.getField()];
+        pushed.add(new Predicate(field, p.getOp(), p.getOperand()));
+    }
+
+    /**
+     * @return the predicates given to pushDown, on fields of the table's
+     *         TupleDesc
+     */
+    public List<Predicate> getPushedPredicates() {
+        return pushed;
+    }
+
     /**
      * @return
      *       return the table name of the table the operator scans. This should
@@ -49,6 +95,16 @@ public class SeqScan implements DbIterator {
         return Database.getCatalog().getTableName(tableid);
     }
     
+    /** @return the id of the table this operator scans */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /** @return the transaction this scan runs as a part of */
+    public TransactionId getTransactionId() {
+        return tid;
+    }
+
     /**
      * @return Return the alias of the table this operator scans. 
      * */
@@ -74,6 +130,8 @@ public class SeqScan implements DbIterator {
         // some code goes here
         this.tableid = tableid;
         this.tableAlias = tableAlias;
+        this.columns = null;
+        this.pushed.clear();
     }
 
     public SeqScan(TransactionId tid, int tableid) {
@@ -82,7 +140,16 @@ public class SeqScan implements DbIterator {
 
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-        iterator = Database.getCatalog().getDbFile(tableid).iterator(tid);
+        DbFile f = Database.getCatalog().getDbFile(tableid);
+        projectTo = null;
+        if (columns != null && f instanceof ColumnFile)
+            iterator = ((ColumnFile) f).iterator(tid, columns);
+        else {
+            if (f instanceof HeapFile && !pushed.isEmpty())
+                iterator = ((HeapFile) f).iterator(tid, pushed);
+            else iterator = f.iterator(tid);
+            if (columns != null) projectTo = getTupleDesc();
+        }
         iterator.open();
     }
 
@@ -99,13 +166,15 @@ public class SeqScan implements DbIterator {
         // some code goes here
         //Copy old tupledesc and prefix each field name with the table alias
         TupleDesc td = Database.getCatalog().getDbFile(tableid).getTupleDesc();
-        Type[] typeAr = new Type[td.numFields()];
-        String[] fieldAr = new String[td.numFields()];
+        int n = (columns == null) ? td.numFields() : columns.length;
+        Type[] typeAr = new Type[n];
+        String[] fieldAr = new String[n];
         String alias = getAlias();
         if (alias == null) alias = "null"; 
-        for (int i=0; i<td.numFields(); i++){
-            typeAr[i] = td.getFieldType(i);
-            String fieldName = td.getFieldName(i);
+        for (int i=0; i<n; i++){
+            int field = (columns == null) ? i : columns[i];
+            typeAr[i] = td.getFieldType(field);
+            String fieldName = td.getFieldName(field);
             if (fieldName == null) fieldName = "null";
             fieldAr[i] = alias + "." + fieldName;
         }
@@ -121,7 +190,15 @@ public class SeqScan implements DbIterator {
             TransactionAbortedException, DbException {
         // some code goes here
         // System.out.println("nexting");
-        return iterator.next();
+        Tuple t = iterator.next();
+        if (projectTo == null) return t;
+        //a row file gave us the whole tuple: cut it down to the columns asked for
+        Tuple projected = new Tuple(projectTo);
+        for (int i=0; i<columns.length; i++){
+            projected.setField(i, t.getField(columns[i]));
+        }
+        projected.setRecordId(t.getRecordId());
+        return projected;
     }
 
     public void close() {
@@ -0,0 +1,90 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * SlottedHeapFile is a HeapFile whose pages are SlottedPages: variable-length
+ * records behind a slot directory, so tables with STRING columns holding
+ * short values fit many more tuples per page. Everything else -- the open
+ * channel, mmap mode, the free space map (counting free bytes here),
+ * read-ahead, write-back and recovery -- is HeapFile's.
+ * <p>
+ * Declare a table with the "slotted" option in the catalog schema file to
+ * store it this way. HeapFileEncoder only writes HeapPages, so a slotted
+ * table starts empty and is filled with inserts.
+ *
+ * @see SlottedPage
+ */
+public class SlottedHeapFile extends HeapFile {
+
+    public SlottedHeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    public SlottedHeapFile(File f, TupleDesc td, boolean memoryMapped) {
+        this(f, td, memoryMapped, BufferPool.PAGE_SIZE);
+    }
+
+    public SlottedHeapFile(File f, TupleDesc td, boolean memoryMapped, int pageSize) {
+        super(f, td, memoryMapped, pageSize);
+    }
+
+    protected Page newPage(HeapPageId pid, byte[] data) throws IOException {
+        SlottedPage page = new SlottedPage(pid, data);
+        page.file = this;
+        return page;
+    }
+
+    protected byte[] emptyPageData() {
+        return SlottedPage.createEmptyPageData(getPageSize());
+    }
+
+    protected int getFreeSpace(Page p) {
+        return ((SlottedPage) p).getFreeSpace();
+    }
+
+    public int getSlotsPerPage() {
+        //every slot needs a directory entry and a record of at least 2 bytes a field
+        int minRecord = 0;
+        for (int i = 0; i < getTupleDesc().numFields(); i++) {
+            Type type = getTupleDesc().getFieldType(i);
+            minRecord += (type == Type.STRING_TYPE) ? 2 : type.getLen();
+        }
+        return (getPageSize() - SlottedPage.HEADER_SIZE) / (SlottedPage.SLOT_SIZE + minRecord);
+    }
+
+    protected int getFreeSpaceOnEmptyPage() {
+        return getPageSize() - SlottedPage.HEADER_SIZE;
+    }
+
+    protected int spaceNeeded(Tuple t) {
+        //assume a new slot; a page that could only take t by reusing one is skipped
+        return SlottedPage.recordSize(t) + SlottedPage.SLOT_SIZE;
+    }
+
+    protected int headerSize() {
+        return SlottedPage.HEADER_SIZE;
+    }
+
+    protected int freeSpaceFromHeader(ByteBuffer header) {
+        return SlottedPage.getFreeSpace(header, getPageSize());
+    }
+
+    protected void insertIntoPage(Page p, Tuple t) throws DbException {
+        ((SlottedPage) p).insertTuple(t);
+    }
+
+    protected void deleteFromPage(Page p, Tuple t) throws DbException {
+        ((SlottedPage) p).deleteTuple(t);
+    }
+
+    protected Iterator<Tuple> pageIterator(Page p) {
+        return ((SlottedPage) p).iterator();
+    }
+
+    protected Tuple tupleAt(Page p, int slot) {
+        return (slot < 0) ? null : ((SlottedPage) p).getTuple(slot);
+    }
+}
@@ -0,0 +1,406 @@
+package simpledb;
+
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * SlottedPage is the page format of SlottedHeapFile: a slotted page of
+ * variable-length records, so a STRING field takes only as many bytes as its
+ * value instead of the fixed Type.STRING_LEN + 4 a HeapPage reserves.
+ * <p>
+ * Layout (all integers big-endian, as everywhere else):
+ * <pre>
+ *   int slotCount            number of entries in the slot directory
+ *   int recordBytes          total bytes of the records in use
+ *   slotCount x (ushort offset, ushort length)   the slot directory
+ *   ... free space ...
+ *   records, packed against the end of the page
+ * </pre>
+ * An offset of 0 marks an empty slot (no record can start inside the
+ * header), so a page of all zeroes is a valid empty page. Inside a record an
+ * INT field is 4 bytes and a STRING field is a ushort length followed by that
+ * many bytes.
+ * <p>
+ * A tuple keeps its slot, and so its RecordId, for as long as it lives; the
+ * records themselves are compacted every time the page is serialized, so
+ * deletes never leave holes on disk. Empty slots are reused by later inserts.
+ * <p>
+ * Like HeapPage, tuples are decoded lazily from the bytes the page was built
+ * from, and the before image is only taken by the first modification.
+ *
+ * @see SlottedHeapFile
+ * @see HeapPage
+ */
+public class SlottedPage implements Page {
+
+    static final int HEADER_SIZE = 8;
+    static final int SLOT_SIZE = 4;
+
+    HeapPageId pid;
+    TupleDesc td;
+
+    int pageSize; //bytes per page of this page's table
+    int numSlots;
+    int offsets[]; //record offset in data for slots that came from disk; 0 = not from disk
+    int lengths[]; //record length of every used slot
+    boolean used[];
+    Tuple tuples[]; //decoded lazily, as in HeapPage
+    int recordBytes; //sum of lengths of used slots
+
+    ByteBuffer data; //the page as read from disk; never written
+    byte[] oldData; //before image; null means "same as the current contents"
+
+    TransactionId dirtyTID = null; //null means not dirty
+    HeapFile file; //the file this page belongs to, set by HeapFile.newPage; see owner()
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk. The
+     * page keeps data (and never writes to it), so callers must not reuse it.
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.data = ByteBuffer.wrap(data);
+        this.pageSize = data.length;
+
+        numSlots = this.data.getInt(0);
+        if (numSlots < 0 || HEADER_SIZE + numSlots * SLOT_SIZE > data.length)
+            throw new IOException("Corrupt slotted page " + id.pageNumber() + ": " + numSlots + " slots");
+        offsets = new int[Math.max(numSlots, 16)];
+        lengths = new int[offsets.length];
+        used = new boolean[offsets.length];
+        tuples = new Tuple[offsets.length];
+        for (int i = 0; i < numSlots; i++) {
+            int entry = HEADER_SIZE + i * SLOT_SIZE;
+            offsets[i] = this.data.getShort(entry) & 0xffff;
+            lengths[i] = this.data.getShort(entry + 2) & 0xffff;
+            used[i] = offsets[i] != 0;
+            if (used[i]) recordBytes += lengths[i];
+        }
+
+        oldData = data;
+    }
+
+    /** @return the number of bytes t takes as a record on a slotted page */
+    static int recordSize(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE)
+                size += 2 + ((StringField) t.getField(i)).getValue().length();
+            else
+                size += td.getFieldType(i).getLen();
+        }
+        return size;
+    }
+
+    /**
+     * @return the free space on a pageSize byte page whose header (the
+     *         first HEADER_SIZE bytes) is in buf, without decoding the page
+     */
+    static int getFreeSpace(ByteBuffer buf, int pageSize) {
+        return pageSize - HEADER_SIZE - buf.getInt(0) * SLOT_SIZE - buf.getInt(4);
+    }
+
+    /**
+     * @return the number of free bytes on this page. Inserting a tuple takes
+     *         its recordSize, plus SLOT_SIZE if no empty slot can be reused.
+     */
+    public int getFreeSpace() {
+        return pageSize - HEADER_SIZE - numSlots * SLOT_SIZE - recordBytes;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedPage getBeforeImage() {
+        try {
+            return new SlottedPage(pid, (oldData != null) ? oldData : getPageData());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        oldData = null;
+    }
+
+    private void captureBeforeImage() {
+        if (oldData == null) oldData = getPageData();
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return the number of slots in the slot directory, used or not
+     */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i < numSlots && used[i];
+    }
+
+    /**
+     * @return the tuple in a slot, decoded the first time it is asked for,
+     *         or null if the slot is empty
+     */
+    public Tuple getTuple(int slotId) {
+        if (!isSlotUsed(slotId)) return null;
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            t = decodeTuple(slotId);
+            tuples[slotId] = t;
+        }
+        return t;
+    }
+
+    /**
+     * @return one field of the tuple in a slot, read straight out of the page
+     *         bytes if the tuple has not been decoded; null if the slot is
+     *         empty
+     */
+    public Field getField(int slotId, int fieldIndex) {
+        if (!isSlotUsed(slotId)) return null;
+        Tuple t = tuples[slotId];
+        if (t != null) return t.getField(fieldIndex);
+        //fields are variable length: skip over the ones before it
+        int offset = offsets[slotId];
+        for (int j = 0; j < fieldIndex; j++) {
+            offset += fieldSize(td.getFieldType(j), offset);
+        }
+        return parseField(td.getFieldType(fieldIndex), offset);
+    }
+
+    private int fieldSize(Type type, int offset) {
+        if (type == Type.STRING_TYPE)
+            return 2 + (data.getShort(offset) & 0xffff);
+        return type.getLen();
+    }
+
+    private Field parseField(Type type, int offset) {
+        if (type == Type.STRING_TYPE) {
+            byte bs[] = new byte[data.getShort(offset) & 0xffff];
+            System.arraycopy(data.array(), data.arrayOffset() + offset + 2, bs, 0, bs.length);
+            return new StringField(new String(bs), Type.STRING_LEN);
+        }
+        return type.parse(data, offset);
+    }
+
+    private Tuple decodeTuple(int slotId) {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        int offset = offsets[slotId];
+        for (int j = 0; j < td.numFields(); j++) {
+            Type type = td.getFieldType(j);
+            t.setField(j, parseField(type, offset));
+            offset += fieldSize(type, offset);
+        }
+        return t;
+    }
+
+    /**
+     * Writes a record in the format described above; StringFields are
+     * written a byte per char, like StringField.serialize does.
+     */
+    private static void encodeTuple(Tuple t, byte[] out, int offset) {
+        ByteBuffer buf = ByteBuffer.wrap(out);
+        buf.position(offset);
+        TupleDesc td = t.getTupleDesc();
+        for (int j = 0; j < td.numFields(); j++) {
+            Field f = t.getField(j);
+            if (td.getFieldType(j) == Type.STRING_TYPE) {
+                String s = ((StringField) f).getValue();
+                buf.putShort((short) s.length());
+                for (int k = 0; k < s.length(); k++)
+                    buf.put((byte) s.charAt(k));
+            } else {
+                buf.putInt(((IntField) f).getValue());
+            }
+        }
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, with
+     * the records of all used slots packed against the end of the page.
+     * Passing it to the SlottedPage constructor produces an identical page.
+     */
+    public byte[] getPageData() {
+        byte[] out = new byte[pageSize];
+        ByteBuffer buf = ByteBuffer.wrap(out);
+        buf.putInt(0, numSlots);
+        buf.putInt(4, recordBytes);
+
+        int end = pageSize;
+        for (int i = 0; i < numSlots; i++) {
+            if (!used[i]) continue; //directory entry stays 0
+            end -= lengths[i];
+            if (tuples[i] == null) //never decoded: its bytes are unchanged
+                System.arraycopy(data.array(), data.arrayOffset() + offsets[i], out, end, lengths[i]);
+            else
+                encodeTuple(tuples[i], out, end);
+            int entry = HEADER_SIZE + i * SLOT_SIZE;
+            buf.putShort(entry, (short) end);
+            buf.putShort(entry + 2, (short) lengths[i]);
+        }
+        return out;
+    }
+
+    /**
+     * @return the bytes of an empty default sized SlottedPage (all zeroes)
+     */
+    public static byte[] createEmptyPageData() {
+        return createEmptyPageData(BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * @return the bytes of an empty pageSize byte SlottedPage (all zeroes)
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize];
+    }
+
+    /**
+     * Delete the specified tuple from the page. Its slot becomes free for
+     * reuse; the space its record took is reclaimed when the page is next
+     * serialized.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        if (t == null) throw new DbException("Tuple is null!");
+
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("Tuple not on this page!");
+        if (!isSlotUsed(rid.tupleno())) throw new DbException("Tried to delete null tuple");
+
+        captureBeforeImage();
+        Tuple gone = getTuple(rid.tupleno());
+        used[rid.tupleno()] = false;
+        recordBytes -= lengths[rid.tupleno()];
+        updateFreeSpaceMap();
+        updateZoneMap(gone, false);
+    }
+
+    /**
+     * Adds the specified tuple to the page, in the first empty slot or in a
+     * new one at the end of the slot directory.
+     * @throws DbException if the page does not have room for the tuple or
+     *         tupledesc is mismatch.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (t == null) throw new DbException("Tuple is null!");
+        if (!t.getTupleDesc().equals(this.td)) throw new DbException("TupleDesc don't match!");
+
+        int slot = 0;
+        while (slot < numSlots && used[slot]) slot++;
+        int size = recordSize(t);
+        int needed = size + ((slot == numSlots) ? SLOT_SIZE : 0);
+        if (needed > getFreeSpace()) throw new DbException("Page is full!");
+
+        captureBeforeImage();
+        if (slot == numSlots) {
+            if (numSlots == used.length) {
+                int n = used.length * 2;
+                offsets = Arrays.copyOf(offsets, n);
+                lengths = Arrays.copyOf(lengths, n);
+                used = Arrays.copyOf(used, n);
+                tuples = Arrays.copyOf(tuples, n);
+            }
+            numSlots++;
+        }
+        tuples[slot] = t;
+        lengths[slot] = size;
+        used[slot] = true;
+        recordBytes += size;
+        t.setRecordId(new RecordId(pid, slot));
+        updateFreeSpaceMap();
+        updateZoneMap(t, true);
+    }
+
+    /**
+     * @return the HeapFile this page belongs to, looked up in the catalog
+     *         (once) if the page was not read through one; null if the table
+     *         is not a HeapFile
+     */
+    private HeapFile owner() {
+        if (file == null) {
+            DbFile f = Database.getCatalog().getDbFile(pid.getTableId());
+            if (f instanceof HeapFile) file = (HeapFile) f;
+        }
+        return file;
+    }
+
+    /**
+     * Tells the owning file's free space map how many bytes this page has
+     * left.
+     */
+    private void updateFreeSpaceMap() {
+        HeapFile f = owner();
+        if (f != null) f.getFreeSpaceMap().update(pid.pageNumber(), getFreeSpace());
+    }
+
+    /**
+     * Tells the owning file's zone map that t was inserted on (or
+     * deleted from) this page.
+     */
+    private void updateZoneMap(Tuple t, boolean inserted) {
+        HeapFile f = owner();
+        if (f == null) return;
+        if (inserted) f.getZoneMap().tupleInserted(pid.pageNumber(), t);
+        else f.getZoneMap().tupleDeleted(pid.pageNumber(), t);
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        if (dirty) captureBeforeImage();
+        this.dirtyTID = (dirty) ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return this.dirtyTID;
+    }
+
+    /**
+     * @return an iterator over the tuples on this page, in slot order
+     *         (calling remove on this iterator throws an
+     *         UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        //iterate over the slots in use right now, decoding each tuple only when it's reached
+        final boolean[] inUse = Arrays.copyOf(used, numSlots);
+        return new Iterator<Tuple>() {
+            int slot = nextUsed(0);
+
+            private int nextUsed(int from) {
+                while (from < inUse.length && !inUse[from]) from++;
+                return from;
+            }
+
+            public boolean hasNext() {
+                return slot < inUse.length;
+            }
+
+            public Tuple next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                Tuple t = isSlotUsed(slot) ? getTuple(slot) : tuples[slot];
+                if (t == null) t = decodeTuple(slot); //deleted since iteration began, never decoded
+                slot = nextUsed(slot + 1);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
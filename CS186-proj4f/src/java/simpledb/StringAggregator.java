@@ -20,7 +20,7 @@ public class StringAggregator implements Aggregator {
     private Type gbfieldtype;
     private int afield;
     private Op operator;
-    private HashMap<String,SQLAggregates> groupMap; //groupVal (the groupby field) to 5 SQLAggregates struct
+    private AggregateGroups groups; //groupVal (the groupby field) to 5 SQLAggregates struct
 
     public StringAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
         // some code goes here
@@ -32,7 +32,7 @@ public class StringAggregator implements Aggregator {
             throw new IllegalArgumentException("StringAggregator can only COUNT!");    
         } 
         this.operator = what;
-        this.groupMap = new HashMap<String,SQLAggregates>();
+        this.groups = new AggregateGroups(gbfield, gbfieldtype);
         // System.out.println(what.toString());
     }
 
@@ -41,14 +41,7 @@ public class StringAggregator implements Aggregator {
      * @param tup the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
-        String groupVal = (this.gbfield == Aggregator.NO_GROUPING)? "" : tup.getField(gbfield).toString(); //good idea?
-        SQLAggregates sag = (groupMap.containsKey(groupVal))? groupMap.get(groupVal) : new SQLAggregates(groupVal);
-        sag.count++;
-        // sag.avg = ((sag.avg * (sag.count-1)) + tupVal) / sag.count;
-
-        //replace (update) or add new value
-        // if (groupMap.containsKey(groupVal)) groupMap.remove(groupVal);
-        groupMap.put(groupVal, sag);
+        groups.lookup(tup).count++;
     }
 
     /**
@@ -75,14 +68,10 @@ public class StringAggregator implements Aggregator {
             realafield = 1;
         }
 
-        for (String groupVal : groupMap.keySet()){
+        for (SQLAggregates sag : groups.all()){
             Tuple tup = new Tuple(td);
-            SQLAggregates sag = groupMap.get(groupVal);
 
-            if (this.gbfield != NO_GROUPING){ 
-                if (gbfieldtype == Type.INT_TYPE) tup.setField(0, new IntField(  new Integer(groupVal)));
-                else if (gbfieldtype == Type.STRING_TYPE) tup.setField(0, new StringField(groupVal, Type.STRING_TYPE.getLen()));
-            }
+            if (this.gbfield != NO_GROUPING) tup.setField(0, sag.groupVal);
 
             tup.setField(realafield, new IntField(sag.count));
             tuples.add(tup);
@@ -0,0 +1,153 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * StringDictionary maps the distinct values of a dictionary encoded
+ * STRING_TYPE column (see ColumnFile) to dense int codes 0, 1, 2... The
+ * column's pages store the 4 byte code of each value instead of the value
+ * itself.
+ * <p>
+ * The dictionary is kept in its own file next to the column's, as a list of
+ * length-prefixed strings in code order, and is only ever appended to:
+ * codes never change and are never reused, even if every row holding a
+ * value is deleted or the inserting transaction aborts. A new value is
+ * forced to disk before its code is handed out, so no page written later
+ * can refer to a code that is not in the file.
+ */
+public class StringDictionary {
+
+    private final File file;
+
+    //loaded on first use
+    private ArrayList<DictField> byCode;
+    private HashMap<String, DictField> byValue;
+    private RandomAccessFile out;
+
+    /**
+     * Creates the dictionary stored in f; f need not exist yet.
+     */
+    public StringDictionary(File f) {
+        this.file = f;
+    }
+
+    /** @return the file the dictionary is stored in */
+    public File getFile() {
+        return file;
+    }
+
+    private void load() throws IOException {
+        if (byCode != null) return;
+        byCode = new ArrayList<DictField>();
+        byValue = new HashMap<String, DictField>();
+        if (!file.exists()) return;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        long good = 0;
+        try {
+            while (true) {
+                int len = in.readInt();
+                byte bs[] = new byte[len];
+                in.readFully(bs);
+                add(new String(bs));
+                good += 4 + len;
+            }
+        } catch (EOFException done) {
+            // a torn last entry (a crash in the middle of an append) was never handed out
+        } finally {
+            in.close();
+        }
+        if (good < file.length()) {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(good);
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+    /**
+     * Loads the dictionary if needed, for the lookups, which cannot
+     * sensibly go on without it.
+     */
+    private void loaded() {
+        try {
+            load();
+        } catch (IOException e) {
+            throw new RuntimeException("couldn't read dictionary " + file, e);
+        }
+    }
+
+    private DictField add(String s) {
+        DictField f = new DictField(s, byCode.size(), this);
+        byCode.add(f);
+        byValue.put(s, f);
+        return f;
+    }
+
+    /**
+     * @return the value with the given code, as the dictionary's shared
+     *         DictField for it
+     * @throws NoSuchElementException if there is no such code
+     */
+    public synchronized DictField get(int code) {
+        loaded();
+        if (code < 0 || code >= byCode.size()) throw new NoSuchElementException("no dictionary code " + code);
+        return byCode.get(code);
+    }
+
+    /**
+     * @return the code of s (truncated to Type.STRING_LEN, as stored), or
+     *         -1 if s is not in the dictionary
+     */
+    public synchronized int lookup(String s) {
+        loaded();
+        DictField f = byValue.get(truncate(s));
+        return (f == null) ? -1 : f.getCode();
+    }
+
+    /**
+     * @return the DictField for s, adding s to the dictionary (and to its
+     *         file) if it is new
+     */
+    public synchronized DictField encode(String s) throws IOException {
+        load();
+        s = truncate(s);
+        DictField f = byValue.get(s);
+        if (f != null) return f;
+        if (out == null) out = new RandomAccessFile(file, "rw");
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(4 + s.length());
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeInt(s.length());
+        dos.writeBytes(s);
+        dos.flush();
+        out.seek(out.length());
+        out.write(baos.toByteArray());
+        out.getFD().sync();
+        return add(s);
+    }
+
+    private static String truncate(String s) {
+        return (s.length() > Type.STRING_LEN) ? s.substring(0, Type.STRING_LEN) : s;
+    }
+
+    /** @return the number of codes handed out so far */
+    public synchronized int size() {
+        loaded();
+        return byCode.size();
+    }
+
+    /**
+     * Closes the dictionary's file; it is reopened on the next new value.
+     */
+    public synchronized void close() {
+        if (out == null) return;
+        try {
+            out.close();
+        } catch (IOException bad) {
+            bad.printStackTrace();
+        }
+        out = null;
+    }
+}
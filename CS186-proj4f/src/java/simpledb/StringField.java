@@ -77,7 +77,15 @@ public class StringField implements Field {
 	public boolean compare(Predicate.Op op, Field val) {
 
 		StringField iVal = (StringField) val;
-		int cmpVal = value.compareTo(iVal.value);
+		return compare(op, value, iVal.value);
+	}
+
+	/**
+	 * Compares two strings the way compare compares two StringFields, for
+	 * callers that read strings without wrapping them (see Tuple#getString).
+	 */
+	public static boolean compare(Predicate.Op op, String value, String other) {
+		int cmpVal = value.compareTo(other);
 
 		switch (op) {
 		case EQUALS:
@@ -99,7 +107,7 @@ public class StringField implements Field {
 			return cmpVal <= 0;
 
 		case LIKE:
-			return value.indexOf(iVal.value) >= 0;
+			return value.indexOf(other) >= 0;
 		}
 
 		return false;
@@ -1,6 +1,10 @@
 package simpledb;
 
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -78,9 +82,10 @@ public class TableStats {
      */
 
     private int tableid, ioCostPerPage, numTuples;
-    private HeapFile hfile;
+    private DbFile hfile;
     private Object[] allHistograms;
     private HashMap<String,Pair> minmaxStats;
+    private int[] clusteringFactors; //by field, computed on first use; 0 if not yet
 
 
     public TableStats(int tableid, int ioCostPerPage) {
@@ -94,10 +99,11 @@ public class TableStats {
         // some code goes here
         this.tableid = tableid;
         this.ioCostPerPage = ioCostPerPage;
-        this.hfile = (HeapFile) Database.getCatalog().getDbFile(tableid);
+        this.hfile = Database.getCatalog().getDbFile(tableid);
         this.allHistograms = new Object[hfile.getTupleDesc().numFields()];
         this.minmaxStats = new HashMap<String, Pair>();
         this.numTuples = 0;
+        this.clusteringFactors = new int[hfile.getTupleDesc().numFields()];
 
         Transaction t = new Transaction();
         DbFileIterator iterator = this.hfile.iterator(t.getId());
@@ -137,7 +143,7 @@ public class TableStats {
         while(iterator.hasNext()){
             Tuple tup = iterator.next();
             this.numTuples++;
-            TupleDesc td = tup.getTupleDesc();
+            TupleDesc td = hfile.getTupleDesc(); //inserted tuples may not carry the field names
             for (int i = 0; i < td.numFields(); i++){
                 if(td.getFieldType(i).equals(Type.INT_TYPE)){
                     // System.out.println(minmax == );
@@ -159,7 +165,7 @@ public class TableStats {
         iterator.rewind();
         while(iterator.hasNext()){
             Tuple tup = iterator.next();
-            TupleDesc td = tup.getTupleDesc();
+            TupleDesc td = hfile.getTupleDesc();
             for (int i = 0; i < td.numFields(); i++){
                 if(td.getFieldType(i).equals(Type.INT_TYPE)){
                     Pair minmax = minmaxStats.get(td.getFieldName(i));
@@ -200,7 +206,141 @@ public class TableStats {
      */
     public double estimateScanCost() {
         // some code goes here
-        return hfile.numPages() * this.ioCostPerPage;
+        return numPages() * this.ioCostPerPage;
+    }
+
+    /** @return the number of pages a full scan of the table reads */
+    private int numPages() {
+        if (hfile instanceof ColumnFile) return ((ColumnFile) hfile).numPages();
+        return ((HeapFile) hfile).numPages();
+    }
+
+    /**
+     * The clustering factor of a field: the number of table pages a scan of
+     * the whole table in the order of the field reads, if it reads a page
+     * again each time it comes back to it. It is the number of pages when
+     * the tuples are stored in the field's order, and up to the number of
+     * tuples when they are not. Computed on first use, with one more scan
+     * of the table whose keys are put in order by an ExternalSort, so that
+     * no more than IndexBuilder.sortEntries() of them are held in memory.
+     * If the sort fails the factor is taken to be the number of tuples.
+     *
+     * @param field
+     *            the index of the field
+     * @return the clustering factor of the field
+     */
+    public synchronized int clusteringFactor(int field) {
+        if (clusteringFactors[field] > 0) return clusteringFactors[field];
+        TupleDesc keyTd = new TupleDesc(new Type[] { hfile.getTupleDesc().getFieldType(field) });
+        //tuples with the same key stay in table order, as in an index
+        ExternalSort sort = new ExternalSort(keyTd, tableid, new Comparator<Tuple>() {
+            public int compare(Tuple a, Tuple b) {
+                return BTreeFile.compare(a.getField(0), a.getRecordId(), b.getField(0), b.getRecordId());
+            }
+        }, IndexBuilder.sortEntries());
+        int factor = Math.max(1, numTuples);
+        Transaction t = new Transaction();
+        DbFileIterator iterator = hfile.iterator(t.getId());
+        try {
+            t.start();
+            iterator.open();
+            int n = 0;
+            while (iterator.hasNext()) {
+                Tuple tup = iterator.next();
+                Tuple key = new Tuple(keyTd);
+                key.setField(0, tup.getField(field));
+                RecordId rid = tup.getRecordId();
+                key.setRecordId((rid != null) ? rid : new RecordId(new HeapPageId(tableid, 0), n));
+                sort.add(key);
+                n++;
+            }
+            iterator.close();
+            Iterator<Tuple> sorted = sort.sorted();
+            int count = 0;
+            int page = -1;
+            while (sorted.hasNext()) {
+                int next = sorted.next().getRecordId().getPageId().pageNumber();
+                if (next != page) count++;
+                page = next;
+            }
+            factor = Math.max(1, count);
+        } catch (DbException e) {
+            e.printStackTrace();
+        } catch (TransactionAbortedException e) {
+            e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (RuntimeException e) { //a run could not be read back
+            if (!(e.getCause() instanceof IOException)) throw e;
+            e.printStackTrace();
+        } finally {
+            sort.close();
+        }
+        try {
+            t.commit();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        clusteringFactors[field] = factor;
+        return factor;
+    }
+
+    /**
+     * Estimates the cost of reading the tuples of the table whose keys in
+     * index satisfy predicates of the given selectivity through the index:
+     * the pages down to the first entry, the share of the index's pages the
+     * entries take, and a table page per change of page among the tuples
+     * in index order (see {@link #clusteringFactor}).
+     *
+     * @param index
+     *            an index on the table
+     * @param selectivity
+     *            the selectivity of the predicates on the index's key
+     * @return The estimated cost of the index scan.
+     */
+    public double estimateIndexScanCost(IndexFile index, double selectivity) {
+        double entries = index.lookupPages() + selectivity * index.numPages();
+        double fetches = selectivity * clusteringFactor(index.getKeyField());
+        return (entries + fetches) * this.ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of reading the fields an index holds for the
+     * tuples whose keys satisfy predicates of the given selectivity from
+     * the index's entries alone, without reading the table.
+     *
+     * @param index
+     *            an index on the table
+     * @param selectivity
+     *            the selectivity of the predicates on the index's key
+     * @return The estimated cost of the index only scan.
+     */
+    public double estimateIndexOnlyScanCost(IndexFile index, double selectivity) {
+        return (index.lookupPages() + selectivity * index.numPages()) * this.ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of reading the tuples of the table that satisfy
+     * predicates of the given selectivity by combining the bitmaps of
+     * indexes: every page of the indexes, and each table page that holds
+     * one of the tuples at least once, assuming they are spread evenly
+     * across the table.
+     *
+     * @param indexes
+     *            bitmap indexes on the table
+     * @param selectivity
+     *            the selectivity of the predicates combined
+     * @return The estimated cost of the bitmap scan.
+     */
+    public double estimateBitmapScanCost(Collection<? extends IndexFile> indexes, double selectivity) {
+        double pages = 0;
+        for (IndexFile index : new HashSet<IndexFile>(indexes)) pages += index.numPages();
+        int tablePages = numPages();
+        if (tablePages > 0) {
+            double perPage = (double) totalTuples() / tablePages;
+            pages += tablePages * (1 - Math.pow(1 - selectivity, perPage));
+        }
+        return pages * this.ioCostPerPage;
     }
 
     /**
@@ -1,6 +1,9 @@
 package simpledb;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Iterator;
 
@@ -8,13 +11,24 @@ import java.util.Iterator;
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * A tuple can also be compact: backed by a fixed-width slice of a byte
+ * array in the format HeapPage stores tuples in (see the
+ * Tuple(TupleDesc, byte[], int) constructor), instead of one Field object
+ * per column. The typed getters (getInt, getString) read a compact tuple's
+ * values straight out of the bytes. getField still works on every tuple; on
+ * a compact one it decodes the Field the first time it is asked for.
  */
 public class Tuple implements Serializable {
 
-    private Field[] tupleData; //hm why no array list?
+    private Field[] tupleData; //hm why no array list? null for a compact tuple until a Field is needed
     private TupleDesc tupleSchema;
     private RecordId recordID;
 
+    //compact backing: tupleSchema.getSize() bytes of bytes starting at offset, never written to
+    private byte[] bytes;
+    private int offset;
+
     private static final long serialVersionUID = 1L;
 
     /**
@@ -31,6 +45,20 @@ public class Tuple implements Serializable {
     	recordID = null; 
     }
 
+    /**
+     * Create a compact tuple over the td.getSize() bytes of data starting at
+     * offset, which hold the fields back to back in their serialized form
+     * (as HeapPage stores them). The bytes are not copied, so the caller
+     * must not change them while the tuple is in use; setField overrides a
+     * field without touching them.
+     */
+    public Tuple(TupleDesc td, byte[] data, int offset) {
+        tupleSchema = td;
+        bytes = data;
+        this.offset = offset;
+        recordID = null;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -69,6 +97,7 @@ public class Tuple implements Serializable {
      */
     public void setField(int i, Field f) {
         // some code goes here
+       if (tupleData == null) tupleData = new Field[tupleSchema.numFields()];
 	   tupleData[i] = f;
     }
 
@@ -80,7 +109,59 @@ public class Tuple implements Serializable {
      */
     public Field getField(int i) {
         // some code goes here
-        return tupleData[i];
+        if (tupleData != null && tupleData[i] != null) return tupleData[i];
+        if (bytes == null) return null;
+        Field f = tupleSchema.getFieldType(i).parse(ByteBuffer.wrap(bytes), offset + tupleSchema.getOffset(i));
+        setField(i, f);
+        return f;
+    }
+
+    /**
+     * @return the ith field if this tuple holds it as a Field object, or
+     *         null if it is only in a compact tuple's bytes (or not set);
+     *         lets callers look for DictFields without decoding anything
+     */
+    Field getDecodedField(int i) {
+        return (tupleData == null) ? null : tupleData[i];
+    }
+
+    /**
+     * @return the value of the ith field, which must be an INT_TYPE field
+     *         that has been set. Does not allocate for a compact tuple.
+     */
+    public int getInt(int i) {
+        if (bytes == null || (tupleData != null && tupleData[i] != null))
+            return ((IntField) getField(i)).getValue();
+        int o = offset + tupleSchema.getOffset(i);
+        return (bytes[o] << 24) | ((bytes[o+1] & 0xff) << 16) | ((bytes[o+2] & 0xff) << 8) | (bytes[o+3] & 0xff);
+    }
+
+    /**
+     * @return the value of the ith field, which must be a STRING_TYPE field
+     *         that has been set. Builds no StringField for a compact tuple.
+     */
+    public String getString(int i) {
+        if (bytes == null || (tupleData != null && tupleData[i] != null))
+            return ((StringField) getField(i)).getValue();
+        int o = offset + tupleSchema.getOffset(i);
+        int len = (bytes[o] << 24) | ((bytes[o+1] & 0xff) << 16) | ((bytes[o+2] & 0xff) << 8) | (bytes[o+3] & 0xff);
+        return new String(bytes, o + 4, len);
+    }
+
+    /**
+     * Writes the tuple's fields, in their fixed-width serialized form, to
+     * dos. A compact tuple's fields that were never set are copied from its
+     * bytes as they are.
+     */
+    public void serialize(DataOutputStream dos) throws IOException {
+        if (tupleData == null && bytes != null) {
+            dos.write(bytes, offset, tupleSchema.getSize());
+            return;
+        }
+        for (int i = 0; i < tupleSchema.numFields(); i++) {
+            if (tupleData[i] != null || bytes == null) tupleData[i].serialize(dos);
+            else dos.write(bytes, offset + tupleSchema.getOffset(i), tupleSchema.getFieldType(i).getLen());
+        }
     }
 
     /**
@@ -94,8 +175,8 @@ public class Tuple implements Serializable {
     public String toString() {
         // some code goes here
     	String total = ""; //use StringBuilder??
-    	for (Field col : tupleData){
-    		total += col + "\t";
+    	for (int i = 0; i < tupleSchema.numFields(); i++){
+    		total += getField(i) + "\t";
     	}
     	return total.substring(0,total.length()-2) + "\n"; //replace last \t with \n
     }
@@ -107,6 +188,8 @@ public class Tuple implements Serializable {
     public Iterator<Field> fields()
     {
         // some code goes here
+        for (int i = 0; i < tupleSchema.numFields(); i++) getField(i); //decode a compact tuple's fields
+        if (tupleData == null) tupleData = new Field[tupleSchema.numFields()];
         return Arrays.asList(tupleData).iterator();
     }
 }
@@ -10,6 +10,7 @@ import java.util.*;
  */
 public class TupleDesc implements Serializable {
     private ArrayList<TDItem> TDList;
+    private transient int[] offsets; //see getOffset, computed on first use
     /**
      * A help class to facilitate organizing the information of each field
      * */
@@ -161,6 +162,22 @@ public class TupleDesc implements Serializable {
     	return size;
     }
 
+    /**
+     * @return the byte offset of the ith field within a tuple of this
+     *         TupleDesc, in the fixed-width format HeapPage stores tuples in
+     *         (fields back to back, in order, each getLen() bytes)
+     */
+    public int getOffset(int i) {
+        int[] o = offsets;
+        if (o == null) {
+            o = new int[TDList.size() + 1];
+            for (int j = 0; j < TDList.size(); j++)
+                o[j + 1] = o[j] + TDList.get(j).fieldType.getLen();
+            offsets = o;
+        }
+        return o[i];
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
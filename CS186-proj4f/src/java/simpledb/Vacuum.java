@@ -0,0 +1,237 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Vacuum compacts a heap file in place: it moves the live tuples at the end
+ * of the file into free space nearer the front, then cuts off the pages
+ * left empty, so the file (and what a scan of it costs) follows the live
+ * data instead of the most the table ever held.
+ * <p>
+ * Tuples are moved by two fingers. The source is the last page with live
+ * tuples; the destination is the first page the free space map says has
+ * room. Both pages are locked READ_WRITE through the BufferPool, so
+ * concurrent transactions keep running and simply wait for (or abort on)
+ * the pages being worked on. The moves are committed every BATCH_PAGES
+ * dirty pages, which keeps each transaction within the pool under NO
+ * STEAL; a batch that aborts is rolled back on its own.
+ * <p>
+ * Moving a tuple changes its RecordId. The table's indexes are updated in
+ * the same batch (their pages count towards BATCH_PAGES); any other
+ * RecordId held outside the table is stale once its batch commits, and
+ * getMoves() maps the old RecordId of every moved tuple to its new one so
+ * its holder can follow it.
+ * <p>
+ * The pages at the end of the file that are empty after the moves are
+ * then locked, dropped from the BufferPool and truncated away in one more
+ * transaction. Should another transaction grow the file meanwhile, the
+ * truncation is skipped; the pages stay (empty) and are reused by inserts.
+ * The moves are committed by then, so a truncation that fails does not
+ * fail the vacuum either: the pages stay the same way, and the failure is
+ * reported by getTruncateFailure().
+ * Parser's VACUUM statement runs a Vacuum and refreshes the table's
+ * statistics.
+ */
+public class Vacuum {
+
+    /** Dirty pages per transaction. */
+    public static final int BATCH_PAGES = 16;
+
+    private final HeapFile file;
+    private final HashMap<RecordId, RecordId> moves = new HashMap<RecordId, RecordId>();
+    private int pagesBefore = -1;
+    private int pagesAfter = -1;
+    private Exception truncateFailure;
+
+    /**
+     * Creates a vacuum of f, which must be a HeapFile whose pages are
+     * stored as is (a CompressedHeapFile cannot be truncated by page).
+     *
+     * @throws DbException if f cannot be vacuumed
+     */
+    public Vacuum(DbFile f) throws DbException {
+        if (!(f instanceof HeapFile) || f instanceof CompressedHeapFile)
+            throw new DbException("Vacuum only supports heap files with uncompressed pages");
+        this.file = (HeapFile) f;
+    }
+
+    /**
+     * Compacts the file, in transactions of its own; the caller must not
+     * be in the middle of one that touches this table.
+     *
+     * @return the number of pages the file shrank by
+     * @throws TransactionAbortedException if a batch could not get its
+     *         locks; the batches before it stay committed
+     */
+    public int run() throws DbException, IOException, TransactionAbortedException {
+        pagesBefore = file.numPages();
+        truncateFailure = null;
+        compact();
+        pagesAfter = truncateTail();
+        return pagesBefore - pagesAfter;
+    }
+
+    /** @return old RecordId -> new RecordId, for each tuple run() moved */
+    public Map<RecordId, RecordId> getMoves() {
+        return Collections.unmodifiableMap(moves);
+    }
+
+    /** @return the number of pages before the last run(), or -1 */
+    public int getPagesBefore() {
+        return pagesBefore;
+    }
+
+    /** @return the number of pages after the last run(), or -1 */
+    public int getPagesAfter() {
+        return pagesAfter;
+    }
+
+    /**
+     * @return why the last run() could not truncate the empty pages at the
+     *         end of the file, or null if it did (or had none to)
+     */
+    public Exception getTruncateFailure() {
+        return truncateFailure;
+    }
+
+    private HeapPageId pid(int pgNo) {
+        return new HeapPageId(file.getId(), pgNo);
+    }
+
+    /**
+     * Moves tuples from the back of the file into free space at the front
+     * until the two fingers meet.
+     */
+    private void compact() throws DbException, IOException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        FreeSpaceMap fsm = file.getFreeSpaceMap();
+        TransactionId tid = new TransactionId();
+        HashMap<RecordId, RecordId> batch = new HashMap<RecordId, RecordId>();
+        HashSet<PageId> dirty = new HashSet<PageId>();
+        try {
+            int back = file.numPages() - 1;
+            Page dest = null;
+            while (back > 0) {
+                Page src = bp.getPage(tid, pid(back), Permissions.READ_WRITE);
+                //copied out first: the page's iterator does not survive deletes
+                ArrayList<Tuple> live = new ArrayList<Tuple>();
+                Iterator<Tuple> it = file.pageIterator(src);
+                while (it.hasNext()) live.add(it.next());
+
+                boolean moved = true;
+                for (Tuple t : live) {
+                    int needed = file.spaceNeeded(t);
+                    while (dest == null || dest.getId().pageNumber() >= back || file.getFreeSpace(dest) < needed) {
+                        dest = null;
+                        int pgNo = fsm.findPageWithSpace(needed);
+                        if (pgNo < 0 || pgNo >= back) break;
+                        boolean alreadyLocked = bp.holdsLock(tid, pid(pgNo));
+                        Page p = bp.getPage(tid, pid(pgNo), Permissions.READ_WRITE);
+                        if (file.getFreeSpace(p) >= needed) dest = p;
+                        else { //stale hint, as in HeapFile.insertTuple
+                            fsm.update(pgNo, file.getFreeSpace(p));
+                            if (!alreadyLocked) bp.releasePage(tid, pid(pgNo));
+                        }
+                    }
+                    if (dest == null) { //nothing before back has room for t
+                        moved = false;
+                        break;
+                    }
+
+                    RecordId from = t.getRecordId();
+                    Tuple copy = copyOf(t);
+                    for (Page p : bp.updateIndexes(tid, file.getId(), t, false)) dirty.add(p.getId());
+                    file.deleteFromPage(src, t);
+                    file.insertIntoPage(dest, copy);
+                    src.markDirty(true, tid);
+                    dest.markDirty(true, tid);
+                    dirty.add(src.getId());
+                    dirty.add(dest.getId());
+                    for (Page p : bp.updateIndexes(tid, file.getId(), copy, true)) dirty.add(p.getId());
+                    batch.put(from, copy.getRecordId());
+                    if (dirty.size() >= BATCH_PAGES) {
+                        moved = false;
+                        break;
+                    }
+                }
+
+                if (dirty.size() >= BATCH_PAGES) {
+                    //commit what there is; src is looked at afresh, since its lock goes with the commit
+                    bp.transactionComplete(tid);
+                    moves.putAll(batch);
+                    batch.clear();
+                    dirty.clear();
+                    tid = new TransactionId();
+                    dest = null;
+                    continue;
+                }
+                if (!moved) break;
+                back--;
+            }
+            bp.transactionComplete(tid);
+            moves.putAll(batch);
+        } catch (TransactionAbortedException e) {
+            bp.transactionComplete(tid, false);
+            throw e;
+        } catch (DbException e) {
+            bp.transactionComplete(tid, false);
+            throw e;
+        }
+    }
+
+    /** @return a tuple with t's values and no RecordId yet */
+    private static Tuple copyOf(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        Tuple copy = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++) copy.setField(i, t.getField(i));
+        return copy;
+    }
+
+    /**
+     * Locks the empty pages at the end of the file and truncates them
+     * away, unless the file grew in the meantime. A failure is recorded in
+     * truncateFailure rather than thrown, as the moves before it stand.
+     *
+     * @return the number of pages in the file afterwards
+     */
+    private int truncateTail() throws IOException {
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        int end = file.numPages();
+        int keep = end;
+        try {
+            while (keep > 0) {
+                Page p = bp.getPage(tid, pid(keep - 1), Permissions.READ_WRITE);
+                if (file.pageIterator(p).hasNext()) break;
+                keep--;
+            }
+            if (keep < end) {
+                //the pages are clean and tid holds them READ_WRITE, so no transaction reads them back in
+                for (int pgNo = keep; pgNo < end; pgNo++) bp.discardPage(pid(pgNo));
+                //skipped if an insert appended a page meanwhile
+                keep = file.truncate(end, keep);
+            }
+            else keep = file.numPages();
+            bp.transactionComplete(tid);
+        } catch (TransactionAbortedException e) {
+            return truncateFailed(tid, e);
+        } catch (DbException e) {
+            return truncateFailed(tid, e);
+        } catch (IOException e) {
+            return truncateFailed(tid, e);
+        }
+        return keep;
+    }
+
+    /**
+     * Gives up on truncating: the empty pages stay, for inserts to reuse.
+     *
+     * @return the number of pages in the file
+     */
+    private int truncateFailed(TransactionId tid, Exception e) throws IOException {
+        Database.getBufferPool().transactionComplete(tid, false);
+        truncateFailure = e;
+        return file.numPages();
+    }
+}
@@ -0,0 +1,338 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ZoneMap keeps a summary of the values on each page of a HeapFile: the
+ * smallest and largest value of every INT column, and bounds on the first
+ * PREFIX characters of every STRING column. A scan given predicates (see
+ * SeqScan#pushDown) asks mayMatch() before reading a page, and skips pages
+ * whose ranges show that no tuple on them can pass. On tables whose rows
+ * arrive roughly in order of some column (a timestamp, a sequence number),
+ * a range predicate on that column then reads only the pages that hold the
+ * range.
+ * <p>
+ * A summary is always allowed to be wider than its page, never narrower:
+ * <ul>
+ * <li> HeapPage/SlottedPage.insertTuple widen it right away, so even an
+ *      uncommitted tuple is never skipped.
+ * <li> deleteTuple does not narrow it (the delete may still roll back);
+ *      deleting a value on a bound marks the page loose, and the summary is
+ *      rebuilt from the page when it is written at commit.
+ * <li> A page read from disk (first use, read-ahead, or rolled back on
+ *      abort) is summarized if its summary is unknown. A read may see an
+ *      older copy than the one in the pool, so a loose summary is only
+ *      widened by what the read finds, and stays loose:
+ * <li> only a page written at commit is summarized afresh.
+ * </ul>
+ * Pages the map knows nothing about (appended by BulkLoader, or from
+ * before the map existed) are never skipped, and get a summary when they
+ * are first read or written.
+ * <p>
+ * Like the FreeSpaceMap, the map is persisted in a sidecar file next to
+ * the heap file (table.dat.zmap) when the HeapFile is closed, and deleted
+ * by the first write after that (see HeapFile.writing). A sidecar older
+ * than the heap file, or for a different page count or schema, is
+ * ignored: every page starts unknown, and is summarized as it is used.
+ *
+ * @see HeapFile#getZoneMap
+ */
+public class ZoneMap {
+
+    /** Characters of a string column that its bounds keep. */
+    public static final int PREFIX = 8;
+
+    private static final int MAGIC = 0x5a4d5031; //"ZMP1"
+
+    private final File sidecar;
+    private final TupleDesc td;
+
+    private Zone[] zones; //indexed by page number; null = unknown
+    private int numPages;
+    private boolean dirty; //changed since loaded/saved
+
+    /** The summary of one page. */
+    private static class Zone {
+        final int[] min, max; //per field; only INT fields are used
+        final String[] low, high; //per field; only STRING fields are used
+        boolean empty = true; //no tuples seen, so every predicate fails
+        boolean loose; //a bound may be wider than the page now is
+
+        Zone(int fields) {
+            min = new int[fields];
+            max = new int[fields];
+            low = new String[fields];
+            high = new String[fields];
+        }
+    }
+
+    private ZoneMap(File sidecar, TupleDesc td, int numPages) {
+        this.sidecar = sidecar;
+        this.td = td;
+        this.zones = new Zone[Math.max(numPages, 16)];
+        this.numPages = numPages;
+    }
+
+    /**
+     * @return the sidecar file the map for the given heap file is kept in
+     */
+    public static File sidecarFor(File heapFile) {
+        return new File(heapFile.getPath() + ".zmap");
+    }
+
+    /**
+     * Loads the zone map for a heap file from its sidecar, or starts one
+     * with every page unknown if the sidecar is missing or out of date.
+     */
+    static ZoneMap load(HeapFile f) throws IOException {
+        TupleDesc td = f.getTupleDesc();
+        int pages = f.numPages();
+        File sidecar = sidecarFor(f.getFile());
+
+        if (sidecar.exists() && sidecar.lastModified() >= f.getFile().lastModified()) {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)));
+            try {
+                if (dis.readInt() == MAGIC && dis.readInt() == schemaHash(td) && dis.readInt() == pages) {
+                    ZoneMap zm = new ZoneMap(sidecar, td, pages);
+                    for (int i = 0; i < pages; i++) {
+                        zm.zones[i] = zm.readZone(dis);
+                    }
+                    return zm;
+                }
+            } catch (EOFException truncated) {
+                //fall through and start over
+            } finally {
+                dis.close();
+            }
+        }
+        ZoneMap zm = new ZoneMap(sidecar, td, pages);
+        zm.dirty = true;
+        return zm;
+    }
+
+    /**
+     * @return a map that knows nothing, and so never skips a page; used
+     *         when the sidecar cannot be read
+     */
+    static ZoneMap empty(HeapFile f) {
+        return new ZoneMap(sidecarFor(f.getFile()), f.getTupleDesc(), 0);
+    }
+
+    private static int schemaHash(TupleDesc td) {
+        int h = td.numFields();
+        for (int i = 0; i < td.numFields(); i++) h = 31 * h + td.getFieldType(i).ordinal();
+        return h;
+    }
+
+    private static String prefix(String s) {
+        return (s.length() <= PREFIX) ? s : s.substring(0, PREFIX);
+    }
+
+    private void ensure(int pgNo) {
+        if (pgNo >= zones.length) {
+            zones = Arrays.copyOf(zones, Math.max(pgNo + 1, zones.length * 2));
+        }
+        numPages = Math.max(numPages, pgNo + 1);
+    }
+
+    /** Widens z to take t. */
+    private void widen(Zone z, Tuple t) {
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                int v = t.getInt(i);
+                if (z.empty || v < z.min[i]) z.min[i] = v;
+                if (z.empty || v > z.max[i]) z.max[i] = v;
+            }
+            else {
+                String p = prefix(t.getString(i));
+                if (z.empty || p.compareTo(z.low[i]) < 0) z.low[i] = p;
+                if (z.empty || p.compareTo(z.high[i]) > 0) z.high[i] = p;
+            }
+        }
+        z.empty = false;
+    }
+
+    /** @return the exact summary of the given tuples */
+    private Zone summarize(Iterator<Tuple> tuples) {
+        Zone z = new Zone(td.numFields());
+        while (tuples.hasNext()) widen(z, tuples.next());
+        return z;
+    }
+
+    /**
+     * Called when a page is read from disk: summarizes it if its summary is
+     * unknown. A loose summary is widened to take the tuples read but not
+     * narrowed, since the pool may hold a newer copy of the page (with
+     * tuples inserted since) than the one read.
+     */
+    public synchronized void pageRead(int pgNo, Iterator<Tuple> tuples) {
+        if (pgNo < numPages && zones[pgNo] != null) {
+            Zone z = zones[pgNo];
+            if (!z.loose) return;
+            while (tuples.hasNext()) widen(z, tuples.next());
+        }
+        else {
+            ensure(pgNo);
+            zones[pgNo] = summarize(tuples);
+        }
+        dirty = true;
+    }
+
+    /**
+     * Called when a page is written: its contents are committed, so they
+     * replace whatever summary it had. (A page read ahead may have been
+     * summarized from an older copy on disk while this one was being
+     * changed in the pool.)
+     */
+    public synchronized void pageWritten(int pgNo, Iterator<Tuple> tuples) {
+        ensure(pgNo);
+        zones[pgNo] = summarize(tuples);
+        dirty = true;
+    }
+
+    /** Called when t has been inserted on page pgNo. */
+    public synchronized void tupleInserted(int pgNo, Tuple t) {
+        if (pgNo >= numPages || zones[pgNo] == null) return; //unknown pages are never skipped anyway
+        widen(zones[pgNo], t);
+        dirty = true;
+    }
+
+    /** Called when t has been deleted from page pgNo. */
+    public synchronized void tupleDeleted(int pgNo, Tuple t) {
+        if (pgNo >= numPages || zones[pgNo] == null || zones[pgNo].loose) return;
+        Zone z = zones[pgNo];
+        for (int i = 0; i < td.numFields() && !z.loose; i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                int v = t.getInt(i);
+                z.loose = (v == z.min[i] || v == z.max[i]);
+            }
+            else {
+                String p = prefix(t.getString(i));
+                z.loose = (p.equals(z.low[i]) || p.equals(z.high[i]));
+            }
+        }
+        if (z.loose) dirty = true;
+    }
+
+    /**
+     * Forgets the pages from numPages on, after the file was truncated.
+     */
+    public synchronized void truncate(int numPages) {
+        if (numPages >= this.numPages) return;
+        Arrays.fill(zones, numPages, this.numPages, null);
+        this.numPages = numPages;
+        dirty = true;
+    }
+
+    /**
+     * @return false if no tuple on page pgNo can satisfy all of preds (whose
+     *         fields index the table's TupleDesc); true if one might
+     */
+    public synchronized boolean mayMatch(int pgNo, List<Predicate> preds) {
+        if (pgNo >= numPages || zones[pgNo] == null) return true;
+        Zone z = zones[pgNo];
+        if (z.empty) return false;
+        for (Predicate p : preds) {
+            if (!mayMatch(z, p)) return false;
+        }
+        return true;
+    }
+
+    private boolean mayMatch(Zone z, Predicate p) {
+        int i = p.getField();
+        Field operand = p.getOperand();
+        if (td.getFieldType(i) == Type.INT_TYPE && operand instanceof IntField) {
+            int v = ((IntField) operand).getValue();
+            switch (p.getOp()) {
+            case EQUALS: return z.min[i] <= v && v <= z.max[i];
+            case LESS_THAN: return z.min[i] < v;
+            case LESS_THAN_OR_EQ: return z.min[i] <= v;
+            case GREATER_THAN: return z.max[i] > v;
+            case GREATER_THAN_OR_EQ: return z.max[i] >= v;
+            case NOT_EQUALS: return !(z.min[i] == v && z.max[i] == v);
+            default: return true;
+            }
+        }
+        if (td.getFieldType(i) == Type.STRING_TYPE && operand instanceof StringField) {
+            //strings are ordered like their prefixes, but equal prefixes decide nothing
+            String v = prefix(((StringField) operand).getValue());
+            switch (p.getOp()) {
+            case EQUALS: return z.low[i].compareTo(v) <= 0 && v.compareTo(z.high[i]) <= 0;
+            case LESS_THAN:
+            case LESS_THAN_OR_EQ: return z.low[i].compareTo(v) <= 0;
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ: return z.high[i].compareTo(v) >= 0;
+            default: return true;
+            }
+        }
+        return true;
+    }
+
+    private Zone readZone(DataInputStream dis) throws IOException {
+        byte flags = dis.readByte();
+        if ((flags & 1) == 0) return null;
+        Zone z = new Zone(td.numFields());
+        z.empty = (flags & 2) != 0;
+        z.loose = (flags & 4) != 0;
+        if (z.empty) return z;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                z.min[i] = dis.readInt();
+                z.max[i] = dis.readInt();
+            }
+            else {
+                z.low[i] = dis.readUTF();
+                z.high[i] = dis.readUTF();
+            }
+        }
+        return z;
+    }
+
+    private void writeZone(DataOutputStream dos, Zone z) throws IOException {
+        if (z == null) {
+            dos.writeByte(0);
+            return;
+        }
+        dos.writeByte(1 | (z.empty ? 2 : 0) | (z.loose ? 4 : 0));
+        if (z.empty) return;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                dos.writeInt(z.min[i]);
+                dos.writeInt(z.max[i]);
+            }
+            else {
+                dos.writeUTF(z.low[i]);
+                dos.writeUTF(z.high[i]);
+            }
+        }
+    }
+
+    /**
+     * Deletes the sidecar file, which the table is about to be written
+     * past; the map is saved again on the next save.
+     */
+    public synchronized void deleteSidecar() {
+        sidecar.delete();
+        dirty = true;
+    }
+
+    /**
+     * Writes the map to its sidecar file if it has changed.
+     */
+    public synchronized void save() throws IOException {
+        if (!dirty) return;
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(sidecar)));
+        try {
+            dos.writeInt(MAGIC);
+            dos.writeInt(schemaHash(td));
+            dos.writeInt(numPages);
+            for (int i = 0; i < numPages; i++) {
+                writeZone(dos, zones[i]);
+            }
+        } finally {
+            dos.close();
+        }
+        dirty = false;
+    }
+}
@@ -0,0 +1,167 @@
+package simpledb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class AccessPathTest extends SimpleDbTestBase {
+    private static final int ROWS = 6000;
+
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private BTreeFile byC0;
+    private BTreeFile byC1;
+
+    /**
+     * Set up initial resources for each unit test: a 3 column table stored
+     * in the order of its first column, whose second column is a shuffle of
+     * the same values, with a B+ tree index on each of the two.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        ArrayList<Integer> shuffled = new ArrayList<Integer>();
+        for (int i = 0; i < ROWS; i++) shuffled.add(i);
+        Collections.shuffle(shuffled, new Random(186));
+        for (int i = 0; i < ROWS; i++) {
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, shuffled.get(i), i % 7)));
+        }
+        File f = File.createTempFile("clustered", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, 3);
+        hf = Utility.openHeapFile(3, "c", f);
+        Database.getCatalog().addTable(hf, "ap");
+        File f0 = File.createTempFile("clustered", ".idx");
+        f0.deleteOnExit();
+        byC0 = new BTreeFile(f0, hf.getId(), 0);
+        Database.getCatalog().addIndex(byC0, "ap_c0");
+        IndexBuilder.build(byC0);
+        File f1 = File.createTempFile("clustered", ".idx");
+        f1.deleteOnExit();
+        byC1 = new BTreeFile(f1, hf.getId(), 1);
+        Database.getCatalog().addIndex(byC1, "ap_c1");
+        IndexBuilder.build(byC1);
+    }
+
+    @After public void tearDown() throws Exception {
+        byC0.close();
+        byC1.close();
+        hf.close();
+    }
+
+    /**
+     * A field the table is stored in the order of has a clustering factor
+     * of one per page, a shuffled one of close to one per tuple, and an
+     * index scan of the same share of the table costs more through the
+     * latter, however many keys fit in memory while the factor is computed.
+     */
+    @Test public void clustering() throws Exception {
+        TableStats stats = new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE);
+        assertEquals(hf.numPages(), stats.clusteringFactor(0));
+        assertTrue(stats.clusteringFactor(1) > ROWS / 2);
+        assertTrue(stats.estimateIndexScanCost(byC0, 0.1) < stats.estimateScanCost());
+        assertTrue(stats.estimateIndexScanCost(byC1, 0.1) > stats.estimateScanCost());
+        assertTrue(stats.estimateIndexOnlyScanCost(byC1, 0.1) < stats.estimateIndexScanCost(byC1, 0.1));
+
+        //the same factors when the keys do not fit in memory and are sorted in runs
+        IndexBuilder.setSortEntries(ROWS / 10);
+        try {
+            TableStats spilled = new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE);
+            assertEquals(stats.clusteringFactor(0), spilled.clusteringFactor(0));
+            assertEquals(stats.clusteringFactor(1), spilled.clusteringFactor(1));
+            assertEquals(stats.clusteringFactor(2), spilled.clusteringFactor(2));
+        } finally {
+            IndexBuilder.setSortEntries(IndexBuilder.DEFAULT_SORT_ENTRIES);
+        }
+    }
+
+    /** @return a plan reading c2 of the tuples of the table whose field field satisfies field op v */
+    private LogicalPlan query(String field, Predicate.Op op, int v) throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "a");
+        lp.addProjectField("a.c2", null);
+        lp.addFilter("a." + field, op, "" + v);
+        return lp;
+    }
+
+    /** @return the scan at the bottom of the plan for lp, after running it and checking its row count */
+    private DbIterator plan(LogicalPlan lp, int want) throws Exception {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("ap", new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+        TransactionId tid = new TransactionId();
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        plan.open();
+        int n = 0;
+        for (; plan.hasNext(); n++) plan.next();
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(want, n);
+        DbIterator node = plan;
+        while (node instanceof Operator) node = ((Operator) node).getChildren()[0];
+        return node;
+    }
+
+    /**
+     * The planner reads a range of a field the table is stored in the
+     * order of through its index, but scans the table for the same share
+     * of a shuffled field, and still uses that field's index for one key.
+     */
+    @Test public void planner() throws Exception {
+        DbIterator scan = plan(query("c0", Predicate.Op.LESS_THAN, ROWS / 10), ROWS / 10);
+        assertTrue(scan instanceof IndexScan);
+        assertSame(byC0, ((IndexScan) scan).getIndex());
+
+        assertTrue(plan(query("c1", Predicate.Op.LESS_THAN, ROWS / 10), ROWS / 10) instanceof SeqScan);
+
+        scan = plan(query("c1", Predicate.Op.EQUALS, 42), 1);
+        assertTrue(scan instanceof IndexScan);
+        assertSame(byC1, ((IndexScan) scan).getIndex());
+    }
+
+    /**
+     * With explain, the planner prints the cost of each way of reading a
+     * table and marks the one chosen, which the plan tree shows too.
+     */
+    @Test public void explain() throws Exception {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("ap", new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+        PrintStream out = System.out;
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        TransactionId tid = new TransactionId();
+        DbIterator plan;
+        try {
+            System.setOut(new PrintStream(buf));
+            plan = query("c0", Predicate.Op.LESS_THAN, ROWS / 10).physicalPlan(tid, stats, true);
+        } finally {
+            System.setOut(out);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        String printed = buf.toString();
+        assertTrue(printed.contains("Access paths for a:"));
+        assertTrue(printed.contains("    sequential scan, cost "));
+        assertTrue(printed.contains("  * index scan through ap_c0, cost "));
+        assertFalse(printed.contains("ap_c1"));
+        assertTrue(new QueryPlanVisualizer().getQueryPlanTree(plan).contains("index scan[ap_c0](ap a)"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(AccessPathTest.class);
+    }
+}
@@ -0,0 +1,347 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BTreeTest extends SimpleDbTestBase {
+    private static final int ROWS = 6000;
+    private static final int MAX_VALUE = 500;
+
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private File idxFile;
+    private BTreeFile index;
+
+    /**
+     * Set up initial resources for each unit test: a 2 column table whose
+     * first column has many duplicates, indexed on that column.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, ROWS, MAX_VALUE, null, tuples, "c");
+        Database.getCatalog().addTable(hf, "bt");
+        idxFile = File.createTempFile("btree", ".idx");
+        idxFile.deleteOnExit();
+        index = new BTreeFile(idxFile, hf.getId(), 0);
+        Database.getCatalog().addIndex(index, "bt_c0");
+        assertEquals(ROWS, IndexBuilder.build(index));
+    }
+
+    @After public void tearDown() throws Exception {
+        index.close();
+        hf.close();
+    }
+
+    /** @return the first column of the rows whose first column passes p, sorted */
+    private List<Integer> expected(Predicate p) {
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        for (ArrayList<Integer> t : tuples) {
+            if (p.filter(Utility.getHeapTuple(new int[] { t.get(0), t.get(1) }))) keys.add(t.get(0));
+        }
+        Collections.sort(keys);
+        return keys;
+    }
+
+    /** @return the keys of the entries the index returns for preds, in its order */
+    private List<Integer> lookup(Predicate... preds) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = index.lookup(tid, Arrays.asList(preds));
+        it.open();
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        while (it.hasNext()) keys.add(it.next().getInt(0));
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return keys;
+    }
+
+    private static Predicate pred(Predicate.Op op, int v) {
+        return new Predicate(0, op, new IntField(v));
+    }
+
+    /**
+     * The index finds every key, duplicates included, for equality and
+     * range predicates, and returns them in order.
+     */
+    @Test public void lookups() throws Exception {
+        assertTrue(index.getHeight() > 1);
+        for (int v : new int[] { -1, 0, 17, 250, MAX_VALUE - 1, MAX_VALUE }) {
+            assertEquals(expected(pred(Predicate.Op.EQUALS, v)), lookup(pred(Predicate.Op.EQUALS, v)));
+        }
+        assertEquals(expected(pred(Predicate.Op.LESS_THAN, 40)), lookup(pred(Predicate.Op.LESS_THAN, 40)));
+        assertEquals(expected(pred(Predicate.Op.GREATER_THAN, 460)), lookup(pred(Predicate.Op.GREATER_THAN, 460)));
+
+        List<Integer> between = lookup(pred(Predicate.Op.GREATER_THAN_OR_EQ, 100), pred(Predicate.Op.LESS_THAN_OR_EQ, 120));
+        ArrayList<Integer> want = new ArrayList<Integer>(expected(pred(Predicate.Op.GREATER_THAN_OR_EQ, 100)));
+        want.retainAll(expected(pred(Predicate.Op.LESS_THAN_OR_EQ, 120)));
+        assertEquals(want, between);
+        assertEquals(expected(pred(Predicate.Op.NOT_EQUALS, 3)), lookup(pred(Predicate.Op.NOT_EQUALS, 3)));
+    }
+
+    /**
+     * IndexScan returns the table's tuples for the entries it finds.
+     */
+    @Test public void indexScan() throws Exception {
+        int key = tuples.get(0).get(0);
+        ArrayList<ArrayList<Integer>> want = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) == key) want.add(t);
+        }
+        TransactionId tid = new TransactionId();
+        IndexScan scan = new IndexScan(tid, index, "bt", Arrays.asList(pred(Predicate.Op.EQUALS, key)));
+        assertEquals("bt.c0", scan.getTupleDesc().getFieldName(0));
+        SystemTestUtil.matchTuples(scan, want);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Inserts and deletes through the BufferPool keep the index in step
+     * with the table, and an abort rolls the index back with it.
+     */
+    @Test public void maintenance() throws Exception {
+        int before = lookup(pred(Predicate.Op.EQUALS, 7)).size();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 50; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { 7, -1 - i }));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(before + 50, lookup(pred(Predicate.Op.EQUALS, 7)).size());
+
+        //delete the new ones, through a projection of them
+        tid = new TransactionId();
+        IndexScan scan = new IndexScan(tid, index, "bt", Arrays.asList(pred(Predicate.Op.EQUALS, 7)));
+        scan.open();
+        ArrayList<Tuple> doomed = new ArrayList<Tuple>();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            if (t.getInt(1) >= 0) continue;
+            Tuple key = new Tuple(Utility.getTupleDesc(1));
+            key.setField(0, t.getField(1));
+            key.setRecordId(t.getRecordId());
+            doomed.add(key);
+        }
+        scan.close();
+        for (Tuple t : doomed) Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(before, lookup(pred(Predicate.Op.EQUALS, 7)).size());
+
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { MAX_VALUE + 1, 0 }));
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(0, lookup(pred(Predicate.Op.EQUALS, MAX_VALUE + 1)).size());
+    }
+
+    /**
+     * Keys inserted in order fill the leaves instead of leaving them half
+     * empty.
+     */
+    @Test public void sequentialInserts() throws Exception {
+        File f = File.createTempFile("seq", ".dat");
+        f.deleteOnExit();
+        HeapFile seq = Utility.createEmptyHeapFile(f.getPath(), 2);
+        File sf = File.createTempFile("seq", ".idx");
+        sf.deleteOnExit();
+        BTreeFile seqIndex = new BTreeFile(sf, seq.getId(), 0);
+        Database.getCatalog().addIndex(seqIndex, "seq_c0");
+
+        int perLeaf = BTreeLeafPage.getMaxEntries(seqIndex.getTupleDesc(), seqIndex.getPageSize());
+        int rows = 5 * perLeaf;
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < rows; i++) {
+            Database.getBufferPool().insertTuple(tid, seq.getId(), Utility.getHeapTuple(new int[] { i, i }));
+            if (i % 100 == 99) {
+                Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        //the root page, one internal page and the leaves
+        assertEquals(2 + (rows + perLeaf - 1) / perLeaf, seqIndex.numPages());
+        assertEquals(2, seqIndex.getHeight());
+        seqIndex.close();
+    }
+
+    /**
+     * Vacuum moves the index entries along with the tuples.
+     */
+    @Test public void vacuum() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        ArrayList<Tuple> doomed = new ArrayList<Tuple>();
+        ArrayList<Integer> kept = new ArrayList<Integer>();
+        int i = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (i++ % 4 == 0) kept.add(t.getInt(0));
+            else doomed.add(t);
+        }
+        it.close();
+        for (Tuple t : doomed) Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+
+        assertTrue(new Vacuum(hf).run() > 0);
+        Collections.sort(kept);
+        assertEquals(kept, lookup());
+        tid = new TransactionId();
+        IndexScan scan = new IndexScan(tid, index, "bt", new ArrayList<Predicate>());
+        scan.open();
+        int n = 0;
+        for (; scan.hasNext(); n++) scan.next(); //each entry leads to a live tuple
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(kept.size(), n);
+    }
+
+    /** @return the keys of the entries of idx with keys from lo to hi, in its order */
+    private static List<Integer> range(BTreeFile idx, int lo, int hi) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = idx.lookup(tid, Arrays.asList(pred(Predicate.Op.GREATER_THAN_OR_EQ, lo),
+                pred(Predicate.Op.LESS_THAN_OR_EQ, hi)));
+        it.open();
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        while (it.hasNext()) keys.add(it.next().getInt(0));
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return keys;
+    }
+
+    /**
+     * An index built over a table that has tuples is bulk loaded from
+     * entries sorted in spilled runs (more of them than are merged at
+     * once): its leaves are filled to the fill factor, it answers lookups
+     * like an index built by inserts, and splits as usual when inserted
+     * into afterwards. A load given entries out of order leaves the index
+     * empty.
+     */
+    @Test public void bulkLoad() throws Exception {
+        File dir = hf.getFile().getAbsoluteFile().getParentFile();
+        new File(dir, "bt_c1_full.idx").deleteOnExit();
+        new File(dir, "bt_c1_half.idx").deleteOnExit();
+        Parser p = new Parser();
+        IndexBuilder.setSortEntries(ROWS / (2 * ExternalSort.MAX_FAN_IN));
+        try {
+            assertTrue(p.handleUtilityStatement("create index bt_c1_full on bt (c1) with (fillfactor = 100);"));
+            assertTrue(p.handleUtilityStatement("CREATE INDEX bt_c1_half ON bt (c1) WITH (FILLFACTOR=50);"));
+        } finally {
+            IndexBuilder.setSortEntries(IndexBuilder.DEFAULT_SORT_ENTRIES);
+        }
+        BTreeFile full = (BTreeFile) Database.getCatalog().getIndex("bt_c1_full");
+        BTreeFile half = (BTreeFile) Database.getCatalog().getIndex("bt_c1_half");
+        int perLeaf = BTreeLeafPage.getMaxEntries(full.getTupleDesc(), BufferPool.PAGE_SIZE);
+        assertEquals(2, full.getHeight());
+        assertEquals(2 + (ROWS + perLeaf - 1) / perLeaf, full.numPages()); //page 0, the leaves, the root
+        assertEquals(2 + (ROWS + perLeaf / 2 - 1) / (perLeaf / 2), half.numPages());
+
+        ArrayList<Integer> want = new ArrayList<Integer>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) >= 100 && t.get(1) <= 200) want.add(t.get(1));
+        }
+        Collections.sort(want);
+        assertEquals(want, range(full, 100, 200));
+        assertEquals(want, range(half, 100, 200));
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { i, 150 }));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        int more = 0;
+        for (int key : want) if (key == 150) more++;
+        assertEquals(want.size() + 1000, range(full, 100, 200).size());
+        assertEquals(more + 1000, range(half, 150, 150).size());
+
+        try {
+            p.handleUtilityStatement("create index bt_c1_hash on bt using hash (c1) with (fillfactor = 50);");
+            fail("only a B+ tree has a fill factor");
+        } catch (ParsingException expected) {
+        }
+        Database.getCatalog().removeIndex("bt_c1_full");
+        Database.getCatalog().removeIndex("bt_c1_half");
+        full.close();
+        half.close();
+
+        File f = File.createTempFile("btree", ".idx");
+        f.deleteOnExit();
+        BTreeFile bad = new BTreeFile(f, hf.getId(), 1);
+        Database.getCatalog().addIndex(bad, "bt_bad");
+        Tuple a = Utility.getHeapTuple(new int[] { 0, 2 });
+        a.setRecordId(new RecordId(new HeapPageId(hf.getId(), 0), 0));
+        Tuple b = Utility.getHeapTuple(new int[] { 0, 1 });
+        b.setRecordId(new RecordId(new HeapPageId(hf.getId(), 0), 1));
+        try {
+            bad.bulkLoad(Arrays.asList(bad.entryFor(a), bad.entryFor(b)).iterator(), 100);
+            fail("entries out of order should be refused");
+        } catch (DbException expected) {
+        }
+        assertTrue(bad.isEmpty());
+        Database.getCatalog().removeIndex("bt_bad");
+        bad.close();
+    }
+
+    /**
+     * CREATE INDEX builds and registers an index, which the planner then
+     * uses for equality filters on its key.
+     */
+    @Test public void createIndex() throws Exception {
+        //a key one tuple has, so reading it through an index beats scanning the table
+        int key = MAX_VALUE;
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { 0, key }));
+        Database.getBufferPool().transactionComplete(tid);
+        new File(hf.getFile().getAbsoluteFile().getParentFile(), "bt_c1.idx").deleteOnExit();
+        Parser p = new Parser();
+        assertTrue(p.handleUtilityStatement("CREATE INDEX bt_c1 ON bt (c1);"));
+        IndexFile byC1 = Database.getCatalog().getIndex("bt_c1");
+        assertEquals(1, byC1.getKeyField());
+        assertEquals(2, Database.getCatalog().getIndexes(hf.getId()).size());
+        try {
+            p.handleUtilityStatement("CREATE INDEX bt_c1 ON bt (c0);");
+            fail("expected a duplicate index name to be refused");
+        } catch (ParsingException e) {
+            //expected
+        }
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "b");
+        lp.addProjectField("b.c0", null);
+        lp.addFilter("b.c1", Predicate.Op.EQUALS, "" + key);
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("bt", new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+        tid = new TransactionId();
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        DbIterator node = plan;
+        while (node instanceof Operator) node = ((Operator) node).getChildren()[0];
+        assertTrue(node instanceof IndexScan);
+        assertSame(byC1, ((IndexScan) node).getIndex());
+
+        plan.open();
+        int n = 0;
+        for (; plan.hasNext(); n++) plan.next();
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1, n);
+        byC1.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeTest.class);
+    }
+}
@@ -0,0 +1,341 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BitmapFileTest extends SimpleDbTestBase {
+    private static final int ROWS = 20000;
+    private static final int MAX_VALUE = 4;
+
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private BitmapFile[] indexes;
+
+    /**
+     * Set up initial resources for each unit test: a 4 column table of
+     * small values, with a bitmap index on each of its first three columns.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(4, ROWS, MAX_VALUE, null, tuples, "c");
+        Database.getCatalog().addTable(hf, "bt");
+        indexes = new BitmapFile[3];
+        for (int i = 0; i < indexes.length; i++) {
+            File f = File.createTempFile("bitmap", ".idx");
+            f.deleteOnExit();
+            indexes[i] = new BitmapFile(f, hf.getId(), i);
+            Database.getCatalog().addIndex(indexes[i], "bt_c" + i);
+            assertEquals(ROWS, IndexBuilder.build(indexes[i]));
+        }
+    }
+
+    @After public void tearDown() throws Exception {
+        for (BitmapFile index : indexes) index.close();
+        hf.close();
+    }
+
+    private static Predicate pred(Predicate.Op op, int v) {
+        return new Predicate(0, op, new IntField(v));
+    }
+
+    /** @return the number of tuples whose field field satisfies p */
+    private int count(int field, Predicate p) {
+        int n = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (p.filter(Utility.getHeapTuple(t.get(field)))) n++;
+        }
+        return n;
+    }
+
+    /**
+     * Lookups with any operator return the matching entries, in RecordId
+     * order.
+     */
+    @Test public void lookups() throws Exception {
+        assertEquals(MAX_VALUE, indexes[0].getNumValues());
+        assertTrue(indexes[0].getPagesPerChunk() > 1);
+        Predicate[] preds = { pred(Predicate.Op.EQUALS, 2), pred(Predicate.Op.LESS_THAN, 2),
+                pred(Predicate.Op.NOT_EQUALS, 0), pred(Predicate.Op.GREATER_THAN, MAX_VALUE) };
+        for (Predicate p : preds) {
+            TransactionId tid = new TransactionId();
+            DbFileIterator it = indexes[0].lookup(tid, Arrays.asList(p));
+            it.open();
+            int n = 0;
+            int lastPage = -1, lastSlot = -1;
+            while (it.hasNext()) {
+                Tuple e = it.next();
+                assertTrue(p.filter(e));
+                RecordId rid = e.getRecordId();
+                int pg = rid.getPageId().pageNumber();
+                assertTrue(pg > lastPage || (pg == lastPage && rid.tupleno() > lastSlot));
+                lastPage = pg;
+                lastSlot = rid.tupleno();
+                assertEquals(e.getField(0), hf.getTuple(tid, rid).getField(0));
+                n++;
+            }
+            it.close();
+            Database.getBufferPool().transactionComplete(tid);
+            assertEquals(count(0, p), n);
+        }
+    }
+
+    /**
+     * Each bitmap is stored as an array, runs or plain bits, whichever is
+     * smallest, and reads back the same.
+     */
+    @Test public void encodings() throws Exception {
+        BitmapPageId pid = new BitmapPageId(indexes[0].getId(), 1);
+        BitmapChunkPage p = new BitmapChunkPage(pid, new byte[BufferPool.PAGE_SIZE]);
+        int bits = indexes[0].getPagesPerChunk() * indexes[0].getSlotsPerPage();
+        for (int pos = 0; pos < bits; pos += 100) p.set(0, pos); //sparse
+        for (int pos = 10; pos < 60; pos++) p.set(1, pos); //one run
+        for (int pos = 1; pos < bits; pos += 3) p.set(2, pos); //dense
+        byte[] data = p.getPageData();
+        int offset = 3;
+        byte[] kinds = { BitmapChunkPage.ARRAY, BitmapChunkPage.RUNS, BitmapChunkPage.BITS };
+        int[] sizes = { 2 + 2 * ((bits + 99) / 100), 2 + 4, (bits + 7) / 8 };
+        for (int v = 0; v < 3; v++) {
+            assertEquals(v, data[offset + 1]);
+            assertEquals(kinds[v], data[offset + 2]);
+            offset += 3 + sizes[v];
+        }
+        BitmapChunkPage copy = new BitmapChunkPage(pid, data);
+        for (int v = 0; v < 4; v++) assertEquals(p.getBitmap(v), copy.getBitmap(v));
+        assertTrue(copy.getBitmap(3).isEmpty());
+    }
+
+    private ArrayList<ArrayList<Integer>> expected(Predicate[] preds, boolean and) {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            boolean pass = and;
+            for (int i = 0; i < preds.length; i++) {
+                boolean p = preds[i].filter(Utility.getHeapTuple(t.get(i)));
+                pass = and ? pass && p : pass || p;
+            }
+            if (pass) rows.add(t);
+        }
+        return rows;
+    }
+
+    /**
+     * A BitmapScan ANDs or ORs the bitmaps of predicates on several fields,
+     * and reads no table page when no tuple can qualify.
+     */
+    @Test public void combine() throws Exception {
+        Predicate[] preds = { pred(Predicate.Op.EQUALS, 1), pred(Predicate.Op.NOT_EQUALS, 3),
+                pred(Predicate.Op.LESS_THAN, 2) };
+        for (boolean and : new boolean[] { true, false }) {
+            TransactionId tid = new TransactionId();
+            BitmapScan scan = new BitmapScan(tid, "bt", Arrays.asList(indexes), Arrays.asList(preds), and);
+            assertEquals("bt.c3", scan.getTupleDesc().getFieldName(3));
+            SystemTestUtil.matchTuples(scan, expected(preds, and));
+            Database.getBufferPool().transactionComplete(tid);
+        }
+
+        TransactionId tid = new TransactionId();
+        BitmapScan none = new BitmapScan(tid, "bt", Arrays.asList(indexes[0], indexes[1]),
+                Arrays.asList(pred(Predicate.Op.EQUALS, 1), pred(Predicate.Op.GREATER_THAN, MAX_VALUE)), true);
+        none.open();
+        assertFalse(none.hasNext());
+        none.close();
+        for (int pg = 0; pg < hf.numPages(); pg++) {
+            assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), pg)));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** @return the number of tuples the index finds with key v */
+    private int lookup(BitmapFile index, int v) throws Exception {
+        TransactionId tid = new TransactionId();
+        BitSet b = index.bitmap(tid, 0, hf.numPages(), Arrays.asList(pred(Predicate.Op.EQUALS, v)));
+        Database.getBufferPool().transactionComplete(tid);
+        return b.cardinality();
+    }
+
+    /**
+     * Inserts and deletes through the BufferPool keep the bitmaps in step
+     * with the table, and an abort rolls them back.
+     */
+    @Test public void maintenance() throws Exception {
+        int before = lookup(indexes[2], 1);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 50; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { 0, 0, 1, -1 }));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(before + 50, lookup(indexes[2], 1));
+
+        tid = new TransactionId();
+        IndexScan scan = new IndexScan(tid, indexes[2], "bt", Arrays.asList(pred(Predicate.Op.EQUALS, 1)));
+        scan.open();
+        ArrayList<Tuple> doomed = new ArrayList<Tuple>();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            if (t.getInt(3) < 0) doomed.add(t);
+        }
+        scan.close();
+        assertEquals(50, doomed.size());
+        for (Tuple t : doomed) Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(before, lookup(indexes[2], 1));
+
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { 0, 0, MAX_VALUE, 0 }));
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(MAX_VALUE, indexes[2].getNumValues());
+        assertEquals(0, lookup(indexes[2], MAX_VALUE));
+    }
+
+    /** @return the scan at the bottom of the plan for filter c3 = v on the table, after running it */
+    private DbIterator planC3(int v, int want) throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "b");
+        lp.addProjectField("b.c0", null);
+        lp.addFilter("b.c3", Predicate.Op.EQUALS, "" + v);
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("bt", new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+        TransactionId tid = new TransactionId();
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        plan.open();
+        int n = 0;
+        for (; plan.hasNext(); n++) plan.next();
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(want, n);
+        DbIterator node = plan;
+        while (node instanceof Operator) node = ((Operator) node).getChildren()[0];
+        return node;
+    }
+
+    /**
+     * A tuple with a value past an index's limit is still inserted into
+     * the table; the index is marked unusable, for good, and queries scan
+     * the table instead. CREATE INDEX ... WITH (MAXVALUES = n) sets the
+     * limit, and refuses to build an index the table already overflows.
+     */
+    @Test public void overflow() throws Exception {
+        File f = File.createTempFile("bitmap", ".idx");
+        f.deleteOnExit();
+        BitmapFile small = new BitmapFile(f, hf.getId(), 3, MAX_VALUE, BufferPool.PAGE_SIZE);
+        Database.getCatalog().addIndex(small, "bt_c3");
+        IndexBuilder.build(small);
+        assertTrue(small.isUsable());
+        assertTrue(planC3(MAX_VALUE, 0) instanceof BitmapScan);
+
+        TransactionId tid = new TransactionId();
+        Tuple big = Utility.getHeapTuple(new int[] { 0, 0, 0, MAX_VALUE });
+        Database.getBufferPool().insertTuple(tid, hf.getId(), big);
+        assertFalse(small.isUsable());
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(planC3(MAX_VALUE, 1) instanceof SeqScan);
+
+        tid = new TransactionId();
+        Database.getBufferPool().deleteTuple(tid, big);
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(planC3(MAX_VALUE, 0) instanceof SeqScan);
+        Database.getCatalog().removeIndex("bt_c3");
+        small.close();
+        small = new BitmapFile(f, hf.getId(), 3);
+        assertFalse(small.isUsable());
+        small.close();
+
+        File dir = hf.getFile().getAbsoluteFile().getParentFile();
+        new File(dir, "bt_few.idx").deleteOnExit();
+        try {
+            new Parser().handleUtilityStatement("create index bt_few on bt using bitmap (c3) with (maxvalues = 2);");
+            fail("an index the table overflows should not be created");
+        } catch (ParsingException expected) {
+        }
+        try {
+            Database.getCatalog().getIndex("bt_few");
+            fail("the index should have been dropped");
+        } catch (java.util.NoSuchElementException expected) {
+        }
+        assertTrue(new Parser().handleUtilityStatement("create index bt_few on bt using bitmap (c3) with (maxvalues = 8);"));
+        BitmapFile few = (BitmapFile) Database.getCatalog().getIndex("bt_few");
+        assertEquals(8, few.getMaxValues());
+        assertEquals(MAX_VALUE, few.getNumValues());
+        assertTrue(few.isUsable());
+        Database.getCatalog().removeIndex("bt_few");
+    }
+
+    /** @return the scan at the bottom of the plan for filters c0 = v0 and c1 = v1 on the table, after running it */
+    private DbIterator plan(int v0, int v1, int want) throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "b");
+        lp.addProjectField("b.c3", null);
+        lp.addFilter("b.c0", Predicate.Op.EQUALS, "" + v0);
+        lp.addFilter("b.c1", Predicate.Op.EQUALS, "" + v1);
+        lp.addFilter("b.c3", Predicate.Op.LESS_THAN, "2");
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("bt", new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+        TransactionId tid = new TransactionId();
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        plan.open();
+        int n = 0;
+        for (; plan.hasNext(); n++) plan.next();
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(want, n);
+        DbIterator node = plan;
+        while (node instanceof Operator) node = ((Operator) node).getChildren()[0];
+        return node;
+    }
+
+    /**
+     * CREATE INDEX ... USING BITMAP builds a bitmap index, and the planner
+     * answers filters on two bitmap indexed fields that few tuples pass
+     * with a BitmapScan combining both, but scans the table when the
+     * tuples that pass are on most of its pages anyway.
+     */
+    @Test public void planner() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 40; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(),
+                    Utility.getHeapTuple(new int[] { MAX_VALUE + 1, MAX_VALUE + 1, 0, 0 }));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.getCatalog().removeIndex("bt_c1");
+        File dir = hf.getFile().getAbsoluteFile().getParentFile();
+        new File(dir, "bt_flag.idx").deleteOnExit();
+        assertTrue(new Parser().handleUtilityStatement("create index bt_flag on bt using bitmap (c1);"));
+        IndexFile byC1 = Database.getCatalog().getIndex("bt_flag");
+        assertTrue(byC1 instanceof BitmapFile);
+
+        DbIterator node = plan(MAX_VALUE + 1, MAX_VALUE + 1, 40);
+        assertTrue(node instanceof BitmapScan);
+        List<BitmapFile> used = ((BitmapScan) node).getIndexes();
+        assertEquals(2, used.size());
+        assertTrue(used.contains(indexes[0]) && used.contains(byC1));
+
+        int want = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) == 2 && t.get(1) == 0 && t.get(3) < 2) want++;
+        }
+        assertTrue(plan(2, 0, want) instanceof SeqScan);
+        Database.getCatalog().removeIndex("bt_flag");
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BitmapFileTest.class);
+    }
+}
@@ -0,0 +1,211 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BufferPoolTest extends SimpleDbTestBase {
+    private BufferPool bp;
+
+    /** A HeapFile with a table id of the test's choosing, whose reads and writes can be made to fail. */
+    private static class FixedIdHeapFile extends HeapFile {
+        private final int id;
+        boolean failReads;
+        boolean failWrites;
+
+        FixedIdHeapFile(File f, TupleDesc td, int id) {
+            super(f, td);
+            this.id = id;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        //overriding readPage also keeps the pool from reading pages through PageIO (see readsPagesAsIs)
+        public Page readPage(PageId pid) {
+            if (failReads) throw new IllegalStateException("corrupt page");
+            return super.readPage(pid);
+        }
+
+        public void writePages(List<Page> pages) throws IOException {
+            if (failWrites) throw new IOException("disk full");
+            super.writePages(pages);
+        }
+    }
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /** @return a one page table with the given id, holding one tuple with the given value */
+    private FixedIdHeapFile table(int id, int value) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        tuples.add(new ArrayList<Integer>(Arrays.asList(value)));
+        File f = File.createTempFile("pool", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, 1);
+        FixedIdHeapFile hf = new FixedIdHeapFile(f, Utility.getTupleDesc(1), id);
+        Database.getCatalog().addTable(hf, "pool" + id);
+        return hf;
+    }
+
+    /** @return the value of the first tuple on page */
+    private static int first(Page page) {
+        return ((IntField) ((HeapPage) page).iterator().next().getField(0)).getValue();
+    }
+
+    /**
+     * Pages whose ids hash alike (page 0 of tables 0 and 65536 both hash to
+     * 0) are still different pages, cached side by side.
+     */
+    @Test public void collidingPageIds() throws Exception {
+        PageId a = new HeapPageId(table(0, 1).getId(), 0);
+        PageId b = new HeapPageId(table(65536, 2).getId(), 0);
+        assertEquals(a.hashCode(), b.hashCode());
+        TransactionId tid = new TransactionId();
+        assertEquals(1, first(bp.getPage(tid, a, Permissions.READ_ONLY)));
+        assertEquals(2, first(bp.getPage(tid, b, Permissions.READ_ONLY)));
+        assertEquals(2 * BufferPool.PAGE_SIZE, bp.getUsedBytes());
+        assertEquals(1, first(bp.getPage(tid, a, Permissions.READ_ONLY)));
+        bp.discardPage(b);
+        assertEquals(BufferPool.PAGE_SIZE, bp.getUsedBytes());
+        assertEquals(1, first(bp.getPage(tid, a, Permissions.READ_ONLY)));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Transactions reading cached pages at the same time all get shared
+     * locks on them and the cached copies, and release their locks when
+     * they complete.
+     */
+    @Test public void concurrentHits() throws Exception {
+        final HeapFile hf = table(7, 42);
+        final PageId pid = new HeapPageId(hf.getId(), 0);
+        final Page cached = bp.getPage(new TransactionId(), pid, Permissions.READ_ONLY);
+        final AtomicInteger hits = new AtomicInteger();
+        Thread[] readers = new Thread[8];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < 100; j++) {
+                            TransactionId tid = new TransactionId();
+                            if (bp.getPage(tid, pid, Permissions.READ_ONLY) == cached) hits.incrementAndGet();
+                            bp.transactionComplete(tid);
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+            readers[i].start();
+        }
+        for (Thread t : readers) t.join();
+        assertEquals(readers.length * 100, hits.get());
+    }
+
+    /**
+     * A transaction waiting to insert into a page another one holds does
+     * not keep that one from committing: it gets the page once the other
+     * commits, and both tuples end up on it.
+     */
+    @Test public void insertsIntoOnePage() throws Exception {
+        final HeapFile hf = table(9, 1);
+        TransactionId first = new TransactionId();
+        bp.insertTuple(first, hf.getId(), Utility.getHeapTuple(2, 1));
+        final TransactionId second = new TransactionId();
+        final Exception[] failed = new Exception[1];
+        Thread inserter = new Thread() {
+            public void run() {
+                try {
+                    bp.insertTuple(second, hf.getId(), Utility.getHeapTuple(3, 1));
+                } catch (Exception e) {
+                    failed[0] = e;
+                }
+            }
+        };
+        inserter.start();
+        Thread.sleep(100);
+        long start = System.currentTimeMillis();
+        bp.transactionComplete(first);
+        assertTrue(System.currentTimeMillis() - start < 300);
+        inserter.join();
+        assertNull(failed[0]);
+        bp.transactionComplete(second);
+
+        assertEquals(1, hf.numPages());
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        int tuples = 0;
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); it.next()) tuples++;
+        assertEquals(3, tuples);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Pages whose write fails stay dirty, so a later flush writes them.
+     */
+    @Test public void failedWriteBack() throws Exception {
+        FixedIdHeapFile hf = table(11, 1);
+        TransactionId tid = new TransactionId();
+        bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(2, 1));
+        PageId pid = new HeapPageId(hf.getId(), 0);
+        hf.failWrites = true;
+        try {
+            bp.flushAllPages();
+            fail("the write should have failed");
+        } catch (IOException expected) {
+        }
+        assertNotNull(bp.getPage(tid, pid, Permissions.READ_ONLY).isDirty());
+
+        hf.failWrites = false;
+        bp.flushAllPages();
+        assertNull(bp.getPage(tid, pid, Permissions.READ_ONLY).isDirty());
+        bp.transactionComplete(tid);
+        int tuples = 0;
+        for (Iterator<Tuple> it = ((HeapPage) hf.readPage(pid)).iterator(); it.hasNext(); it.next()) tuples++;
+        assertEquals(2, tuples);
+    }
+
+    /**
+     * A page that cannot be read throws out of getPage, as readPage did,
+     * and the lock taken for it is given back.
+     */
+    @Test public void failedRead() throws Exception {
+        FixedIdHeapFile hf = table(12, 1);
+        PageId pid = new HeapPageId(hf.getId(), 0);
+        TransactionId tid = new TransactionId();
+        hf.failReads = true;
+        try {
+            bp.getPage(tid, pid, Permissions.READ_WRITE);
+            fail("the read should have failed");
+        } catch (IllegalStateException expected) {
+        }
+        assertFalse(bp.holdsLock(tid, pid));
+
+        hf.failReads = false;
+        assertEquals(1, first(bp.getPage(tid, pid, Permissions.READ_ONLY)));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolTest.class);
+    }
+}
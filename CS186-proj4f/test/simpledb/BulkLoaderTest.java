@@ -0,0 +1,216 @@
+package simpledb;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BulkLoaderTest extends SimpleDbTestBase {
+    private File csv;
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    /**
+     * Set up initial resources for each unit test: a 2 column table with one
+     * empty page, and a csv file of more than two extents of rows for it.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        File f = File.createTempFile("bulk", ".dat");
+        f.deleteOnExit();
+        hf = Utility.createEmptyHeapFile(f.getPath(), 2);
+        Database.getCatalog().addTable(hf, "bulk");
+
+        csv = File.createTempFile("bulk", ".txt");
+        csv.deleteOnExit();
+        int rows = HeapPage.getNumTuples(hf.getTupleDesc()) * BulkLoader.EXTENT_PAGES * 2 + 1000;
+        tuples = new ArrayList<ArrayList<Integer>>();
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(csv)));
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            t.add(i);
+            t.add(i % 97);
+            tuples.add(t);
+            out.println(i + ", " + (i % 97));
+            if (i == 10) out.println("eleven,11");
+        }
+        out.close();
+    }
+
+    @After public void tearDown() throws Exception {
+        hf.close();
+    }
+
+    /**
+     * A parallel load appends every good row after the existing pages, and
+     * logs one record per extent.
+     */
+    @Test public void load() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        int records = Database.getLogFile().getTotalRecords();
+        BulkLoader loader = new BulkLoader(hf).setThreads(4);
+        assertEquals(tuples.size(), loader.load(csv, t.getId()));
+        assertEquals(1, loader.getRejected());
+        assertEquals(3, Database.getLogFile().getTotalRecords() - records);
+        t.commit();
+
+        int perPage = HeapPage.getNumTuples(hf.getTupleDesc());
+        assertEquals(1 + (tuples.size() + perPage - 1) / perPage, hf.numPages());
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * A load that fails part way through leaves the table as it was.
+     */
+    @Test public void failedLoad() throws Exception {
+        final BufferedReader good = new BufferedReader(new FileReader(csv));
+        BufferedReader failing = new BufferedReader(new Reader() {
+            int read = 0;
+            public int read(char[] buf, int off, int len) throws IOException {
+                if (read > 500000) throw new IOException("disk on fire");
+                int n = good.read(buf, off, len);
+                read += Math.max(n, 0);
+                return n;
+            }
+            public void close() throws IOException {
+                good.close();
+            }
+        });
+        try {
+            new BulkLoader(hf).load(failing, null);
+            fail("expected the load to fail");
+        } catch (IOException e) {
+            // expected
+        }
+        failing.close();
+        assertEquals(1, hf.numPages());
+        assertEquals(hf.numPages() * BufferPool.PAGE_SIZE, hf.getFile().length());
+    }
+
+    /**
+     * A load that fails after concurrent inserts appended a page behind one
+     * of its extents undoes only its own extents: the inserts, already
+     * committed, survive, and no loaded row is left behind, even in the
+     * pool.
+     */
+    @Test public void failedLoadWithInsert() throws Exception {
+        final int perPage = HeapPage.getNumTuples(hf.getTupleDesc());
+        final int perExtent = perPage * BulkLoader.EXTENT_PAGES;
+        final ArrayList<ArrayList<Integer>> inserted = new ArrayList<ArrayList<Integer>>();
+        BufferedReader failing = new BufferedReader(new Reader() {
+            int lines = 0;
+            String line = "";
+            int pos = 0;
+            public int read(char[] buf, int off, int len) throws IOException {
+                if (pos == line.length()) {
+                    if (lines == 3 * perExtent) throw new IOException("disk on fire");
+                    if (lines == 2 * perExtent) insert(); //the first extent is written by now
+                    line = lines + "," + (lines % 97) + "\n";
+                    pos = 0;
+                    lines++;
+                }
+                buf[off] = line.charAt(pos++);
+                return 1;
+            }
+            /** fills the empty page 0, and appends a page after the first extent */
+            void insert() throws IOException {
+                try {
+                    assertEquals(1 + BulkLoader.EXTENT_PAGES, hf.numPages());
+                    TransactionId tid = new TransactionId();
+                    Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), 1), Permissions.READ_ONLY);
+                    for (int i = 0; i <= perPage; i++) {
+                        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { -i, -i }));
+                        inserted.add(new ArrayList<Integer>(Arrays.asList(-i, -i)));
+                    }
+                    Database.getBufferPool().transactionComplete(tid);
+                    assertEquals(2 + BulkLoader.EXTENT_PAGES, hf.numPages());
+                } catch (Exception e) {
+                    throw new IOException(e.toString());
+                }
+            }
+            public void close() {
+            }
+        }, 1);
+        try {
+            new BulkLoader(hf).setThreads(1).load(failing, null);
+            fail("expected the load to fail");
+        } catch (IOException e) {
+            assertEquals("disk on fire", e.getMessage());
+        }
+        assertEquals(2 + BulkLoader.EXTENT_PAGES, hf.numPages());
+        SystemTestUtil.matchTuples(hf, inserted);
+    }
+
+    /**
+     * Only plain heap files can be bulk loaded.
+     */
+    @Test(expected = DbException.class) public void slottedFile() throws Exception {
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        new BulkLoader(new SlottedHeapFile(f, Utility.getTupleDesc(2)));
+    }
+
+    /**
+     * The LOAD statement loads a file into a table by name.
+     */
+    @Test public void parserLoad() throws Exception {
+        File small = File.createTempFile("bulk", ".txt");
+        small.deleteOnExit();
+        PrintWriter out = new PrintWriter(new FileWriter(small));
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 100; i++) {
+            out.println(i + "|" + (-i));
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            t.add(i);
+            t.add(-i);
+            expected.add(t);
+        }
+        out.close();
+
+        Parser p = new Parser();
+        assertTrue(p.handleUtilityStatement("load '" + small.getPath() + "' into bulk separator '|';"));
+        assertFalse(p.handleUtilityStatement("select * from bulk;"));
+        SystemTestUtil.matchTuples(hf, expected);
+    }
+
+    /**
+     * A query file runs LOAD, like every statement in it, the way the
+     * interactive prompt would.
+     */
+    @Test public void scriptLoad() throws Exception {
+        File small = File.createTempFile("bulk", ".txt");
+        small.deleteOnExit();
+        PrintWriter out = new PrintWriter(new FileWriter(small));
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 10; i++) {
+            out.println(i + "," + (2 * i));
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            t.add(i);
+            t.add(2 * i);
+            expected.add(t);
+        }
+        out.close();
+
+        new Parser().processStatements(new StringReader("load '" + small.getPath() + "'\n  into bulk;\n"
+                + "load '" + small.getPath() + "' into bulk; quit;\nload '" + small.getPath() + "' into bulk;\n"));
+        expected.addAll(new ArrayList<ArrayList<Integer>>(expected));
+        SystemTestUtil.matchTuples(hf, expected);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoaderTest.class);
+    }
+}
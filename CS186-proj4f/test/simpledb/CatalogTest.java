@@ -1,7 +1,11 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.FileWriter;
 import java.util.NoSuchElementException;
 
 import junit.framework.Assert;
@@ -68,6 +72,51 @@ public class CatalogTest extends SimpleDbTestBase {
         assertEquals(-1, f.getId());
     }
 
+    /**
+     * Unit test for table options in Catalog.loadSchema()
+     */
+    @Test public void loadSchemaOptions() throws Exception {
+        File schema = File.createTempFile("catalog", ".txt");
+        schema.deleteOnExit();
+        FileWriter w = new FileWriter(schema);
+        w.write("plain (a int, b string)\n");
+        w.write("mapped (a int pk, b int) mmap\n");
+        w.write("names (a int, b string) slotted mmap\n");
+        w.write("archive (a int, b int) compressed\n");
+        w.write("facts (a int, b int) pagesize=32k\n");
+        w.write("hot (a int, b string) slotted pagesize=1024\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+
+        HeapFile plain = (HeapFile) Database.getCatalog().getDbFile(Database.getCatalog().getTableId("plain"));
+        HeapFile mapped = (HeapFile) Database.getCatalog().getDbFile(Database.getCatalog().getTableId("mapped"));
+        assertFalse(plain.isMemoryMapped());
+        assertTrue(mapped.isMemoryMapped());
+        assertEquals("a", Database.getCatalog().getPrimaryKey(mapped.getId()));
+        HeapFile names = (HeapFile) Database.getCatalog().getDbFile(Database.getCatalog().getTableId("names"));
+        assertTrue(names instanceof SlottedHeapFile);
+        assertTrue(names.isMemoryMapped());
+        assertFalse(plain instanceof SlottedHeapFile);
+        assertTrue(Database.getCatalog().getDbFile(Database.getCatalog().getTableId("archive")) instanceof CompressedHeapFile);
+        assertEquals(BufferPool.PAGE_SIZE, plain.getPageSize());
+        assertEquals(32768, Database.getCatalog().getDbFile(Database.getCatalog().getTableId("facts")).getPageSize());
+        DbFile hot = Database.getCatalog().getDbFile(Database.getCatalog().getTableId("hot"));
+        assertTrue(hot instanceof SlottedHeapFile);
+        assertEquals(1024, hot.getPageSize());
+    }
+
+    /**
+     * Unit test for the pagesize table option's values
+     */
+    @Test public void parsePageSize() {
+        assertEquals(65536, Catalog.parsePageSize("64k"));
+        assertEquals(512, Catalog.parsePageSize("512"));
+        assertEquals(-1, Catalog.parsePageSize("3000"));
+        assertEquals(-1, Catalog.parsePageSize("128k"));
+        assertEquals(-1, Catalog.parsePageSize("256"));
+        assertEquals(-1, Catalog.parsePageSize("big"));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,282 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ColumnFileTest extends SimpleDbTestBase {
+    private static final int ROWS = 2000;
+
+    private ColumnFile cf;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test: a 4 column table (int,
+     * string, int, int) holding ROWS rows.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        TupleDesc td = new TupleDesc(
+                new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE, Type.INT_TYPE },
+                new String[] { "a", "b", "c", "d" });
+        File f = File.createTempFile("columns", ".dat");
+        f.deleteOnExit();
+        cf = new ColumnFile(f, td);
+        Database.getCatalog().addTable(cf, "cols");
+
+        tid = new TransactionId();
+        for (int i = 0; i < ROWS; ++i) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("s" + i, Type.STRING_LEN));
+            t.setField(2, new IntField(i * 2));
+            t.setField(3, new IntField(i % 7));
+            Database.getBufferPool().insertTuple(tid, cf.getId(), t);
+            if (i % 200 == 199) { //no steal: keep each transaction's dirty pages within the pool
+                Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        cf.close();
+        for (int c = 0; c < 4; c++) cf.getColumnFile(c).delete();
+    }
+
+    /**
+     * A full scan returns every row with every column.
+     */
+    @Test public void scanAll() throws Exception {
+        DbFileIterator it = cf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int a = ((IntField) t.getField(0)).getValue();
+            assertEquals(count, a);
+            assertEquals("s" + a, ((StringField) t.getField(1)).getValue());
+            assertEquals(2 * a, ((IntField) t.getField(2)).getValue());
+            count++;
+        }
+        it.close();
+        assertEquals(ROWS, count);
+    }
+
+    /**
+     * Scanning two columns touches only those columns' pages.
+     */
+    @Test public void projectedScan() throws Exception {
+        SeqScan scan = new SeqScan(tid, cf.getId(), "x", new int[] { 3, 0 });
+        assertEquals(2, scan.getTupleDesc().numFields());
+        assertEquals("x.d", scan.getTupleDesc().getFieldName(0));
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertEquals(((IntField) t.getField(1)).getValue() % 7, ((IntField) t.getField(0)).getValue());
+            count++;
+        }
+        scan.close();
+        assertEquals(ROWS, count);
+
+        BufferPool bp = Database.getBufferPool();
+        assertTrue(bp.holdsLock(tid, new ColumnPageId(cf.getId(), 0, 0)));
+        assertTrue(bp.holdsLock(tid, new ColumnPageId(cf.getId(), 3, 0)));
+        for (int c = 1; c <= 2; c++) {
+            for (int p = 0; p < cf.numPages(c); p++) {
+                assertFalse(bp.holdsLock(tid, new ColumnPageId(cf.getId(), c, p)));
+            }
+        }
+    }
+
+    /**
+     * Deleting a tuple read through any column removes the whole row.
+     */
+    @Test public void delete() throws Exception {
+        DbFileIterator it = cf.iterator(tid, new int[] { 2 });
+        it.open();
+        Tuple victim = null;
+        for (int i = 0; i <= 1500; i++) victim = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, victim);
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        it = cf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            assertTrue(((IntField) it.next().getField(0)).getValue() != 1500);
+            count++;
+        }
+        it.close();
+        assertEquals(ROWS - 1, count);
+    }
+
+    /** @return the number of rows a full scan of table returns */
+    private int count(ColumnFile table) throws Exception {
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        int count = 0;
+        for (; it.hasNext(); it.next()) count++;
+        it.close();
+        return count;
+    }
+
+    /**
+     * An insert whose later column fails leaves nothing behind once it is
+     * aborted, not even the columns it already wrote.
+     */
+    @Test public void failedInsert() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        Tuple t = new Tuple(cf.getTupleDesc());
+        t.setField(0, new IntField(-1));
+        t.setField(1, new StringField("bad", Type.STRING_LEN));
+        t.setField(2, new StringField("not an int", Type.STRING_LEN));
+        t.setField(3, new IntField(0));
+        try {
+            Database.getBufferPool().insertTuple(tid, cf.getId(), t);
+            fail("column c should refuse a string");
+        } catch (DbException expected) {
+        }
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        assertEquals(ROWS, count(cf));
+    }
+
+    /**
+     * Transactions inserting into the same table at once, starting from an
+     * empty one, each get rows of their own.
+     */
+    @Test public void concurrentInserts() throws Exception {
+        File f = File.createTempFile("columns", ".dat");
+        f.deleteOnExit();
+        final ColumnFile empty = new ColumnFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(empty, "empty_cols");
+        final int perThread = 300;
+        final Exception[] failed = new Exception[1];
+        Thread[] inserters = new Thread[4];
+        for (int i = 0; i < inserters.length; i++) {
+            final int base = i * perThread;
+            inserters[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < perThread; ) {
+                            TransactionId tid = new TransactionId();
+                            try {
+                                Database.getBufferPool().insertTuple(tid, empty.getId(),
+                                        Utility.getHeapTuple(new int[] { base + j, 0 }));
+                                Database.getBufferPool().transactionComplete(tid);
+                                j++;
+                            } catch (TransactionAbortedException e) {
+                                Database.getBufferPool().transactionComplete(tid, false);
+                            }
+                        }
+                    } catch (Exception e) {
+                        failed[0] = e;
+                    }
+                }
+            };
+            inserters[i].start();
+        }
+        for (Thread t : inserters) t.join();
+        assertNull(failed[0]);
+        assertEquals(inserters.length * perThread, count(empty));
+        empty.close();
+        for (int c = 0; c < 2; c++) empty.getColumnFile(c).delete();
+    }
+
+    /**
+     * LogicalPlan hands a columnar table's scan just the fields the query
+     * uses.
+     */
+    @Test public void projectionPushdown() throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(cf.getId(), "cols");
+        lp.addProjectField("cols.d", null);
+        lp.addFilter("cols.a", Predicate.Op.LESS_THAN, "10");
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("cols", new TableStats(cf.getId(), 1000));
+
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        DbIterator node = plan;
+        while (!(node instanceof SeqScan)) node = ((Operator) node).getChildren()[0];
+        assertArrayEquals(new int[] { 0, 3 }, ((SeqScan) node).getColumns());
+
+        plan.open();
+        ArrayList<Integer> d = new ArrayList<Integer>();
+        while (plan.hasNext()) d.add(((IntField) plan.next().getField(0)).getValue());
+        plan.close();
+        assertEquals(10, d.size());
+        assertEquals(Integer.valueOf(9 % 7), d.get(9));
+    }
+
+    /**
+     * A filter on a column other than the table's first, with only that
+     * column projected, is costed on that column's histogram: the scan's
+     * field index is mapped back to the table's.
+     */
+    @Test public void projectedFilterSelectivity() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE }, new String[] { "s", "b" });
+        File f = File.createTempFile("columns", ".dat");
+        f.deleteOnExit();
+        ColumnFile sb = new ColumnFile(f, td);
+        Database.getCatalog().addTable(sb, "sb");
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        for (int i = 0; i < 200; ++i) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField("s" + i, Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            Database.getBufferPool().insertTuple(tid, sb.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+
+        try {
+            LogicalPlan lp = new LogicalPlan();
+            lp.addScan(sb.getId(), "sb");
+            lp.addProjectField("sb.b", null);
+            lp.addFilter("sb.b", Predicate.Op.GREATER_THAN, "190");
+            HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+            stats.put("sb", new TableStats(sb.getId(), 1000));
+
+            DbIterator plan = lp.physicalPlan(tid, stats, false);
+            DbIterator node = plan;
+            while (!(node instanceof SeqScan)) node = ((Operator) node).getChildren()[0];
+            assertArrayEquals(new int[] { 1 }, ((SeqScan) node).getColumns());
+
+            plan.open();
+            int n = 0;
+            for (; plan.hasNext(); n++) assertTrue(((IntField) plan.next().getField(0)).getValue() > 190);
+            plan.close();
+            assertEquals(9, n);
+        } finally {
+            sb.close();
+            for (int c = 0; c < 2; c++) sb.getColumnFile(c).delete();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnFileTest.class);
+    }
+}
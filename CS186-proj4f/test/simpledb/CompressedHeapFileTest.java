@@ -0,0 +1,121 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+    private ArrayList<ArrayList<Integer>> tuples;
+    private File plain;
+    private CompressedHeapFile hf;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test: a compressed copy of a
+     * table of small values, which compresses well.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        plain = SystemTestUtil.createRandomHeapFileUnopened(2, 3000, 100, null, tuples);
+        File f = File.createTempFile("compressed", ".dat");
+        f.deleteOnExit();
+        CompressedHeapFile.fromHeapFile(plain, f);
+        hf = new CompressedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        hf.close();
+        FreeSpaceMap.sidecarFor(hf.getFile()).delete();
+    }
+
+    /**
+     * Pages compress, and read back exactly.
+     */
+    @Test public void readBack() throws Exception {
+        long pages = plain.length() / BufferPool.PAGE_SIZE;
+        assertEquals(pages, hf.numPages());
+        assertTrue(hf.getFile().length() * 2 < plain.length());
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        // and the same through read-ahead's multi-page read
+        ArrayList<Page> read = hf.readPages(1, 5);
+        assertEquals(5, read.size());
+        HeapFile orig = Utility.openHeapFile(2, plain);
+        for (int i = 0; i < 5; i++) {
+            assertArrayEquals(orig.readPage(new HeapPageId(orig.getId(), i + 1)).getPageData(),
+                    read.get(i).getPageData());
+        }
+    }
+
+    /**
+     * Inserts and deletes are written back compressed, growing pages move
+     * to new extents, and everything survives reopening the file.
+     */
+    @Test public void writeAndReopen() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        // random values compress worse than the originals, forcing some pages to move
+        java.util.Random r = new java.util.Random(0);
+        for (int i = 0; i < 1000; ++i) {
+            int[] values = new int[] { r.nextInt(), r.nextInt() };
+            Tuple t = Utility.getTuple(values, 2);
+            bp.insertTuple(tid, hf.getId(), t);
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(values[0]);
+            row.add(values[1]);
+            tuples.add(row);
+        }
+        bp.transactionComplete(tid);
+        bp.flushAllPages();
+
+        tid = new TransactionId();
+        Tuple gone = null;
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        gone = it.next();
+        it.close();
+        bp.deleteTuple(tid, gone);
+        tuples.remove(SystemTestUtil.tupleToList(gone));
+        bp.transactionComplete(tid);
+        bp.flushAllPages();
+        int pages = hf.numPages();
+
+        hf.close();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(pages, hf.numPages());
+        SystemTestUtil.matchTuples(hf, tuples);
+        tid = new TransactionId();
+    }
+
+    @Test public void compressRoundTrip() throws Exception {
+        byte[] empty = new byte[BufferPool.PAGE_SIZE];
+        byte[] packed = CompressedHeapFile.compress(empty);
+        assertTrue(packed.length < 100);
+        assertArrayEquals(empty, CompressedHeapFile.decompress(packed, 0, packed.length, BufferPool.PAGE_SIZE));
+
+        // incompressible pages are stored as is
+        byte[] noise = new byte[BufferPool.PAGE_SIZE];
+        new java.util.Random(1).nextBytes(noise);
+        assertSame(noise, CompressedHeapFile.compress(noise));
+        assertArrayEquals(noise, CompressedHeapFile.decompress(noise, 0, noise.length, BufferPool.PAGE_SIZE));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
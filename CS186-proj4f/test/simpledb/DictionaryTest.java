@@ -0,0 +1,177 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class DictionaryTest extends SimpleDbTestBase {
+    private static final int ROWS = 3000;
+    private static final String[] STATUS = { "new", "open", "held", "closed", "void" };
+
+    private ColumnFile cf;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test: a columnar table (int id,
+     * dictionary encoded string status) holding ROWS rows, whose statuses
+     * cycle through STATUS.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        cf = createTable("orders", ROWS);
+        tid = new TransactionId();
+    }
+
+    private ColumnFile createTable(String name, int rows) throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE },
+                new String[] { "id", "status" });
+        File f = File.createTempFile(name, ".dat");
+        f.deleteOnExit();
+        ColumnFile file = new ColumnFile(f, td, BufferPool.PAGE_SIZE, new boolean[] { false, true });
+        Database.getCatalog().addTable(file, name);
+        TransactionId t = new TransactionId();
+        for (int i = 0; i < rows; ++i) {
+            Database.getBufferPool().insertTuple(t, file.getId(), row(td, i, STATUS[i % STATUS.length]));
+            if (i % 500 == 499) { //no steal: keep each transaction's dirty pages within the pool
+                Database.getBufferPool().transactionComplete(t);
+                t = new TransactionId();
+            }
+        }
+        Database.getBufferPool().transactionComplete(t);
+        return file;
+    }
+
+    private static Tuple row(TupleDesc td, int id, String status) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(status, Type.STRING_LEN));
+        return t;
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        cf.close();
+    }
+
+    private int count(DbIterator it) throws Exception {
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    private Filter filter(Predicate.Op op, String status) {
+        return new Filter(new Predicate(1, op, new StringField(status, Type.STRING_LEN)),
+                new SeqScan(tid, cf.getId(), "o"));
+    }
+
+    /**
+     * The encoded column stores 4 byte codes, and reads back as the
+     * dictionary's DictFields, one object per distinct value.
+     */
+    @Test public void scan() throws Exception {
+        StringDictionary dict = cf.getDictionary(1);
+        assertNull(cf.getDictionary(0));
+        assertEquals(STATUS.length, dict.size());
+        int perPage = ColumnPage.getNumValues(Type.INT_TYPE, BufferPool.PAGE_SIZE);
+        assertEquals((ROWS + perPage - 1) / perPage, cf.numPages(1));
+
+        DbFileIterator it = cf.iterator(tid);
+        it.open();
+        int i = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            String s = STATUS[i % STATUS.length];
+            assertEquals(s, t.getString(1));
+            assertSame(dict.get(dict.lookup(s)), t.getField(1));
+            i++;
+        }
+        it.close();
+        assertEquals(ROWS, i);
+    }
+
+    /**
+     * The dictionary is persistent: reopening it gives the same codes.
+     */
+    @Test public void reopen() throws Exception {
+        StringDictionary dict = cf.getDictionary(1);
+        StringDictionary again = new StringDictionary(dict.getFile());
+        assertEquals(dict.size(), again.size());
+        for (String s : STATUS) assertEquals(dict.lookup(s), again.lookup(s));
+        assertEquals(-1, again.lookup("lost"));
+    }
+
+    /**
+     * Equality predicates on the encoded column compare codes, and notice a
+     * value that is added to the dictionary after they first looked.
+     */
+    @Test public void equality() throws Exception {
+        assertEquals(ROWS / STATUS.length, count(filter(Predicate.Op.EQUALS, "held")));
+        assertEquals(ROWS - ROWS / STATUS.length, count(filter(Predicate.Op.NOT_EQUALS, "held")));
+        assertEquals(ROWS / STATUS.length, count(filter(Predicate.Op.LESS_THAN, "held"))); //"closed"
+
+        Filter shipped = filter(Predicate.Op.EQUALS, "shipped");
+        assertEquals(0, count(shipped));
+        Database.getBufferPool().insertTuple(tid, cf.getId(), row(cf.getTupleDesc(), ROWS, "shipped"));
+        assertEquals(1, count(shipped));
+    }
+
+    /**
+     * Hash joins on encoded columns match by code, against another
+     * dictionary or against plain strings.
+     */
+    @Test public void join() throws Exception {
+        ColumnFile other = createTable("other", 10);
+        JoinPredicate eq = new JoinPredicate(1, Predicate.Op.EQUALS, 1);
+        DbIterator join = new HashEquiJoin(eq, new SeqScan(tid, cf.getId(), "o"), new SeqScan(tid, other.getId(), "p"));
+        assertEquals(ROWS * (10 / STATUS.length), count(join));
+
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE });
+        ArrayList<Tuple> strings = new ArrayList<Tuple>();
+        for (String s : new String[] { "open", "open", "missing" }) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField(s, Type.STRING_LEN));
+            strings.add(t);
+        }
+        join = new HashEquiJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, cf.getId(), "o"), new TupleIterator(td, strings));
+        assertEquals(ROWS / STATUS.length * 2, count(join));
+        other.close();
+    }
+
+    /**
+     * Grouping by the encoded column gives one group per value.
+     */
+    @Test public void groupBy() throws Exception {
+        Aggregate agg = new Aggregate(new SeqScan(tid, cf.getId(), "o"), 0, 1, Aggregator.Op.COUNT);
+        HashMap<String, Integer> counts = new HashMap<String, Integer>();
+        agg.open();
+        while (agg.hasNext()) {
+            Tuple t = agg.next();
+            counts.put(t.getString(0), t.getInt(1));
+        }
+        agg.close();
+        assertEquals(STATUS.length, counts.size());
+        for (String s : STATUS) assertEquals(ROWS / STATUS.length, (int) counts.get(s));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DictionaryTest.class);
+    }
+}
@@ -0,0 +1,107 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class FreeSpaceMapTest extends TestUtil.CreateHeapFile {
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        FreeSpaceMap.sidecarFor(empty.getFile()).delete();
+    }
+
+    /**
+     * Inserts go to the page the map points at, and lock only that page.
+     */
+    @Test public void insertUsesFreePage() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        ArrayList<Tuple> onFirstPage = new ArrayList<Tuple>();
+        for (int i = 0; i < 504 * 3; ++i) {
+            Tuple t = Utility.getHeapTuple(i, 2);
+            bp.insertTuple(tid, empty.getId(), t);
+            if (i < 504) onFirstPage.add(t);
+        }
+        assertEquals(3, empty.numPages());
+        assertEquals(-1, empty.getFreeSpaceMap().findPageWithSpace(1));
+        bp.transactionComplete(tid);
+
+        // free a slot on page 0; the map should send the next insert there
+        tid = new TransactionId();
+        bp.deleteTuple(tid, onFirstPage.get(7));
+        assertEquals(0, empty.getFreeSpaceMap().findPageWithSpace(1));
+        bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(-1, 2);
+        bp.insertTuple(tid, empty.getId(), t);
+        assertEquals(0, t.getRecordId().getPageId().pageNumber());
+        assertEquals(3, empty.numPages());
+        assertFalse(bp.holdsLock(tid, new HeapPageId(empty.getId(), 1)));
+        assertFalse(bp.holdsLock(tid, new HeapPageId(empty.getId(), 2)));
+    }
+
+    /**
+     * The map survives close() through its sidecar file.
+     */
+    @Test public void persisted() throws Exception {
+        for (int i = 0; i < 600; ++i) {
+            Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        empty.close();
+
+        File sidecar = FreeSpaceMap.sidecarFor(empty.getFile());
+        assertTrue(sidecar.exists());
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        FreeSpaceMap fsm = reopened.getFreeSpaceMap();
+        assertEquals(0, fsm.getFreeSpace(0));
+        assertEquals(504 - 96, fsm.getFreeSpace(1));
+        assertEquals(1, fsm.findPageWithSpace(1));
+        reopened.close();
+    }
+
+    /**
+     * A write after the sidecar was saved deletes it, so a map that no
+     * longer matches the table is never loaded, however close together the
+     * save and the write were.
+     */
+    @Test public void writeInvalidatesSidecar() throws Exception {
+        for (int i = 0; i < 600; ++i) {
+            Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        empty.close();
+        File sidecar = FreeSpaceMap.sidecarFor(empty.getFile());
+        assertTrue(sidecar.exists());
+
+        //empty page 0 behind the pool's back, as if the process died before the next close
+        empty.writePage(new HeapPage(new HeapPageId(empty.getId(), 0), HeapPage.createEmptyPageData()));
+        assertFalse(sidecar.exists());
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        assertEquals(504, reopened.getFreeSpaceMap().getFreeSpace(0));
+        reopened.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
@@ -0,0 +1,284 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashFileTest extends SimpleDbTestBase {
+    private static final int ROWS = 3000;
+    private static final int MAX_VALUE = 500;
+    private static final int PAGE_SIZE = 256;
+
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HashFile index;
+
+    /**
+     * Set up initial resources for each unit test: a 2 column table whose
+     * first column has many duplicates, with a hash index on that column
+     * whose pages are small enough for the build to split many buckets.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, ROWS, MAX_VALUE, null, tuples, "c");
+        Database.getCatalog().addTable(hf, "ht");
+        File idxFile = File.createTempFile("hash", ".idx");
+        idxFile.deleteOnExit();
+        index = new HashFile(idxFile, hf.getId(), 0, PAGE_SIZE);
+        Database.getCatalog().addIndex(index, "ht_c0");
+        assertEquals(ROWS, IndexBuilder.build(index));
+    }
+
+    @After public void tearDown() throws Exception {
+        index.close();
+        hf.close();
+    }
+
+    private int count(int key) {
+        int n = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) == key) n++;
+        }
+        return n;
+    }
+
+    /** @return the keys of the entries the index returns for preds */
+    private List<Integer> lookup(Predicate... preds) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = index.lookup(tid, Arrays.asList(preds));
+        it.open();
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        while (it.hasNext()) keys.add(it.next().getInt(0));
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return keys;
+    }
+
+    private static Predicate eq(int v) {
+        return new Predicate(0, Predicate.Op.EQUALS, new IntField(v));
+    }
+
+    /**
+     * The index grew by splitting buckets, and still finds every key,
+     * duplicates included.
+     */
+    @Test public void lookups() throws Exception {
+        int perPage = HashBucketPage.getMaxEntries(index.getTupleDesc(), PAGE_SIZE);
+        assertTrue(index.getNumBuckets() >= ROWS / perPage);
+        for (int v = -1; v <= MAX_VALUE; v++) {
+            List<Integer> found = lookup(eq(v));
+            assertEquals(count(v), found.size());
+            for (int k : found) assertEquals(v, k);
+        }
+        assertEquals(ROWS, lookup().size());
+        List<Integer> some = lookup(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10)));
+        int want = 0;
+        for (int v = 0; v < 10; v++) want += count(v);
+        assertEquals(want, some.size());
+    }
+
+    /**
+     * Distinct keys inserted one after another spread over the buckets
+     * the index splits off, instead of piling up in overflow chains.
+     */
+    @Test public void growth() throws Exception {
+        File f = File.createTempFile("grow", ".dat");
+        f.deleteOnExit();
+        HeapFile grow = Utility.createEmptyHeapFile(f.getPath(), 2);
+        File gf = File.createTempFile("grow", ".idx");
+        gf.deleteOnExit();
+        HashFile growIndex = new HashFile(gf, grow.getId(), 0, PAGE_SIZE);
+        Database.getCatalog().addIndex(growIndex, "grow_c0");
+
+        int perPage = HashBucketPage.getMaxEntries(growIndex.getTupleDesc(), PAGE_SIZE);
+        int rows = 100 * perPage;
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < rows; i++) {
+            Database.getBufferPool().insertTuple(tid, grow.getId(), Utility.getHeapTuple(new int[] { i, i }));
+            if (i % 100 == 99) {
+                Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        int buckets = growIndex.getNumBuckets();
+        assertTrue(buckets >= 100);
+        assertTrue(growIndex.numPages() < 3 * buckets);
+
+        for (int i = 0; i < rows; i += 37) {
+            tid = new TransactionId();
+            DbFileIterator it = growIndex.lookup(tid, Arrays.asList(eq(i)));
+            it.open();
+            assertTrue(it.hasNext());
+            assertEquals(i, it.next().getInt(0));
+            assertFalse(it.hasNext());
+            it.close();
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        growIndex.close();
+    }
+
+    /**
+     * Inserts and deletes through the BufferPool keep the index in step
+     * with the table, and an abort rolls the index back with it.
+     */
+    @Test public void maintenance() throws Exception {
+        int before = lookup(eq(7)).size();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 50; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { 7, -1 - i }));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(before + 50, lookup(eq(7)).size());
+
+        tid = new TransactionId();
+        IndexScan scan = new IndexScan(tid, index, "ht", Arrays.asList(eq(7)));
+        scan.open();
+        ArrayList<Tuple> doomed = new ArrayList<Tuple>();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            if (t.getInt(1) < 0) doomed.add(t);
+        }
+        scan.close();
+        for (Tuple t : doomed) Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(before, lookup(eq(7)).size());
+
+        int buckets = index.getNumBuckets();
+        tid = new TransactionId();
+        for (int i = 0; i < 500; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(),
+                    Utility.getHeapTuple(new int[] { MAX_VALUE + 1 + i, 0 }));
+        }
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(buckets, index.getNumBuckets());
+        assertEquals(0, lookup(eq(MAX_VALUE + 1)).size());
+        assertEquals(ROWS, lookup().size());
+    }
+
+    /** @return the page after page pgNo of index in its chain, or 0 */
+    private static int overflowOf(TransactionId tid, HashFile index, int pgNo) throws Exception {
+        return ((HashBucketPage) Database.getBufferPool().getPage(tid,
+                new HashPageId(index.getId(), pgNo), Permissions.READ_ONLY)).getOverflow();
+    }
+
+    /**
+     * @return the number of overflow pages of index that are neither in a
+     *         bucket's chain nor on the free list
+     */
+    private static int lostPages(HashFile index) throws Exception {
+        TransactionId tid = new TransactionId();
+        HashMetaPage meta = (HashMetaPage) Database.getBufferPool().getPage(tid,
+                new HashPageId(index.getId(), 0), Permissions.READ_ONLY);
+        int buckets = meta.getNumBuckets();
+        int lost = index.numPages() - 1 - (1 << HashMetaPage.segmentOf(buckets - 1));
+        for (int b = 0; b < buckets; b++) {
+            for (int pgNo = overflowOf(tid, index, meta.pageOf(b)); pgNo != 0; lost--)
+                pgNo = overflowOf(tid, index, pgNo);
+        }
+        for (int pgNo = meta.getFree(); pgNo != 0; lost--) pgNo = overflowOf(tid, index, pgNo);
+        Database.getBufferPool().transactionComplete(tid);
+        return lost;
+    }
+
+    /**
+     * Splits that free several overflow pages each put them all on the
+     * free list, in front of the pages already there: two long chains
+     * whose entries all move when their buckets split lose no pages.
+     */
+    @Test public void freeList() throws Exception {
+        File f = File.createTempFile("free", ".dat");
+        f.deleteOnExit();
+        HeapFile free = Utility.createEmptyHeapFile(f.getPath(), 2);
+        File ff = File.createTempFile("free", ".idx");
+        ff.deleteOnExit();
+        HashFile freeIndex = new HashFile(ff, free.getId(), 0, PAGE_SIZE);
+        Database.getCatalog().addIndex(freeIndex, "free_c0");
+
+        // grow to 64 buckets, with buckets 0 and 1 split
+        int key = 0;
+        while (freeIndex.getNumBuckets() < 64 + 2) {
+            TransactionId tid = new TransactionId();
+            Database.getBufferPool().insertTuple(tid, free.getId(), Utility.getHeapTuple(new int[] { key++, 0 }));
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        assertEquals(64 + 2, freeIndex.getNumBuckets());
+
+        // pile up keys in buckets 0 and 1 that all move when the next round splits them
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 2 * (64 + 2); key++) {
+            int h = HashFile.hash(new IntField(key)) & 255;
+            if (h != 128 && h != 129) continue;
+            Database.getBufferPool().insertTuple(tid, free.getId(), Utility.getHeapTuple(new int[] { key, 0 }));
+            i++;
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(freeIndex.getNumBuckets() > 128 + 1);
+        assertEquals(0, lostPages(freeIndex));
+        freeIndex.close();
+        free.close();
+    }
+
+    /**
+     * CREATE INDEX ... USING HASH builds a hash index, which the planner
+     * prefers to a B+ tree on the same field for equality filters.
+     */
+    @Test public void createIndex() throws Exception {
+        File dir = hf.getFile().getAbsoluteFile().getParentFile();
+        new File(dir, "ht_c1.idx").deleteOnExit();
+        new File(dir, "ht_c1_tree.idx").deleteOnExit();
+        //a key one tuple has, so reading it through an index beats scanning the table
+        int key = MAX_VALUE;
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { 0, key }));
+        Database.getBufferPool().transactionComplete(tid);
+        Parser p = new Parser();
+        assertTrue(p.handleUtilityStatement("CREATE INDEX ht_c1_tree ON ht (c1);"));
+        assertTrue(p.handleUtilityStatement("create index ht_c1 on ht using hash (c1);"));
+        IndexFile byC1 = Database.getCatalog().getIndex("ht_c1");
+        assertTrue(byC1 instanceof HashFile);
+        assertTrue(Database.getCatalog().getIndex("ht_c1_tree") instanceof BTreeFile);
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "h");
+        lp.addProjectField("h.c0", null);
+        lp.addFilter("h.c1", Predicate.Op.EQUALS, "" + key);
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("ht", new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+        tid = new TransactionId();
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        DbIterator node = plan;
+        while (node instanceof Operator) node = ((Operator) node).getChildren()[0];
+        assertTrue(node instanceof IndexScan);
+        assertSame(byC1, ((IndexScan) node).getIndex());
+
+        plan.open();
+        int n = 0;
+        for (; plan.hasNext(); n++) plan.next();
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1, n);
+        Database.getCatalog().removeIndex("ht_c1");
+        Database.getCatalog().removeIndex("ht_c1_tree");
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashFileTest.class);
+    }
+}
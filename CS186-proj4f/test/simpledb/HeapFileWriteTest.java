@@ -43,6 +43,50 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.writePages(): runs of adjacent pages and gaps
+     * between them both land at the right offsets.
+     */
+    @Test public void writePages() throws Exception {
+        java.util.ArrayList<Page> pages = new java.util.ArrayList<Page>();
+        for (int pgNo : new int[]{0, 1, 2, 4, 5}) {
+            HeapPage page = new HeapPage(new HeapPageId(empty.getId(), pgNo), HeapPage.createEmptyPageData());
+            page.insertTuple(Utility.getHeapTuple(pgNo, 2));
+            pages.add(page);
+        }
+        empty.writePages(pages);
+
+        assertEquals(6, empty.numPages());
+        for (int pgNo : new int[]{0, 1, 2, 4, 5}) {
+            HeapPage page = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), pgNo));
+            assertEquals(new IntField(pgNo), page.iterator().next().getField(0));
+        }
+        HeapPage gap = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), 3));
+        assertFalse(gap.iterator().hasNext());
+    }
+
+    /**
+     * Unit test for HeapFile.addTuple() on a memory-mapped file: the mapping
+     * has to grow with the file.
+     */
+    @Test public void addTupleMapped() throws Exception {
+        HeapFile mapped = new HeapFile(empty.getFile(), empty.getTupleDesc(), true);
+        Database.getCatalog().addTable(mapped, "mapped");
+
+        for (int i = 0; i < 1009; ++i) {
+            Database.getBufferPool().insertTuple(tid, mapped.getId(), Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(3, mapped.numPages());
+        Database.getBufferPool().transactionComplete(tid);
+
+        // reading back through the mapping sees the pages appended after it was made
+        HeapPage last = (HeapPage) mapped.readPage(new HeapPageId(mapped.getId(), 2));
+        assertEquals(new IntField(1008), last.iterator().next().getField(0));
+        HeapPage first = (HeapPage) mapped.readPage(new HeapPageId(mapped.getId(), 0));
+        assertEquals(0, first.getNumEmptySlots());
+        mapped.close();
+    }
+
     /**
      * JUnit suite target
      */
@@ -120,6 +120,25 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.getField() and getTuple(), which decode from the
+     * page bytes on demand.
+     */
+    @Test public void getField() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        for (int i = 0; i < EXAMPLE_VALUES.length; ++i) {
+            assertEquals(new IntField(EXAMPLE_VALUES[i][1]), page.getField(i, 1));
+            Tuple t = page.getTuple(i);
+            assertEquals(new IntField(EXAMPLE_VALUES[i][0]), t.getField(0));
+            assertEquals(i, t.getRecordId().tupleno());
+        }
+        assertEquals(null, page.getField(EXAMPLE_VALUES.length, 0));
+        assertEquals(null, page.getTuple(EXAMPLE_VALUES.length));
+
+        // undecoded slots serialize back to the same bytes
+        assertTrue(Arrays.equals(EXAMPLE_DATA, new HeapPage(pid, EXAMPLE_DATA).getPageData()));
+    }
+
     /**
      * JUnit suite target
      */
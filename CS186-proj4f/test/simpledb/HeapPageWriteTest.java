@@ -44,6 +44,26 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         assertEquals(false, dirtier != null);
     }
 
+    /**
+     * Unit test for HeapPage.getBeforeImage()/setBeforeImage(): the before
+     * image is the state as of the last setBeforeImage (or as read), however
+     * many modifications follow.
+     */
+    @Test public void beforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        int free = page.getNumEmptySlots();
+
+        page.insertTuple(Utility.getHeapTuple(1, 2));
+        page.insertTuple(Utility.getHeapTuple(2, 2));
+        assertEquals(free, page.getBeforeImage().getNumEmptySlots());
+
+        page.setBeforeImage();
+        assertEquals(free - 2, page.getBeforeImage().getNumEmptySlots());
+        page.insertTuple(Utility.getHeapTuple(3, 2));
+        assertEquals(free - 2, page.getBeforeImage().getNumEmptySlots());
+        assertEquals(free - 3, page.getNumEmptySlots());
+    }
+
     /**
      * Unit test for HeapPage.addTuple()
      */
@@ -0,0 +1,178 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Vector;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+    private static final int OUTER_ROWS = 200;
+    private static final int INNER_ROWS = 5000;
+    private static final int MAX_VALUE = 1000;
+
+    private HeapFile outer;
+    private HeapFile inner;
+    private ArrayList<ArrayList<Integer>> outerTuples;
+    private ArrayList<ArrayList<Integer>> innerTuples;
+    private BTreeFile byC0;
+    private HashFile byC1;
+
+    /**
+     * Set up initial resources for each unit test: a small outer table and
+     * a larger inner one, with a B+ tree index on its first column and a
+     * hash index on its second.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        outerTuples = new ArrayList<ArrayList<Integer>>();
+        outer = SystemTestUtil.createRandomHeapFile(2, OUTER_ROWS, MAX_VALUE, null, outerTuples, "c");
+        Database.getCatalog().addTable(outer, "o");
+        innerTuples = new ArrayList<ArrayList<Integer>>();
+        inner = SystemTestUtil.createRandomHeapFile(2, INNER_ROWS, MAX_VALUE, null, innerTuples, "c");
+        Database.getCatalog().addTable(inner, "i");
+
+        File f0 = File.createTempFile("inlj", ".idx");
+        f0.deleteOnExit();
+        byC0 = new BTreeFile(f0, inner.getId(), 0);
+        Database.getCatalog().addIndex(byC0, "i_c0");
+        IndexBuilder.build(byC0);
+        File f1 = File.createTempFile("inlj", ".idx");
+        f1.deleteOnExit();
+        byC1 = new HashFile(f1, inner.getId(), 1);
+        Database.getCatalog().addIndex(byC1, "i_c1");
+        IndexBuilder.build(byC1);
+    }
+
+    @After public void tearDown() throws Exception {
+        byC0.close();
+        byC1.close();
+    }
+
+    /** @return the rows of the join of outer and inner by p, inner filtered by innerPred */
+    private ArrayList<ArrayList<Integer>> expected(JoinPredicate p, Predicate innerPred) {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> o : outerTuples) {
+            for (ArrayList<Integer> i : innerTuples) {
+                Tuple ot = Utility.getHeapTuple(new int[] { o.get(0), o.get(1) });
+                Tuple it = Utility.getHeapTuple(new int[] { i.get(0), i.get(1) });
+                if (!p.filter(ot, it) || (innerPred != null && !innerPred.filter(it))) continue;
+                ArrayList<Integer> row = new ArrayList<Integer>(o);
+                row.addAll(i);
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    private void checkJoin(JoinPredicate p, Predicate innerPred, IndexFile want) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbIterator innerPlan = new SeqScan(tid, inner.getId(), "i");
+        if (innerPred != null) innerPlan = new Filter(innerPred, innerPlan);
+        assertSame(want, IndexNestedLoopJoin.findIndex(p, innerPlan));
+        IndexNestedLoopJoin j = new IndexNestedLoopJoin(p, new SeqScan(tid, outer.getId(), "o"), innerPlan, want);
+        assertEquals("o.c0", j.getJoinField1Name());
+        assertEquals(4, j.getTupleDesc().numFields());
+        SystemTestUtil.matchTuples(j, expected(p, innerPred));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Equality joins through either kind of index return what a nested
+     * loops join would, with the inner side's filters applied.
+     */
+    @Test public void equiJoin() throws Exception {
+        checkJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), null, byC0);
+        checkJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new Predicate(1, Predicate.Op.LESS_THAN, new IntField(MAX_VALUE / 2)), byC0);
+        checkJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1), null, byC1);
+    }
+
+    /**
+     * A range join probes the B+ tree with the mirrored operator; the hash
+     * index cannot answer it.
+     */
+    @Test public void rangeJoin() throws Exception {
+        //keep the output small: only the outer tuples with the largest keys
+        ArrayList<ArrayList<Integer>> few = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : outerTuples) {
+            if (t.get(0) > MAX_VALUE - 20) few.add(t);
+        }
+        outerTuples = few;
+        TransactionId tid = new TransactionId();
+        DbIterator outerPlan = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(MAX_VALUE - 20)),
+                new SeqScan(tid, outer.getId(), "o"));
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.LESS_THAN, 0);
+        IndexNestedLoopJoin j = new IndexNestedLoopJoin(p, outerPlan, new SeqScan(tid, inner.getId(), "i"), byC0);
+        SystemTestUtil.matchTuples(j, expected(p, null));
+        Database.getBufferPool().transactionComplete(tid);
+
+        assertNull(IndexNestedLoopJoin.findIndex(new JoinPredicate(0, Predicate.Op.LESS_THAN, 1),
+                new SeqScan(tid, inner.getId(), "i")));
+    }
+
+    /**
+     * With a small outer side the optimizer costs the index join below a
+     * nested loops join, and the planner builds one.
+     */
+    @Test public void optimizerChoosesIndexJoin() throws Exception {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("o", new TableStats(outer.getId(), TableStats.IOCOSTPERPAGE));
+        stats.put("i", new TableStats(inner.getId(), TableStats.IOCOSTPERPAGE));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(outer.getId(), "o");
+        lp.addScan(inner.getId(), "i");
+        lp.addJoin("o.c0", "i.c0", Predicate.Op.EQUALS);
+        lp.addFilter("o.c1", Predicate.Op.LESS_THAN, "100");
+        lp.addProjectField("o.c0", null);
+        lp.addProjectField("i.c1", null);
+
+        LogicalJoinNode j = new LogicalJoinNode("o", "i", "c0", "c0", Predicate.Op.EQUALS);
+        JoinOptimizer jo = new JoinOptimizer(lp, new Vector<LogicalJoinNode>());
+        double scan = stats.get("i").estimateScanCost();
+        int card = stats.get("i").estimateTableCardinality(1.0);
+        assertTrue(jo.estimateJoinCost(j, 20, card, 100, scan) < 100 + 20 * scan + 20 * card);
+        //the other way around, the outer table is not indexed: nested loops it is
+        LogicalJoinNode swapped = j.swapInnerOuter();
+        assertEquals(scan + card * 100.0 + card * 20.0, jo.estimateJoinCost(swapped, card, 20, scan, 100), 0.001);
+
+        TransactionId tid = new TransactionId();
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        DbIterator node = plan;
+        while (node instanceof Operator && !(node instanceof IndexNestedLoopJoin))
+            node = ((Operator) node).getChildren()[0];
+        assertTrue(node instanceof IndexNestedLoopJoin);
+        assertSame(byC0, ((IndexNestedLoopJoin) node).getIndex());
+
+        int want = 0;
+        for (ArrayList<Integer> o : outerTuples) {
+            if (o.get(1) >= 100) continue;
+            for (ArrayList<Integer> i : innerTuples) {
+                if (o.get(0).equals(i.get(0))) want++;
+            }
+        }
+        plan.open();
+        int n = 0;
+        for (; plan.hasNext(); n++) plan.next();
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(want, n);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}
@@ -0,0 +1,245 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexOnlyScanTest extends SimpleDbTestBase {
+    private static final int ROWS = 3000;
+    private static final int MAX_VALUE = 1000;
+
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private BTreeFile byC0;
+    private HashFile byC1;
+
+    /**
+     * Set up initial resources for each unit test: a 3 column table with a
+     * B+ tree index on its first column and a hash index on its second,
+     * both including the third.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(3, ROWS, MAX_VALUE, null, tuples, "c");
+        Database.getCatalog().addTable(hf, "ct");
+        File f0 = File.createTempFile("covering", ".idx");
+        f0.deleteOnExit();
+        byC0 = new BTreeFile(f0, hf.getId(), 0, new int[] { 2 });
+        Database.getCatalog().addIndex(byC0, "ct_c0");
+        IndexBuilder.build(byC0);
+        File f1 = File.createTempFile("covering", ".idx");
+        f1.deleteOnExit();
+        byC1 = new HashFile(f1, hf.getId(), 1, new int[] { 2 });
+        Database.getCatalog().addIndex(byC1, "ct_c1");
+        IndexBuilder.build(byC1);
+    }
+
+    @After public void tearDown() throws Exception {
+        byC0.close();
+        byC1.close();
+        hf.close();
+    }
+
+    /** @return true if tid holds a lock on some page of the table */
+    private boolean readTable(TransactionId tid) {
+        for (int pg = 0; pg < hf.numPages(); pg++) {
+            if (Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), pg))) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Entries carry the included fields, kept up to date by inserts and
+     * deletes, and a scan returns the fields asked for from them alone.
+     */
+    @Test public void scan() throws Exception {
+        assertEquals(2, byC0.getTupleDesc().numFields());
+        assertEquals("c2", byC0.getTupleDesc().getFieldName(1));
+
+        TransactionId tid = new TransactionId();
+        Predicate lt = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100));
+        IndexOnlyScan scan = new IndexOnlyScan(tid, byC0, "ct", new int[] { 2, 0 }, Arrays.asList(lt));
+        assertEquals("ct.c2", scan.getTupleDesc().getFieldName(0));
+        ArrayList<ArrayList<Integer>> want = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) < 100) want.add(new ArrayList<Integer>(Arrays.asList(t.get(2), t.get(0))));
+        }
+        SystemTestUtil.matchTuples(scan, want);
+        assertFalse(readTable(tid));
+        Database.getBufferPool().transactionComplete(tid);
+
+        try {
+            new IndexOnlyScan(tid, byC0, "ct", new int[] { 1 }, new ArrayList<Predicate>());
+            fail("c1 is not in the B+ tree's entries");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { -5, -6, -7 }));
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        Predicate eq = new Predicate(0, Predicate.Op.EQUALS, new IntField(-6));
+        IndexOnlyScan found = new IndexOnlyScan(tid, byC1, "ct", new int[] { 1, 2 }, Arrays.asList(eq));
+        found.open();
+        assertTrue(found.hasNext());
+        Tuple t = found.next();
+        assertEquals(-7, t.getInt(1));
+        assertFalse(found.hasNext());
+        found.close();
+        Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        found = new IndexOnlyScan(tid, byC1, "ct", new int[] { 1, 2 }, Arrays.asList(eq));
+        found.open();
+        assertFalse(found.hasNext());
+        found.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** @return the scan at the bottom of the plan for lp, after running it and checking its row count */
+    private DbIterator plan(LogicalPlan lp, int want, boolean readsTable) throws Exception {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("ct", new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+        TransactionId tid = new TransactionId();
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        plan.open();
+        int n = 0;
+        for (; plan.hasNext(); n++) plan.next();
+        plan.close();
+        assertEquals(readsTable, readTable(tid));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(want, n);
+        DbIterator node = plan;
+        while (node instanceof Operator) node = ((Operator) node).getChildren()[0];
+        return node;
+    }
+
+    /**
+     * The planner reads a table from an index holding every field the
+     * query uses, and from the table otherwise.
+     */
+    @Test public void planner() throws Exception {
+        int want = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) < 100) want++;
+        }
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "c");
+        lp.addProjectField("c.c2", null);
+        lp.addFilter("c.c0", Predicate.Op.LESS_THAN, "100");
+        DbIterator scan = plan(lp, want, false);
+        assertTrue(scan instanceof IndexOnlyScan);
+        assertSame(byC0, ((IndexOnlyScan) scan).getIndex());
+
+        int key = tuples.get(0).get(1);
+        want = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) == key) want++;
+        }
+        lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "c");
+        lp.addProjectField("c.c1", null);
+        lp.addProjectField("c.c2", null);
+        lp.addFilter("c.c1", Predicate.Op.EQUALS, "" + key);
+        scan = plan(lp, want, false);
+        assertTrue(scan instanceof IndexOnlyScan);
+        assertSame(byC1, ((IndexOnlyScan) scan).getIndex());
+
+        //c0 and c1 are in no one index: the tuples are fetched
+        lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "c");
+        lp.addProjectField("c.c0", null);
+        lp.addFilter("c.c1", Predicate.Op.EQUALS, "" + key);
+        scan = plan(lp, want, true);
+        assertTrue(scan instanceof IndexScan);
+    }
+
+    /**
+     * A query covered by an index on a field other than the table's first
+     * is planned and run through the Parser, its filter costed on the
+     * histogram of the field it filters (the table's, not the scan's).
+     */
+    @Test public void coveredQueryOnLaterField() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE }, new String[] { "s", "b" });
+        File f = File.createTempFile("covered", ".dat");
+        f.deleteOnExit();
+        HeapFile st = new HeapFile(f, td);
+        Database.getCatalog().addTable(st, "st");
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < ROWS; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField("s" + i, Type.STRING_LEN));
+            t.setField(1, new IntField(i % 200));
+            Database.getBufferPool().insertTuple(tid, st.getId(), t);
+            if (i % 200 == 199) { //no steal: keep each transaction's dirty pages within the pool
+                Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        File fi = File.createTempFile("covered", ".idx");
+        fi.deleteOnExit();
+        BTreeFile byB = new BTreeFile(fi, st.getId(), 1, new int[0]);
+        Database.getCatalog().addIndex(byB, "st_b");
+        IndexBuilder.build(byB);
+        TableStats.setTableStats("st", new TableStats(st.getId(), TableStats.IOCOSTPERPAGE));
+
+        try {
+            tid = new TransactionId();
+            LogicalPlan lp = new Parser().generateLogicalPlan(tid, "SELECT st.b FROM st WHERE st.b > 190;");
+            DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+            ArrayList<ArrayList<Integer>> want = new ArrayList<ArrayList<Integer>>();
+            for (int i = 0; i < ROWS; i++) {
+                if (i % 200 > 190) want.add(new ArrayList<Integer>(Arrays.asList(i % 200)));
+            }
+            SystemTestUtil.matchTuples(plan, want);
+            DbIterator node = plan;
+            while (node instanceof Operator) node = ((Operator) node).getChildren()[0];
+            assertTrue(node instanceof IndexOnlyScan);
+            Database.getBufferPool().transactionComplete(tid);
+        } finally {
+            Database.getCatalog().removeIndex("st_b");
+            byB.close();
+            st.close();
+        }
+    }
+
+    /**
+     * CREATE INDEX ... INCLUDE builds an index whose entries hold the
+     * included fields.
+     */
+    @Test public void createIndex() throws Exception {
+        File dir = hf.getFile().getAbsoluteFile().getParentFile();
+        new File(dir, "ct_c2.idx").deleteOnExit();
+        Parser p = new Parser();
+        assertTrue(p.handleUtilityStatement("create index ct_c2 on ct (c2) include (c0, c1);"));
+        IndexFile byC2 = Database.getCatalog().getIndex("ct_c2");
+        assertTrue(Arrays.equals(new int[] { 0, 1 }, byC2.getIncludedFields()));
+        assertEquals(3, byC2.getTupleDesc().numFields());
+        try {
+            p.handleUtilityStatement("create index ct_bad on ct using bitmap (c2) include (c0);");
+            fail("bitmap indexes have no included fields");
+        } catch (ParsingException expected) {
+        }
+        Database.getCatalog().removeIndex("ct_c2");
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexOnlyScanTest.class);
+    }
+}
@@ -0,0 +1,147 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageIOTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    /**
+     * Set up initial resources for each unit test: a 2 column table spanning
+     * several pages.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 5000, null, tuples);
+    }
+
+    @After public void tearDown() throws Exception {
+        hf.close();
+    }
+
+    /**
+     * A write followed by a read of the same range returns the bytes
+     * written; reading past the end of the file gives zeroes.
+     */
+    @Test public void roundTrip() throws Exception {
+        File f = File.createTempFile("pageio", ".dat");
+        f.deleteOnExit();
+        AsynchronousFileChannel ch = AsynchronousFileChannel.open(f.toPath(),
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            byte[] data = new byte[3 * BufferPool.PAGE_SIZE];
+            for (int i = 0; i < data.length; i++) data[i] = (byte) i;
+            ArrayList<PageIO.Request> writes = new ArrayList<PageIO.Request>();
+            writes.add(PageIO.write(ch, BufferPool.PAGE_SIZE, data));
+            PageIO.awaitAll(writes);
+            assertEquals(4 * BufferPool.PAGE_SIZE, f.length());
+
+            byte[] back = PageIO.read(ch, BufferPool.PAGE_SIZE, data.length).await();
+            assertTrue(Arrays.equals(data, back));
+
+            byte[] past = PageIO.read(ch, 4 * BufferPool.PAGE_SIZE - 10, 100).await();
+            for (int i = 10; i < past.length; i++) assertEquals(0, past[i]);
+        } finally {
+            ch.close();
+        }
+    }
+
+    /**
+     * Callbacks registered after a request finished run right away.
+     */
+    @Test public void whenDone() throws Exception {
+        PageIO.Request r = PageIO.read(hf.getAsyncChannel(), 0, BufferPool.PAGE_SIZE);
+        r.await();
+        final boolean[] ran = new boolean[1];
+        r.whenDone(new Runnable() {
+            public void run() {
+                ran[0] = true;
+            }
+        });
+        assertTrue(ran[0]);
+    }
+
+    /**
+     * An asynchronous page read decodes to the same page as readPage.
+     */
+    @Test public void readPageAsync() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 1);
+        Page page = hf.readPageAsync(pid).get();
+        assertTrue(Arrays.equals(hf.readPage(pid).getPageData(), page.getPageData()));
+    }
+
+    /**
+     * A prefetched page ends up in the pool, and getPage returns it.
+     */
+    @Test public void prefetch() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        HeapPageId pid = new HeapPageId(hf.getId(), 2);
+        bp.prefetch(pid);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (bp.getUsedBytes() == 0 && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        assertEquals(BufferPool.PAGE_SIZE, bp.getUsedBytes());
+
+        TransactionId tid = new TransactionId();
+        bp.getPage(tid, pid, Permissions.READ_ONLY);
+        assertEquals(BufferPool.PAGE_SIZE, bp.getUsedBytes());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Threads asking for the same page at once all get the same page
+     * object, read once.
+     */
+    @Test public void concurrentGetPage() throws Exception {
+        final BufferPool bp = Database.getBufferPool();
+        final HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        ArrayList<Future<Page>> pages = new ArrayList<Future<Page>>();
+        final ArrayList<TransactionId> tids = new ArrayList<TransactionId>();
+        for (int i = 0; i < 8; i++) {
+            final TransactionId tid = new TransactionId();
+            tids.add(tid);
+            pages.add(threads.submit(new Callable<Page>() {
+                public Page call() throws Exception {
+                    return bp.getPage(tid, pid, Permissions.READ_ONLY);
+                }
+            }));
+        }
+        Page first = pages.get(0).get();
+        for (Future<Page> p : pages) assertSame(first, p.get());
+        threads.shutdown();
+        assertEquals(BufferPool.PAGE_SIZE, bp.getUsedBytes());
+        for (TransactionId tid : tids) bp.transactionComplete(tid);
+    }
+
+    /**
+     * Scans, which prefetch ahead of themselves, still see every tuple, with
+     * the pool smaller than the table.
+     */
+    @Test public void scanWithPrefetch() throws Exception {
+        Database.resetBufferPool(3);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageIOTest.class);
+    }
+}
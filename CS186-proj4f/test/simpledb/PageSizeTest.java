@@ -0,0 +1,119 @@
+package simpledb;
+
+import java.io.*;
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageSizeTest extends SimpleDbTestBase {
+    private static final int ROWS = 10000;
+
+    private HeapFile big;
+    private HeapFile small;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    /**
+     * Set up initial resources for each unit test: the same ROWS rows in a
+     * table with 32KB pages and in one with 1KB pages.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        File csv = File.createTempFile("pagesize", ".txt");
+        csv.deleteOnExit();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(csv)));
+        for (int i = 0; i < ROWS; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            t.add(i);
+            t.add(-i);
+            tuples.add(t);
+            out.println(i + "," + (-i));
+        }
+        out.close();
+
+        big = load(csv, 32768);
+        small = load(csv, 1024);
+    }
+
+    private HeapFile load(File csv, int pageSize) throws Exception {
+        File f = File.createTempFile("pagesize", ".dat");
+        f.deleteOnExit();
+        Type[] types = new Type[] { Type.INT_TYPE, Type.INT_TYPE };
+        BulkLoader.convert(csv, f, types, ',', pageSize);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2), false, pageSize);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        return hf;
+    }
+
+    @After public void tearDown() throws Exception {
+        big.close();
+        small.close();
+    }
+
+    /**
+     * Files with different page sizes hold the same rows on different
+     * numbers of pages, and read back the same.
+     */
+    @Test public void scan() throws Exception {
+        int perBigPage = HeapPage.getNumTuples(big.getTupleDesc(), 32768);
+        int perSmallPage = HeapPage.getNumTuples(small.getTupleDesc(), 1024);
+        assertEquals((ROWS + perBigPage - 1) / perBigPage, big.numPages());
+        assertEquals((ROWS + perSmallPage - 1) / perSmallPage, small.numPages());
+        assertEquals(32768, big.readPage(new HeapPageId(big.getId(), 0)).getPageData().length);
+
+        SystemTestUtil.matchTuples(big, tuples);
+        SystemTestUtil.matchTuples(small, tuples);
+    }
+
+    /**
+     * The pool's budget is in bytes: one big page takes the room of 32 small
+     * ones.
+     */
+    @Test public void mixedFrames() throws Exception {
+        BufferPool bp = Database.resetBufferPoolCapacity(2 * 32768 + 8 * 1024);
+        assertEquals(2, bp.getNumPages(32768));
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 8; i++)
+            bp.getPage(tid, new HeapPageId(small.getId(), i), Permissions.READ_ONLY);
+        assertEquals(8 * 1024, bp.getUsedBytes());
+        bp.getPage(tid, new HeapPageId(big.getId(), 0), Permissions.READ_ONLY);
+        bp.getPage(tid, new HeapPageId(big.getId(), 1), Permissions.READ_ONLY);
+        assertEquals(bp.getCapacityBytes(), bp.getUsedBytes());
+
+        // a third big page needs 32 small frames' worth of room
+        bp.getPage(tid, new HeapPageId(big.getId(), 2), Permissions.READ_ONLY);
+        assertTrue(bp.getUsedBytes() <= bp.getCapacityBytes());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Inserts into a small-page table fill its pages and grow it by pages of
+     * its own size.
+     */
+    @Test public void insert() throws Exception {
+        int pages = small.numPages();
+        TransactionId tid = new TransactionId();
+        int perSmallPage = HeapPage.getNumTuples(small.getTupleDesc(), 1024);
+        int room = pages * perSmallPage - ROWS;
+        for (int i = 0; i <= room; i++)
+            Database.getBufferPool().insertTuple(tid, small.getId(), Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(pages + 1, small.numPages());
+        assertEquals((pages + 1) * 1024, small.getFile().length());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageSizeTest.class);
+    }
+}
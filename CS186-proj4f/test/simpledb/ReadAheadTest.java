@@ -0,0 +1,131 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 16;
+    private static final int WINDOW = 4;
+
+    private HeapFile hf;
+    private int perPage;
+    private BufferPool bp;
+
+    /**
+     * Set up initial resources for each unit test: a 2 column table of 30
+     * full pages, and a pool of POOL_PAGES pages, which reads WINDOW pages
+     * ahead.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        perPage = HeapPage.getNumTuples(Utility.getTupleDesc(2));
+        hf = SystemTestUtil.createRandomHeapFile(2, 30 * perPage, null, new ArrayList<ArrayList<Integer>>());
+        bp = Database.resetBufferPool(POOL_PAGES);
+        ReadAhead.setWindow(WINDOW);
+        assertEquals(WINDOW, ReadAhead.getWindow(bp, BufferPool.PAGE_SIZE));
+    }
+
+    @After public void tearDown() throws Exception {
+        ReadAhead.setWindow(ReadAhead.DEFAULT_WINDOW);
+        hf.close();
+    }
+
+    /** Waits up to 5 seconds for the pool to hold at least pages pages. */
+    private void awaitCached(int pages) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (bp.getUsedBytes() < (long) pages * BufferPool.PAGE_SIZE && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+    }
+
+    /** @return the number of tuples on page */
+    private static int tuples(Page page) {
+        int n = 0;
+        for (Iterator<Tuple> it = ((HeapPage) page).iterator(); it.hasNext(); it.next()) n++;
+        return n;
+    }
+
+    /**
+     * A sequential scan that has got half a window into the pages it
+     * prefetched on open has the next window read into the pool behind
+     * its back, so it finds those pages cached.
+     */
+    @Test public void sequentialScan() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        for (int i = 0; i <= (WINDOW / 2 + 1) * perPage && it.hasNext(); i++) it.next();
+        awaitCached(2 * WINDOW + 1);
+        long used = bp.getUsedBytes();
+        assertTrue(used >= (2 * WINDOW) * BufferPool.PAGE_SIZE);
+        for (int pgNo = WINDOW + 1; pgNo <= 2 * WINDOW; pgNo++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), pgNo), Permissions.READ_ONLY);
+            assertEquals(used, bp.getUsedBytes());
+        }
+        it.close();
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Pages read while another page was flushed may be older than what is
+     * on disk now, so the whole batch is dropped; the pages are read again
+     * when asked for.
+     */
+    @Test public void flushDuringRead() throws Exception {
+        long flushes = bp.getFlushCount();
+        int last = hf.numPages() - 1;
+        TransactionId tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[] { 1, 2 });
+        bp.insertTuple(tid, hf.getId(), t);
+        PageId pid = t.getRecordId().getPageId();
+        assertTrue(pid.pageNumber() > last);
+        List<Page> stale = hf.readPages(last, 2);
+        assertEquals(2, stale.size());
+        bp.transactionComplete(tid);
+        assertTrue(bp.getFlushCount() != flushes);
+        bp.discardPage(pid);
+        long used = bp.getUsedBytes();
+
+        bp.cachePages(stale, flushes);
+        assertEquals(used, bp.getUsedBytes());
+        tid = new TransactionId();
+        assertEquals(1, tuples(bp.getPage(tid, pid, Permissions.READ_ONLY)));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A page read ahead does not replace the pool's copy, which may hold
+     * changes not yet on disk.
+     */
+    @Test public void cachedPagesKept() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+        Tuple t = page.iterator().next();
+        bp.deleteTuple(tid, t);
+        assertEquals(perPage - 1, tuples(page));
+
+        bp.cachePages(hf.readPages(0, 2), bp.getFlushCount());
+        assertSame(page, bp.getPage(tid, pid, Permissions.READ_ONLY));
+        assertEquals(perPage - 1, tuples(page));
+        assertEquals(2 * BufferPool.PAGE_SIZE, bp.getUsedBytes());
+        bp.transactionComplete(tid, false);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
@@ -0,0 +1,165 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SlottedHeapFileTest extends SimpleDbTestBase {
+    private TupleDesc td;
+    private SlottedHeapFile hf;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE }, new String[] { "id", "name" });
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        hf = new SlottedHeapFile(f, td);
+        Database.getCatalog().addTable(hf, "slotted");
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        hf.close();
+        FreeSpaceMap.sidecarFor(hf.getFile()).delete();
+    }
+
+    private Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        return t;
+    }
+
+    private ArrayList<String> scan() throws Exception {
+        ArrayList<String> out = new ArrayList<String>();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            out.add(((IntField) t.getField(0)).getValue() + ":" + ((StringField) t.getField(1)).getValue());
+        }
+        it.close();
+        return out;
+    }
+
+    /**
+     * Short strings take only their own length, so many more tuples fit on a
+     * page than a HeapPage's fixed-width slots allow.
+     */
+    @Test public void insertAndScan() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        int n = 1000;
+        for (int i = 0; i < n; ++i) {
+            bp.insertTuple(tid, hf.getId(), tuple(i, "name" + i));
+        }
+        bp.transactionComplete(tid);
+        bp.flushAllPages();
+
+        // 4 + 2 + up to 7 bytes of record plus a 4 byte slot entry: ~240 per page, vs 30 on a HeapPage
+        assertTrue(hf.numPages() <= 5);
+        assertTrue(hf.numPages() * HeapPage.getNumTuples(td) < n);
+
+        tid = new TransactionId();
+        ArrayList<String> rows = scan();
+        assertEquals(n, rows.size());
+        for (int i = 0; i < n; ++i) {
+            assertTrue(rows.contains(i + ":name" + i));
+        }
+    }
+
+    /**
+     * Deleted slots are reused and their record space reclaimed; RecordIds
+     * of the surviving tuples do not change.
+     */
+    @Test public void deleteReusesSlot() throws Exception {
+        SlottedPage page = new SlottedPage(new HeapPageId(hf.getId(), 0), SlottedPage.createEmptyPageData());
+        int empty = page.getFreeSpace();
+        Tuple a = tuple(1, "a"), b = tuple(2, "a much longer name"), c = tuple(3, "c");
+        page.insertTuple(a);
+        page.insertTuple(b);
+        page.insertTuple(c);
+        assertEquals(3, page.getNumSlots());
+
+        page.deleteTuple(b);
+        assertEquals(empty - 3 * SlottedPage.SLOT_SIZE - SlottedPage.recordSize(a) * 2, page.getFreeSpace());
+
+        Tuple d = tuple(4, "d");
+        page.insertTuple(d);
+        assertEquals(1, d.getRecordId().tupleno());
+        assertEquals(3, page.getNumSlots());
+
+        // round trip through the on-disk format
+        SlottedPage copy = new SlottedPage(page.getId(), page.getPageData());
+        assertEquals(page.getFreeSpace(), copy.getFreeSpace());
+        assertEquals(new IntField(1), copy.getField(0, 0));
+        assertEquals(new StringField("d", Type.STRING_LEN), copy.getField(1, 1));
+        assertEquals(new IntField(3), copy.getTuple(2).getField(0));
+        Iterator<Tuple> it = copy.iterator();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        assertEquals(3, count);
+    }
+
+    /**
+     * A page that cannot take a tuple says so, and the file moves on to a
+     * new page.
+     */
+    @Test public void fullPage() throws Exception {
+        SlottedPage page = new SlottedPage(new HeapPageId(hf.getId(), 0), SlottedPage.createEmptyPageData());
+        String big = "";
+        for (int i = 0; i < Type.STRING_LEN; i++) big += "x";
+        int fits = page.getFreeSpace() / (SlottedPage.recordSize(tuple(0, big)) + SlottedPage.SLOT_SIZE);
+        for (int i = 0; i < fits; i++) {
+            page.insertTuple(tuple(i, big));
+        }
+        try {
+            page.insertTuple(tuple(fits, big));
+            fail("page should be full");
+        } catch (DbException expected) {
+        }
+        page.insertTuple(tuple(fits, "")); // but a short one still fits
+    }
+
+    /**
+     * Aborting restores the page as it was before the transaction.
+     */
+    @Test public void abort() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        bp.insertTuple(tid, hf.getId(), tuple(1, "kept"));
+        bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        bp.insertTuple(tid, hf.getId(), tuple(2, "rolled back"));
+        assertEquals(2, scan().size());
+        bp.transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        ArrayList<String> rows = scan();
+        assertEquals(1, rows.size());
+        assertEquals("1:kept", rows.get(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapFileTest.class);
+    }
+}
@@ -1,6 +1,10 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
@@ -57,6 +61,47 @@ public class TupleTest extends SimpleDbTestBase {
 	}
     }
 
+    /**
+     * A compact tuple reads its values out of its bytes, through the typed
+     * getters and through getField, and setField overrides a value without
+     * changing the bytes.
+     */
+    @Test public void compact() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+        Tuple full = new Tuple(td);
+        full.setField(0, new IntField(-7));
+        full.setField(1, new StringField("hello", Type.STRING_LEN));
+        full.setField(2, new IntField(123456789));
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeInt(42); //some bytes before the tuple
+        full.serialize(dos);
+        byte[] data = baos.toByteArray();
+        assertEquals(4 + td.getSize(), data.length);
+
+        Tuple tup = new Tuple(td, data, 4);
+        assertEquals(-7, tup.getInt(0));
+        assertEquals("hello", tup.getString(1));
+        assertEquals(123456789, tup.getInt(2));
+        assertEquals(new IntField(123456789), tup.getField(2));
+        assertEquals("hello", ((StringField) tup.getField(1)).getValue());
+
+        tup.setField(0, new IntField(8));
+        assertEquals(8, tup.getInt(0));
+        assertEquals(-7, new Tuple(td, data, 4).getInt(0));
+
+        baos.reset();
+        tup.serialize(dos);
+        Tuple back = new Tuple(td, baos.toByteArray(), 0);
+        assertEquals(8, back.getInt(0));
+        assertEquals("hello", back.getString(1));
+        assertEquals(123456789, back.getInt(2));
+
+        baos.reset();
+        new Tuple(td, data, 4).serialize(dos);
+        assertTrue(Arrays.equals(Arrays.copyOfRange(data, 4, data.length), baos.toByteArray()));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,178 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class VacuumTest extends SimpleDbTestBase {
+    private static final int ROWS = 5000;
+
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> kept;
+
+    /**
+     * Set up initial resources for each unit test: a 2 column table spanning
+     * about ten pages, of which every tenth tuple is left.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, ROWS, null, new ArrayList<ArrayList<Integer>>());
+        Database.getCatalog().addTable(hf, "vac");
+        kept = new ArrayList<ArrayList<Integer>>();
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int i = 0;
+        ArrayList<Tuple> doomed = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (i++ % 10 == 0) kept.add(SystemTestUtil.tupleToList(t));
+            else doomed.add(t);
+        }
+        it.close();
+        for (Tuple t : doomed) Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @After public void tearDown() throws Exception {
+        hf.close();
+    }
+
+    /** @return RecordId -> values, for every tuple in the table */
+    private HashMap<RecordId, ArrayList<Integer>> contents() throws Exception {
+        HashMap<RecordId, ArrayList<Integer>> rows = new HashMap<RecordId, ArrayList<Integer>>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            rows.put(t.getRecordId(), SystemTestUtil.tupleToList(t));
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return rows;
+    }
+
+    /**
+     * Vacuum packs the live tuples into as few pages as they need, drops
+     * the rest of the file, and reports where each moved tuple went.
+     */
+    @Test public void compact() throws Exception {
+        int before = hf.numPages();
+        HashMap<RecordId, ArrayList<Integer>> old = contents();
+
+        Vacuum vacuum = new Vacuum(hf);
+        int freed = vacuum.run();
+        int perPage = HeapPage.getNumTuples(hf.getTupleDesc(), hf.getPageSize());
+        int after = (kept.size() + perPage - 1) / perPage;
+        assertEquals(after, hf.numPages());
+        assertEquals(before - after, freed);
+        assertEquals(before, vacuum.getPagesBefore());
+        SystemTestUtil.matchTuples(hf, kept);
+
+        HashMap<RecordId, ArrayList<Integer>> now = contents();
+        assertFalse(vacuum.getMoves().isEmpty());
+        for (Map.Entry<RecordId, ArrayList<Integer>> e : old.entrySet()) {
+            RecordId rid = vacuum.getMoves().containsKey(e.getKey()) ? vacuum.getMoves().get(e.getKey()) : e.getKey();
+            assertEquals(e.getValue(), now.get(rid));
+        }
+
+        //inserts go after the live data, and a second vacuum has nothing to do
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { -1, -1 }));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(after, hf.numPages());
+        assertEquals(0, new Vacuum(hf).run());
+    }
+
+    /**
+     * Vacuum takes its page locks like any transaction: while another
+     * transaction holds the last page, it gives up, leaving the table as
+     * it was, and can be run again later.
+     */
+    @Test public void waitsForLocks() throws Exception {
+        int before = hf.numPages();
+        TransactionId reader = new TransactionId();
+        Database.getBufferPool().getPage(reader, new HeapPageId(hf.getId(), before - 1), Permissions.READ_ONLY);
+        try {
+            new Vacuum(hf).run();
+            fail("expected the vacuum to abort");
+        } catch (TransactionAbortedException e) {
+            //expected
+        }
+        Database.getBufferPool().transactionComplete(reader);
+        SystemTestUtil.matchTuples(hf, kept);
+
+        assertTrue(new Vacuum(hf).run() > 0);
+        SystemTestUtil.matchTuples(hf, kept);
+    }
+
+    /**
+     * A truncation that fails comes after the moves have committed, so it
+     * does not fail the vacuum: the moves stand, the empty pages stay, and
+     * the failure is reported on its own.
+     */
+    @Test public void truncateFails() throws Exception {
+        int before = hf.numPages();
+        hf.close();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf = new HeapFile(hf.getFile(), hf.getTupleDesc()) {
+            int truncate(int pagesNow, int numPages) throws IOException {
+                throw new IOException("cannot truncate");
+            }
+        };
+        Database.getCatalog().addTable(hf, "vac");
+
+        Vacuum vacuum = new Vacuum(hf);
+        assertEquals(0, vacuum.run());
+        assertTrue(vacuum.getTruncateFailure() instanceof IOException);
+        assertFalse(vacuum.getMoves().isEmpty());
+        assertEquals(before, hf.numPages());
+        SystemTestUtil.matchTuples(hf, kept);
+    }
+
+    /**
+     * Compressed files cannot be vacuumed.
+     */
+    @Test(expected = DbException.class) public void compressedFile() throws Exception {
+        File f = File.createTempFile("compressed", ".dat");
+        f.deleteOnExit();
+        new Vacuum(new CompressedHeapFile(f, Utility.getTupleDesc(2)));
+    }
+
+    /**
+     * The VACUUM statement compacts a table by name, and its statistics
+     * follow the smaller file.
+     */
+    @Test public void parserVacuum() throws Exception {
+        TableStats.setTableStats("vac", new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+        double cost = TableStats.getTableStats("vac").estimateScanCost();
+
+        Parser p = new Parser();
+        assertTrue(p.handleUtilityStatement("VACUUM vac;"));
+        assertTrue(TableStats.getTableStats("vac").estimateScanCost() < cost);
+        assertEquals(hf.numPages() * TableStats.IOCOSTPERPAGE,
+                TableStats.getTableStats("vac").estimateScanCost(), 0.0);
+        SystemTestUtil.matchTuples(hf, kept);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(VacuumTest.class);
+    }
+}
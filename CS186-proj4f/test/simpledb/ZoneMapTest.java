@@ -0,0 +1,263 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+    private static final int ROWS = 10000;
+
+    private File f;
+    private HeapFile hf;
+    private int perPage;
+
+    /**
+     * Set up initial resources for each unit test: a 2 column table whose
+     * first column counts up from 0, as a timestamp would, and whose second
+     * column cycles through 0..12.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++) tuples.add(new ArrayList<Integer>(Arrays.asList(i, i % 13)));
+        f = File.createTempFile("zones", ".dat");
+        f.deleteOnExit();
+        ZoneMap.sidecarFor(f).deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, 2);
+        hf = Utility.openHeapFile(2, "field", f);
+        perPage = HeapPage.getNumTuples(hf.getTupleDesc());
+    }
+
+    @After public void tearDown() throws Exception {
+        hf.close();
+    }
+
+    private static List<Predicate> preds(Predicate... ps) {
+        return Arrays.asList(ps);
+    }
+
+    /**
+     * Scans the table with the given pushed down predicates, in a fresh
+     * buffer pool.
+     *
+     * @return the number of tuples passing preds; pagesRead[0] is set to
+     *         the number of pages the scan read
+     */
+    private int scan(List<Predicate> preds, long[] pagesRead) throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid, preds);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            boolean pass = true;
+            for (Predicate p : preds) pass &= p.filter(t);
+            if (pass) n++;
+        }
+        it.close();
+        bp.transactionComplete(tid);
+        if (pagesRead != null) pagesRead[0] = bp.getUsedBytes() / BufferPool.PAGE_SIZE;
+        return n;
+    }
+
+    /** @return the first tuple passing p, found by a scan that skips pages */
+    private Tuple find(TransactionId tid, Predicate p) throws Exception {
+        DbFileIterator it = hf.iterator(tid, preds(p));
+        it.open();
+        try {
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                if (p.filter(t)) return t;
+            }
+            return null;
+        } finally {
+            it.close();
+        }
+    }
+
+    /** Reads every page once, so the zone map has seen them all. */
+    private void warmUp() throws Exception {
+        assertEquals(ROWS, scan(preds(), null));
+    }
+
+    /**
+     * Once the pages have been seen, a range predicate on the ordered
+     * column reads only the pages that hold the range; a predicate on the
+     * unordered column reads them all.
+     */
+    @Test public void skipsPages() throws Exception {
+        warmUp();
+        long[] read = new long[1];
+        assertEquals(600, scan(preds(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(600))), read));
+        assertEquals((600 + perPage - 1) / perPage, read[0]);
+
+        assertEquals(1, scan(preds(new Predicate(0, Predicate.Op.EQUALS, new IntField(5000))), read));
+        assertEquals(1, read[0]);
+
+        Predicate from = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(3 * perPage));
+        Predicate to = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(5 * perPage));
+        assertEquals(2 * perPage, scan(preds(from, to), read));
+        assertEquals(2, read[0]);
+
+        assertEquals(0, scan(preds(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(ROWS))), read));
+        assertEquals(0, read[0]);
+
+        int ones = scan(preds(new Predicate(1, Predicate.Op.EQUALS, new IntField(1))), read);
+        assertEquals((ROWS + 12) / 13, ones);
+        assertEquals(hf.numPages(), read[0]);
+    }
+
+    /**
+     * A page is never skipped for a value inserted on it, committed or
+     * not; deleting the values at a bound narrows the page's range once
+     * the delete commits.
+     */
+    @Test public void insertAndDelete() throws Exception {
+        warmUp();
+        Predicate big = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(ROWS));
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { ROWS + 1, 0 }));
+        assertNotNull(find(tid, big));
+        Database.getBufferPool().transactionComplete(tid);
+
+        long[] read = new long[1];
+        assertEquals(1, scan(preds(big), read));
+        assertEquals(1, read[0]);
+
+        tid = new TransactionId();
+        Database.getBufferPool().deleteTuple(tid, find(tid, big));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(0, scan(preds(big), read));
+        assertEquals(0, read[0]);
+    }
+
+    /**
+     * Reading a page ahead from disk does not narrow a loose range back to
+     * the disk copy: a transaction that deleted a page's largest value and
+     * then inserted one above the old range still finds its insert.
+     */
+    @Test public void readAheadOfLoosePage() throws Exception {
+        warmUp();
+        Predicate big = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(ROWS));
+        Predicate last = new Predicate(0, Predicate.Op.EQUALS, new IntField(perPage - 1));
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().deleteTuple(tid, find(tid, last));
+        Tuple t = Utility.getHeapTuple(new int[] { ROWS + 1, 0 });
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(0, t.getRecordId().getPageId().pageNumber());
+
+        hf.readPages(0, 2);
+        assertTrue(hf.getZoneMap().mayMatch(0, preds(big)));
+        assertNotNull(find(tid, big));
+        Database.getBufferPool().transactionComplete(tid, false);
+    }
+
+    /**
+     * The map is saved next to the table when it is closed, so pages can
+     * be skipped from the first scan after reopening. A sidecar that is
+     * older than the table, or that the table was written after, is not
+     * trusted.
+     */
+    @Test public void sidecar() throws Exception {
+        warmUp();
+        hf.close();
+        assertTrue(ZoneMap.sidecarFor(f).exists());
+
+        hf = Utility.openHeapFile(2, "field", f);
+        long[] read = new long[1];
+        assertEquals(perPage, scan(preds(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(perPage))), read));
+        assertEquals(1, read[0]);
+        hf.close();
+
+        assertTrue(f.setLastModified(ZoneMap.sidecarFor(f).lastModified() + 2000));
+        hf = Utility.openHeapFile(2, "field", f);
+        assertEquals(perPage, scan(preds(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(perPage))), read));
+        assertEquals(hf.numPages(), read[0]);
+
+        //a write after the save removes the sidecar, however soon it comes
+        hf.close();
+        assertTrue(ZoneMap.sidecarFor(f).exists());
+        hf.writePage(hf.readPage(new HeapPageId(hf.getId(), 0)));
+        assertFalse(ZoneMap.sidecarFor(f).exists());
+    }
+
+    /**
+     * String columns are bounded by their prefixes.
+     */
+    @Test public void stringPrefixes() throws Exception {
+        File sf = File.createTempFile("zonestr", ".dat");
+        sf.deleteOnExit();
+        ZoneMap.sidecarFor(sf).deleteOnExit();
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE });
+        HeapFile strings = new HeapFile(sf, td);
+        Database.getCatalog().addTable(strings);
+        TransactionId tid = new TransactionId();
+        int rows = 3 * HeapPage.getNumTuples(td);
+        for (int i = 0; i < rows; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField(String.format("2024-%02d-item%d", 1 + i * 12 / rows, i), Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(tid, strings.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(3, strings.numPages());
+
+        ZoneMap zm = strings.getZoneMap();
+        Predicate jan = new Predicate(0, Predicate.Op.LESS_THAN, new StringField("2024-02", Type.STRING_LEN));
+        Predicate dec = new Predicate(0, Predicate.Op.GREATER_THAN, new StringField("2024-12", Type.STRING_LEN));
+        Predicate like = new Predicate(0, Predicate.Op.LIKE, new StringField("zzz", Type.STRING_LEN));
+        assertTrue(zm.mayMatch(0, preds(jan)));
+        assertFalse(zm.mayMatch(1, preds(jan)));
+        assertFalse(zm.mayMatch(2, preds(jan)));
+        assertFalse(zm.mayMatch(0, preds(dec)));
+        assertTrue(zm.mayMatch(2, preds(dec)));
+        assertTrue(zm.mayMatch(1, preds(like)));
+        strings.close();
+    }
+
+    /**
+     * LogicalPlan hands the WHERE clause's predicates to the scans they
+     * filter.
+     */
+    @Test public void pushdown() throws Exception {
+        Database.getCatalog().addTable(hf, "zones");
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "z");
+        lp.addProjectField("z.field0", null);
+        lp.addFilter("z.field0", Predicate.Op.LESS_THAN, "10");
+        lp.addFilter("z.field1", Predicate.Op.EQUALS, "3");
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("zones", new TableStats(hf.getId(), 1000));
+
+        TransactionId tid = new TransactionId();
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        DbIterator node = plan;
+        while (!(node instanceof SeqScan)) node = ((Operator) node).getChildren()[0];
+        assertEquals(2, ((SeqScan) node).getPushedPredicates().size());
+
+        plan.open();
+        assertTrue(plan.hasNext());
+        assertEquals(3, plan.next().getInt(0));
+        assertFalse(plan.hasNext());
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
@@ -0,0 +1,100 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import simpledb.*;
+
+/**
+ * Microbenchmark for HeapFile page I/O. Not a JUnit test -- run it with
+ * "ant runbenchmark -Dbenchmark=PageIOBenchmark [-Dpages=N]".
+ * <p>
+ * Reads every page of a freshly generated table twice: once the way
+ * HeapFile.readPage used to (open a RandomAccessFile, seek, read, close for
+ * every page) and once through HeapFile.readPage, which reuses the file's
+ * open FileChannel. Both paths build a HeapPage so the numbers are directly
+ * comparable; the difference is the per-page open/close cost.
+ * <p>
+ * It then times full SeqScans through a fresh BufferPool with read-ahead
+ * off and on (see ReadAhead).
+ */
+public class PageIOBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int pages = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+        int tuplesPerPage = BufferPool.PAGE_SIZE * 8 / (Utility.getTupleDesc(2).getSize() * 8 + 1);
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, pages * tuplesPerPage, 1 << 16, null, null);
+        HeapFile hf = Utility.openHeapFile(2, f);
+        System.out.println("PageIOBenchmark: " + hf.numPages() + " pages of " + BufferPool.PAGE_SIZE + " bytes");
+
+        //warm up the JIT and the OS page cache so both paths read from memory
+        reopenPerPage(hf);
+        channelPerPage(hf);
+
+        long before = Long.MAX_VALUE, after = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            before = Math.min(before, reopenPerPage(hf));
+            after = Math.min(after, channelPerPage(hf));
+        }
+        report("open/seek/read/close per page", before, hf.numPages());
+        report("shared FileChannel", after, hf.numPages());
+
+        long noReadAhead = Long.MAX_VALUE, readAhead = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            ReadAhead.setWindow(0);
+            noReadAhead = Math.min(noReadAhead, scan(hf));
+            ReadAhead.setWindow(ReadAhead.DEFAULT_WINDOW);
+            readAhead = Math.min(readAhead, scan(hf));
+        }
+        report("SeqScan, no read-ahead", noReadAhead, hf.numPages());
+        report("SeqScan, read-ahead", readAhead, hf.numPages());
+        hf.close();
+    }
+
+    /** @return nanoseconds to read every page with a fresh RandomAccessFile each time */
+    static long reopenPerPage(HeapFile hf) throws IOException {
+        int tableid = hf.getId();
+        long start = System.nanoTime();
+        for (int i = 0; i < hf.numPages(); i++) {
+            byte[] data = new byte[BufferPool.PAGE_SIZE];
+            RandomAccessFile raf = new RandomAccessFile(hf.getFile(), "r");
+            raf.seek((long) i * BufferPool.PAGE_SIZE);
+            raf.read(data);
+            raf.close();
+            new HeapPage(new HeapPageId(tableid, i), data);
+        }
+        return System.nanoTime() - start;
+    }
+
+    /** @return nanoseconds to read every page through HeapFile.readPage */
+    static long channelPerPage(HeapFile hf) {
+        int tableid = hf.getId();
+        long start = System.nanoTime();
+        for (int i = 0; i < hf.numPages(); i++) {
+            hf.readPage(new HeapPageId(tableid, i));
+        }
+        return System.nanoTime() - start;
+    }
+
+    /** @return nanoseconds for a SeqScan over hf through an empty buffer pool */
+    static long scan(HeapFile hf) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES * 4);
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "");
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+        }
+        scan.close();
+        long elapsed = System.nanoTime() - start;
+        Database.getBufferPool().transactionComplete(tid);
+        return elapsed;
+    }
+
+    static void report(String label, long nanos, int pages) {
+        System.out.println(String.format("  %-32s %8.2f us/page", label, nanos / 1000.0 / pages));
+    }
+}